@@ -0,0 +1,150 @@
+package com.teachhelper.service.evaluation;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.teachhelper.ai.AIEvaluationService.CriterionEvaluation;
+import com.teachhelper.ai.AIEvaluationService.EvaluationResult;
+
+/**
+ * 评估响应解析基准：对比原来的 截取JSON + 建立JSON树 方式与流式解析器的吞吐量和解析失败率。
+ * 语料模拟各提供商实际返回的响应：纯JSON、Markdown代码块、前后带说明文字、字符串中含未转义换行、
+ * 数字写成字符串、输出被截断以及长反馈。失败率见结果中的 failures / parsed 计数。
+ * 运行：mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationParserBenchmark {
+
+    private static final BigDecimal MAX_SCORE = new BigDecimal("10");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String[] corpus;
+
+    /**
+     * 每次调用累计解析成功和失败的响应数
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcomes {
+        public long parsed;
+        public long failures;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            parsed = 0;
+            failures = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        String criteria = "\"criteriaEvaluations\": [{\"criterionText\": \"概念准确\", \"earnedPoints\": 4, \"maxPoints\": 5, "
+            + "\"comment\": \"【引用回答】进程是资源分配的基本单位。【对比分析】与参考答案一致。【评价结论】得4分\"}]";
+        String longFeedback = "总体评价：答案结构完整。\\n【得分点分析】\\n" + "- 概念解释准确-> [得分: 1分]\\n".repeat(200);
+        List<String> responses = new ArrayList<>();
+        // 纯JSON
+        responses.add("{\"score\": 8.5, \"feedback\": \"思路清晰\", \"strengths\": \"概念准确\", \"improvements\": \"补充示例\", "
+            + criteria + ", \"weakness_tags\": [\"#进程调度\"]}");
+        // Markdown代码块
+        responses.add("```json\n{\n  \"score\": 7,\n  \"feedback\": \"基本正确\",\n  " + criteria + ",\n  \"weakness_tags\": []\n}\n```");
+        // 前后带说明文字，说明文字中含花括号
+        responses.add("好的，以下是评估结果：\n{\"score\": 6, \"feedback\": \"部分正确\", \"weakness_tags\": [\"#死锁\"]}\n"
+            + "以上评分依据评分标准 {1} 给出。");
+        // 字符串中含未转义的换行
+        responses.add("{\"score\": 9, \"feedback\": \"总体评价：很好。\n【得分点分析】\n- 定义准确-> [得分: 4分]\", \"weakness_tags\": []}");
+        // 数字写成字符串，优点写成数组
+        responses.add("{\"score\": \"5.5\", \"feedback\": \"一般\", \"strengths\": [\"条理清楚\", \"用词规范\"], "
+            + "\"criteriaEvaluations\": [{\"criterionText\": \"完整性\", \"earnedPoints\": \"2\", \"maxPoints\": \"5\"}]}");
+        // 输出被截断
+        responses.add("{\"score\": 4, \"feedback\": \"答案不完整，缺少对同步机制的说明，");
+        // 长反馈
+        responses.add("{\"score\": 9.5, \"feedback\": \"" + longFeedback + "\", " + criteria + ", \"weakness_tags\": [\"#内存管理\"]}");
+        // 结尾多余的逗号
+        responses.add("{\"score\": 3, \"feedback\": \"偏题\", \"weakness_tags\": [\"#文件系统\",],}");
+        corpus = responses.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public int jacksonTree(Outcomes outcomes) {
+        int total = 0;
+        for (String response : corpus) {
+            EvaluationResult result = parseWithTree(response);
+            if (result != null) {
+                outcomes.parsed++;
+                total += result.getCriteriaEvaluations().size();
+            } else {
+                outcomes.failures++;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int streamingParser(Outcomes outcomes) {
+        int total = 0;
+        for (String response : corpus) {
+            EvaluationResult result = EvaluationResponseParser.parseObject(response, MAX_SCORE);
+            if (result == null) {
+                result = EvaluationResponseParser.salvage(response, MAX_SCORE);
+            }
+            if (result != null) {
+                outcomes.parsed++;
+                total += result.getCriteriaEvaluations().size();
+            } else {
+                outcomes.failures++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 原来的解析方式：截取第一个 { 到最后一个 } 之间的内容，建立JSON树后逐个读取字段
+     */
+    private EvaluationResult parseWithTree(String response) {
+        int start = response.indexOf('{');
+        int end = response.lastIndexOf('}');
+        if (start == -1 || end <= start) {
+            return null;
+        }
+        try {
+            JsonNode root = objectMapper.readTree(response.substring(start, end + 1));
+            if (!root.has("score")) {
+                return null;
+            }
+            BigDecimal score = BigDecimal.valueOf(root.get("score").asDouble()).max(BigDecimal.ZERO).min(MAX_SCORE);
+            List<CriterionEvaluation> criteria = new ArrayList<>();
+            for (JsonNode node : root.path("criteriaEvaluations")) {
+                if (node.has("criterionText") && node.has("earnedPoints") && node.has("maxPoints")) {
+                    criteria.add(new CriterionEvaluation(node.get("criterionText").asText(),
+                        BigDecimal.valueOf(node.get("earnedPoints").asDouble()),
+                        BigDecimal.valueOf(node.get("maxPoints").asDouble()), node.path("comment").asText("")));
+                }
+            }
+            return new EvaluationResult(true, score, root.path("feedback").asText(""), criteria);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -18,23 +18,42 @@ import com.teachhelper.service.RubricService;
 import com.teachhelper.service.UserAIConfigService;
 import com.teachhelper.service.ai.AIClient;
 import com.teachhelper.service.ai.AIClientFactory;
+import com.teachhelper.service.ai.AIConfigRouter;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIHttpTransport;
 import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.AIResponseFormat;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.ai.Tokenizer;
+import com.teachhelper.service.ai.TokenizerService;
 import com.teachhelper.service.auth.AuthService;
+import com.teachhelper.service.evaluation.EvaluationResponseParser;
+import com.teachhelper.service.evaluation.EvaluationResultCacheService;
+import com.teachhelper.service.evaluation.EvaluationTraceRecorder;
+import com.teachhelper.service.evaluation.ObjectiveGradingEngine;
+import com.teachhelper.service.evaluation.StreamingEvaluationParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -52,6 +71,9 @@ public class AIEvaluationService {
     @Autowired
     private AIClientFactory aiClientFactory;
     
+    @Autowired
+    private AIConfigRouter aiConfigRouter;
+    
     @Autowired
     private AuthService authService;
     
@@ -61,7 +83,64 @@ public class AIEvaluationService {
     @Autowired
     private RubricService rubricService;
     
+    @Autowired
+    private EvaluationResultCacheService evaluationResultCacheService;
+    
+    @Autowired
+    private ObjectiveGradingEngine objectiveGradingEngine;
+    
+    @Autowired
+    private TokenizerService tokenizerService;
+    
+    @Autowired
+    private EvaluationTraceRecorder evaluationTraceRecorder;
+    
+    @Value("${app.evaluation.packing.enabled:false}")
+    private boolean packingEnabled;
+    
+    @Value("${app.evaluation.streaming.enabled:true}")
+    private boolean streamingEnabled;
+    
+    @Value("${app.evaluation.json-mode.enabled:true}")
+    private boolean jsonModeEnabled;
+    
+    @Value("${app.evaluation.packing.max-answers:10}")
+    private int maxAnswersPerPack;
+    
+    @Value("${app.evaluation.packing.output-tokens-per-answer:600}")
+    private int outputTokensPerAnswer;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    private static final int PROMPT_PREFIX_CACHE_SIZE = 512;
+    
+    /** 答案超出上下文预算被截断时追加的说明 */
+    private static final String TRUNCATION_NOTICE = "\n……（答案过长，以下内容已截断）";
+    
+    /** 答案标题等抬头预留的token数 */
+    private static final int ANSWER_HEADER_TOKENS = 64;
+    
+    /** 打包评估中每份答案序号标题预留的token数 */
+    private static final int PACKED_ANSWER_HEADER_TOKENS = 10;
+    
+    /**
+     * 评估提示词公共前缀缓存：题目ID + 评分模式 + 评分标准版本 -> 前缀文本及其token数。
+     * 评分标准版本随题目内容变化，题目修改后自然生成新的前缀
+     */
+    private final Map<String, PromptPrefix> promptPrefixCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, PromptPrefix>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PromptPrefix> eldest) {
+                return size() > PROMPT_PREFIX_CACHE_SIZE;
+            }
+        });
+    
+    /**
+     * 题目实例 -> 评分标准版本。同一任务的答案共享同一持久化会话加载的题目实例，版本只计算一次；
+     * 重新加载的题目是新的实例，修改后的评分标准会重新计算
+     */
+    private final Map<com.teachhelper.entity.Question, String> rubricVersions =
+        Collections.synchronizedMap(new WeakHashMap<>());
 
     /**
      * 生成评分标准建议（使用AI大模型生成）
@@ -567,33 +646,22 @@ public class AIEvaluationService {
      * @return 评估结果对象，包含分数、反馈等信息
      */
     public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer) {
-        System.out.println("=== AIEvaluationService.evaluateAnswer() 调试信息 ===");
         try {
-            // 检查当前SecurityContext状态
-            SecurityContext context = SecurityContextHolder.getContext();
-            Authentication auth = context.getAuthentication();
-            
-            System.out.println("SecurityContext: " + context);
-            System.out.println("Authentication: " + auth);
-            System.out.println("Authentication 是否为null: " + (auth == null));
-            
-            if (auth != null) {
-                System.out.println("Authentication 类型: " + auth.getClass().getName());
-                System.out.println("Authentication getName(): " + auth.getName());
-                System.out.println("Authentication getPrincipal(): " + auth.getPrincipal());
-                System.out.println("Authentication isAuthenticated(): " + auth.isAuthenticated());
+            if (log.isDebugEnabled()) {
+                Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+                log.debug("评估答案 {}，当前认证: {}", studentAnswer != null ? studentAnswer.getId() : null,
+                        auth != null ? auth.getName() : null);
             }
             
             // 尝试获取当前用户ID
             Long userId = authService.getCurrentUser().getId();
-            System.out.println("✅ 成功获取用户ID: " + userId);
             return evaluateAnswer(studentAnswer, userId);
         } catch (Exception e) {
             // 如果无法获取当前用户（例如在异步线程中），使用基础评估
-            System.err.println("⚠️  无法获取当前用户信息，使用基础评估规则");
-            System.err.println("  - 异常类型: " + e.getClass().getName());
-            System.err.println("  - 原因: " + e.getMessage());
-            e.printStackTrace(); // 打印完整堆栈跟踪
+            log.warn("无法获取当前用户信息，答案 {} 使用基础评估规则: {}",
+                    studentAnswer != null ? studentAnswer.getId() : null, e.getMessage(), e);
+            evaluationTraceRecorder.start(studentAnswer, null, null).fallback(EvaluationTraceRecorder.Outcome.NO_CONFIG, null,
+                    "无法获取当前用户: " + e.getMessage());
             return createBasicEvaluation(studentAnswer);
         }
     }
@@ -606,102 +674,7 @@ public class AIEvaluationService {
      * @return 评估结果对象，包含分数、反馈等信息
      */
     public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, Long userId) {
-        System.out.println("=== 开始AI答案评估 ===");
-        
-        if (studentAnswer == null) {
-            System.err.println("❌ 学生答案为空");
-            return createErrorResult("学生答案不能为空");
-        }
-        
-        com.teachhelper.entity.Question question = studentAnswer.getQuestion();
-        if (question == null) {
-            System.err.println("❌ 题目信息为空");
-            return createErrorResult("题目信息不能为空");
-        }
-        
-        System.out.println("题目ID: " + question.getId());
-        System.out.println("题目标题: " + question.getTitle());
-        System.out.println("题目类型: " + question.getQuestionType());
-        System.out.println("题目满分: " + question.getMaxScore());
-        System.out.println("学生答案: " + studentAnswer.getAnswerText());
-        System.out.println("学生信息: " + (studentAnswer.getStudent() != null ? 
-            studentAnswer.getStudent().getName() + "(" + studentAnswer.getStudent().getStudentId() + ")" : "未知"));
-        
-        try {
-            // 使用传入的用户ID获取AI配置
-            System.out.println("当前评估者ID: " + userId);
-            
-            Optional<UserAIConfig> configOpt = userAIConfigService.getUserDefaultAIConfig(userId);
-            
-            if (!configOpt.isPresent()) {
-                System.out.println("⚠️  没有找到默认AI配置，使用基础评估规则");
-                return createBasicEvaluation(studentAnswer);
-            }
-            
-            UserAIConfig aiConfig = configOpt.get();
-            System.out.println("✅ 找到AI配置:");
-            System.out.println("  - 提供商: " + aiConfig.getProvider());
-            System.out.println("  - 模型名称: " + aiConfig.getModelName());
-            System.out.println("  - API端点: " + aiConfig.getApiEndpoint());
-            
-            AIClient aiClient = aiClientFactory.getClient(aiConfig.getProvider());
-            System.out.println("✅ 获取AI客户端成功: " + aiClient.getClass().getSimpleName());
-            
-            // 构建评估提示词
-            String prompt = buildEvaluationPrompt(studentAnswer);
-            System.out.println("✅ 构建AI评估提示词成功，长度: " + prompt.length());
-            System.out.println("--- 评估提示词内容开始 ---");
-            System.out.println(prompt);
-            System.out.println("--- 评估提示词内容结束 ---");
-            
-            // 调用AI进行评估
-            System.out.println("🚀 开始调用AI进行答案评估...");
-            long startTime = System.currentTimeMillis();
-            AIResponse aiResponse = aiClient.chat(prompt, aiConfig);
-            long duration = System.currentTimeMillis() - startTime;
-            System.out.println("⏱️  AI评估耗时: " + duration + "ms");
-            
-            if (aiResponse.isSuccess()) {
-                System.out.println("✅ AI评估调用成功!");
-                System.out.println("  - 输入Token数: " + aiResponse.getInputTokens());
-                System.out.println("  - 输出Token数: " + aiResponse.getOutputTokens());
-                System.out.println("  - 总Token数: " + aiResponse.getTotalTokens());
-                System.out.println("--- AI评估响应内容开始 ---");
-                System.out.println(aiResponse.getContent());
-                System.out.println("--- AI评估响应内容结束 ---");
-                
-                // 解析AI评估结果
-                System.out.println("🔍 开始解析AI评估结果...");
-                EvaluationResult result = parseEvaluationResponse(aiResponse.getContent(), question.getMaxScore());
-                
-                if (result.isSuccess()) {
-                    System.out.println("✅ AI评估解析成功:");
-                    System.out.println("  - 得分: " + result.getScore() + "/" + question.getMaxScore());
-                    System.out.println("  - 反馈长度: " + (result.getFeedback() != null ? result.getFeedback().length() : 0) + " 字符");
-                    System.out.println("  - 评估详情数: " + (result.getCriteriaEvaluations() != null ? result.getCriteriaEvaluations().size() : 0));
-                    return result;
-                } else {
-                    System.out.println("❌ AI评估结果解析失败");
-                }
-            } else {
-                System.out.println("❌ AI评估调用失败:");
-                System.out.println("  - 错误信息: " + aiResponse.getErrorMessage());
-                System.out.println("  - 响应内容: " + aiResponse.getContent());
-            }
-            
-            // AI评估失败，使用基础评估
-            System.err.println("❌ AI评估失败，使用基础评估规则");
-            System.err.println("  - 错误原因: " + (aiResponse != null ? aiResponse.getErrorMessage() : "未知错误"));
-            return createBasicEvaluation(studentAnswer);
-            
-        } catch (Exception e) {
-            // 出现异常，使用基础评估
-            System.err.println("❌ AI评估出现异常，使用基础评估规则");
-            System.err.println("  - 异常类型: " + e.getClass().getSimpleName());
-            System.err.println("  - 异常信息: " + e.getMessage());
-            e.printStackTrace();
-            return createBasicEvaluation(studentAnswer);
-        }
+        return evaluateAnswer(studentAnswer, userId, "NORMAL");
     }
     
     /**
@@ -712,33 +685,7 @@ public class AIEvaluationService {
      * @return 评估结果对象，包含分数、反馈等信息
      */
     public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, String username) {
-        System.out.println("=== AIEvaluationService.evaluateAnswer(username) 调试信息 ===");
-        System.out.println("传入的用户名: " + username);
-        
-        try {
-            if (username != null) {
-                // 通过用户名获取用户ID
-                System.out.println("尝试通过用户名获取用户ID...");
-                Long userId = authService.getUserIdByUsername(username);
-                if (userId != null) {
-                    System.out.println("✅ 通过用户名 " + username + " 获取到用户ID: " + userId);
-                    return evaluateAnswer(studentAnswer, userId);
-                } else {
-                    System.err.println("⚠️  无法通过用户名 " + username + " 找到用户，使用基础评估规则");
-                }
-            } else {
-                System.err.println("⚠️  用户名为空，使用基础评估规则");
-            }
-        } catch (Exception e) {
-            System.err.println("⚠️  通过用户名获取用户ID失败，使用基础评估规则");
-            System.err.println("  - 异常类型: " + e.getClass().getName());
-            System.err.println("  - 原因: " + e.getMessage());
-            e.printStackTrace(); // 打印完整堆栈跟踪
-        }
-        
-        // 如果无法获取用户ID，回退到基础评估
-        System.out.println("回退到基础评估...");
-        return createBasicEvaluation(studentAnswer);
+        return evaluateAnswer(studentAnswer, username, "NORMAL");
     }
     
     /**
@@ -803,6 +750,10 @@ public class AIEvaluationService {
      * 解析AI评估响应
      */
     private EvaluationResult parseAIEvaluationResponse(String aiResponse, BigDecimal maxScore, List<RubricCriterion> rubricCriteria) {
+        EvaluationResult structured = EvaluationResponseParser.parseObject(aiResponse, maxScore);
+        if (structured != null) {
+            return structured;
+        }
         try {
             // 从AI响应中提取最终得分
             BigDecimal finalScore = extractFinalScore(aiResponse, maxScore);
@@ -816,10 +767,7 @@ public class AIEvaluationService {
             // 创建评估结果
             EvaluationResult result = new EvaluationResult(true, finalScore, feedback, criteriaEvaluations);
             
-            System.out.println("✅ AI评估结果解析完成:");
-            System.out.println("  - 最终得分: " + result.getScore());
-            System.out.println("  - 反馈总长度: " + result.getFeedback().length());
-            System.out.println("  - 评分标准详情数: " + result.getCriteriaEvaluations().size());
+            log.debug("AI评估结果解析完成 - 得分: {}, 评分标准详情数: {}", result.getScore(), result.getCriteriaEvaluations().size());
             
             return result;
             
@@ -937,11 +885,208 @@ public class AIEvaluationService {
 
     /**
      * 构建AI评估提示词（支持评分模式）
+     * 提示词分为两段：题目、参考答案、评分标准、评估要求和输出格式组成的固定前缀在同一题目的所有答案间完全相同，
+     * 学生答案只出现在末尾，便于模型服务商复用前缀缓存
      */
     private String buildEvaluationPrompt(com.teachhelper.entity.StudentAnswer studentAnswer, String evaluationStyle) {
+        return buildEvaluationPrompt(studentAnswer, evaluationStyle, null);
+    }
+    
+    /**
+     * 构建AI评估提示词，指定AI配置时把超出模型上下文预算的答案截断
+     */
+    private String buildEvaluationPrompt(com.teachhelper.entity.StudentAnswer studentAnswer, String evaluationStyle,
+                                         UserAIConfig aiConfig) {
+        PromptPrefix prefix = getEvaluationPromptPrefix(studentAnswer.getQuestion(), evaluationStyle, false);
+        StringBuilder prompt = new StringBuilder(prefix.text());
+        String answerText = aiConfig != null ? fitAnswerToContext(studentAnswer, prefix, aiConfig) : studentAnswer.getAnswerText();
+        
+        // 学生答案：不带学生姓名和学号，评估结果只取决于答案内容，才能在相同答案间复用
+        prompt.append("\n=== 学生答案 ===\n");
+        prompt.append("答案内容：").append(answerText).append("\n");
+        
+        return prompt.toString();
+    }
+    
+    /**
+     * 答案可用的输入token预算：上下文窗口扣除输出预留、提示词前缀和答案抬头
+     */
+    private int answerTokenBudget(Tokenizer tokenizer, PromptPrefix prefix, UserAIConfig aiConfig) {
+        int maxOutputTokens = aiConfig.getMaxTokens() != null ? aiConfig.getMaxTokens() : 4000;
+        int contextWindow = aiConfig.getProvider().getContextWindow(aiConfig.getModelName());
+        return contextWindow - maxOutputTokens - prefix.tokens(tokenizer) - ANSWER_HEADER_TOKENS;
+    }
+    
+    /**
+     * 超出上下文预算的答案（例如大作业导入的整份文档）只保留开头部分并注明已截断，避免请求因超长被拒绝
+     */
+    private String fitAnswerToContext(com.teachhelper.entity.StudentAnswer studentAnswer, PromptPrefix prefix, UserAIConfig aiConfig) {
+        String answerText = studentAnswer.getAnswerText();
+        if (answerText == null || answerText.isEmpty()) {
+            return answerText;
+        }
+        Tokenizer tokenizer = tokenizerService.forConfig(aiConfig);
+        int budget = answerTokenBudget(tokenizer, prefix, aiConfig);
+        if (budget <= 0) {
+            return answerText;
+        }
+        return truncateAnswer(studentAnswer, tokenizer, tokenizer.countTokens(answerText), budget, aiConfig);
+    }
+    
+    /**
+     * 答案超出给定的token预算时只保留开头部分并追加截断说明
+     */
+    private String truncateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, Tokenizer tokenizer,
+                                  int answerTokens, int budget, UserAIConfig aiConfig) {
+        String answerText = studentAnswer.getAnswerText();
+        if (answerTokens <= budget) {
+            return answerText;
+        }
+        String truncated = tokenizer.truncate(answerText, Math.max(0, budget - tokenizer.countTokens(TRUNCATION_NOTICE)));
+        log.warn("答案 {} 约 {} tokens，超出模型 {} 的输入预算 {}，已截断为 {} 个字符",
+                studentAnswer.getId(), answerTokens, aiConfig.getModelName(), budget, truncated.length());
+        return truncated + TRUNCATION_NOTICE;
+    }
+    
+    /**
+     * 打包评估时各答案的文本：答案合计超出上下文预算时，短答案保留原文，
+     * 剩余预算在较长的答案间平分，超出各自份额的答案按单份评估的方式截断
+     */
+    private List<String> fitPackedAnswersToContext(List<com.teachhelper.entity.StudentAnswer> answers, PromptPrefix prefix,
+                                                   UserAIConfig aiConfig) {
+        Tokenizer tokenizer = tokenizerService.forConfig(aiConfig);
+        int budget = answerTokenBudget(tokenizer, prefix, aiConfig) - answers.size() * PACKED_ANSWER_HEADER_TOKENS;
+        int[] answerTokens = new int[answers.size()];
+        for (int i = 0; i < answers.size(); i++) {
+            String text = answers.get(i).getAnswerText();
+            answerTokens[i] = text != null ? tokenizer.countTokens(text) : 0;
+        }
+        
+        // 从短到长分配预算，每份答案最多拿到剩余预算的平均份额
+        int[] shares = new int[answers.size()];
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < answers.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt(i -> answerTokens[i]));
+        int remaining = Math.max(0, budget);
+        for (int k = 0; k < order.size(); k++) {
+            int index = order.get(k);
+            shares[index] = Math.min(answerTokens[index], remaining / (order.size() - k));
+            remaining -= shares[index];
+        }
+        
+        List<String> texts = new ArrayList<>(answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            String text = answers.get(i).getAnswerText();
+            texts.add(text == null || text.isEmpty() || budget <= 0 ? (text != null ? text : "")
+                : truncateAnswer(answers.get(i), tokenizer, answerTokens[i], shares[i], aiConfig));
+        }
+        return texts;
+    }
+    
+    /**
+     * 预估单份答案评估请求的输入token数（超长答案按截断后的长度计算），供批量任务预检查使用
+     */
+    public int estimateEvaluationInputTokens(com.teachhelper.entity.StudentAnswer studentAnswer, String evaluationStyle,
+                                             UserAIConfig aiConfig) {
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        PromptPrefix prefix = getEvaluationPromptPrefix(studentAnswer.getQuestion(), style, false);
+        Tokenizer tokenizer = tokenizerService.forConfig(aiConfig);
+        int answerTokens = tokenizer.countTokens(studentAnswer.getAnswerText());
+        int budget = answerTokenBudget(tokenizer, prefix, aiConfig);
+        if (budget > 0) {
+            answerTokens = Math.min(answerTokens, budget);
+        }
+        return prefix.tokens(tokenizer) + ANSWER_HEADER_TOKENS + answerTokens;
+    }
+    
+    /**
+     * 每份答案预估的输出token数
+     */
+    public int getOutputTokensPerAnswer() {
+        return outputTokensPerAnswer;
+    }
+    
+    /**
+     * 获取评估提示词的固定前缀，同一题目、评分模式和评分标准版本只构建一次，前缀的token数也随之缓存
+     */
+    private PromptPrefix getEvaluationPromptPrefix(com.teachhelper.entity.Question question, String evaluationStyle, boolean packed) {
+        if (question.getId() == null) {
+            return new PromptPrefix(buildEvaluationPromptPrefix(question, evaluationStyle, packed));
+        }
+        String rubricVersion = rubricVersions.computeIfAbsent(question, EvaluationResultCacheService::computeRubricVersion);
+        String key = (packed ? "PACKED" : "SINGLE") + "|" + question.getId() + "|" + evaluationStyle + "|" + rubricVersion;
+        PromptPrefix prefix = promptPrefixCache.get(key);
+        if (prefix == null) {
+            prefix = new PromptPrefix(buildEvaluationPromptPrefix(question, evaluationStyle, packed));
+            promptPrefixCache.put(key, prefix);
+        }
+        return prefix;
+    }
+    
+    /**
+     * 评估提示词前缀，token数按分词器首次使用时计算一次
+     */
+    private static final class PromptPrefix {
+        private final String text;
+        private final Map<Tokenizer, Integer> tokenCounts = new ConcurrentHashMap<>(2);
+        
+        PromptPrefix(String text) {
+            this.text = text;
+        }
+        
+        String text() {
+            return text;
+        }
+        
+        int tokens(Tokenizer tokenizer) {
+            return tokenCounts.computeIfAbsent(tokenizer, t -> t.countTokens(text));
+        }
+    }
+    
+    /**
+     * 构建评估提示词的固定前缀，packed 为 true 时输出格式约定为JSON数组
+     */
+    private String buildEvaluationPromptPrefix(com.teachhelper.entity.Question question, String evaluationStyle, boolean packed) {
         StringBuilder prompt = new StringBuilder();
-        com.teachhelper.entity.Question question = studentAnswer.getQuestion();
+        appendQuestionContext(prompt, question, evaluationStyle);
+        appendEvaluationRequirements(prompt, question, evaluationStyle,
+            packed ? "文末列出的每一份学生答案" : "文末给出的学生答案");
         
+        // 输出格式要求
+        prompt.append("\n=== 输出格式 ===\n");
+        if (packed) {
+            prompt.append("请严格按照以下JSON数组格式返回评估结果，每份答案对应数组中的一个对象，index 为答案编号：\n");
+            prompt.append("[\n");
+            prompt.append("{\n");
+            prompt.append("  \"index\": 答案编号(数字),\n");
+            appendResultFields(prompt, question, evaluationStyle);
+            prompt.append("}\n");
+            prompt.append("]\n\n");
+        } else {
+            prompt.append("请严格按照以下JSON格式返回评估结果：\n");
+            prompt.append("{\n");
+            appendResultFields(prompt, question, evaluationStyle);
+            prompt.append("}\n\n");
+        }
+        
+        appendEvaluationNotes(prompt, question, evaluationStyle);
+        if (packed) {
+            prompt.append("- 每份答案独立评分，不要相互比较或参照\n");
+            prompt.append("- 只返回JSON数组，不要输出数组以外的内容\n");
+        } else {
+            prompt.append("- 只返回一个JSON对象，不要使用Markdown代码块，JSON前后不要输出任何其他内容\n");
+        }
+        prompt.append("- score、index、earnedPoints、maxPoints 必须是数字，其余字段是字符串，weakness_tags 是字符串数组；")
+              .append("字符串中的换行写作\\n，双引号写作\\\"\n");
+        return prompt.toString();
+    }
+    
+    /**
+     * 提示词：评分角色、题目信息、参考答案和评分标准（同一题目的所有答案共用）
+     */
+    private void appendQuestionContext(StringBuilder prompt, com.teachhelper.entity.Question question, String evaluationStyle) {
         // 根据评分模式添加系统角色描述
         if ("STRICT".equals(evaluationStyle)) {
             prompt.append("你是一位要求严格的资深教授，对学生答案的评估标准极高。你会仔细审查每一个细节，并对任何不精确或逻辑不清的地方进行扣分。\n\n");
@@ -973,7 +1118,7 @@ public class AIEvaluationService {
             }
         } catch (org.hibernate.LazyInitializationException e) {
             // 如果options集合无法加载，跳过选项显示
-            System.out.println("⚠️  无法加载题目选项（LazyInitializationException），跳过选项显示");
+            log.debug("无法加载题目 {} 的选项，跳过选项显示", question.getId());
         }
         
         prompt.append("题目满分：").append(question.getMaxScore()).append("分\n");
@@ -996,19 +1141,19 @@ public class AIEvaluationService {
             }
             prompt.append("评分标准总分：").append(totalCriteriaPoints).append("分\n");
         }
-        
-        // 学生答案
-        prompt.append("\n=== 学生答案 ===\n");
-        prompt.append("学生姓名：").append(studentAnswer.getStudent() != null ? studentAnswer.getStudent().getName() : "未知").append("\n");
-        prompt.append("学生学号：").append(studentAnswer.getStudent() != null ? studentAnswer.getStudent().getStudentId() : "未知").append("\n");
-        prompt.append("答案内容：").append(studentAnswer.getAnswerText()).append("\n");
-        
+    }
+    
+    /**
+     * 提示词：评估要求，target 为评分对象的描述
+     */
+    private void appendEvaluationRequirements(StringBuilder prompt, com.teachhelper.entity.Question question,
+                                              String evaluationStyle, String target) {
         // 评估要求
         prompt.append("\n=== 评估要求 ===\n");
         
         // 根据评分模式添加具体的评估要求
         if ("STRICT".equals(evaluationStyle)) {
-            prompt.append("以最严格的标准对该学生答案进行评分：\n\n");
+            prompt.append("以最严格的标准对").append(target).append("进行评分：\n\n");
             prompt.append("**严格评分规则：**\n");
             prompt.append("1. 极度严格：严格对照评分标准，任何不完全符合的地方都应酌情扣分\n");
             prompt.append("2. 重视细节：对概念混淆、逻辑跳跃、表达不规范等问题进行严格扣分\n");
@@ -1019,7 +1164,7 @@ public class AIEvaluationService {
             prompt.append("7. 论述不够深入，最高给70%分数\n");
             prompt.append("8. 表述不够准确，每处扣5-10%分数\n\n");
         } else if ("LENIENT".equals(evaluationStyle)) {
-            prompt.append("以友善的标准对该学生答案进行评分：\n\n");
+            prompt.append("以友善的标准对").append(target).append("进行评分：\n\n");
             prompt.append("**评分原则：**\n");
             prompt.append("1. 对于部分正确的答案，要充分认可其正确的部分\n");
             prompt.append("2. 答案方向正确但表述不完整时，重点评价其思路的正确性\n");
@@ -1028,7 +1173,7 @@ public class AIEvaluationService {
             prompt.append("5. 表述不够准确但逻辑清晰的，主要看其理解程度而非表达完美度\n");
             prompt.append("6. 只要体现了对知识点的基本理解，最低不少于60%分数\n\n");
         } else {
-            prompt.append("请对该学生答案进行客观、公正的评分，并提供详细的反馈意见。\n\n");
+            prompt.append("请对").append(target).append("进行客观、公正的评分，并提供详细的反馈意见。\n\n");
         }
         
         prompt.append("评估重点：\n");
@@ -1075,11 +1220,12 @@ public class AIEvaluationService {
                 break;
         }
         prompt.append("5. 最后，请根据学生的回答，提炼出1-3个最需要加强的薄弱知识点，并以'#知识点'的格式放在`weakness_tags`数组中。\n");
-        
-        // 输出格式要求
-        prompt.append("\n=== 输出格式 ===\n");
-        prompt.append("请严格按照以下JSON格式返回评估结果：\n");
-        prompt.append("{\n");
+    }
+    
+    /**
+     * 提示词：单个评估结果JSON对象的字段说明
+     */
+    private void appendResultFields(StringBuilder prompt, com.teachhelper.entity.Question question, String evaluationStyle) {
         prompt.append("  \"score\": 分数(数字，保留1位小数),\n");
         
         // 根据评分模式调整反馈格式要求
@@ -1104,8 +1250,12 @@ public class AIEvaluationService {
             prompt.append("  ],\n");
         }
         prompt.append("  \"weakness_tags\": [\"#知识点标签1\", \"#知识点标签2\"]\n");
-        prompt.append("}\n\n");
-        
+    }
+    
+    /**
+     * 提示词：注意事项
+     */
+    private void appendEvaluationNotes(StringBuilder prompt, com.teachhelper.entity.Question question, String evaluationStyle) {
         prompt.append("注意事项：\n");
         prompt.append("- 总分不能超过").append(question.getMaxScore()).append("分\n");
         
@@ -1127,8 +1277,6 @@ public class AIEvaluationService {
         prompt.append("- 反馈要具体、建设性，帮助学生改进\n");
         prompt.append("- 评分要客观公正，基于答案质量而非主观偏好\n");
         prompt.append("- 如果有评分标准，每个标准的得分总和应该等于总分\n");
-        
-        return prompt.toString();
     }
     
     /**
@@ -1139,127 +1287,31 @@ public class AIEvaluationService {
     }
     
     /**
-     * 解析AI评估响应
+     * 解析AI评估响应：先用流式JSON解析器单遍解析，JSON不完整时再用正则表达式提取分数和反馈
      */
     private EvaluationResult parseEvaluationResponse(String aiResponse, BigDecimal maxScore) {
-        System.out.println("🔍 开始解析AI评估响应");
-        System.out.println("  - 响应长度: " + (aiResponse != null ? aiResponse.length() : 0));
-        System.out.println("  - 题目满分: " + maxScore);
-        
-        try {
-            // 提取JSON部分
-            String jsonPart = extractJsonFromResponse(aiResponse);
-            if (jsonPart == null) {
-                System.err.println("❌ AI评估响应中未找到有效JSON");
-                System.err.println("  - 完整响应: " + aiResponse);
-                return createErrorResult("AI响应格式错误：未找到有效JSON");
-            }
-            
-            System.out.println("✅ 提取到JSON: " + jsonPart);
-            
-            JsonNode rootNode = objectMapper.readTree(jsonPart);
-            
-            // 解析分数
-            BigDecimal score = BigDecimal.ZERO;
-            if (rootNode.has("score")) {
-                double scoreValue = rootNode.get("score").asDouble();
-                score = BigDecimal.valueOf(scoreValue);
-                System.out.println("✅ 解析得分: " + score);
-            } else {
-                System.err.println("❌ 响应中缺少score字段");
-                return createErrorResult("AI响应格式错误：缺少score字段");
-            }
-            
-            // 验证分数范围
-            if (score.compareTo(BigDecimal.ZERO) < 0 || score.compareTo(maxScore) > 0) {
-                System.out.println("⚠️  分数超出范围，进行调整: " + score + " -> ");
-                score = score.max(BigDecimal.ZERO).min(maxScore);
-                System.out.println(score);
+        EvaluationResult result = EvaluationResponseParser.parseObject(aiResponse, maxScore);
+        if (result == null) {
+            result = EvaluationResponseParser.salvage(aiResponse, maxScore);
+            if (result == null) {
+                return createErrorResult("AI响应格式错误：未找到有效的评估JSON", AIErrorType.PARSE_ERROR);
             }
-            
-            // 解析反馈
-            String feedback = rootNode.has("feedback") ? rootNode.get("feedback").asText() : "";
-            String strengths = rootNode.has("strengths") ? rootNode.get("strengths").asText() : "";
-            String improvements = rootNode.has("improvements") ? rootNode.get("improvements").asText() : "";
-            
-            System.out.println("✅ 解析反馈信息:");
-            System.out.println("  - 主要反馈长度: " + feedback.length());
-            System.out.println("  - 优点描述长度: " + strengths.length());
-            System.out.println("  - 改进建议长度: " + improvements.length());
-            
-            // 解析评分标准详情
-            List<CriterionEvaluation> criteriaEvaluations = new ArrayList<>();
-            if (rootNode.has("criteriaEvaluations") && rootNode.get("criteriaEvaluations").isArray()) {
-                JsonNode criteriaNode = rootNode.get("criteriaEvaluations");
-                System.out.println("✅ 解析评分标准详情，共 " + criteriaNode.size() + " 项");
-                
-                for (JsonNode criterionNode : criteriaNode) {
-                    if (criterionNode.has("criterionText") && criterionNode.has("earnedPoints") && criterionNode.has("maxPoints")) {
-                        String criterionText = criterionNode.get("criterionText").asText();
-                        BigDecimal earnedPoints = BigDecimal.valueOf(criterionNode.get("earnedPoints").asDouble());
-                        BigDecimal maxPoints = BigDecimal.valueOf(criterionNode.get("maxPoints").asDouble());
-                        String comment = criterionNode.has("comment") ? criterionNode.get("comment").asText() : "";
-                        
-                        CriterionEvaluation evaluation = new CriterionEvaluation(criterionText, earnedPoints, maxPoints, comment);
-                        criteriaEvaluations.add(evaluation);
-                        
-                        System.out.println("  - " + criterionText + ": " + earnedPoints + "/" + maxPoints + " 分");
-                    }
-                }
-            }
-            
-            // 解析知识点标签
-            List<String> weaknessTags = new ArrayList<>();
-            if (rootNode.has("weakness_tags") && rootNode.get("weakness_tags").isArray()) {
-                for (JsonNode tagNode : rootNode.get("weakness_tags")) {
-                    weaknessTags.add(tagNode.asText());
-                }
-            }
-
-            // 构建完整反馈
-            StringBuilder fullFeedback = new StringBuilder();
-            if (!feedback.trim().isEmpty()) {
-                // AI已经在feedback中包含了总体评价，不需要重复添加标题
-                fullFeedback.append(feedback).append("\n\n");
-            }
-            if (!strengths.trim().isEmpty()) {
-                fullFeedback.append("答案优点：").append(strengths).append("\n\n");
-            }
-            if (!improvements.trim().isEmpty()) {
-                fullFeedback.append("改进建议：").append(improvements).append("\n\n");
-            }
-            
-            EvaluationResult result = new EvaluationResult(true, score, fullFeedback.toString(), criteriaEvaluations);
-            result.setWeaknessTags(weaknessTags);
-            
-            System.out.println("✅ AI评估结果解析完成:");
-            System.out.println("  - 最终得分: " + result.getScore());
-            System.out.println("  - 反馈总长度: " + result.getFeedback().length());
-            System.out.println("  - 评分标准详情数: " + result.getCriteriaEvaluations().size());
-            
-            return result;
-            
-        } catch (Exception e) {
-            System.err.println("❌ 解析AI评估响应失败:");
-            System.err.println("  - 异常类型: " + e.getClass().getSimpleName());
-            System.err.println("  - 异常信息: " + e.getMessage());
-            System.err.println("  - AI响应内容: " + aiResponse);
-            e.printStackTrace();
-            return createErrorResult("解析AI评估响应失败: " + e.getMessage());
+            log.debug("AI评估响应不是完整的JSON，已从文本中提取分数");
         }
+        return result;
     }
     
     /**
      * 创建基础评估结果（当AI不可用时）
      */
     private EvaluationResult createBasicEvaluation(com.teachhelper.entity.StudentAnswer studentAnswer) {
-        System.out.println("🔄 使用基础评估规则");
-        
         com.teachhelper.entity.Question question = studentAnswer.getQuestion();
         String answerText = studentAnswer.getAnswerText();
         
         if (answerText == null || answerText.trim().isEmpty()) {
-            return new EvaluationResult(true, BigDecimal.ZERO, "答案为空，无法评分。", new ArrayList<>());
+            EvaluationResult empty = new EvaluationResult(true, BigDecimal.ZERO, "答案为空，无法评分。", new ArrayList<>());
+            empty.setAiEvaluated(false);
+            return empty;
         }
         
         BigDecimal score;
@@ -1271,12 +1323,12 @@ public class AIEvaluationService {
             case SINGLE_CHOICE:
             case MULTIPLE_CHOICE:
             case TRUE_FALSE:
-                score = evaluateChoiceQuestion(question, answerText);
+                score = scoreObjectiveQuestion(question, answerText);
                 feedback = "这是一道选择题，已根据标准答案进行评分。";
                 break;
                 
             case FILL_BLANK:
-                score = evaluateFillBlankQuestion(question, answerText);
+                score = scoreObjectiveQuestion(question, answerText);
                 feedback = "这是一道填空题，已根据参考答案进行评分。";
                 break;
                 
@@ -1309,121 +1361,20 @@ public class AIEvaluationService {
             }
         }
         
-        System.out.println("✅ 基础评估完成，得分: " + score + "/" + question.getMaxScore());
+        log.debug("答案 {} 基础评估完成，得分: {}/{}", studentAnswer.getId(), score, question.getMaxScore());
         
-        return new EvaluationResult(true, score, feedback, criteriaEvaluations);
+        EvaluationResult result = new EvaluationResult(true, score, feedback, criteriaEvaluations);
+        result.setAiEvaluated(false);
+        return result;
     }
     
     /**
-     * 评估选择题
+     * 客观题按标准答案评分，无法确定标准答案时给50%分数
      */
-    private BigDecimal evaluateChoiceQuestion(com.teachhelper.entity.Question question, String answerText) {
-        if (question.getReferenceAnswer() == null || question.getReferenceAnswer().trim().isEmpty()) {
-            // 没有参考答案，通过选项判断
-            if (question.getOptions() != null && !question.getOptions().isEmpty()) {
-                // 查找正确选项
-                StringBuilder correctAnswer = new StringBuilder();
-                for (int i = 0; i < question.getOptions().size(); i++) {
-                    var option = question.getOptions().get(i);
-                    if (option.getIsCorrect() != null && option.getIsCorrect()) {
-                        if (correctAnswer.length() > 0) {
-                            correctAnswer.append(",");
-                        }
-                        correctAnswer.append((char)('A' + i));
-                    }
-                }
-                
-                if (correctAnswer.length() > 0) {
-                    String correct = correctAnswer.toString();
-                    String studentAnswer = answerText.trim().toUpperCase();
-                    
-                    if (question.getQuestionType() == QuestionType.MULTIPLE_CHOICE) {
-                        // 多选题部分分数
-                        return calculateMultipleChoiceScore(correct, studentAnswer, question.getMaxScore());
-                    } else {
-                        // 单选题或判断题
-                        return correct.equals(studentAnswer) ? question.getMaxScore() : BigDecimal.ZERO;
-                    }
-                }
-            }
-        } else {
-            // 有参考答案，直接比较
-            String correct = question.getReferenceAnswer().trim().toUpperCase();
-            String studentAnswer = answerText.trim().toUpperCase();
-            
-            if (question.getQuestionType() == QuestionType.MULTIPLE_CHOICE) {
-                return calculateMultipleChoiceScore(correct, studentAnswer, question.getMaxScore());
-            } else {
-                return correct.equals(studentAnswer) ? question.getMaxScore() : BigDecimal.ZERO;
-            }
-        }
-        
-        // 无法判断，给50%分数
-        return question.getMaxScore().multiply(BigDecimal.valueOf(0.5));
-    }
-    
-    /**
-     * 计算多选题分数
-     */
-    private BigDecimal calculateMultipleChoiceScore(String correctAnswer, String studentAnswer, BigDecimal maxScore) {
-        String[] correctOptions = correctAnswer.split(",");
-        String[] studentOptions = studentAnswer.split(",");
-        
-        Set<String> correctSet = new HashSet<>();
-        Set<String> studentSet = new HashSet<>();
-        
-        for (String option : correctOptions) {
-            correctSet.add(option.trim());
-        }
-        for (String option : studentOptions) {
-            studentSet.add(option.trim());
-        }
-        
-        // 计算交集和并集
-        Set<String> intersection = new HashSet<>(correctSet);
-        intersection.retainAll(studentSet);
-        
-        Set<String> union = new HashSet<>(correctSet);
-        union.addAll(studentSet);
-        
-        // 使用 Jaccard 相似度计算分数
-        if (union.isEmpty()) {
-            return BigDecimal.ZERO;
-        }
-        
-        double similarity = (double) intersection.size() / union.size();
-        return maxScore.multiply(BigDecimal.valueOf(similarity)).setScale(1, BigDecimal.ROUND_HALF_UP);
-    }
-    
-    /**
-     * 评估填空题
-     */
-    private BigDecimal evaluateFillBlankQuestion(com.teachhelper.entity.Question question, String answerText) {
-        if (question.getReferenceAnswer() == null || question.getReferenceAnswer().trim().isEmpty()) {
-            // 没有参考答案，给50%分数
-            return question.getMaxScore().multiply(BigDecimal.valueOf(0.5));
-        }
-        
-        String referenceAnswer = question.getReferenceAnswer().trim().toLowerCase();
-        String studentAnswer = answerText.trim().toLowerCase();
-        
-        // 完全匹配
-        if (referenceAnswer.equals(studentAnswer)) {
-            return question.getMaxScore();
-        }
-        
-        // 包含关键词
-        if (referenceAnswer.contains(studentAnswer) || studentAnswer.contains(referenceAnswer)) {
-            return question.getMaxScore().multiply(BigDecimal.valueOf(0.8));
-        }
-        
-        // 使用简单的相似度算法
-        double similarity = calculateStringSimilarity(referenceAnswer, studentAnswer);
-        if (similarity > 0.7) {
-            return question.getMaxScore().multiply(BigDecimal.valueOf(similarity));
-        }
-        
-        return BigDecimal.ZERO;
+    private BigDecimal scoreObjectiveQuestion(com.teachhelper.entity.Question question, String answerText) {
+        return objectiveGradingEngine.compileAnswerKey(question)
+            .map(key -> objectiveGradingEngine.grade(key, answerText).getScore())
+            .orElseGet(() -> question.getMaxScore().multiply(BigDecimal.valueOf(0.5)));
     }
     
     /**
@@ -1520,6 +1471,15 @@ public class AIEvaluationService {
         return new EvaluationResult(false, BigDecimal.ZERO, errorMessage, new ArrayList<>());
     }
     
+    /**
+     * 创建带错误分类的错误结果，供调用方判断是否值得重试
+     */
+    private EvaluationResult createErrorResult(String errorMessage, AIErrorType errorType) {
+        EvaluationResult result = createErrorResult(errorMessage);
+        result.setErrorType(errorType);
+        return result;
+    }
+    
     /**
      * 评估结果类
      */
@@ -1530,6 +1490,9 @@ public class AIEvaluationService {
         private final List<CriterionEvaluation> criteriaEvaluations;
         private Long rubricId; // 非final字段，可以后续设置
         private List<String> weaknessTags = new ArrayList<>(); // 新增字段
+        private AIErrorType errorType; // 失败原因分类，成功时为 null
+        private boolean aiEvaluated = true; // 分数是否由AI给出，基础评估和规则评分为 false
+        private boolean ruleGraded; // 分数是否由客观题规则引擎按标准答案给出
         
         public EvaluationResult(boolean success, BigDecimal score, String feedback, List<CriterionEvaluation> criteriaEvaluations) {
             this.success = success;
@@ -1547,6 +1510,14 @@ public class AIEvaluationService {
         public void setRubricId(Long rubricId) { this.rubricId = rubricId; }
         public List<String> getWeaknessTags() { return weaknessTags; }
         public void setWeaknessTags(List<String> weaknessTags) { this.weaknessTags = weaknessTags; }
+        public AIErrorType getErrorType() { return errorType; }
+        public void setErrorType(AIErrorType errorType) { this.errorType = errorType; }
+        public boolean isAiEvaluated() { return aiEvaluated; }
+        public void setAiEvaluated(boolean aiEvaluated) { this.aiEvaluated = aiEvaluated; }
+        public boolean isRuleGraded() { return ruleGraded; }
+        public void setRuleGraded(boolean ruleGraded) { this.ruleGraded = ruleGraded; }
+        /** 既不是AI也不是规则评分的基础评估，分数只是占位，不能作为最终评分 */
+        public boolean isFallback() { return !aiEvaluated && !ruleGraded; }
     }
     
     /**
@@ -1825,6 +1796,10 @@ public class AIEvaluationService {
      * 解析AI评估响应（简单版本）
      */
     private EvaluationResult parseAIEvaluationResponse(String aiResponse, BigDecimal maxPoints) {
+        EvaluationResult structured = EvaluationResponseParser.parseObject(aiResponse, maxPoints);
+        if (structured != null) {
+            return structured;
+        }
         try {
             // 提取总分
             BigDecimal score = extractFinalScore(aiResponse, maxPoints);
@@ -1839,7 +1814,7 @@ public class AIEvaluationService {
             
         } catch (Exception e) {
             log.error("解析AI评估响应失败", e);
-            return createErrorResult("解析AI评估结果失败: " + e.getMessage());
+            return createErrorResult("解析AI评估结果失败: " + e.getMessage(), AIErrorType.PARSE_ERROR);
         }
     }
     
@@ -1847,6 +1822,10 @@ public class AIEvaluationService {
      * 解析AI评估响应（包含评分标准）
      */
     private EvaluationResult parseAIEvaluationResponseWithRubric(String aiResponse, BigDecimal maxPoints, SystemRubric rubric) {
+        EvaluationResult structured = EvaluationResponseParser.parseObject(aiResponse, maxPoints);
+        if (structured != null) {
+            return structured;
+        }
         try {
             // 提取总分
             BigDecimal score = extractFinalScore(aiResponse, maxPoints);
@@ -1864,7 +1843,7 @@ public class AIEvaluationService {
             
         } catch (Exception e) {
             log.error("解析包含评分标准的AI评估响应失败", e);
-            return createErrorResult("解析AI评估结果失败: " + e.getMessage());
+            return createErrorResult("解析AI评估结果失败: " + e.getMessage(), AIErrorType.PARSE_ERROR);
         }
     }
     
@@ -1966,6 +1945,7 @@ public class AIEvaluationService {
 
     /**
      * 评估学生答案 - 使用AI进行智能评分（支持评分模式）
+     * 交互式评估沿用原有行为：AI评估失败时回退到基础评估（标记为非AI评分）
      * 
      * @param studentAnswer 学生答案实体
      * @param userId 评估者用户ID
@@ -1973,108 +1953,249 @@ public class AIEvaluationService {
      * @return 评估结果对象，包含分数、反馈等信息
      */
     public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, Long userId, String evaluationStyle) {
-        System.out.println("=== 开始AI答案评估（带评分模式）===");
-        System.out.println("评分模式: " + (evaluationStyle != null ? evaluationStyle : "NORMAL"));
-        
+        EvaluationResult result = evaluateAnswer(studentAnswer, userId, evaluationStyle, CancellationToken.NONE);
+        if (result.isSuccess() || studentAnswer == null || studentAnswer.getQuestion() == null) {
+            return result;
+        }
+        EvaluationResult fallback = createBasicEvaluation(studentAnswer);
+        fallback.setErrorType(result.getErrorType());
+        return fallback;
+    }
+    
+    /**
+     * 批量任务评估单份答案（指定用户ID）：使用评估者的默认AI配置，令牌取消时中止在途的AI请求。
+     * 没有AI配置、AI调用失败或结果无法解析时返回带错误分类的失败结果，不回退到基础评估，由调用方决定是否重试
+     */
+    public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, Long userId, String evaluationStyle,
+                                           CancellationToken cancellation) {
         if (studentAnswer == null) {
-            System.err.println("❌ 学生答案为空");
             return createErrorResult("学生答案不能为空");
         }
         
         com.teachhelper.entity.Question question = studentAnswer.getQuestion();
         if (question == null) {
-            System.err.println("❌ 题目信息为空");
             return createErrorResult("题目信息不能为空");
         }
         
-        System.out.println("题目ID: " + question.getId());
-        System.out.println("题目标题: " + question.getTitle());
-        System.out.println("题目类型: " + question.getQuestionType());
-        System.out.println("题目满分: " + question.getMaxScore());
-        System.out.println("学生答案: " + studentAnswer.getAnswerText());
-        System.out.println("学生信息: " + (studentAnswer.getStudent() != null ? 
-            studentAnswer.getStudent().getName() + "(" + studentAnswer.getStudent().getStudentId() + ")" : "未知"));
+        log.debug("开始AI答案评估 - 答案: {}, 题目: {}, 评估者: {}, 评分模式: {}",
+                studentAnswer.getId(), question.getId(), userId, evaluationStyle);
         
         try {
             // 使用传入的用户ID获取AI配置
-            System.out.println("当前评估者ID: " + userId);
-            
-            Optional<UserAIConfig> configOpt = userAIConfigService.getUserDefaultAIConfig(userId);
+            Optional<UserAIConfig> configOpt = userId != null ? userAIConfigService.getUserDefaultAIConfig(userId) : Optional.empty();
             
             if (!configOpt.isPresent()) {
-                System.out.println("⚠️  没有找到默认AI配置，使用基础评估规则");
-                return createBasicEvaluation(studentAnswer);
+                String reason = "评估者 " + userId + " 没有默认AI配置";
+                evaluationTraceRecorder.start(studentAnswer, null, null).fallback(EvaluationTraceRecorder.Outcome.NO_CONFIG, null, reason);
+                return createErrorResult(reason, AIErrorType.REJECTED);
             }
             
-            UserAIConfig aiConfig = configOpt.get();
-            System.out.println("✅ 找到AI配置:");
-            System.out.println("  - 提供商: " + aiConfig.getProvider());
-            System.out.println("  - 模型名称: " + aiConfig.getModelName());
-            System.out.println("  - API端点: " + aiConfig.getApiEndpoint());
+            return evaluateAnswerWithConfig(studentAnswer, configOpt.get(), evaluationStyle, cancellation);
             
-            AIClient aiClient = aiClientFactory.getClient(aiConfig.getProvider());
-            System.out.println("✅ 获取AI客户端成功: " + aiClient.getClass().getSimpleName());
+        } catch (Exception e) {
+            log.error("答案 {} 的AI评估出现异常", studentAnswer.getId(), e);
+            return createErrorResult("AI评估异常: " + e.getMessage(), AIErrorType.fromException(e));
+        }
+    }
+    
+    /**
+     * 批量任务评估单份答案（指定用户名），失败处理与 {@link #evaluateAnswer(com.teachhelper.entity.StudentAnswer, Long, String, CancellationToken)} 相同
+     */
+    public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, String username, String evaluationStyle,
+                                           CancellationToken cancellation) {
+        Long userId = null;
+        try {
+            userId = username != null ? authService.getUserIdByUsername(username) : null;
+        } catch (Exception e) {
+            log.warn("通过用户名 {} 获取用户ID失败", username, e);
+        }
+        if (userId == null) {
+            String reason = "无法通过用户名 " + username + " 找到评估者";
+            evaluationTraceRecorder.start(studentAnswer, null, null).fallback(EvaluationTraceRecorder.Outcome.NO_CONFIG, null, reason);
+            return createErrorResult(reason, AIErrorType.REJECTED);
+        }
+        return evaluateAnswer(studentAnswer, userId, evaluationStyle, cancellation);
+    }
+    
+    /**
+     * 使用指定的AI配置评估学生答案，AI调用失败或结果无法解析时返回带错误分类的失败结果
+     */
+    private EvaluationResult evaluateAnswerWithConfig(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                      UserAIConfig aiConfig, String evaluationStyle,
+                                                      CancellationToken cancellation) {
+        EvaluationTraceRecorder.Span trace = null;
+        try {
+            AIClient aiClient = aiConfigRouter.clientFor(aiConfig);
             
             // 确保评分模式有默认值
             String actualEvaluationStyle = evaluationStyle != null ? evaluationStyle : "NORMAL";
             
             // 构建评估提示词（带评分模式）
-            String prompt = buildEvaluationPrompt(studentAnswer, actualEvaluationStyle);
-            System.out.println("✅ 构建AI评估提示词成功，长度: " + prompt.length());
-            System.out.println("--- 评估提示词内容开始 ---");
-            System.out.println(prompt);
-            System.out.println("--- 评估提示词内容结束 ---");
-            
-            // 调用AI进行评估
-            System.out.println("🚀 开始调用AI进行答案评估...");
-            long startTime = System.currentTimeMillis();
-            AIResponse aiResponse = aiClient.chat(prompt, aiConfig);
-            long duration = System.currentTimeMillis() - startTime;
-            System.out.println("⏱️  AI评估耗时: " + duration + "ms");
-            
-            if (aiResponse.isSuccess()) {
-                System.out.println("✅ AI评估调用成功!");
-                System.out.println("  - 输入Token数: " + aiResponse.getInputTokens());
-                System.out.println("  - 输出Token数: " + aiResponse.getOutputTokens());
-                System.out.println("  - 总Token数: " + aiResponse.getTotalTokens());
-                System.out.println("--- AI评估响应内容开始 ---");
-                System.out.println(aiResponse.getContent());
-                System.out.println("--- AI评估响应内容结束 ---");
-                
-                // 解析AI评估结果
-                System.out.println("🔍 开始解析AI评估结果...");
-                EvaluationResult result = parseEvaluationResponse(aiResponse.getContent(), question.getMaxScore());
-                
-                if (result.isSuccess()) {
-                    System.out.println("✅ AI评估解析成功:");
-                    System.out.println("  - 得分: " + result.getScore() + "/" + question.getMaxScore());
-                    System.out.println("  - 反馈长度: " + (result.getFeedback() != null ? result.getFeedback().length() : 0) + " 字符");
-                    System.out.println("  - 评估详情数: " + (result.getCriteriaEvaluations() != null ? result.getCriteriaEvaluations().size() : 0));
-                    return result;
-                } else {
-                    System.out.println("❌ AI评估结果解析失败");
-                }
-            } else {
-                System.out.println("❌ AI评估调用失败:");
-                System.out.println("  - 错误信息: " + aiResponse.getErrorMessage());
-                System.out.println("  - 响应内容: " + aiResponse.getContent());
+            String prompt = buildEvaluationPrompt(studentAnswer, actualEvaluationStyle, aiConfig);
+            trace = evaluationTraceRecorder.start(studentAnswer, aiConfig, prompt);
+            
+            // 相同题目、相同答案、相同评分标准和模型的结论直接复用
+            EvaluationResultCacheService.CacheKey cacheKey =
+                evaluationResultCacheService.buildCacheKey(studentAnswer, actualEvaluationStyle, aiConfig);
+            Optional<EvaluationResult> cachedResult = evaluationResultCacheService.lookup(cacheKey);
+            if (cachedResult.isPresent()) {
+                trace.cacheHit();
+                return cachedResult.get();
             }
             
-            // AI评估失败，使用基础评估
-            System.err.println("❌ AI评估失败，使用基础评估规则");
-            System.err.println("  - 错误原因: " + (aiResponse != null ? aiResponse.getErrorMessage() : "未知错误"));
-            return createBasicEvaluation(studentAnswer);
+            // 调用AI进行评估
+            AIResponse aiResponse = aiClient.chat(prompt, aiConfig, singleEvaluationFormat(), cancellation);
+            return resolveEvaluation(studentAnswer, actualEvaluationStyle, aiConfig, cacheKey, aiResponse, aiResponse.getContent(), trace);
             
         } catch (Exception e) {
-            // 出现异常，使用基础评估
-            System.err.println("❌ AI评估出现异常，使用基础评估规则");
-            System.err.println("  - 异常类型: " + e.getClass().getSimpleName());
-            System.err.println("  - 异常信息: " + e.getMessage());
-            e.printStackTrace();
-            return createBasicEvaluation(studentAnswer);
+            log.error("答案 {} 的AI评估出现异常", studentAnswer.getId(), e);
+            if (trace != null) {
+                trace.fallback(EvaluationTraceRecorder.Outcome.ERROR, null, e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+            return createErrorResult("AI评估异常: " + e.getMessage(), AIErrorType.fromException(e));
         }
     }
     
+    /**
+     * 异步评估学生答案：提示词构建和缓存查询在调用线程完成，AI调用期间不占用线程，
+     * 响应解析在HTTP回调线程执行。AI调用失败或结果无法解析时返回带错误分类的失败结果，由调用方决定是否重试。
+     * 开启流式评估时边生成边解析，评估JSON一完整就结束生成
+     */
+    public CompletableFuture<EvaluationResult> evaluateAnswerAsync(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                                   UserAIConfig aiConfig, String evaluationStyle) {
+        return evaluateAnswerAsync(studentAnswer, aiConfig, evaluationStyle, CancellationToken.NONE);
+    }
+
+    /**
+     * 可取消的异步评估：令牌取消时中止在途的AI请求，结果以错误类型 CANCELLED 的失败结果返回（不给分），不写入结果缓存
+     */
+    public CompletableFuture<EvaluationResult> evaluateAnswerAsync(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                                   UserAIConfig aiConfig, String evaluationStyle,
+                                                                   CancellationToken cancellation) {
+        if (studentAnswer == null || studentAnswer.getQuestion() == null) {
+            return CompletableFuture.completedFuture(createErrorResult("学生答案或题目信息不能为空"));
+        }
+        try {
+            AIClient aiClient = aiConfigRouter.clientFor(aiConfig);
+            String actualEvaluationStyle = evaluationStyle != null ? evaluationStyle : "NORMAL";
+            String prompt = buildEvaluationPrompt(studentAnswer, actualEvaluationStyle, aiConfig);
+            EvaluationTraceRecorder.Span trace = evaluationTraceRecorder.start(studentAnswer, aiConfig, prompt);
+
+            EvaluationResultCacheService.CacheKey cacheKey =
+                evaluationResultCacheService.buildCacheKey(studentAnswer, actualEvaluationStyle, aiConfig);
+            Optional<EvaluationResult> cachedResult = evaluationResultCacheService.lookup(cacheKey);
+            if (cachedResult.isPresent()) {
+                trace.cacheHit();
+                return CompletableFuture.completedFuture(cachedResult.get());
+            }
+
+            StreamingEvaluationParser streamParser = streamingEnabled ? new StreamingEvaluationParser() : null;
+            AIResponseFormat format = singleEvaluationFormat();
+            CompletableFuture<AIResponse> call = streamParser != null
+                ? aiClient.chatStream(prompt, aiConfig, streamParser, format, cancellation).thenCompose(aiResponse ->
+                    // 流式请求不做传输层重试，还没有生成任何内容就失败时改用带重试的普通请求
+                    aiResponse.isSuccess() || streamParser.hasReceived() || cancellation.isCancelled()
+                        ? CompletableFuture.completedFuture(aiResponse) : aiClient.chatAsync(prompt, aiConfig, format, cancellation))
+                : aiClient.chatAsync(prompt, aiConfig, format, cancellation);
+            
+            return call
+                .thenApply(aiResponse -> resolveEvaluation(studentAnswer, actualEvaluationStyle, aiConfig, cacheKey, aiResponse,
+                    streamParser != null && streamParser.isComplete() ? streamParser.getJson() : aiResponse.getContent(), trace))
+                .exceptionally(error -> {
+                    Throwable cause = AIHttpTransport.rootCause(error);
+                    log.error("答案 {} 的AI评估出现异常", studentAnswer.getId(), cause);
+                    trace.fallback(EvaluationTraceRecorder.Outcome.ERROR, null, String.valueOf(cause.getMessage()));
+                    return createErrorResult("AI评估异常: " + cause.getMessage(), AIErrorType.fromException(cause));
+                });
+        } catch (Exception e) {
+            log.error("答案 {} 的AI评估出现异常", studentAnswer.getId(), e);
+            return CompletableFuture.completedFuture(
+                createErrorResult("AI评估异常: " + e.getMessage(), AIErrorType.fromException(e)));
+        }
+    }
+
+    /**
+     * 单份答案评估的响应格式：支持JSON模式的提供商直接约束输出为JSON对象。
+     * 打包评估返回JSON数组，不能使用JSON模式
+     */
+    private AIResponseFormat singleEvaluationFormat() {
+        return jsonModeEnabled ? AIResponseFormat.JSON_OBJECT : AIResponseFormat.TEXT;
+    }
+
+    /**
+     * 解析AI响应并按实际作答的配置写入结果缓存，调用失败或无法解析时返回带错误分类的失败结果（不给分），结果写入评估追踪
+     */
+    private EvaluationResult resolveEvaluation(com.teachhelper.entity.StudentAnswer studentAnswer, String style,
+                                               UserAIConfig aiConfig, EvaluationResultCacheService.CacheKey cacheKey,
+                                               AIResponse aiResponse, String content, EvaluationTraceRecorder.Span trace) {
+        if (aiResponse.isSuccess()) {
+            EvaluationResult result = parseEvaluationResponse(content, studentAnswer.getQuestion().getMaxScore());
+            if (result.isSuccess()) {
+                evaluationResultCacheService.store(answeredCacheKey(studentAnswer, style, aiConfig, cacheKey, aiResponse),
+                    result, aiResponse);
+                trace.success(aiResponse, content);
+                return result;
+            }
+            log.warn("答案 {} 的AI评估结果解析失败: {}", studentAnswer.getId(), result.getFeedback());
+            trace.fallback(EvaluationTraceRecorder.Outcome.PARSE_FAILED, aiResponse, result.getFeedback());
+            return createErrorResult("AI评估结果解析失败: " + result.getFeedback(), AIErrorType.PARSE_ERROR);
+        }
+        AIErrorType errorType = AIErrorType.fromResponse(aiResponse);
+        if (errorType == AIErrorType.CANCELLED) {
+            log.debug("答案 {} 的AI评估已随任务取消而中止", studentAnswer.getId());
+        } else {
+            log.warn("答案 {} 的AI评估调用失败: {}", studentAnswer.getId(), aiResponse.getErrorMessage());
+        }
+        trace.fallback(EvaluationTraceRecorder.Outcome.CALL_FAILED, aiResponse, errorType + ": " + aiResponse.getErrorMessage());
+        return createErrorResult("AI评估调用失败: " + aiResponse.getErrorMessage(), errorType);
+    }
+
+    /**
+     * 结果缓存的键按实际作答的模型生成：路由客户端可能把请求分给用户的其他AI配置，
+     * 这时按该配置重新生成键，不把其他模型的结论记在首选模型名下
+     */
+    private EvaluationResultCacheService.CacheKey answeredCacheKey(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                                   String style, UserAIConfig aiConfig,
+                                                                   EvaluationResultCacheService.CacheKey cacheKey,
+                                                                   AIResponse aiResponse) {
+        UserAIConfig answeredBy = AIConfigRouter.answeredBy(aiResponse, aiConfig);
+        return answeredBy == aiConfig ? cacheKey : evaluationResultCacheService.buildCacheKey(studentAnswer, style, answeredBy);
+    }
+
+    /**
+     * 离线批处理：查询答案的评估结果缓存，命中的答案不必写入批处理作业
+     */
+    public Optional<EvaluationResult> findCachedEvaluation(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                           UserAIConfig aiConfig, String evaluationStyle) {
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        return evaluationResultCacheService.lookup(evaluationResultCacheService.buildCacheKey(studentAnswer, style, aiConfig));
+    }
+
+    /**
+     * 离线批处理：构建与实时评估完全相同的单答案评估提示词
+     */
+    public String buildBatchEvaluationPrompt(com.teachhelper.entity.StudentAnswer studentAnswer, String evaluationStyle,
+                                             UserAIConfig aiConfig) {
+        return buildEvaluationPrompt(studentAnswer, evaluationStyle != null ? evaluationStyle : "NORMAL", aiConfig);
+    }
+
+    /**
+     * 离线批处理：把批处理结果文件中的一条响应转换为评估结果，处理方式与实时评估一致
+     */
+    public EvaluationResult completeBatchEvaluation(com.teachhelper.entity.StudentAnswer studentAnswer,
+                                                    UserAIConfig aiConfig, String evaluationStyle, AIResponse aiResponse) {
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        try {
+            EvaluationResultCacheService.CacheKey cacheKey =
+                evaluationResultCacheService.buildCacheKey(studentAnswer, style, aiConfig);
+            return resolveEvaluation(studentAnswer, style, aiConfig, cacheKey, aiResponse, aiResponse.getContent(),
+                evaluationTraceRecorder.start(studentAnswer, aiConfig, null));
+        } catch (Exception e) {
+            log.error("答案 {} 的批处理评估结果处理异常", studentAnswer.getId(), e);
+            return createErrorResult("批处理评估结果处理异常: " + e.getMessage(), AIErrorType.fromException(e));
+        }
+    }
+
     /**
      * 评估学生答案 - 使用AI进行智能评分（带用户名和评分模式）
      * 
@@ -2084,36 +2205,240 @@ public class AIEvaluationService {
      * @return 评估结果对象，包含分数、反馈等信息
      */
     public EvaluationResult evaluateAnswer(com.teachhelper.entity.StudentAnswer studentAnswer, String username, String evaluationStyle) {
-        System.out.println("=== AIEvaluationService.evaluateAnswer(username, evaluationStyle) 调试信息 ===");
-        System.out.println("传入的用户名: " + username);
-        System.out.println("传入的评分模式: " + (evaluationStyle != null ? evaluationStyle : "NORMAL"));
-        
+        String reason;
         try {
             if (username != null) {
                 // 通过用户名获取用户ID
-                System.out.println("尝试通过用户名获取用户ID...");
                 Long userId = authService.getUserIdByUsername(username);
                 if (userId != null) {
-                    System.out.println("✅ 通过用户名 " + username + " 获取到用户ID: " + userId);
                     return evaluateAnswer(studentAnswer, userId, evaluationStyle);
-                } else {
-                    System.err.println("⚠️  无法通过用户名 " + username + " 找到用户，使用基础评估规则");
                 }
+                reason = "无法通过用户名 " + username + " 找到用户";
             } else {
-                System.err.println("⚠️  用户名为空，使用基础评估规则");
+                reason = "用户名为空";
             }
         } catch (Exception e) {
-            System.err.println("⚠️  通过用户名获取用户ID失败，使用基础评估规则");
-            System.err.println("  - 异常类型: " + e.getClass().getName());
-            System.err.println("  - 原因: " + e.getMessage());
-            e.printStackTrace(); // 打印完整堆栈跟踪
+            log.warn("通过用户名 {} 获取用户ID失败", username, e);
+            reason = "获取用户ID失败: " + e.getMessage();
         }
         
         // 如果无法获取用户ID，回退到基础评估
-        System.out.println("回退到基础评估...");
+        log.warn("答案 {} {}，使用基础评估规则", studentAnswer != null ? studentAnswer.getId() : null, reason);
+        evaluationTraceRecorder.start(studentAnswer, null, null).fallback(EvaluationTraceRecorder.Outcome.NO_CONFIG, null, reason);
         return createBasicEvaluation(studentAnswer);
     }
 
+    /**
+     * 是否启用同题答案打包评估
+     */
+    public boolean isAnswerPackingEnabled() {
+        return isAnswerPackingEnabled(null);
+    }
+    
+    /**
+     * 任务是否使用同题答案打包评估：任务配置有明确设置时以任务为准，否则使用全局开关
+     */
+    public boolean isAnswerPackingEnabled(Boolean taskSetting) {
+        return (taskSetting != null ? taskSetting : packingEnabled) && maxAnswersPerPack > 1;
+    }
+    
+    /**
+     * 获取评估者的默认AI配置，优先使用用户ID，其次通过用户名查找
+     */
+    public Optional<UserAIConfig> findEvaluatorConfig(Long userId, String username) {
+        Long evaluatorId = userId;
+        if (evaluatorId == null && username != null) {
+            evaluatorId = authService.getUserIdByUsername(username);
+        }
+        return evaluatorId != null ? userAIConfigService.getUserDefaultAIConfig(evaluatorId) : Optional.empty();
+    }
+    
+    /**
+     * 把答案按题目分组后划分为若干评估包。
+     * 每包答案数受三方面限制：配置的上限、模型输出上限（每份答案预留固定输出token）、
+     * 以及上下文窗口扣除公共题目信息和输出预留后剩余的输入预算
+     */
+    public List<List<com.teachhelper.entity.StudentAnswer>> planAnswerPacks(List<com.teachhelper.entity.StudentAnswer> answers,
+                                                                           UserAIConfig config, String evaluationStyle) {
+        List<List<com.teachhelper.entity.StudentAnswer>> packs = new ArrayList<>();
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        Tokenizer tokenizer = tokenizerService.forConfig(config);
+        
+        Map<Long, List<com.teachhelper.entity.StudentAnswer>> byQuestion = new LinkedHashMap<>();
+        for (com.teachhelper.entity.StudentAnswer answer : answers) {
+            byQuestion.computeIfAbsent(answer.getQuestion().getId(), id -> new ArrayList<>()).add(answer);
+        }
+        
+        int maxOutputTokens = config.getMaxTokens() != null ? config.getMaxTokens() : 4000;
+        int contextWindow = config.getProvider().getContextWindow(config.getModelName());
+        int outputLimit = Math.max(1, maxOutputTokens / Math.max(1, outputTokensPerAnswer));
+        int answersPerPack = Math.max(1, Math.min(maxAnswersPerPack, outputLimit));
+        
+        for (List<com.teachhelper.entity.StudentAnswer> group : byQuestion.values()) {
+            com.teachhelper.entity.Question question = group.get(0).getQuestion();
+            int headerTokens = getEvaluationPromptPrefix(question, style, true).tokens(tokenizer) + ANSWER_HEADER_TOKENS;
+            // 近似词表的计数已包含误差余量，这里只为答案序号等格式文本预留5%
+            int inputBudget = (int) ((contextWindow - maxOutputTokens) * 0.95) - headerTokens;
+            
+            List<com.teachhelper.entity.StudentAnswer> current = new ArrayList<>();
+            int usedTokens = 0;
+            for (com.teachhelper.entity.StudentAnswer answer : group) {
+                int answerTokens = tokenizer.countTokens(answer.getAnswerText()) + PACKED_ANSWER_HEADER_TOKENS;
+                if (!current.isEmpty() && (current.size() >= answersPerPack || usedTokens + answerTokens > inputBudget)) {
+                    packs.add(current);
+                    current = new ArrayList<>();
+                    usedTokens = 0;
+                }
+                current.add(answer);
+                usedTokens += answerTokens;
+            }
+            if (!current.isEmpty()) {
+                packs.add(current);
+            }
+        }
+        return packs;
+    }
+    
+    /**
+     * 打包评估同一题目的多份答案，返回与输入顺序一致的评估结果。
+     * 缓存命中的答案不再进入请求；响应无法解析或部分结果缺失时，把未得到结果的答案对半拆分后重试，
+     * 拆到单份时走普通的单答案评估流程。限流、服务端错误、超时、熔断等调用失败不拆分，整包以该错误类型失败
+     */
+    public List<EvaluationResult> evaluateAnswerPack(List<com.teachhelper.entity.StudentAnswer> answers,
+                                                     UserAIConfig config, String evaluationStyle) {
+        return evaluateAnswerPack(answers, config, evaluationStyle, CancellationToken.NONE);
+    }
+    
+    /**
+     * 可取消的打包评估：令牌取消后不再发出拆分重试，未得到结果的答案以错误类型 CANCELLED 的失败结果返回（不给分）
+     */
+    public List<EvaluationResult> evaluateAnswerPack(List<com.teachhelper.entity.StudentAnswer> answers,
+                                                     UserAIConfig config, String evaluationStyle,
+                                                     CancellationToken cancellation) {
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        EvaluationResult[] results = new EvaluationResult[answers.size()];
+        EvaluationResultCacheService.CacheKey[] cacheKeys = new EvaluationResultCacheService.CacheKey[answers.size()];
+        List<Integer> pending = new ArrayList<>();
+        
+        for (int i = 0; i < answers.size(); i++) {
+            cacheKeys[i] = evaluationResultCacheService.buildCacheKey(answers.get(i), style, config);
+            Optional<EvaluationResult> cached = evaluationResultCacheService.lookup(cacheKeys[i]);
+            if (cached.isPresent()) {
+                results[i] = cached.get();
+            } else {
+                pending.add(i);
+            }
+        }
+        
+        if (!pending.isEmpty()) {
+            evaluatePackedSubset(answers, pending, cacheKeys, config, style, cancellation, results);
+        }
+        return Arrays.asList(results);
+    }
+    
+    private void evaluatePackedSubset(List<com.teachhelper.entity.StudentAnswer> answers, List<Integer> indices,
+                                      EvaluationResultCacheService.CacheKey[] cacheKeys, UserAIConfig config,
+                                      String style, CancellationToken cancellation, EvaluationResult[] results) {
+        if (cancellation.isCancelled()) {
+            for (int index : indices) {
+                results[index] = createErrorResult("任务已取消，AI调用被中止", AIErrorType.CANCELLED);
+            }
+            return;
+        }
+        if (indices.size() == 1) {
+            int index = indices.get(0);
+            results[index] = evaluateAnswerWithConfig(answers.get(index), config, style, cancellation);
+            return;
+        }
+        
+        com.teachhelper.entity.Question question = answers.get(indices.get(0)).getQuestion();
+        List<com.teachhelper.entity.StudentAnswer> subset = indices.stream().map(answers::get).collect(Collectors.toList());
+        Map<Integer, EvaluationResult> parsed = Map.of();
+        AIResponse aiResponse = null;
+        AIErrorType errorType = null;
+        String errorMessage = null;
+        try {
+            AIClient aiClient = aiConfigRouter.clientFor(config);
+            aiResponse = aiClient.chat(buildPackedEvaluationPrompt(question, subset, style, config), config,
+                AIResponseFormat.TEXT, cancellation);
+            if (aiResponse.isSuccess()) {
+                parsed = EvaluationResponseParser.parseArray(aiResponse.getContent(), subset.size(), question.getMaxScore());
+            } else {
+                errorType = AIErrorType.fromResponse(aiResponse);
+                errorMessage = aiResponse.getErrorMessage();
+                log.warn("打包评估请求失败（{} 份答案）: {}", subset.size(), errorMessage);
+            }
+        } catch (Exception e) {
+            errorType = AIErrorType.fromException(e);
+            errorMessage = e.getMessage();
+            log.warn("打包评估请求异常（{} 份答案）: {}", subset.size(), errorMessage);
+        }
+        
+        // 只有响应无法解析或缺少部分答案时拆分重试；限流、过载、超时、熔断等调用失败拆分后只会放大请求量，整包直接失败
+        if (errorType != null && errorType != AIErrorType.PARSE_ERROR) {
+            for (int index : indices) {
+                results[index] = createErrorResult("AI打包评估调用失败: " + errorMessage, errorType);
+            }
+            return;
+        }
+        
+        // 按份均摊本次请求的token，用于缓存节省统计
+        AIResponse share = aiResponse != null && !parsed.isEmpty()
+            ? new AIResponse(null, divideTokens(aiResponse.getInputTokens(), subset.size()),
+                             divideTokens(aiResponse.getOutputTokens(), subset.size()), aiResponse.getDurationMs())
+            : null;
+        List<Integer> missing = new ArrayList<>();
+        for (int k = 0; k < indices.size(); k++) {
+            EvaluationResult result = parsed.get(k);
+            int index = indices.get(k);
+            if (result != null) {
+                results[index] = result;
+                evaluationResultCacheService.store(answeredCacheKey(answers.get(index), style, config, cacheKeys[index],
+                    aiResponse), result, share);
+            } else {
+                missing.add(index);
+            }
+        }
+        
+        if (!missing.isEmpty()) {
+            log.info("打包评估有 {}/{} 份答案未得到结果，拆分后重试", missing.size(), indices.size());
+            int middle = missing.size() / 2;
+            if (middle == 0) {
+                evaluatePackedSubset(answers, missing, cacheKeys, config, style, cancellation, results);
+            } else {
+                evaluatePackedSubset(answers, new ArrayList<>(missing.subList(0, middle)), cacheKeys, config, style,
+                    cancellation, results);
+                evaluatePackedSubset(answers, new ArrayList<>(missing.subList(middle, missing.size())), cacheKeys, config,
+                    style, cancellation, results);
+            }
+        }
+    }
+    
+    /**
+     * 构建同题多答案的打包评估提示词，公共的题目信息只出现一次，输出约定为JSON数组。
+     * 与单份评估一样，答案列表放在固定前缀之后，超出模型上下文预算的答案被截断
+     */
+    private String buildPackedEvaluationPrompt(com.teachhelper.entity.Question question,
+                                               List<com.teachhelper.entity.StudentAnswer> answers, String evaluationStyle,
+                                               UserAIConfig aiConfig) {
+        PromptPrefix prefix = getEvaluationPromptPrefix(question, evaluationStyle, true);
+        StringBuilder prompt = new StringBuilder(prefix.text());
+        List<String> answerTexts = fitPackedAnswersToContext(answers, prefix, aiConfig);
+        
+        prompt.append("\n=== 学生答案列表 ===\n");
+        prompt.append("以下共有 ").append(answers.size()).append(" 份学生答案，请返回 ")
+              .append(answers.size()).append(" 个对象。\n");
+        for (int i = 0; i < answers.size(); i++) {
+            prompt.append("\n【答案 ").append(i + 1).append("】\n");
+            prompt.append(answerTexts.get(i)).append("\n");
+        }
+        return prompt.toString();
+    }
+    
+    private static Integer divideTokens(Integer tokens, int parts) {
+        return tokens != null ? tokens / Math.max(1, parts) : 0;
+    }
+    
     public UserAIConfig getUserDefaultAIConfigPublic(Long userId) {
         Optional<UserAIConfig> configOpt = userAIConfigService.getUserDefaultAIConfig(userId);
         if (!configOpt.isPresent()) throw new RuntimeException("未找到AI配置");
@@ -8,6 +8,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import com.teachhelper.service.ai.AIHttpTransport;
+
 /**
  * RestTemplate配置类 - 设置HTTP客户端超时
  */
@@ -24,11 +26,11 @@ public class RestTemplateConfig {
 
     @Bean
     @Qualifier("aiRestTemplate")
-    public RestTemplate aiRestTemplate(RestTemplateBuilder builder) {
-        // 专门为AI请求使用的RestTemplate，超时时间更长
+    public RestTemplate aiRestTemplate(RestTemplateBuilder builder, AIHttpTransport aiHttpTransport) {
+        // 专门为AI请求使用的RestTemplate，共享连接池化的HTTP/2传输层，超时在 app.ai.http 下配置
         return builder
-                .setConnectTimeout(Duration.ofSeconds(30))  // 30秒连接超时
-                .setReadTimeout(Duration.ofSeconds(120))    // 120秒读取超时
+                .requestFactory(aiHttpTransport::requestFactory)
+                .additionalInterceptors(aiHttpTransport)
                 .build();
     }
 }
@@ -1,7 +1,17 @@
 package com.teachhelper.controller.debug;
 
 import com.teachhelper.config.DocumentParsingConfig;
+import com.teachhelper.service.ai.AIConfigRouter;
+import com.teachhelper.service.ai.TokenizerService;
+import com.teachhelper.service.ai.AIHttpTransport;
+import com.teachhelper.service.ai.AIResilienceService;
+import com.teachhelper.service.ai.AdaptiveConcurrencyLimiter;
 import com.teachhelper.service.answer.OCRService;
+import com.teachhelper.service.evaluation.EvaluationResultCacheService;
+import com.teachhelper.service.task.EvaluationSlotScheduler;
+import com.teachhelper.service.task.TaskChunkLeaseService;
+import com.teachhelper.service.task.TaskLogAppender;
+import com.teachhelper.service.task.TaskQueueScheduler;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
@@ -46,6 +56,36 @@ public class SystemStatusController {
     @Autowired
     private OCRService ocrService;
 
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private EvaluationResultCacheService evaluationResultCacheService;
+    
+    @Autowired
+    private TaskQueueScheduler taskQueueScheduler;
+    
+    @Autowired
+    private EvaluationSlotScheduler evaluationSlotScheduler;
+    
+    @Autowired
+    private AIResilienceService aiResilienceService;
+    
+    @Autowired
+    private AIHttpTransport aiHttpTransport;
+    
+    @Autowired
+    private AIConfigRouter aiConfigRouter;
+    
+    @Autowired
+    private TokenizerService tokenizerService;
+    
+    @Autowired
+    private TaskLogAppender taskLogAppender;
+    
+    @Autowired
+    private TaskChunkLeaseService taskChunkLeaseService;
+
     /**
      * 检查系统整体状态
      */
@@ -193,6 +233,90 @@ public class SystemStatusController {
         }
     }
     
+    /**
+     * 获取AI调用的自适应并发状态（每个提供商和接口地址的当前上限与排队数）
+     */
+    @GetMapping("/ai-concurrency")
+    public ResponseEntity<Map<String, Object>> getAIConcurrency() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("limits", concurrencyLimiter.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取AI评估结果缓存的命中情况和节省的Token数
+     */
+    @GetMapping("/evaluation-cache")
+    public ResponseEntity<Map<String, Object>> getEvaluationCacheStats() {
+        Map<String, Object> result = new HashMap<>(evaluationResultCacheService.getStatistics());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取任务排队和评估名额的公平调度状态
+     */
+    @GetMapping("/task-scheduler")
+    public ResponseEntity<Map<String, Object>> getTaskSchedulerStatus() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("tasks", taskQueueScheduler.getSnapshot());
+        result.put("slots", evaluationSlotScheduler.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取AI调用的熔断器、P95延迟、对冲请求和连接占用状态
+     */
+    @GetMapping("/ai-resilience")
+    public ResponseEntity<Map<String, Object>> getAIResilienceStatus() {
+        Map<String, Object> result = new HashMap<>(aiResilienceService.getSnapshot());
+        result.put("transport", aiHttpTransport.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取多AI配置路由的各配置延迟、错误率和调用数
+     */
+    @GetMapping("/ai-routing")
+    public ResponseEntity<Map<String, Object>> getAIRoutingStatus() {
+        Map<String, Object> result = new HashMap<>(aiConfigRouter.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取各模型使用的分词词表
+     */
+    @GetMapping("/tokenizers")
+    public ResponseEntity<Map<String, Object>> getTokenizerStatus() {
+        Map<String, Object> result = new HashMap<>(tokenizerService.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 获取任务日志写入队列状态（积压、写入、丢弃计数）
+     */
+    @GetMapping("/task-logs")
+    public ResponseEntity<Map<String, Object>> getTaskLogStatus() {
+        Map<String, Object> result = new HashMap<>(taskLogAppender.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 获取本节点的任务分片租约状态（节点ID、持有的租约、租用/收回/归还计数）
+     */
+    @GetMapping("/task-leases")
+    public ResponseEntity<Map<String, Object>> getTaskLeaseStatus() {
+        Map<String, Object> result = new HashMap<>(taskChunkLeaseService.getSnapshot());
+        result.put("timestamp", LocalDateTime.now());
+        return ResponseEntity.ok(result);
+    }
+    
     // 私有辅助方法
     private boolean checkDatabaseConnection() {
         try (Connection connection = dataSource.getConnection()) {
@@ -115,6 +115,7 @@ public class EvaluationController {
             response.put("unevaluatedAnswers", result.getUnevaluatedAnswers());
             response.put("suggestion", result.getSuggestion());
             response.put("warningLevel", result.getWarningLevel());
+            response.put("forecast", result.getForecast());
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -1,5 +1,6 @@
 package com.teachhelper.controller.task;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +12,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -21,6 +23,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.teachhelper.dto.request.TaskCreateRequest;
 import com.teachhelper.dto.response.TaskResponse;
@@ -112,13 +115,16 @@ public class TaskController {
      * 获取任务结果
      */
     @GetMapping("/{taskId}/results")
-    @Operation(summary = "获取任务结果", description = "获取任务的执行结果")
+    @Operation(summary = "获取任务结果", description = "获取任务的执行结果；传入 after 时按结果行键集分页返回明细")
     public ResponseEntity<Map<String, Object>> getTaskResults(
             @PathVariable String taskId,
             @Parameter(description = "页码") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "每页大小") @RequestParam(defaultValue = "20") int size) {
+            @Parameter(description = "每页大小") @RequestParam(defaultValue = "20") int size,
+            @Parameter(description = "上一页返回的 nextAfter，首页传 0") @RequestParam(required = false) Long after) {
         
-        Map<String, Object> results = taskService.getTaskResults(taskId, page, size);
+        Map<String, Object> results = after != null
+            ? taskService.getTaskResultPage(taskId, after, size)
+            : taskService.getTaskResults(taskId, page, size);
         return ResponseEntity.ok(results);
     }
 
@@ -205,31 +211,43 @@ public class TaskController {
     /**
      * 导出任务结果
      */
-    @GetMapping("/{taskId}/export")
-    @Operation(summary = "导出任务结果", description = "导出任务结果到文件")
-    public ResponseEntity<byte[]> exportTaskResults(
+    @GetMapping({"/{taskId}/export", "/{taskId}/results/export"})
+    @Operation(summary = "导出任务结果", description = "流式导出任务结果，支持 excel、csv 和 json")
+    public ResponseEntity<StreamingResponseBody> exportTaskResults(
             @PathVariable String taskId,
             @Parameter(description = "导出格式") @RequestParam(defaultValue = "excel") String format) {
         
-        byte[] data = taskService.exportTaskResults(taskId, format);
-        String filename = "task-" + taskId + "-results." + format;
+        // 任务不存在时在开始输出前报错
+        taskService.getTaskById(taskId);
+        String extension = getExtension(format);
+        String filename = "task-" + taskId + "-results." + extension;
+        StreamingResponseBody body = out -> taskService.exportTaskResults(taskId, format, out);
         
         return ResponseEntity.ok()
                 .header("Content-Disposition", "attachment; filename=" + filename)
-                .header("Content-Type", getContentType(format))
-                .body(data);
+                .contentType(getContentType(extension))
+                .body(body);
     }
 
-    private String getContentType(String format) {
+    private String getExtension(String format) {
         switch (format.toLowerCase()) {
-            case "excel":
-                return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+            case "json":
+                return "json";
             case "csv":
-                return "text/csv";
+                return "csv";
+            default:
+                return "xlsx";
+        }
+    }
+
+    private MediaType getContentType(String extension) {
+        switch (extension) {
             case "json":
-                return "application/json";
+                return MediaType.APPLICATION_JSON;
+            case "csv":
+                return new MediaType("text", "csv", StandardCharsets.UTF_8);
             default:
-                return "application/octet-stream";
+                return MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
         }
     }
 }
@@ -69,6 +69,9 @@ public class TaskResponse {
     @Schema(description = "创建者用户名")
     private String createdByName;
 
+    @Schema(description = "等待队列中的位置，0表示未在排队", example = "0")
+    private Integer queuePosition = 0;
+
     // 内部类：任务日志条目
     @Schema(description = "任务日志条目")
     public static class TaskLogEntry {
@@ -223,6 +226,14 @@ public class TaskResponse {
         this.priority = priority;
     }
 
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    public void setQueuePosition(Integer queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+
     public String getErrorMessage() {
         return errorMessage;
     }
@@ -120,4 +120,43 @@ public enum AIProvider {
                 return 0.002;
         }
     }
+
+    /**
+     * 获取模型的上下文窗口大小（token数），未知模型按提供商默认值估计
+     */
+    public int getContextWindow(String modelName) {
+        String model = modelName != null ? modelName.toLowerCase() : "";
+        if (model.contains("gpt-4o") || model.contains("gpt-4-turbo") || model.contains("gpt-4.1")
+                || model.startsWith("o1") || model.startsWith("o3")) {
+            return 128000;
+        }
+        if (model.contains("claude")) {
+            return 200000;
+        }
+        if (model.contains("deepseek")) {
+            return 64000;
+        }
+        if (model.contains("128k")) {
+            return 128000;
+        }
+        if (model.contains("32k")) {
+            return 32000;
+        }
+        switch (this) {
+            case OPENAI:
+                return 16385; // GPT-3.5-turbo
+            case DEEPSEEK:
+                return 64000;
+            case CLAUDE:
+                return 200000;
+            case ALIBABA_TONGYI:
+                return 8000;
+            case BAIDU_ERNIE:
+                return 8000;
+            case TENCENT_HUNYUAN:
+                return 32000;
+            default:
+                return 8000;
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package com.teachhelper.entity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * AI评估结果缓存实体
+ * 以"题目 + 规范化答案 + 评分标准版本 + 评分模式 + 模型"为键保存AI评估结论，
+ * 重复的答案和重新评估时直接复用，无需再次调用大模型
+ */
+@Entity
+@Table(name = "evaluation_result_cache", indexes = {
+    @Index(name = "uk_evaluation_cache_key", columnList = "cache_key", unique = true),
+    @Index(name = "idx_evaluation_cache_question", columnList = "question_id")
+})
+public class EvaluationResultCache extends BaseEntity {
+
+    @Column(name = "cache_key", length = 64, nullable = false)
+    private String cacheKey;
+
+    @Column(name = "question_id", nullable = false)
+    private Long questionId;
+
+    @Column(name = "rubric_version", length = 32, nullable = false)
+    private String rubricVersion;
+
+    @Column(name = "evaluation_style", length = 20, nullable = false)
+    private String evaluationStyle;
+
+    @Column(name = "model_name", length = 150, nullable = false)
+    private String modelName;
+
+    @Column(name = "score", precision = 6, scale = 2)
+    private BigDecimal score;
+
+    @Column(name = "feedback", columnDefinition = "TEXT")
+    private String feedback;
+
+    /** 评分标准明细与薄弱点标签（JSON格式） */
+    @Column(name = "details_json", columnDefinition = "TEXT")
+    private String detailsJson;
+
+    @Column(name = "input_tokens")
+    private Integer inputTokens = 0;
+
+    @Column(name = "output_tokens")
+    private Integer outputTokens = 0;
+
+    @Column(name = "hit_count")
+    private Long hitCount = 0L;
+
+    @Column(name = "last_hit_at")
+    private LocalDateTime lastHitAt;
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public Long getQuestionId() {
+        return questionId;
+    }
+
+    public void setQuestionId(Long questionId) {
+        this.questionId = questionId;
+    }
+
+    public String getRubricVersion() {
+        return rubricVersion;
+    }
+
+    public void setRubricVersion(String rubricVersion) {
+        this.rubricVersion = rubricVersion;
+    }
+
+    public String getEvaluationStyle() {
+        return evaluationStyle;
+    }
+
+    public void setEvaluationStyle(String evaluationStyle) {
+        this.evaluationStyle = evaluationStyle;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public void setModelName(String modelName) {
+        this.modelName = modelName;
+    }
+
+    public BigDecimal getScore() {
+        return score;
+    }
+
+    public void setScore(BigDecimal score) {
+        this.score = score;
+    }
+
+    public String getFeedback() {
+        return feedback;
+    }
+
+    public void setFeedback(String feedback) {
+        this.feedback = feedback;
+    }
+
+    public String getDetailsJson() {
+        return detailsJson;
+    }
+
+    public void setDetailsJson(String detailsJson) {
+        this.detailsJson = detailsJson;
+    }
+
+    public Integer getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(Integer inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+
+    public Integer getOutputTokens() {
+        return outputTokens;
+    }
+
+    public void setOutputTokens(Integer outputTokens) {
+        this.outputTokens = outputTokens;
+    }
+
+    public Long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(Long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public LocalDateTime getLastHitAt() {
+        return lastHitAt;
+    }
+
+    public void setLastHitAt(LocalDateTime lastHitAt) {
+        this.lastHitAt = lastHitAt;
+    }
+}
@@ -3,7 +3,8 @@ package com.teachhelper.entity;
 public enum EvaluationType {
     MANUAL("手动评估"),
     AI_AUTO("AI自动评估"),
-    AI_ASSISTED("AI辅助评估");
+    AI_ASSISTED("AI辅助评估"),
+    RULE_AUTO("规则自动评分");
     
     private final String displayName;
     
@@ -0,0 +1,111 @@
+package com.teachhelper.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * 批量任务检查点
+ * 保存任务首次执行时确定的答案ID列表和处理进度，暂停、重试或服务重启后从这里继续，
+ * 不再重新提取答案列表，也不会重复评估已完成的答案
+ */
+@Entity
+@Table(name = "task_checkpoints", indexes = {
+    @Index(name = "uk_task_checkpoint_task", columnList = "task_id", unique = true)
+})
+public class TaskCheckpoint extends BaseEntity {
+
+    @Column(name = "task_id", length = 50, nullable = false)
+    private String taskId;
+
+    /** 任务的全部答案ID（逗号分隔，顺序固定） */
+    @Column(name = "answer_ids", columnDefinition = "LONGTEXT", nullable = false)
+    private String answerIds;
+
+    @Column(name = "total_count", nullable = false)
+    private Integer totalCount = 0;
+
+    /** 高水位：答案列表中前 highWaterMark 个答案均已处理 */
+    @Column(name = "high_water_mark", nullable = false)
+    private Integer highWaterMark = 0;
+
+    /** 高水位之后已处理的答案ID（逗号分隔，数量不超过在途评估数） */
+    @Column(name = "completed_ahead", columnDefinition = "TEXT")
+    private String completedAhead;
+
+    /** 评估失败的答案ID（逗号分隔），恢复或重试时重新评估 */
+    @Column(name = "failed_ids", columnDefinition = "LONGTEXT")
+    private String failedIds;
+
+    @Column(name = "processed_count", nullable = false)
+    private Integer processedCount = 0;
+
+    /** 已提交到提供商、尚未取回结果的离线批处理作业ID，恢复时继续轮询而不重新提交 */
+    @Column(name = "provider_batch_id", length = 100)
+    private String providerBatchId;
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    public String getAnswerIds() {
+        return answerIds;
+    }
+
+    public void setAnswerIds(String answerIds) {
+        this.answerIds = answerIds;
+    }
+
+    public Integer getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(Integer totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public Integer getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(Integer highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    public String getCompletedAhead() {
+        return completedAhead;
+    }
+
+    public void setCompletedAhead(String completedAhead) {
+        this.completedAhead = completedAhead;
+    }
+
+    public String getFailedIds() {
+        return failedIds;
+    }
+
+    public void setFailedIds(String failedIds) {
+        this.failedIds = failedIds;
+    }
+
+    public Integer getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(Integer processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public String getProviderBatchId() {
+        return providerBatchId;
+    }
+
+    public void setProviderBatchId(String providerBatchId) {
+        this.providerBatchId = providerBatchId;
+    }
+}
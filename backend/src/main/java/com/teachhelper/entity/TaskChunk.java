@@ -0,0 +1,147 @@
+package com.teachhelper.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * 批量任务分片
+ * 多节点部署时批量评估任务按答案ID切分为分片，任一节点都可以租用分片执行，
+ * 租约到期前由持有节点续约，节点宕机后租约过期，分片被其他节点收回。
+ * 表结构由实体生成，读写通过 TaskChunkLeaseService 的JDBC语句完成
+ */
+@Entity
+@Table(name = "task_chunks", indexes = {
+    @Index(name = "uk_task_chunk_index", columnList = "task_id, chunk_index", unique = true),
+    @Index(name = "idx_task_chunk_status", columnList = "status, lease_expires_at")
+})
+public class TaskChunk extends BaseEntity {
+
+    public enum Status {
+        PENDING,    // 等待租用
+        LEASED,     // 已被某个节点租用
+        DONE,       // 已完成，等待任务收尾
+        CLOSED      // 任务已收尾
+    }
+
+    @Column(name = "task_id", length = 50, nullable = false)
+    private String taskId;
+
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+
+    /** 分片中尚未处理的答案ID（逗号分隔） */
+    @Column(name = "answer_ids", columnDefinition = "TEXT")
+    private String answerIds;
+
+    @Column(name = "answer_count", nullable = false)
+    private Integer answerCount = 0;
+
+    /** 已处理的答案数（含失败） */
+    @Column(name = "processed_count", nullable = false)
+    private Integer processedCount = 0;
+
+    /** 评估失败的答案ID（逗号分隔），任务恢复或重试时重新评估 */
+    @Column(name = "failed_ids", columnDefinition = "TEXT")
+    private String failedIds;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private Status status = Status.PENDING;
+
+    /** 持有租约的节点 */
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    /** 被租用的次数，大于1说明分片曾被收回或释放 */
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    public Integer getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(Integer chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public String getAnswerIds() {
+        return answerIds;
+    }
+
+    public void setAnswerIds(String answerIds) {
+        this.answerIds = answerIds;
+    }
+
+    public Integer getAnswerCount() {
+        return answerCount;
+    }
+
+    public void setAnswerCount(Integer answerCount) {
+        this.answerCount = answerCount;
+    }
+
+    public Integer getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(Integer processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public String getFailedIds() {
+        return failedIds;
+    }
+
+    public void setFailedIds(String failedIds) {
+        this.failedIds = failedIds;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(LocalDateTime leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+}
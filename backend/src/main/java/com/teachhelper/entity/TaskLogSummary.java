@@ -0,0 +1,132 @@
+package com.teachhelper.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * 任务日志汇总
+ * 超过保留期的任务日志被删除前按级别累计到这里，保留条数、时间范围和最后一条警告或错误
+ */
+@Entity
+@Table(name = "task_log_summaries", indexes = {
+    @Index(name = "uk_task_log_summary_task", columnList = "task_id", unique = true)
+})
+public class TaskLogSummary extends BaseEntity {
+
+    @Column(name = "task_id", length = 50, nullable = false)
+    private String taskId;
+
+    @Column(name = "debug_count", nullable = false)
+    private Long debugCount = 0L;
+
+    @Column(name = "info_count", nullable = false)
+    private Long infoCount = 0L;
+
+    @Column(name = "warn_count", nullable = false)
+    private Long warnCount = 0L;
+
+    @Column(name = "error_count", nullable = false)
+    private Long errorCount = 0L;
+
+    @Column(name = "first_log_at")
+    private LocalDateTime firstLogAt;
+
+    @Column(name = "last_log_at")
+    private LocalDateTime lastLogAt;
+
+    /** 汇总范围内最后一条警告或错误日志 */
+    @Column(name = "last_problem", columnDefinition = "TEXT")
+    private String lastProblem;
+
+    /**
+     * 累加一个级别的日志条数
+     */
+    public void addCount(TaskLog.LogLevel level, long count) {
+        switch (level) {
+            case DEBUG -> debugCount += count;
+            case INFO -> infoCount += count;
+            case WARN -> warnCount += count;
+            case ERROR -> errorCount += count;
+        }
+    }
+
+    /**
+     * 扩展汇总的时间范围
+     */
+    public void extendRange(LocalDateTime first, LocalDateTime last) {
+        if (first != null && (firstLogAt == null || first.isBefore(firstLogAt))) {
+            firstLogAt = first;
+        }
+        if (last != null && (lastLogAt == null || last.isAfter(lastLogAt))) {
+            lastLogAt = last;
+        }
+    }
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    public Long getDebugCount() {
+        return debugCount;
+    }
+
+    public void setDebugCount(Long debugCount) {
+        this.debugCount = debugCount;
+    }
+
+    public Long getInfoCount() {
+        return infoCount;
+    }
+
+    public void setInfoCount(Long infoCount) {
+        this.infoCount = infoCount;
+    }
+
+    public Long getWarnCount() {
+        return warnCount;
+    }
+
+    public void setWarnCount(Long warnCount) {
+        this.warnCount = warnCount;
+    }
+
+    public Long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(Long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public LocalDateTime getFirstLogAt() {
+        return firstLogAt;
+    }
+
+    public void setFirstLogAt(LocalDateTime firstLogAt) {
+        this.firstLogAt = firstLogAt;
+    }
+
+    public LocalDateTime getLastLogAt() {
+        return lastLogAt;
+    }
+
+    public void setLastLogAt(LocalDateTime lastLogAt) {
+        this.lastLogAt = lastLogAt;
+    }
+
+    public String getLastProblem() {
+        return lastProblem;
+    }
+
+    public void setLastProblem(String lastProblem) {
+        this.lastProblem = lastProblem;
+    }
+}
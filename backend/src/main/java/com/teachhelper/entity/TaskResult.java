@@ -0,0 +1,100 @@
+package com.teachhelper.entity;
+
+import java.math.BigDecimal;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * 任务结果行
+ * 批量评估每处理完一个答案写入一行，按主键做键集分页和流式导出，不再把全部结果序列化到任务的 result_data 中。
+ * 表结构由实体生成，读写通过 TaskResultStore 的JDBC语句完成
+ */
+@Entity
+@Table(name = "task_results", indexes = {
+    @Index(name = "idx_task_result_task_id", columnList = "task_id, id"),
+    @Index(name = "idx_task_result_item", columnList = "task_id, item_id")
+})
+public class TaskResult extends BaseEntity {
+
+    @Column(name = "task_id", length = 50, nullable = false)
+    private String taskId;
+
+    /** 结果对应的对象ID（批量评估中为答案ID） */
+    @Column(name = "item_id", nullable = false)
+    private Long itemId;
+
+    @Column(name = "question_id")
+    private Long questionId;
+
+    @Column(name = "student_id")
+    private Long studentId;
+
+    /** SUCCESS / FAILED */
+    @Column(name = "status", nullable = false, length = 20)
+    private String status;
+
+    @Column(name = "score", precision = 10, scale = 2)
+    private BigDecimal score;
+
+    @Column(name = "max_score", precision = 10, scale = 2)
+    private BigDecimal maxScore;
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(Long itemId) {
+        this.itemId = itemId;
+    }
+
+    public Long getQuestionId() {
+        return questionId;
+    }
+
+    public void setQuestionId(Long questionId) {
+        this.questionId = questionId;
+    }
+
+    public Long getStudentId() {
+        return studentId;
+    }
+
+    public void setStudentId(Long studentId) {
+        this.studentId = studentId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public BigDecimal getScore() {
+        return score;
+    }
+
+    public void setScore(BigDecimal score) {
+        this.score = score;
+    }
+
+    public BigDecimal getMaxScore() {
+        return maxScore;
+    }
+
+    public void setMaxScore(BigDecimal maxScore) {
+        this.maxScore = maxScore;
+    }
+}
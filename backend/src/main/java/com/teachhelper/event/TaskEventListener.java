@@ -10,6 +10,7 @@ import com.teachhelper.dto.response.TaskResponse;
 import com.teachhelper.service.task.BatchEvaluationExecutorService;
 import com.teachhelper.service.task.TaskService;
 import com.teachhelper.service.task.TaskProgressCallback;
+import com.teachhelper.service.task.TaskQueueScheduler;
 import com.teachhelper.service.task.TaskRuntimeManager;
 
 /**
@@ -28,9 +29,20 @@ public class TaskEventListener implements ApplicationListener<TaskCreatedEvent>
     @Autowired
     private TaskRuntimeManager taskRuntimeManager;
     
+    @Autowired
+    private TaskQueueScheduler taskQueueScheduler;
+    
     @Override
     public void onApplicationEvent(TaskCreatedEvent event) {
+        // 受运行任务数上限约束，名额不足时排队等待
         TaskResponse task = event.getTask();
+        taskQueueScheduler.submit(task, () -> startTask(task));
+    }
+    
+    /**
+     * 分发给相应的执行器，返回任务的执行结果
+     */
+    private CompletableFuture<Void> startTask(TaskResponse task) {
         String taskType = task.getType();
         String taskId = task.getTaskId();
         
@@ -50,6 +62,7 @@ public class TaskEventListener implements ApplicationListener<TaskCreatedEvent>
                     future = batchEvaluationExecutor.executeBatchEvaluationTask(
                         taskId, 
                         task.getConfig(), 
+                        task.getPriority(),
                         (TaskProgressCallback) taskService
                     );
                     break;
@@ -57,17 +70,19 @@ public class TaskEventListener implements ApplicationListener<TaskCreatedEvent>
                 default:
                     taskService.updateTaskProgress(taskId, 0, 0, "FAILED");
                     taskService.addTaskLog(taskId, "ERROR", "不支持的任务类型: " + taskType);
-                    return;
+                    return null;
             }
             
             // 注册到运行时管理器
             if (future != null) {
                 taskRuntimeManager.registerTask(taskId, future);
             }
+            return future;
             
         } catch (Exception e) {
             taskService.updateTaskProgress(taskId, 0, 0, "FAILED");
             taskService.addTaskLog(taskId, "ERROR", "启动任务失败: " + e.getMessage());
+            return null;
         }
     }
 }
@@ -0,0 +1,31 @@
+package com.teachhelper.repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.teachhelper.entity.EvaluationResultCache;
+
+@Repository
+public interface EvaluationResultCacheRepository extends JpaRepository<EvaluationResultCache, Long> {
+
+    /**
+     * 根据缓存键查找评估结果
+     */
+    Optional<EvaluationResultCache> findByCacheKey(String cacheKey);
+
+    /**
+     * 记录一次缓存命中
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE EvaluationResultCache c SET c.hitCount = c.hitCount + 1, c.lastHitAt = :hitAt WHERE c.id = :id")
+    void recordHit(@Param("id") Long id, @Param("hitAt") LocalDateTime hitAt);
+
+}
@@ -159,6 +159,14 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
         Pageable pageable
     );
     
+    /**
+     * 为指定题目加载选项
+     */
+    @Query("SELECT DISTINCT q FROM Question q " +
+           "LEFT JOIN FETCH q.options " +
+           "WHERE q.id IN :questionIds")
+    List<Question> loadOptionsForQuestions(@Param("questionIds") List<Long> questionIds);
+    
     /**
      * 为指定题目加载评分标准
      */
@@ -124,6 +124,20 @@ public interface StudentAnswerRepository extends JpaRepository<StudentAnswer, Lo
     @Query("SELECT sa FROM StudentAnswer sa WHERE sa.question.exam.id = :examId AND sa.student.studentNumber = :studentNumber ORDER BY sa.createdAt")
     List<StudentAnswer> findByQuestionExamIdAndStudentNumber(@Param("examId") Long examId, @Param("studentNumber") String studentNumber);
     
+    // 只查询答案ID，用于批量评估任务固定答案列表，evaluated 为 null 时不按评估状态筛选
+    @Query("SELECT sa.id FROM StudentAnswer sa WHERE sa.question.id = :questionId " +
+           "AND (:evaluated IS NULL OR sa.isEvaluated = :evaluated) ORDER BY sa.id")
+    List<Long> findIdsByQuestionId(@Param("questionId") Long questionId, @Param("evaluated") Boolean evaluated);
+    
+    @Query("SELECT sa.id FROM StudentAnswer sa WHERE sa.question.exam.id = :examId " +
+           "AND (:evaluated IS NULL OR sa.isEvaluated = :evaluated) ORDER BY sa.id")
+    List<Long> findIdsByExamId(@Param("examId") Long examId, @Param("evaluated") Boolean evaluated);
+    
+    @Query("SELECT sa.id FROM StudentAnswer sa WHERE sa.question.exam.id = :examId AND sa.student.id = :studentId " +
+           "AND (:evaluated IS NULL OR sa.isEvaluated = :evaluated) ORDER BY sa.createdAt")
+    List<Long> findIdsByExamIdAndStudentId(@Param("examId") Long examId, @Param("studentId") Long studentId,
+                                           @Param("evaluated") Boolean evaluated);
+    
     // 带FETCH JOIN的查询方法，用于批量评估时避免LazyInitializationException
     @Query("SELECT sa FROM StudentAnswer sa " +
            "JOIN FETCH sa.question q " +
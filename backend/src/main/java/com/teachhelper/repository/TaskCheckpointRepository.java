@@ -0,0 +1,30 @@
+package com.teachhelper.repository;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.teachhelper.entity.TaskCheckpoint;
+
+@Repository
+public interface TaskCheckpointRepository extends JpaRepository<TaskCheckpoint, Long> {
+
+    /**
+     * 根据任务ID查找检查点
+     */
+    Optional<TaskCheckpoint> findByTaskId(String taskId);
+
+    /**
+     * 删除任务的检查点
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM TaskCheckpoint c WHERE c.taskId = :taskId")
+    int deleteByTaskId(@Param("taskId") String taskId);
+
+}
@@ -0,0 +1,29 @@
+package com.teachhelper.repository;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.teachhelper.entity.TaskLogSummary;
+
+@Repository
+public interface TaskLogSummaryRepository extends JpaRepository<TaskLogSummary, Long> {
+
+    /**
+     * 根据任务ID查找日志汇总
+     */
+    Optional<TaskLogSummary> findByTaskId(String taskId);
+
+    /**
+     * 删除任务的日志汇总
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM TaskLogSummary s WHERE s.taskId = :taskId")
+    int deleteByTaskId(@Param("taskId") String taskId);
+}
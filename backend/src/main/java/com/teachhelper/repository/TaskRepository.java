@@ -25,6 +25,18 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
      */
     Optional<Task> findByTaskId(String taskId);
 
+    /**
+     * 只查询任务状态，供执行中的任务轮询暂停/取消
+     */
+    @Query("SELECT t.status FROM Task t WHERE t.taskId = :taskId")
+    Optional<TaskStatus> findStatusByTaskId(@Param("taskId") String taskId);
+
+    /**
+     * 只查询任务创建者ID，供订阅任务更新时校验权限
+     */
+    @Query("SELECT t.createdBy.id FROM Task t WHERE t.taskId = :taskId")
+    Optional<Long> findCreatorIdByTaskId(@Param("taskId") String taskId);
+
     /**
      * 根据状态查找任务
      */
@@ -67,6 +67,13 @@ public class UserAIConfigService {
         return userAIConfigRepository.findByUserIdAndIsDefaultTrueAndIsActiveTrue(userId);
     }
     
+    /**
+     * 获取用户所有已激活的AI配置，用于在多个配置之间分摊请求
+     */
+    public List<UserAIConfig> getUserActiveAIConfigs(Long userId) {
+        return userAIConfigRepository.findByUserIdAndIsActiveTrue(userId);
+    }
+    
     /**
      * 创建或更新AI配置
      */
@@ -580,13 +587,19 @@ public class UserAIConfigService {
         return response;
     }
     
-    private BigDecimal calculateInputCost(AIProvider provider, Integer tokens) {
+    /**
+     * 按提供商单价计算输入token费用
+     */
+    public BigDecimal calculateInputCost(AIProvider provider, Integer tokens) {
         if (tokens == null || tokens == 0) return BigDecimal.ZERO;
         double costPer1K = provider.getInputTokenPrice();
         return BigDecimal.valueOf(tokens * costPer1K / 1000.0).setScale(6, BigDecimal.ROUND_HALF_UP);
     }
     
-    private BigDecimal calculateOutputCost(AIProvider provider, Integer tokens) {
+    /**
+     * 按提供商单价计算输出token费用
+     */
+    public BigDecimal calculateOutputCost(AIProvider provider, Integer tokens) {
         if (tokens == null || tokens == 0) return BigDecimal.ZERO;
         double costPer1K = provider.getOutputTokenPrice();
         return BigDecimal.valueOf(tokens * costPer1K / 1000.0).setScale(6, BigDecimal.ROUND_HALF_UP);
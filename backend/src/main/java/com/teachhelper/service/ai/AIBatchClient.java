@@ -0,0 +1,81 @@
+package com.teachhelper.service.ai;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import com.teachhelper.entity.UserAIConfig;
+
+/**
+ * AI客户端的离线批处理扩展
+ * 提供商的异步批处理接口按JSONL文件一次提交大量请求，在完成窗口（通常24小时）内处理完毕，价格明显低于实时接口。
+ * 流程：逐行写入请求 -> 提交作业 -> 轮询状态 -> 下载结果文件逐行解析
+ */
+public interface AIBatchClient {
+
+    /**
+     * 把一个请求序列化为批处理输入文件中的一行
+     * @param customId 请求标识，结果中原样返回
+     * @param prompt 提示词
+     * @param config AI配置
+     * @return 不含换行符的JSON
+     */
+    String toBatchLine(String customId, String prompt, UserAIConfig config);
+
+    /**
+     * 上传输入文件并创建批处理作业
+     * @param requestsFile JSONL输入文件
+     * @param config AI配置
+     */
+    CompletableFuture<BatchJob> submitBatch(Path requestsFile, UserAIConfig config);
+
+    /**
+     * 查询作业状态
+     */
+    CompletableFuture<BatchJob> getBatch(String jobId, UserAIConfig config);
+
+    /**
+     * 取消作业，已完成的请求仍会出现在结果文件中
+     */
+    CompletableFuture<BatchJob> cancelBatch(String jobId, UserAIConfig config);
+
+    /**
+     * 把作业的结果文件下载到本地，结果文件可能很大，不整体读入内存
+     */
+    CompletableFuture<Path> downloadResults(BatchJob job, UserAIConfig config, Path target);
+
+    /**
+     * 解析结果文件中的一行
+     */
+    BatchResult parseResultLine(String line);
+
+    /**
+     * 批处理作业状态
+     */
+    enum BatchStatus {
+        /** 已提交，正在校验或排队 */
+        PENDING,
+        IN_PROGRESS,
+        COMPLETED,
+        FAILED,
+        /** 超过完成窗口，只有部分请求完成 */
+        EXPIRED,
+        CANCELLED;
+
+        public boolean isTerminal() {
+            return this != PENDING && this != IN_PROGRESS;
+        }
+    }
+
+    /**
+     * 批处理作业
+     * @param resultLocation 结果文件的标识，作业结束且有结果时非空
+     */
+    record BatchJob(String id, BatchStatus status, int total, int completed, int failed, String resultLocation) {
+    }
+
+    /**
+     * 批处理中一个请求的结果，失败时 response 为失败的AI响应
+     */
+    record BatchResult(String customId, AIResponse response) {
+    }
+}
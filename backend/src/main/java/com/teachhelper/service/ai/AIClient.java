@@ -1,5 +1,9 @@
 package com.teachhelper.service.ai;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import com.teachhelper.entity.UserAIConfig;
 
 /**
@@ -8,12 +12,127 @@ import com.teachhelper.entity.UserAIConfig;
 public interface AIClient {
     
     /**
-     * 发送聊天请求
+     * 发送聊天请求（同步），等待异步请求完成
+     * @param prompt 提示词
+     * @param config AI配置
+     * @return AI响应
+     */
+    default AIResponse chat(String prompt, UserAIConfig config) {
+        return chat(prompt, config, AIResponseFormat.TEXT);
+    }
+    
+    /**
+     * 发送聊天请求（同步），指定期望的响应格式
+     */
+    default AIResponse chat(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return await(chatAsync(prompt, config, format));
+    }
+    
+    /**
+     * 发送聊天请求（同步），令牌取消时中止请求并返回取消的失败响应
+     */
+    default AIResponse chat(String prompt, UserAIConfig config, AIResponseFormat format, CancellationToken token) {
+        return await(chatAsync(prompt, config, format, token));
+    }
+    
+    /**
+     * 同步等待AI响应，中断、异常和取消都转换为带错误分类的失败响应
+     */
+    private static AIResponse await(CompletableFuture<AIResponse> call) {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return AIResponse.failure(AIErrorType.REJECTED.name(), "等待AI响应时被中断");
+        } catch (CancellationException e) {
+            return cancelledResponse();
+        } catch (ExecutionException e) {
+            Throwable cause = AIHttpTransport.rootCause(e);
+            return AIResponse.failure(AIErrorType.fromException(cause).name(), "AI调用异常: " + cause.getMessage());
+        }
+    }
+    
+    /**
+     * 发送聊天请求（异步），请求在途期间不占用调用线程
+     * 调用失败时以失败的AI响应正常完成，而不是异常完成
      * @param prompt 提示词
      * @param config AI配置
      * @return AI响应
      */
-    AIResponse chat(String prompt, UserAIConfig config);
+    CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config);
+    
+    /**
+     * 发送聊天请求（异步），指定期望的响应格式；不支持JSON模式的客户端忽略该参数
+     */
+    default CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return chatAsync(prompt, config);
+    }
+    
+    /**
+     * 发送可取消的聊天请求（异步）：令牌取消时中止在途的HTTP交换、放弃排队中的并发许可并停止重试，
+     * 返回的Future以错误类型为 CANCELLED 的失败响应完成。
+     * 默认实现只能提前结束返回的Future，支持中止下层请求的客户端需要覆盖
+     */
+    default CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                    CancellationToken token) {
+        if (token.isCancelled()) {
+            return CompletableFuture.completedFuture(cancelledResponse());
+        }
+        CompletableFuture<AIResponse> result = new CompletableFuture<>();
+        CancellationToken.Registration registration = token.onCancel(() -> result.complete(cancelledResponse()));
+        chatAsync(prompt, config, format).whenComplete((response, error) -> {
+            registration.unregister();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * 发送流式聊天请求，生成的文本逐段交给接收方，接收方返回false时取消剩余的生成
+     * 不支持流式接口的提供商等完整响应返回后一次性交给接收方
+     * @param prompt 提示词
+     * @param config AI配置
+     * @param sink 增量内容接收方
+     * @return 汇总后的AI响应（提前结束时为已生成的部分）；取消该Future会中止生成
+     */
+    default CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+    }
+    
+    /**
+     * 发送流式聊天请求，指定期望的响应格式；不支持JSON模式的客户端忽略该参数
+     */
+    default CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                     AIResponseFormat format) {
+        return chatAsync(prompt, config, format).thenApply(response -> {
+            if (response.isSuccess() && response.getContent() != null) {
+                sink.onDelta(response.getContent());
+            }
+            return response;
+        });
+    }
+    
+    /**
+     * 发送可取消的流式聊天请求，令牌取消时取消返回的Future，各层据此中止响应流并归还许可
+     */
+    default CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                     AIResponseFormat format, CancellationToken token) {
+        if (token.isCancelled()) {
+            return CompletableFuture.completedFuture(cancelledResponse());
+        }
+        return token.bind(chatStream(prompt, config, sink, format));
+    }
+    
+    /**
+     * 调用因令牌取消而中止时的响应
+     */
+    static AIResponse cancelledResponse() {
+        return AIResponse.failure(AIErrorType.CANCELLED.name(), "任务已取消，AI调用被中止");
+    }
     
     /**
      * 检查配置是否有效
@@ -29,7 +148,7 @@ public interface AIClient {
     String getProviderName();
     
     /**
-     * 估算token数量
+     * 按字符类别粗略估算token数量，需要按模型词表精确计数时使用 TokenizerService
      * @param text 文本内容
      * @return token数量
      */
@@ -2,11 +2,10 @@ package com.teachhelper.service.ai;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import com.teachhelper.entity.AIProvider;
 import com.teachhelper.service.ai.impl.ClaudeClient;
@@ -21,21 +20,35 @@ import com.teachhelper.service.ai.impl.OpenAIClient;
 public class AIClientFactory {
     
     private final Map<AIProvider, AIClient> clients = new HashMap<>();
+    private final Map<AIProvider, AIBatchClient> batchClients = new HashMap<>();
     
     @Autowired
     public AIClientFactory(OpenAIClient openAIClient,
                           DeepSeekClient deepSeekClient,
                           ClaudeClient claudeClient,
-                          @Qualifier("aiRestTemplate") RestTemplate aiRestTemplate) {
+                          AIHttpTransport aiHttpTransport,
+                          AdaptiveConcurrencyLimiter concurrencyLimiter,
+                          AIResilienceService resilienceService) {
         clients.put(AIProvider.OPENAI, openAIClient);
         clients.put(AIProvider.DEEPSEEK, deepSeekClient);
         clients.put(AIProvider.CLAUDE, claudeClient);
         
-        // 添加其他提供商的默认实现，传入配置好的RestTemplate
-        clients.put(AIProvider.ALIBABA_TONGYI, new GenericAIClient(AIProvider.ALIBABA_TONGYI, aiRestTemplate));
-        clients.put(AIProvider.BAIDU_ERNIE, new GenericAIClient(AIProvider.BAIDU_ERNIE, aiRestTemplate));
-        clients.put(AIProvider.TENCENT_HUNYUAN, new GenericAIClient(AIProvider.TENCENT_HUNYUAN, aiRestTemplate));
-        clients.put(AIProvider.CUSTOM, new GenericAIClient(AIProvider.CUSTOM, aiRestTemplate));
+        // 添加其他提供商的默认实现，共用同一个HTTP传输层
+        clients.put(AIProvider.ALIBABA_TONGYI, new GenericAIClient(AIProvider.ALIBABA_TONGYI, aiHttpTransport));
+        clients.put(AIProvider.BAIDU_ERNIE, new GenericAIClient(AIProvider.BAIDU_ERNIE, aiHttpTransport));
+        clients.put(AIProvider.TENCENT_HUNYUAN, new GenericAIClient(AIProvider.TENCENT_HUNYUAN, aiHttpTransport));
+        clients.put(AIProvider.CUSTOM, new GenericAIClient(AIProvider.CUSTOM, aiHttpTransport));
+        
+        // 离线批处理不经过实时调用的并发限制和重试，直接使用原始客户端
+        clients.forEach((provider, client) -> {
+            if (client instanceof AIBatchClient batchClient) {
+                batchClients.put(provider, batchClient);
+            }
+        });
+        
+        // 所有客户端统一经过自适应并发限制，外层再加熔断、退避重试和对冲请求
+        clients.replaceAll((provider, client) -> new ResilientAIClient(
+            new ConcurrencyLimitedAIClient(client, concurrencyLimiter), resilienceService));
     }
     
     /**
@@ -49,6 +62,13 @@ public class AIClientFactory {
         return client;
     }
     
+    /**
+     * 获取指定提供商的离线批处理客户端，提供商没有批处理接口时为空
+     */
+    public Optional<AIBatchClient> getBatchClient(AIProvider provider) {
+        return Optional.ofNullable(batchClients.get(provider));
+    }
+    
     /**
      * 检查提供商是否支持
      */
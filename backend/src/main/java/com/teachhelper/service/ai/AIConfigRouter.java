@@ -0,0 +1,418 @@
+package com.teachhelper.service.ai;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.UserAIConfigService;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+
+/**
+ * 在用户的多个AI配置之间分摊请求
+ * 用户激活了多个AI配置时，评估请求按各配置近期的平滑延迟、错误率和单位token费用加权随机分配，
+ * 熔断打开的配置不参与分配；调用因熔断、限流、服务端错误或超时失败时自动切换到下一个配置。
+ * 只有一个激活配置或未开启时直接使用指定配置的客户端
+ */
+@Service
+public class AIConfigRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AIConfigRouter.class);
+
+    /** 计算单位费用时按输入、输出各1000个token估算 */
+    private static final int COST_SAMPLE_TOKENS = 1000;
+
+    /** 响应元数据：实际作答的配置ID */
+    public static final String ROUTED_CONFIG_ID = "routedConfigId";
+
+    /** 响应元数据：实际作答的配置 */
+    public static final String ROUTED_CONFIG = "routedConfig";
+
+    private final AIClientFactory aiClientFactory;
+    private final AIResilienceService resilienceService;
+    private final UserAIConfigService userAIConfigService;
+    private final TokenizerService tokenizerService;
+
+    private final boolean enabled;
+    private final long refreshIntervalMs;
+    private final double costWeight;
+    private final double errorPenalty;
+    private final double ewmaAlpha;
+    private final double defaultLatencyMs;
+
+    private final Map<Long, ConfigGroup> groups = new ConcurrentHashMap<>();
+    private final Map<Object, ConfigStats> stats = new ConcurrentHashMap<>();
+    private final Map<AIProvider, Double> unitCosts = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AIConfigRouter(
+            AIClientFactory aiClientFactory,
+            AIResilienceService resilienceService,
+            UserAIConfigService userAIConfigService,
+            TokenizerService tokenizerService,
+            @Value("${app.ai.routing.enabled:true}") boolean enabled,
+            @Value("${app.ai.routing.refresh-interval-ms:60000}") long refreshIntervalMs,
+            @Value("${app.ai.routing.cost-weight:0.5}") double costWeight,
+            @Value("${app.ai.routing.error-penalty:4.0}") double errorPenalty,
+            @Value("${app.ai.routing.ewma-alpha:0.2}") double ewmaAlpha,
+            @Value("${app.ai.routing.default-latency-ms:2000}") double defaultLatencyMs) {
+        this.aiClientFactory = aiClientFactory;
+        this.resilienceService = resilienceService;
+        this.userAIConfigService = userAIConfigService;
+        this.tokenizerService = tokenizerService;
+        this.enabled = enabled;
+        this.refreshIntervalMs = Math.max(0, refreshIntervalMs);
+        this.costWeight = Math.max(0, costWeight);
+        this.errorPenalty = Math.max(0, errorPenalty);
+        this.ewmaAlpha = Math.min(1.0, Math.max(0.01, ewmaAlpha));
+        this.defaultLatencyMs = Math.max(1, defaultLatencyMs);
+    }
+
+    /**
+     * 获取以 config 为首选配置的客户端：用户有多个激活配置时返回在这些配置间分摊请求的客户端，
+     * 否则返回首选配置提供商的客户端。返回的客户端调用时传入的配置仍视为首选配置
+     */
+    public AIClient clientFor(UserAIConfig config) {
+        AIClient direct = aiClientFactory.getClient(config.getProvider());
+        if (!enabled || config.getUserId() == null) {
+            return direct;
+        }
+        List<UserAIConfig> candidates = candidatesFor(config);
+        return candidates.size() < 2 ? direct : new RoutingAIClient(direct, candidates);
+    }
+
+    /**
+     * 用户的可用配置，首选配置总在其中
+     */
+    private List<UserAIConfig> candidatesFor(UserAIConfig preferred) {
+        long now = System.currentTimeMillis();
+        ConfigGroup group = groups.compute(preferred.getUserId(), (userId, current) -> {
+            if (current != null && now - current.loadedAt() < refreshIntervalMs) {
+                return current;
+            }
+            List<UserAIConfig> configs = new ArrayList<>();
+            try {
+                for (UserAIConfig config : userAIConfigService.getUserActiveAIConfigs(userId)) {
+                    if (config.getApiKey() != null && !config.getApiKey().isBlank()
+                            && aiClientFactory.isSupported(config.getProvider())) {
+                        configs.add(config);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("加载用户 {} 的AI配置失败，只使用首选配置: {}", userId, e.getMessage());
+            }
+            return new ConfigGroup(configs, now);
+        });
+
+        List<UserAIConfig> candidates = new ArrayList<>(group.configs().size() + 1);
+        candidates.add(preferred);
+        for (UserAIConfig config : group.configs()) {
+            if (!sameConfig(config, preferred)) {
+                candidates.add(config);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 按权重随机选择一个尚未尝试过的配置，全部熔断时按顺序返回第一个未尝试的配置
+     * @param requiredTokens 提示词和输出预留的token数，上下文窗口放不下的配置不参与选择
+     */
+    UserAIConfig choose(List<UserAIConfig> candidates, Set<UserAIConfig> tried, int requiredTokens) {
+        double minCost = Double.MAX_VALUE;
+        for (UserAIConfig config : candidates) {
+            minCost = Math.min(minCost, unitCost(config));
+        }
+        List<UserAIConfig> eligible = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        UserAIConfig fallback = null;
+        double total = 0;
+        for (UserAIConfig config : candidates) {
+            if (tried.contains(config) || config.getProvider().getContextWindow(config.getModelName()) < requiredTokens) {
+                continue;
+            }
+            if (fallback == null) {
+                fallback = config;
+            }
+            if (isCircuitOpen(config)) {
+                continue;
+            }
+            double weight = weight(config, minCost);
+            eligible.add(config);
+            weights.add(weight);
+            total += weight;
+        }
+        if (eligible.isEmpty()) {
+            return fallback;
+        }
+        double point = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < eligible.size(); i++) {
+            point -= weights.get(i);
+            if (point <= 0) {
+                return eligible.get(i);
+            }
+        }
+        return eligible.get(eligible.size() - 1);
+    }
+
+    /**
+     * 权重与延迟、错误惩罚和相对费用成反比，费用的影响程度由 cost-weight 控制
+     */
+    private double weight(UserAIConfig config, double minCost) {
+        ConfigStats configStats = stats.get(statsKey(config));
+        double latency = configStats != null ? configStats.latencyMs() : defaultLatencyMs;
+        double errorRate = configStats != null ? configStats.errorRate() : 0;
+        double cost = unitCost(config);
+        double relativeCost = minCost > 0 ? cost / minCost : 1;
+        return 1.0 / (Math.max(1, latency) * (1 + errorPenalty * errorRate) * Math.pow(relativeCost, costWeight));
+    }
+
+    /**
+     * 提供商单价固定，按提供商缓存，避免每次选择都经过事务代理
+     */
+    private double unitCost(UserAIConfig config) {
+        return unitCosts.computeIfAbsent(config.getProvider(), provider -> {
+            BigDecimal input = userAIConfigService.calculateInputCost(provider, COST_SAMPLE_TOKENS);
+            BigDecimal output = userAIConfigService.calculateOutputCost(provider, COST_SAMPLE_TOKENS);
+            return input.add(output).doubleValue();
+        });
+    }
+
+    private boolean isCircuitOpen(UserAIConfig config) {
+        CircuitBreaker.State state = resilienceService.circuitBreaker(config.getProvider().name()).getState();
+        return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    /**
+     * 记录一次调用结果；内容解析失败和调用方取消不算配置的错误
+     */
+    void record(UserAIConfig config, AIResponse response, long latencyMs) {
+        AIErrorType errorType = response.isSuccess() ? null : AIErrorType.fromResponse(response);
+        if (errorType == AIErrorType.PARSE_ERROR || errorType == AIErrorType.CANCELLED) {
+            return;
+        }
+        ConfigStats configStats = stats.computeIfAbsent(statsKey(config), key -> new ConfigStats(config));
+        configStats.update(errorType == null ? latencyMs : -1, errorType != null, ewmaAlpha);
+    }
+
+    /**
+     * 调用失败后是否换一个配置重试：熔断打开或提供商过载
+     */
+    private static boolean shouldFailover(AIResponse response) {
+        if (response.isSuccess()) {
+            return false;
+        }
+        AIErrorType errorType = AIErrorType.fromResponse(response);
+        return errorType == AIErrorType.CIRCUIT_OPEN || errorType.isOverload();
+    }
+
+    private static Object statsKey(UserAIConfig config) {
+        return config.getId() != null ? config.getId() : System.identityHashCode(config);
+    }
+
+    private static boolean sameConfig(UserAIConfig a, UserAIConfig b) {
+        return a == b || (a.getId() != null && a.getId().equals(b.getId()));
+    }
+
+    /**
+     * 实际作答的配置：响应经路由客户端分配到其他配置时返回该配置，否则返回调用时传入的配置
+     */
+    public static UserAIConfig answeredBy(AIResponse response, UserAIConfig requested) {
+        Object routed = response != null && response.getMetadata() != null ? response.getMetadata().get(ROUTED_CONFIG) : null;
+        return routed instanceof UserAIConfig config && !sameConfig(config, requested) ? config : requested;
+    }
+
+    private static AIResponse routed(AIResponse response, UserAIConfig chosen) {
+        return response.withMetadata(ROUTED_CONFIG_ID, chosen.getId()).withMetadata(ROUTED_CONFIG, chosen);
+    }
+
+    /**
+     * 各配置的路由统计
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        List<Map<String, Object>> configs = new ArrayList<>();
+        stats.forEach((key, configStats) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("configId", key);
+            item.put("provider", configStats.provider);
+            item.put("model", configStats.model);
+            item.put("latencyMs", Math.round(configStats.latencyMs()));
+            item.put("errorRate", Math.round(configStats.errorRate() * 1000) / 1000.0);
+            item.put("calls", configStats.calls());
+            configs.add(item);
+        });
+        snapshot.put("configs", configs);
+        return snapshot;
+    }
+
+    private record ConfigGroup(List<UserAIConfig> configs, long loadedAt) {
+    }
+
+    /**
+     * 单个配置的平滑延迟（只统计成功调用）和平滑错误率
+     */
+    private final class ConfigStats {
+        private final String provider;
+        private final String model;
+        private double latencyMs = defaultLatencyMs;
+        private double errorRate;
+        private long calls;
+
+        ConfigStats(UserAIConfig config) {
+            this.provider = config.getProvider().name();
+            this.model = config.getModelName();
+        }
+
+        synchronized void update(long latency, boolean failed, double alpha) {
+            if (latency >= 0) {
+                latencyMs = calls == 0 ? latency : latencyMs + alpha * (latency - latencyMs);
+            }
+            errorRate += alpha * ((failed ? 1 : 0) - errorRate);
+            calls++;
+        }
+
+        synchronized double latencyMs() {
+            return latencyMs;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized long calls() {
+            return calls;
+        }
+    }
+
+    /**
+     * 在一组配置之间分摊请求的客户端，传入的配置参数被忽略，由路由决定实际使用的配置
+     */
+    private final class RoutingAIClient implements AIClient {
+        private final AIClient preferredClient;
+        private final List<UserAIConfig> candidates;
+
+        RoutingAIClient(AIClient preferredClient, List<UserAIConfig> candidates) {
+            this.preferredClient = preferredClient;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+            return chatAsync(prompt, config, AIResponseFormat.TEXT);
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+            return chatAsync(prompt, config, format, CancellationToken.NONE);
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                       CancellationToken token) {
+            return attempt(prompt, format, token, new HashSet<>(), requiredTokens(prompt), null);
+        }
+
+        private CompletableFuture<AIResponse> attempt(String prompt, AIResponseFormat format, CancellationToken token,
+                                                      Set<UserAIConfig> tried, int requiredTokens, AIResponse lastFailure) {
+            UserAIConfig chosen = choose(candidates, tried, requiredTokens);
+            if (chosen == null) {
+                return CompletableFuture.completedFuture(lastFailure != null ? lastFailure
+                    : AIResponse.failure(AIErrorType.CLIENT_ERROR.name(), "没有上下文窗口足够的AI配置"));
+            }
+            tried.add(chosen);
+            long start = System.currentTimeMillis();
+            return aiClientFactory.getClient(chosen.getProvider()).chatAsync(prompt, chosen, format, token).thenCompose(response -> {
+                record(chosen, response, System.currentTimeMillis() - start);
+                if (shouldFailover(response) && tried.size() < candidates.size()) {
+                    logger.info("AI配置 {}({}) 调用失败，切换到其他配置: {}", chosen.getId(), chosen.getProvider(),
+                        response.getErrorMessage());
+                    return attempt(prompt, format, token, tried, requiredTokens, response);
+                }
+                return CompletableFuture.completedFuture(routed(response, chosen));
+            });
+        }
+
+        /**
+         * 流式调用只在还没有收到任何内容时切换配置
+         */
+        @Override
+        public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+            return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                        AIResponseFormat format) {
+            return attemptStream(prompt, format, sink, new HashSet<>(), requiredTokens(prompt), null);
+        }
+
+        private CompletableFuture<AIResponse> attemptStream(String prompt, AIResponseFormat format, AIStreamSink sink,
+                                                            Set<UserAIConfig> tried, int requiredTokens,
+                                                            AIResponse lastFailure) {
+            UserAIConfig chosen = choose(candidates, tried, requiredTokens);
+            if (chosen == null) {
+                return CompletableFuture.completedFuture(lastFailure != null ? lastFailure
+                    : AIResponse.failure(AIErrorType.CLIENT_ERROR.name(), "没有上下文窗口足够的AI配置"));
+            }
+            tried.add(chosen);
+            long start = System.currentTimeMillis();
+            AtomicBoolean received = new AtomicBoolean();
+            CompletableFuture<AIResponse> call = aiClientFactory.getClient(chosen.getProvider())
+                .chatStream(prompt, chosen, delta -> {
+                    received.set(true);
+                    return sink.onDelta(delta);
+                }, format);
+            CompletableFuture<AIResponse> result = call.thenCompose(response -> {
+                record(chosen, response, System.currentTimeMillis() - start);
+                if (!received.get() && shouldFailover(response) && tried.size() < candidates.size()) {
+                    logger.info("AI配置 {}({}) 流式调用失败，切换到其他配置: {}", chosen.getId(), chosen.getProvider(),
+                        response.getErrorMessage());
+                    return attemptStream(prompt, format, sink, tried, requiredTokens, response);
+                }
+                return CompletableFuture.completedFuture(routed(response, chosen));
+            });
+            // 调用方取消时中止当前的流
+            result.whenComplete((response, error) -> call.cancel(true));
+            return result;
+        }
+
+        private int requiredTokens(String prompt) {
+            UserAIConfig preferred = candidates.get(0);
+            int maxTokens = preferred.getMaxTokens() != null ? preferred.getMaxTokens() : 0;
+            return tokenizerService.forConfig(preferred).countTokens(prompt) + maxTokens;
+        }
+
+        @Override
+        public boolean validateConfig(UserAIConfig config) {
+            return preferredClient.validateConfig(config);
+        }
+
+        @Override
+        public String getProviderName() {
+            return preferredClient.getProviderName();
+        }
+
+        @Override
+        public int estimateTokens(String text) {
+            return preferredClient.estimateTokens(text);
+        }
+    }
+}
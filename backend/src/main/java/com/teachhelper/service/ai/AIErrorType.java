@@ -0,0 +1,113 @@
+package com.teachhelper.service.ai;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * AI调用错误分类
+ * 用于区分限流、服务端错误、超时等不同的失败原因，
+ * 供并发控制等组件据此决定是否需要退避
+ */
+public enum AIErrorType {
+    /** HTTP 429，提供商限流 */
+    RATE_LIMITED,
+    /** HTTP 5xx，提供商服务端错误 */
+    SERVER_ERROR,
+    /** 连接或读取超时 */
+    TIMEOUT,
+    /** 网络不可达、连接被拒绝等 */
+    NETWORK,
+    /** 其他 HTTP 4xx，例如鉴权失败、参数错误 */
+    CLIENT_ERROR,
+    /** 响应解析失败 */
+    PARSE_ERROR,
+    /** 本地拒绝（例如等待并发许可超时） */
+    REJECTED,
+    /** 提供商熔断器处于打开状态，调用被快速拒绝 */
+    CIRCUIT_OPEN,
+    /** 调用方已取消（例如所属任务被取消），不代表提供商状态 */
+    CANCELLED,
+    /** 无法识别的错误 */
+    UNKNOWN;
+
+    /**
+     * 是否为提供商过载信号（需要降低并发）
+     */
+    public boolean isOverload() {
+        return this == RATE_LIMITED || this == SERVER_ERROR || this == TIMEOUT;
+    }
+
+    /**
+     * 根据HTTP状态码分类
+     */
+    public static AIErrorType fromStatus(int statusCode) {
+        if (statusCode == 429) {
+            return RATE_LIMITED;
+        }
+        if (statusCode == 408 || statusCode == 504) {
+            return TIMEOUT;
+        }
+        if (statusCode >= 500) {
+            return SERVER_ERROR;
+        }
+        if (statusCode >= 400) {
+            return CLIENT_ERROR;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 根据异常分类
+     */
+    public static AIErrorType fromException(Throwable e) {
+        if (e instanceof HttpStatusCodeException statusException) {
+            return fromStatus(statusException.getStatusCode().value());
+        }
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof java.util.concurrent.CancellationException) {
+                return CANCELLED;
+            }
+            if (cause instanceof SocketTimeoutException
+                    || cause instanceof java.net.http.HttpTimeoutException
+                    || cause instanceof java.util.concurrent.TimeoutException) {
+                return TIMEOUT;
+            }
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return NETWORK;
+            }
+            if (cause instanceof com.fasterxml.jackson.core.JsonProcessingException) {
+                return PARSE_ERROR;
+            }
+            cause = cause.getCause();
+        }
+        if (e instanceof ResourceAccessException) {
+            return NETWORK;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 根据AI响应分类，成功的响应返回 null
+     */
+    public static AIErrorType fromResponse(AIResponse response) {
+        if (response == null) {
+            return UNKNOWN;
+        }
+        if (response.isSuccess()) {
+            return null;
+        }
+        if (response.getErrorCode() != null) {
+            try {
+                return valueOf(response.getErrorCode());
+            } catch (IllegalArgumentException e) {
+                // 非分类错误码，按未知处理
+            }
+        }
+        return UNKNOWN;
+    }
+}
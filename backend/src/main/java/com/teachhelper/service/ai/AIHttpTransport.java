@@ -0,0 +1,756 @@
+package com.teachhelper.service.ai;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * AI请求共享的HTTP传输层
+ * 基于JDK HttpClient：HTTPS接口通过ALPN协商HTTP/2多路复用，不支持时回退到HTTP/1.1长连接；
+ * 明文HTTP接口固定使用HTTP/1.1，避免带请求体的h2c升级。
+ * 同时按主机限制同时占用的连接数，请求gzip压缩响应，并把连接占用情况导出为指标；
+ * 流式（SSE）请求逐事件回调，可以在中途取消剩余的生成
+ */
+@Component
+public class AIHttpTransport implements ClientHttpRequestInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(AIHttpTransport.class);
+
+    /** JDK HttpClient 不允许手动设置的请求头 */
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maxConnectionsPerHost;
+    private final long acquireTimeoutMs;
+    private final boolean http2Enabled;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, HostPool> hostPools = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient secureClient;
+    private final HttpClient plainClient;
+    private volatile ClientHttpRequestFactory requestFactory;
+
+    @Autowired
+    public AIHttpTransport(
+            @Value("${app.ai.http.connect-timeout-ms:30000}") long connectTimeoutMs,
+            @Value("${app.ai.http.read-timeout-ms:120000}") long readTimeoutMs,
+            @Value("${app.ai.http.max-connections-per-host:64}") int maxConnectionsPerHost,
+            @Value("${app.ai.http.acquire-timeout-ms:60000}") long acquireTimeoutMs,
+            @Value("${app.ai.http.keep-alive-seconds:300}") long keepAliveSeconds,
+            @Value("${app.ai.http.http2-enabled:true}") boolean http2Enabled,
+            @Value("${app.ai.http.io-threads:4}") int ioThreads,
+            MeterRegistry meterRegistry) {
+        this.connectTimeout = Duration.ofMillis(Math.max(1000, connectTimeoutMs));
+        this.readTimeout = Duration.ofMillis(Math.max(1000, readTimeoutMs));
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.acquireTimeoutMs = Math.max(0, acquireTimeoutMs);
+        this.http2Enabled = http2Enabled;
+        this.meterRegistry = meterRegistry;
+        // JDK HttpClient的空闲连接保活时间只能通过系统属性设置，需在创建客户端之前生效
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(Math.max(1, keepAliveSeconds)));
+        }
+        // 异步请求的回调在少量固定线程上执行，在途请求本身不占用线程
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(Math.max(1, ioThreads), runnable -> {
+            Thread thread = new Thread(runnable, "ai-http-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.secureClient = createClient(http2Enabled ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1, ioExecutor);
+        this.plainClient = createClient(HttpClient.Version.HTTP_1_1, ioExecutor);
+    }
+
+    /**
+     * 所有AI客户端共用的请求工厂，HTTPS走HTTP/2（可协商回退），HTTP走HTTP/1.1
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        if (requestFactory == null) {
+            synchronized (this) {
+                if (requestFactory == null) {
+                    ClientHttpRequestFactory secure = createFactory(secureClient);
+                    ClientHttpRequestFactory plain = createFactory(plainClient);
+                    requestFactory = (uri, method) -> ("https".equalsIgnoreCase(uri.getScheme()) ? secure : plain)
+                        .createRequest(uri, method);
+                    logger.info("AI HTTP传输层初始化: HTTP/2={}, 每主机最大连接数={}, 读取超时={}s",
+                        http2Enabled, maxConnectionsPerHost, readTimeout.toSeconds());
+                }
+            }
+        }
+        return requestFactory;
+    }
+
+    /**
+     * 非阻塞地发送JSON POST请求，连接名额不足时排队等待而不占用线程。
+     * 返回的Future只会因网络、超时等传输异常而异常完成，非2xx状态码作为正常响应返回
+     */
+    public CompletableFuture<Response> postJsonAsync(String url, HttpHeaders headers, Object body) {
+        return postJsonAsync(url, headers, body, CancellationToken.NONE);
+    }
+
+    /**
+     * 可取消地发送JSON POST请求：令牌取消时中止在途的HTTP交换并立即归还连接名额，
+     * 返回的Future以 CancellationException 异常完成
+     */
+    public CompletableFuture<Response> postJsonAsync(String url, HttpHeaders headers, Object body, CancellationToken token) {
+        URI uri;
+        byte[] payload;
+        try {
+            uri = URI.create(url);
+            payload = objectMapper.writeValueAsBytes(body);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return sendPooled(uri, buildPost(uri, headers, payload, true), HttpResponse.BodyHandlers.ofByteArray(), token)
+            .thenApply(AIHttpTransport::toResponse);
+    }
+
+    /**
+     * 非阻塞地发送GET请求，用于查询批处理作业等轻量接口
+     */
+    public CompletableFuture<Response> getAsync(String url, HttpHeaders headers) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri).timeout(readTimeout).GET();
+        copyHeaders(headers, builder);
+        if (!headers.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            builder.header(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        return sendPooled(uri, builder.build(), HttpResponse.BodyHandlers.ofByteArray(), CancellationToken.NONE)
+            .thenApply(AIHttpTransport::toResponse);
+    }
+
+    /**
+     * 以 multipart/form-data 上传文件，文件内容直接从磁盘流式发送，不读入内存
+     * @param fields 普通表单字段
+     * @param fileField 文件字段名
+     */
+    public CompletableFuture<Response> uploadFileAsync(String url, HttpHeaders headers, Map<String, String> fields,
+                                                       String fileField, Path file) {
+        URI uri;
+        java.net.http.HttpRequest.BodyPublisher filePublisher;
+        try {
+            uri = URI.create(url);
+            filePublisher = java.net.http.HttpRequest.BodyPublishers.ofFile(file);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String boundary = "----TeachHelper" + UUID.randomUUID().toString().replace("-", "");
+        StringBuilder head = new StringBuilder();
+        fields.forEach((name, value) -> head.append("--").append(boundary).append("\r\n")
+            .append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n")
+            .append(value).append("\r\n"));
+        head.append("--").append(boundary).append("\r\n")
+            .append("Content-Disposition: form-data; name=\"").append(fileField)
+            .append("\"; filename=\"").append(file.getFileName()).append("\"\r\n")
+            .append("Content-Type: application/octet-stream\r\n\r\n");
+        String tail = "\r\n--" + boundary + "--\r\n";
+
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri)
+            // 大文件上传不受单次读取超时限制
+            .POST(java.net.http.HttpRequest.BodyPublishers.concat(
+                java.net.http.HttpRequest.BodyPublishers.ofString(head.toString(), StandardCharsets.UTF_8),
+                filePublisher,
+                java.net.http.HttpRequest.BodyPublishers.ofString(tail, StandardCharsets.UTF_8)));
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.putAll(headers);
+        requestHeaders.set(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=" + boundary);
+        copyHeaders(requestHeaders, builder);
+        return sendPooled(uri, builder.build(), HttpResponse.BodyHandlers.ofByteArray(), CancellationToken.NONE)
+            .thenApply(AIHttpTransport::toResponse);
+    }
+
+    /**
+     * 把GET响应直接写入本地文件。成功时返回的响应体为空，非2xx时响应体为错误信息且不写文件
+     */
+    public CompletableFuture<Response> downloadAsync(String url, HttpHeaders headers, Path target) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri).GET();
+        copyHeaders(headers, builder);
+        HttpResponse.BodyHandler<String> handler = info -> info.statusCode() / 100 == 2
+            ? HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofFile(target), ignored -> "")
+            : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        return sendPooled(uri, builder.build(), handler, CancellationToken.NONE)
+            .thenApply(response -> new Response(response.statusCode(), response.body()));
+    }
+
+    /**
+     * 占用目标主机的一个连接名额发送请求，响应体接收完毕后归还。
+     * 令牌取消时返回的Future立即结束：等待名额期间取消的请求拿到名额后直接归还，
+     * 已发出的请求取消 sendAsync 的Future，由HttpClient中止交换
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendPooled(URI uri, java.net.http.HttpRequest request,
+                                                              HttpResponse.BodyHandler<T> handler, CancellationToken token) {
+        if (token.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException("请求已取消"));
+        }
+        HttpClient client = "https".equalsIgnoreCase(uri.getScheme()) ? secureClient : plainClient;
+        HostPool pool = hostPools.computeIfAbsent(hostKey(uri), this::createHostPool);
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        CancellationToken.Registration waiting = token.onCancel(
+            () -> result.completeExceptionally(new CancellationException("请求已取消")));
+        pool.acquireAsync().whenComplete((ignored, acquireError) -> {
+            waiting.unregister();
+            if (acquireError != null) {
+                result.completeExceptionally(acquireError);
+                return;
+            }
+            if (token.isCancelled()) {
+                pool.release();
+                return;
+            }
+            CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = client.sendAsync(request, handler);
+            } catch (RuntimeException e) {
+                pool.release();
+                result.completeExceptionally(e);
+                return;
+            }
+            CancellationToken.Registration inFlight = token.onCancel(() -> {
+                sent.cancel(true);
+                result.completeExceptionally(new CancellationException("请求已取消"));
+            });
+            sent.whenComplete((response, error) -> {
+                inFlight.unregister();
+                pool.release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * 以SSE（text/event-stream）方式异步发送JSON请求，每收到一个完整事件回调一次监听器。
+     * 监听器返回false时取消剩余的响应流并立即归还连接名额，不再等待模型生成完毕。
+     * 返回的Future在流结束或被取消时以状态码完成（非2xx时带响应体），取消返回的Future同样会中止响应流
+     */
+    public CompletableFuture<Response> postSseAsync(String url, HttpHeaders headers, Object body, SseListener listener) {
+        URI uri;
+        byte[] payload;
+        try {
+            uri = URI.create(url);
+            payload = objectMapper.writeValueAsBytes(body);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // 流式响应逐行消费，不请求gzip压缩
+        java.net.http.HttpRequest request = buildPost(uri, headers, payload, false);
+        HttpClient client = "https".equalsIgnoreCase(uri.getScheme()) ? secureClient : plainClient;
+
+        HostPool pool = hostPools.computeIfAbsent(hostKey(uri), this::createHostPool);
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        pool.acquireAsync().whenComplete((ignored, acquireError) -> {
+            if (acquireError != null) {
+                result.completeExceptionally(acquireError);
+                return;
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    pool.release();
+                }
+            };
+            SseSubscriber subscriber = new SseSubscriber(listener, result, release);
+            // 调用方已放弃（例如等待名额期间被取消）时不再发送
+            result.whenComplete((response, error) -> {
+                subscriber.cancel();
+                release.run();
+            });
+            if (result.isDone()) {
+                return;
+            }
+            HttpResponse.BodyHandler<String> handler = info -> {
+                subscriber.statusCode = info.statusCode();
+                return info.statusCode() / 100 == 2
+                    ? HttpResponse.BodySubscribers.fromLineSubscriber(subscriber, ignoredSubscriber -> "", StandardCharsets.UTF_8, null)
+                    : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+            };
+            try {
+                client.sendAsync(request, handler).whenComplete((response, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(new Response(response.statusCode(), response.body()));
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private java.net.http.HttpRequest buildPost(URI uri, HttpHeaders headers, byte[] payload, boolean gzip) {
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri)
+            .timeout(readTimeout)
+            .POST(java.net.http.HttpRequest.BodyPublishers.ofByteArray(payload));
+        copyHeaders(headers, builder);
+        if (!headers.containsKey(HttpHeaders.CONTENT_TYPE)) {
+            builder.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        }
+        if (gzip && !headers.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            builder.header(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        if (!gzip && !headers.containsKey(HttpHeaders.ACCEPT)) {
+            builder.header(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+        }
+        return builder.build();
+    }
+
+    private static void copyHeaders(HttpHeaders headers, java.net.http.HttpRequest.Builder builder) {
+        headers.forEach((name, values) -> {
+            if (RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                return;
+            }
+            values.forEach(value -> builder.header(name, value));
+        });
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        HostPool pool = hostPools.computeIfAbsent(hostKey(request.getURI()), this::createHostPool);
+        pool.acquireBlocking();
+        try {
+            if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            }
+            ClientHttpResponse response = execution.execute(request, body);
+            // 响应体读取完毕、响应关闭时才归还连接名额
+            return new PooledResponse(response, pool);
+        } catch (IOException | RuntimeException e) {
+            pool.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 各主机的连接占用快照
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("http2Enabled", http2Enabled);
+        snapshot.put("maxConnectionsPerHost", maxConnectionsPerHost);
+        Map<String, Object> hosts = new LinkedHashMap<>();
+        hostPools.forEach((host, pool) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("leased", pool.leased.get());
+            item.put("pending", pool.pending.get());
+            item.put("available", pool.available());
+            item.put("requests", pool.requests.get());
+            item.put("acquireTimeouts", pool.acquireTimeouts.get());
+            hosts.put(host, item);
+        });
+        snapshot.put("hosts", hosts);
+        return snapshot;
+    }
+
+    private HttpClient createClient(HttpClient.Version version, Executor executor) {
+        return HttpClient.newBuilder()
+            .version(version)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(executor)
+            .build();
+    }
+
+    private ClientHttpRequestFactory createFactory(HttpClient httpClient) {
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(readTimeout);
+        return factory;
+    }
+
+    private HostPool createHostPool(String host) {
+        HostPool pool = new HostPool(host, maxConnectionsPerHost);
+        Gauge.builder("ai.http.connections.leased", pool, p -> p.leased.get())
+            .description("正在使用的AI连接数").tag("host", host).register(meterRegistry);
+        Gauge.builder("ai.http.connections.pending", pool, p -> p.pending.get())
+            .description("等待连接名额的AI请求数").tag("host", host).register(meterRegistry);
+        Gauge.builder("ai.http.connections.available", pool, HostPool::available)
+            .description("剩余可用的AI连接名额").tag("host", host).register(meterRegistry);
+        return pool;
+    }
+
+    private static String hostKey(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    private static Response toResponse(HttpResponse<byte[]> response) {
+        byte[] body = response.body() != null ? response.body() : new byte[0];
+        String encoding = response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse("");
+        if (encoding.toLowerCase().contains("gzip") && body.length > 0) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }
+        return new Response(response.statusCode(), new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * SSE事件监听器
+     */
+    @FunctionalInterface
+    public interface SseListener {
+        /**
+         * @param event 事件名（没有 event: 行时为null）
+         * @param data 事件数据，多行 data: 以换行拼接
+         * @return 是否继续接收，返回false时取消剩余的响应流
+         */
+        boolean onEvent(String event, String data);
+    }
+
+    /**
+     * 按行解析SSE响应：空行表示一个事件结束，忽略注释行和 id:/retry: 字段
+     */
+    private static final class SseSubscriber implements Flow.Subscriber<String> {
+        private final SseListener listener;
+        private final CompletableFuture<Response> result;
+        private final Runnable release;
+        private final StringBuilder data = new StringBuilder();
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+        private volatile int statusCode;
+        private String event;
+        private boolean hasData;
+
+        SseSubscriber(SseListener listener, CompletableFuture<Response> result, Runnable release) {
+            this.listener = listener;
+            this.result = result;
+            this.release = release;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (cancelled) {
+                return;
+            }
+            if (line.isEmpty()) {
+                dispatch();
+            } else if (line.startsWith("data:")) {
+                if (hasData) {
+                    data.append('\n');
+                }
+                data.append(line, line.length() > 5 && line.charAt(5) == ' ' ? 6 : 5, line.length());
+                hasData = true;
+            } else if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            // 最后一个事件后可能没有空行
+            dispatch();
+        }
+
+        private void dispatch() {
+            if (!hasData || cancelled) {
+                event = null;
+                return;
+            }
+            String payload = data.toString();
+            String name = event;
+            data.setLength(0);
+            hasData = false;
+            event = null;
+            boolean proceed;
+            try {
+                proceed = listener.onEvent(name, payload);
+            } catch (RuntimeException e) {
+                cancel();
+                result.completeExceptionally(e);
+                return;
+            }
+            if (!proceed) {
+                // 主动结束：中止连接上剩余的生成，立即归还名额
+                cancel();
+                release.run();
+                result.complete(new Response(statusCode, ""));
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    /**
+     * 异步请求的响应
+     */
+    public record Response(int statusCode, String body) {
+
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /**
+         * 用于错误信息的状态码和截断后的响应体
+         */
+        public String describe() {
+            String text = body != null ? body : "";
+            return statusCode + ": " + (text.length() > 500 ? text.substring(0, 500) + "..." : text);
+        }
+    }
+
+    /**
+     * 去掉异步调用包装的CompletionException，返回真正的异常
+     */
+    public static Throwable rootCause(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * 单个主机的连接名额，同步请求阻塞等待，异步请求排队等待回调
+     */
+    private final class HostPool {
+        private final String host;
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private int available;
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong acquireTimeouts = new AtomicLong();
+
+        HostPool(String host, int maxConnections) {
+            this.host = host;
+            this.available = maxConnections;
+        }
+
+        CompletableFuture<Void> acquireAsync() {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                if (available > 0 && waiters.isEmpty()) {
+                    available--;
+                    leased.incrementAndGet();
+                    requests.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                }
+                waiter = new CompletableFuture<>();
+                waiters.addLast(waiter);
+                pending.incrementAndGet();
+            }
+            waiter.orTimeout(acquireTimeoutMs, TimeUnit.MILLISECONDS).whenComplete((ignored, error) -> {
+                if (error != null && abandon(waiter)) {
+                    acquireTimeouts.incrementAndGet();
+                }
+            });
+            return waiter.handle((ignored, error) -> {
+                if (error instanceof TimeoutException) {
+                    throw new CompletionException(new SocketTimeoutException("等待到 " + host + " 的连接超时"));
+                }
+                if (error != null) {
+                    throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                }
+                return null;
+            });
+        }
+
+        void acquireBlocking() throws IOException {
+            try {
+                acquireAsync().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待到 " + host + " 的连接时被中断", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                leased.decrementAndGet();
+                next = waiters.pollFirst();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+                pending.decrementAndGet();
+                leased.incrementAndGet();
+                requests.incrementAndGet();
+            }
+            // 名额直接转交给排队最久的请求；若该请求恰好已超时则继续转交
+            if (!next.complete(null)) {
+                release();
+            }
+        }
+
+        synchronized int available() {
+            return available;
+        }
+
+        /**
+         * 超时的等待者退出队列，返回是否确实仍在队列中
+         */
+        private synchronized boolean abandon(CompletableFuture<Void> waiter) {
+            if (waiters.remove(waiter)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 关闭时归还连接名额，并透明解压gzip响应体
+     */
+    private static final class PooledResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final HostPool pool;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final boolean gzip;
+        private HttpHeaders headers;
+        private InputStream body;
+
+        PooledResponse(ClientHttpResponse delegate, HostPool pool) {
+            this.delegate = delegate;
+            this.pool = pool;
+            String encoding = delegate.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            this.gzip = encoding != null && encoding.toLowerCase().contains("gzip");
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                if (gzip) {
+                    // 解压后长度和编码都已变化，去掉对应的头部
+                    HttpHeaders copy = new HttpHeaders();
+                    copy.putAll(delegate.getHeaders());
+                    copy.remove(HttpHeaders.CONTENT_ENCODING);
+                    copy.remove(HttpHeaders.CONTENT_LENGTH);
+                    headers = copy;
+                } else {
+                    headers = delegate.getHeaders();
+                }
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream raw = delegate.getBody();
+                body = gzip ? new GZIPInputStream(raw) : raw;
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    pool.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.teachhelper.service.ai;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.core.functions.Either;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * AI调用容错策略
+ * 按提供商维护熔断器和重试策略（基于resilience4j），重试间隔按错误类型做指数退避并加随机抖动；
+ * 可选的对冲请求：调用超过该提供商近期P95延迟仍未返回时，再发出一个相同的请求，取先成功的结果。
+ * 重试等待和对冲计时都由定时器触发，等待期间不占用线程
+ */
+@Service
+public class AIResilienceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AIResilienceService.class);
+
+    /** 每个提供商保留的延迟样本数 */
+    private static final int LATENCY_WINDOW = 256;
+    /** 每新增多少个样本重新计算一次P95 */
+    private static final int PERCENTILE_REFRESH_INTERVAL = 16;
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final RetryRegistry retryRegistry;
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long rateLimitBaseDelayMs;
+    private final long maxDelayMs;
+    private final CircuitBreakerConfig circuitBreakerConfig;
+
+    private final boolean hedgingEnabled;
+    private final long hedgeMinDelayMs;
+    private final int hedgeMinSamples;
+    private final double hedgeBudgetRatio;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AIResilienceService(
+            ObjectProvider<CircuitBreakerRegistry> circuitBreakerRegistry,
+            ObjectProvider<RetryRegistry> retryRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${app.ai.resilience.retry.max-attempts:3}") int maxAttempts,
+            @Value("${app.ai.resilience.retry.base-delay-ms:500}") long baseDelayMs,
+            @Value("${app.ai.resilience.retry.rate-limit-base-delay-ms:2000}") long rateLimitBaseDelayMs,
+            @Value("${app.ai.resilience.retry.max-delay-ms:20000}") long maxDelayMs,
+            @Value("${app.ai.resilience.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+            @Value("${app.ai.resilience.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+            @Value("${app.ai.resilience.circuit-breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${app.ai.resilience.circuit-breaker.open-duration-ms:30000}") long openDurationMs,
+            @Value("${app.ai.resilience.hedging.enabled:false}") boolean hedgingEnabled,
+            @Value("${app.ai.resilience.hedging.min-delay-ms:2000}") long hedgeMinDelayMs,
+            @Value("${app.ai.resilience.hedging.min-samples:20}") int hedgeMinSamples,
+            @Value("${app.ai.resilience.hedging.budget-ratio:0.1}") double hedgeBudgetRatio) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry.getIfAvailable(CircuitBreakerRegistry::ofDefaults);
+        this.retryRegistry = retryRegistry.getIfAvailable(RetryRegistry::ofDefaults);
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(0, baseDelayMs);
+        this.rateLimitBaseDelayMs = Math.max(0, rateLimitBaseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.circuitBreakerConfig = CircuitBreakerConfig.custom()
+            .failureRateThreshold(Math.min(100f, Math.max(1f, failureRateThreshold)))
+            .slidingWindowSize(Math.max(1, slidingWindowSize))
+            .minimumNumberOfCalls(Math.max(1, minimumCalls))
+            .waitDurationInOpenState(Duration.ofMillis(Math.max(1000, openDurationMs)))
+            .permittedNumberOfCallsInHalfOpenState(3)
+            .automaticTransitionFromOpenToHalfOpenEnabled(true)
+            .recordResult(result -> result instanceof AIResponse response && tripsCircuit(AIErrorType.fromResponse(response)))
+            .build();
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgeMinDelayMs = Math.max(0, hedgeMinDelayMs);
+        this.hedgeMinSamples = Math.max(1, hedgeMinSamples);
+        this.hedgeBudgetRatio = Math.min(1.0, Math.max(0.0, hedgeBudgetRatio));
+        // 重试退避和对冲计时只需要定时触发，不占用等待线程
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "ai-resilience-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 异步重试退避使用的定时器
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 获取提供商的熔断器，只有过载和网络类错误计入失败率
+     */
+    public CircuitBreaker circuitBreaker(String providerName) {
+        return circuitBreakerRegistry.circuitBreaker("ai-" + providerName, circuitBreakerConfig);
+    }
+
+    /**
+     * 获取提供商的重试策略，间隔由 {@link #backoffMillis(AIErrorType, int)} 决定
+     */
+    public Retry retry(String providerName) {
+        RetryConfig retryConfig = RetryConfig.<Object>custom()
+            .maxAttempts(maxAttempts)
+            .retryOnResult(result -> result instanceof AIResponse response
+                && isTransportRetryable(AIErrorType.fromResponse(response)))
+            // 异步重试把小于1ms的间隔视为停止重试，这里至少等待1ms
+            .intervalBiFunction((attempt, outcome) -> Math.max(1L, backoffMillis(classify(outcome), attempt)))
+            .build();
+        return retryRegistry.retry("ai-" + providerName, retryConfig);
+    }
+
+    /**
+     * 传输层是否值得重试：限流、服务端错误、超时、网络和无法解析的响应体可以重试；
+     * 参数/鉴权错误、本地拒绝和熔断打开时重试没有意义
+     */
+    public boolean isTransportRetryable(AIErrorType errorType) {
+        if (errorType == null) {
+            return false;
+        }
+        return switch (errorType) {
+            case RATE_LIMITED, SERVER_ERROR, TIMEOUT, NETWORK, PARSE_ERROR, UNKNOWN -> true;
+            case CLIENT_ERROR, REJECTED, CIRCUIT_OPEN, CANCELLED -> false;
+        };
+    }
+
+    /**
+     * 答案级别是否值得重新评估。传输层错误已经在客户端内按退避重试过，
+     * 这里只重试模型输出无法解析和无法分类的异常，避免重试次数层层相乘
+     */
+    public boolean isAnswerRetryable(AIErrorType errorType) {
+        return errorType == null || errorType == AIErrorType.PARSE_ERROR || errorType == AIErrorType.UNKNOWN;
+    }
+
+    /**
+     * 第 attempt 次失败后的等待时间：按错误类型取基础间隔，指数增长并限制上限，
+     * 再在 [间隔/2, 间隔] 内随机抖动，避免大量请求同时重试
+     */
+    public long backoffMillis(AIErrorType errorType, int attempt) {
+        long base;
+        if (errorType == AIErrorType.RATE_LIMITED) {
+            base = rateLimitBaseDelayMs;
+        } else if (errorType == AIErrorType.PARSE_ERROR) {
+            // 解析失败与提供商负载无关，短暂等待即可
+            base = Math.min(baseDelayMs, 200);
+        } else {
+            base = baseDelayMs;
+        }
+        if (base <= 0) {
+            return 0;
+        }
+        int exponent = Math.min(Math.max(0, attempt - 1), 20);
+        long delay = Math.min(maxDelayMs, base << exponent);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * 执行一次（可能对冲的）异步调用。未开启对冲或样本不足时直接以调用方令牌发出原调用；
+     * 超过P95仍未返回时再发出一个相同请求，取先成功的结果，两个都失败时返回后结束的失败结果。
+     * 原请求和对冲请求各用一个子令牌：先得到结果后立即取消另一个，及时归还它占用的并发许可；
+     * 调用方令牌取消或返回的Future被取消时两个请求都被中止
+     */
+    public CompletableFuture<AIResponse> hedged(String providerName, CancellationToken token,
+                                                Function<CancellationToken, CompletableFuture<AIResponse>> call) {
+        LatencyTracker tracker = latencyTrackers.computeIfAbsent(providerName, LatencyTracker::new);
+        long hedgeDelay = hedgingEnabled ? tracker.hedgeDelayMillis() : -1;
+        if (hedgeDelay < 0) {
+            return tracker.timed(() -> call.apply(token));
+        }
+
+        CancellationToken primaryToken = new CancellationToken();
+        CancellationToken hedgeToken = new CancellationToken();
+        CompletableFuture<AIResponse> first = new CompletableFuture<>();
+        CancellationToken.Registration propagation = token.onCancel(() -> first.complete(AIClient.cancelledResponse()));
+        first.whenComplete((response, error) -> {
+            propagation.unregister();
+            // 已有结果（或调用方已放弃）时中止仍在进行的请求；已结束的请求取消无副作用
+            primaryToken.cancel();
+            hedgeToken.cancel();
+        });
+
+        AtomicInteger pending = new AtomicInteger(1);
+        tracker.timed(() -> call.apply(primaryToken))
+            .whenComplete((response, error) -> settle(first, pending, response, error, tracker, false));
+        if (first.isDone()) {
+            return first;
+        }
+        scheduler.schedule(() -> {
+            // 原请求已结束或对冲预算用尽时不再对冲
+            if (first.isDone() || !tracker.tryAcquireHedge() || !pending.compareAndSet(1, 2)) {
+                return;
+            }
+            logger.debug("{} 调用超过 {}ms 未返回，发出对冲请求", providerName, hedgeDelay);
+            tracker.timed(() -> call.apply(hedgeToken))
+                .whenComplete((response, error) -> settle(first, pending, response, error, tracker, true));
+        }, hedgeDelay, TimeUnit.MILLISECONDS);
+        return first;
+    }
+
+    /**
+     * 容错状态快照
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("maxAttempts", maxAttempts);
+        snapshot.put("hedgingEnabled", hedgingEnabled);
+        Map<String, Object> providers = new LinkedHashMap<>();
+        for (CircuitBreaker breaker : circuitBreakerRegistry.getAllCircuitBreakers()) {
+            if (!breaker.getName().startsWith("ai-")) {
+                continue;
+            }
+            String providerName = breaker.getName().substring(3);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("state", breaker.getState().name());
+            item.put("failureRate", breaker.getMetrics().getFailureRate());
+            item.put("bufferedCalls", breaker.getMetrics().getNumberOfBufferedCalls());
+            item.put("notPermittedCalls", breaker.getMetrics().getNumberOfNotPermittedCalls());
+            LatencyTracker tracker = latencyTrackers.get(providerName);
+            if (tracker != null) {
+                item.put("latencySamples", tracker.sampleCount());
+                item.put("p95LatencyMs", tracker.p95Millis());
+                item.put("calls", tracker.calls.get());
+                item.put("hedges", tracker.hedges.get());
+                item.put("hedgeWins", tracker.hedgeWins.get());
+            }
+            providers.put(providerName, item);
+        }
+        snapshot.put("providers", providers);
+        return snapshot;
+    }
+
+    /**
+     * 只有提供商侧的过载或网络问题才说明提供商不健康
+     */
+    private static boolean tripsCircuit(AIErrorType errorType) {
+        return errorType != null && (errorType.isOverload() || errorType == AIErrorType.NETWORK);
+    }
+
+    private static AIErrorType classify(Either<Throwable, Object> outcome) {
+        if (outcome.isLeft()) {
+            return AIErrorType.fromException(outcome.getLeft());
+        }
+        return outcome.get() instanceof AIResponse response ? AIErrorType.fromResponse(response) : AIErrorType.UNKNOWN;
+    }
+
+    private static void settle(CompletableFuture<AIResponse> first, AtomicInteger pending, AIResponse response,
+                               Throwable error, LatencyTracker tracker, boolean fromHedge) {
+        AIResponse outcome = error != null ? failureOf(error) : response;
+        boolean last = pending.decrementAndGet() == 0;
+        if (outcome != null && outcome.isSuccess()) {
+            if (first.complete(outcome) && fromHedge) {
+                tracker.hedgeWins.incrementAndGet();
+            }
+        } else if (last) {
+            // 两个请求都失败时返回后结束的那个失败结果
+            first.complete(outcome);
+        }
+    }
+
+    private static AIResponse failureOf(Throwable error) {
+        Throwable cause = AIHttpTransport.rootCause(error);
+        return AIResponse.failure(AIErrorType.fromException(cause).name(), "AI调用异常: " + cause.getMessage());
+    }
+
+    /**
+     * 单个提供商的成功调用延迟窗口和对冲预算
+     */
+    private final class LatencyTracker {
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private int count;
+        private int next;
+        private long cachedP95 = -1;
+        private int samplesSinceRefresh;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong hedges = new AtomicLong();
+        private final AtomicLong hedgeWins = new AtomicLong();
+        private final Counter hedgeCounter;
+
+        LatencyTracker(String providerName) {
+            this.hedgeCounter = Counter.builder("ai.resilience.hedges")
+                .description("AI对冲请求次数")
+                .tag("provider", providerName)
+                .register(meterRegistry);
+        }
+
+        CompletableFuture<AIResponse> timed(Supplier<CompletableFuture<AIResponse>> call) {
+            calls.incrementAndGet();
+            long start = System.nanoTime();
+            CompletableFuture<AIResponse> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.completedFuture(failureOf(e));
+            }
+            return future.whenComplete((response, error) -> {
+                if (error == null && response != null && response.isSuccess()) {
+                    record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            });
+        }
+
+        /**
+         * 对冲等待时间，样本不足时返回 -1 表示不对冲
+         */
+        synchronized long hedgeDelayMillis() {
+            if (count < hedgeMinSamples) {
+                return -1;
+            }
+            return Math.max(hedgeMinDelayMs, p95Millis());
+        }
+
+        /**
+         * 对冲请求数不超过调用数的一定比例，防止提供商整体变慢时请求量翻倍
+         */
+        boolean tryAcquireHedge() {
+            if (hedges.get() + 1 > calls.get() * hedgeBudgetRatio) {
+                return false;
+            }
+            hedges.incrementAndGet();
+            hedgeCounter.increment();
+            return true;
+        }
+
+        synchronized int sampleCount() {
+            return count;
+        }
+
+        synchronized long p95Millis() {
+            if (count == 0) {
+                return 0;
+            }
+            if (cachedP95 < 0 || samplesSinceRefresh >= PERCENTILE_REFRESH_INTERVAL) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                cachedP95 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+                samplesSinceRefresh = 0;
+            }
+            return cachedP95;
+        }
+
+        private synchronized void record(long latencyMs) {
+            samples[next] = latencyMs;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            samplesSinceRefresh++;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import java.util.HashMap;
 public class AIResponse {
     private String content;
     private Integer inputTokens;
+    /** 输入token中命中服务商前缀缓存的部分，服务商未返回时为0 */
+    private Integer cachedInputTokens = 0;
     private Integer outputTokens;
     private Integer totalTokens;
     private Long durationMs;
@@ -58,6 +60,24 @@ public class AIResponse {
         this.inputTokens = inputTokens;
     }
     
+    public Integer getCachedInputTokens() {
+        return cachedInputTokens;
+    }
+    
+    public void setCachedInputTokens(Integer cachedInputTokens) {
+        this.cachedInputTokens = cachedInputTokens;
+    }
+    
+    /**
+     * 未命中前缀缓存、按原价计费的输入token数
+     */
+    public Integer getUncachedInputTokens() {
+        if (inputTokens == null) {
+            return null;
+        }
+        return Math.max(0, inputTokens - (cachedInputTokens != null ? cachedInputTokens : 0));
+    }
+    
     public Integer getOutputTokens() {
         return outputTokens;
     }
@@ -176,6 +196,11 @@ public class AIResponse {
         return this;
     }
     
+    public AIResponse withCachedInputTokens(Integer cachedInputTokens) {
+        this.cachedInputTokens = cachedInputTokens != null ? cachedInputTokens : 0;
+        return this;
+    }
+    
     public AIResponse withDuration(Long durationMs) {
         this.durationMs = durationMs;
         return this;
@@ -187,6 +212,11 @@ public class AIResponse {
         return this;
     }
     
+    public AIResponse withErrorType(AIErrorType errorType) {
+        this.errorCode = errorType != null ? errorType.name() : null;
+        return this;
+    }
+    
     public AIResponse withMetadata(String key, Object value) {
         this.metadata.put(key, value);
         return this;
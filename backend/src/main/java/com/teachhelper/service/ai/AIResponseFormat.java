@@ -0,0 +1,11 @@
+package com.teachhelper.service.ai;
+
+/**
+ * 期望的响应格式
+ * JSON_OBJECT 在支持JSON模式的提供商（OpenAI、DeepSeek）上启用 response_format=json_object，
+ * 模型只会输出一个合法的JSON对象；其他提供商忽略该参数，仍按提示词中的格式约定输出
+ */
+public enum AIResponseFormat {
+    TEXT,
+    JSON_OBJECT
+}
@@ -0,0 +1,15 @@
+package com.teachhelper.service.ai;
+
+/**
+ * 流式AI响应的增量内容接收方
+ */
+@FunctionalInterface
+public interface AIStreamSink {
+
+    /**
+     * 收到一段新生成的文本
+     * @param delta 增量文本
+     * @return 是否继续生成，返回false时取消剩余的生成
+     */
+    boolean onDelta(String delta);
+}
@@ -0,0 +1,367 @@
+package com.teachhelper.service.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * AI调用自适应并发限制器
+ * 按"提供商 + 接口地址"分别维护并发上限（AIMD）：
+ * 延迟稳定时缓慢加性增长，遇到限流(429)、服务端错误(5xx)或超时时乘性回退
+ */
+@Service
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    /** 延迟平滑系数 */
+    private static final double LATENCY_SMOOTHING = 0.2;
+    /** 基线延迟向上漂移的速度，避免模型变慢后永远无法再增长 */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long acquireTimeoutMs;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public AdaptiveConcurrencyLimiter(
+            @Value("${app.ai.adaptive-concurrency.initial-limit:${app.ai.concurrent-requests:5}}") int initialLimit,
+            @Value("${app.ai.adaptive-concurrency.min-limit:1}") int minLimit,
+            @Value("${app.ai.adaptive-concurrency.max-limit:50}") int maxLimit,
+            @Value("${app.ai.adaptive-concurrency.backoff-ratio:0.5}") double backoffRatio,
+            @Value("${app.ai.adaptive-concurrency.latency-tolerance:2.0}") double latencyTolerance,
+            @Value("${app.ai.adaptive-concurrency.acquire-timeout-ms:120000}") long acquireTimeoutMs,
+            MeterRegistry meterRegistry) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.initialLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = Math.min(0.95, Math.max(0.1, backoffRatio));
+        this.latencyTolerance = Math.max(1.0, latencyTolerance);
+        this.acquireTimeoutMs = Math.max(0, acquireTimeoutMs);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 获取调用许可，超时返回 null
+     */
+    public Permit acquire(UserAIConfig config) throws InterruptedException {
+        return acquire(config.getProvider(), resolveEndpoint(config));
+    }
+
+    /**
+     * 获取指定提供商和接口地址的调用许可，超时返回 null
+     */
+    public Permit acquire(AIProvider provider, String endpoint) throws InterruptedException {
+        Limit limit = limits.computeIfAbsent(key(provider, endpoint), k -> createLimit(provider, endpoint));
+        return limit.acquire(acquireTimeoutMs) ? new Permit(limit) : null;
+    }
+
+    /**
+     * 异步获取调用许可，许可不足时排队而不占用线程，超时以 null 完成
+     */
+    public CompletableFuture<Permit> acquireAsync(UserAIConfig config) {
+        AIProvider provider = config.getProvider();
+        String endpoint = resolveEndpoint(config);
+        Limit limit = limits.computeIfAbsent(key(provider, endpoint), k -> createLimit(provider, endpoint));
+        return limit.acquireAsync(acquireTimeoutMs);
+    }
+
+    /**
+     * 当前所有键的限流状态快照
+     */
+    public List<Map<String, Object>> getSnapshot() {
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        limits.values().forEach(limit -> snapshot.add(limit.snapshot()));
+        return snapshot;
+    }
+
+    private Limit createLimit(AIProvider provider, String endpoint) {
+        Limit limit = new Limit(provider != null ? provider.name() : "UNKNOWN", endpoint, initialLimit);
+        if (meterRegistry != null) {
+            Gauge.builder("ai.concurrency.limit", limit, Limit::currentLimit)
+                .description("AI调用当前并发上限")
+                .tag("provider", limit.provider).tag("endpoint", limit.endpoint)
+                .register(meterRegistry);
+            Gauge.builder("ai.concurrency.inflight", limit, Limit::currentInFlight)
+                .description("AI调用进行中的请求数")
+                .tag("provider", limit.provider).tag("endpoint", limit.endpoint)
+                .register(meterRegistry);
+            Gauge.builder("ai.concurrency.queued", limit, Limit::currentWaiting)
+                .description("等待并发许可的请求数")
+                .tag("provider", limit.provider).tag("endpoint", limit.endpoint)
+                .register(meterRegistry);
+        }
+        logger.info("创建AI并发限制: provider={}, endpoint={}, 初始上限={}", limit.provider, endpoint, initialLimit);
+        return limit;
+    }
+
+    private static String resolveEndpoint(UserAIConfig config) {
+        if (config.getApiEndpoint() != null && !config.getApiEndpoint().isBlank()) {
+            return config.getApiEndpoint();
+        }
+        return config.getProvider() != null ? config.getProvider().getDefaultEndpoint() : "";
+    }
+
+    private static String key(AIProvider provider, String endpoint) {
+        return provider + "|" + endpoint;
+    }
+
+    /**
+     * 单次调用许可，调用结束后必须释放一次
+     */
+    public static final class Permit {
+        private final Limit limit;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private Permit(Limit limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * 根据响应结果释放许可并调整并发上限
+         */
+        public void release(AIResponse response) {
+            release(AIErrorType.fromResponse(response));
+        }
+
+        /**
+         * 释放许可，errorType 为 null 表示调用成功
+         */
+        public void release(AIErrorType errorType) {
+            if (released) {
+                return;
+            }
+            released = true;
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            limit.release(errorType, latencyMs);
+        }
+    }
+
+    /**
+     * 单个键的并发状态
+     */
+    private final class Limit {
+        private final String provider;
+        private final String endpoint;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final Deque<CompletableFuture<Permit>> asyncWaiters = new ArrayDeque<>();
+
+        private double limit;
+        private int inFlight;
+        private int waiting;
+        private double smoothedLatencyMs = -1;
+        private double baselineLatencyMs = -1;
+        private long lastBackoffNanos;
+        private long successCount;
+        private long overloadCount;
+        private long rejectedCount;
+
+        Limit(String provider, String endpoint, int initialLimit) {
+            this.provider = provider;
+            this.endpoint = endpoint;
+            this.limit = initialLimit;
+        }
+
+        boolean acquire(long timeoutMs) throws InterruptedException {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            lock.lock();
+            try {
+                waiting++;
+                try {
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            rejectedCount++;
+                            return false;
+                        }
+                        remaining = available.awaitNanos(remaining);
+                    }
+                    inFlight++;
+                    return true;
+                } finally {
+                    waiting--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        CompletableFuture<Permit> acquireAsync(long timeoutMs) {
+            CompletableFuture<Permit> waiter;
+            lock.lock();
+            try {
+                if (inFlight < (int) limit && asyncWaiters.isEmpty()) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(new Permit(this));
+                }
+                waiter = new CompletableFuture<>();
+                asyncWaiters.addLast(waiter);
+            } finally {
+                lock.unlock();
+            }
+            waiter.completeOnTimeout(null, timeoutMs, TimeUnit.MILLISECONDS).thenAccept(permit -> {
+                if (permit == null) {
+                    abandon(waiter);
+                }
+            });
+            return waiter;
+        }
+
+        void release(AIErrorType errorType, long latencyMs) {
+            List<CompletableFuture<Permit>> granted;
+            lock.lock();
+            try {
+                int before = (int) limit;
+                if (errorType == null) {
+                    onSuccess(latencyMs);
+                } else if (errorType.isOverload()) {
+                    onOverload(errorType);
+                }
+                inFlight--;
+                granted = drainAsyncWaiters();
+                if ((int) limit > before) {
+                    available.signalAll();
+                } else {
+                    available.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            grant(granted);
+        }
+
+        /**
+         * 在持有锁的情况下把空闲许可分给排队的异步请求
+         */
+        private List<CompletableFuture<Permit>> drainAsyncWaiters() {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            while (!asyncWaiters.isEmpty() && inFlight < (int) limit) {
+                granted.add(asyncWaiters.pollFirst());
+                inFlight++;
+            }
+            return granted;
+        }
+
+        /**
+         * 在锁外完成异步等待者，避免回调在持有锁时执行；已超时的等待者归还许可
+         */
+        private void grant(List<CompletableFuture<Permit>> granted) {
+            for (CompletableFuture<Permit> waiter : granted) {
+                if (!waiter.complete(new Permit(this))) {
+                    List<CompletableFuture<Permit>> next;
+                    lock.lock();
+                    try {
+                        inFlight--;
+                        next = drainAsyncWaiters();
+                        available.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    grant(next);
+                }
+            }
+        }
+
+        private void abandon(CompletableFuture<Permit> waiter) {
+            lock.lock();
+            try {
+                if (asyncWaiters.remove(waiter)) {
+                    rejectedCount++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void onSuccess(long latencyMs) {
+            successCount++;
+            smoothedLatencyMs = smoothedLatencyMs < 0 ? latencyMs
+                : smoothedLatencyMs + LATENCY_SMOOTHING * (latencyMs - smoothedLatencyMs);
+            if (baselineLatencyMs < 0 || latencyMs < baselineLatencyMs) {
+                baselineLatencyMs = latencyMs;
+            } else {
+                baselineLatencyMs += BASELINE_DRIFT * (latencyMs - baselineLatencyMs);
+            }
+            // 只有并发确实被用满且延迟没有明显上升时才增长，空闲时增长没有意义
+            boolean saturated = inFlight >= (int) limit;
+            boolean stable = smoothedLatencyMs <= Math.max(1.0, baselineLatencyMs) * latencyTolerance;
+            if (saturated && stable && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+
+        private void onOverload(AIErrorType errorType) {
+            overloadCount++;
+            long now = System.nanoTime();
+            // 同一批并发请求的失败只回退一次，冷却时间取平滑延迟（至少1秒）
+            long cooldownNanos = TimeUnit.MILLISECONDS.toNanos((long) Math.max(1000, smoothedLatencyMs));
+            if (lastBackoffNanos != 0 && now - lastBackoffNanos < cooldownNanos) {
+                return;
+            }
+            lastBackoffNanos = now;
+            double previous = limit;
+            limit = Math.max(minLimit, Math.floor(limit * backoffRatio));
+            logger.warn("AI调用出现{}，降低并发上限: provider={}, endpoint={}, {} -> {}",
+                errorType, provider, endpoint, (int) previous, (int) limit);
+        }
+
+        double currentLimit() {
+            return (int) limit;
+        }
+
+        double currentInFlight() {
+            return inFlight;
+        }
+
+        double currentWaiting() {
+            return waiting + asyncWaiters.size();
+        }
+
+        Map<String, Object> snapshot() {
+            lock.lock();
+            try {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("provider", provider);
+                result.put("endpoint", endpoint);
+                result.put("limit", (int) limit);
+                result.put("inFlight", inFlight);
+                result.put("queueDepth", waiting + asyncWaiters.size());
+                result.put("smoothedLatencyMs", Math.round(Math.max(0, smoothedLatencyMs)));
+                result.put("baselineLatencyMs", Math.round(Math.max(0, baselineLatencyMs)));
+                result.put("successCount", successCount);
+                result.put("overloadCount", overloadCount);
+                result.put("rejectedCount", rejectedCount);
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.teachhelper.service.ai;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 协作式取消令牌
+ * 由任务执行方创建并一路传到AI客户端和HTTP传输层，各层在令牌上登记自己的中止动作
+ * （中止HTTP交换、放弃排队中的并发许可、停止重试等），取消时依次执行。
+ * 取消只发生一次，取消后再登记的动作立即执行
+ */
+public final class CancellationToken {
+
+    private static final Logger logger = LoggerFactory.getLogger(CancellationToken.class);
+
+    /** 永不取消的令牌，供不需要取消的调用方使用 */
+    public static final CancellationToken NONE = new CancellationToken(false);
+
+    private static final Registration NO_REGISTRATION = () -> { };
+
+    private final boolean cancellable;
+    private final Set<Runnable> callbacks = new LinkedHashSet<>();
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this(true);
+    }
+
+    private CancellationToken(boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * 取消，执行全部已登记的动作；重复调用无效果
+     */
+    public void cancel() {
+        if (!cancellable) {
+            return;
+        }
+        List<Runnable> pending;
+        synchronized (callbacks) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        pending.forEach(CancellationToken::runQuietly);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 登记取消时执行的动作，已取消时立即执行。动作不再需要时（例如调用已结束）应注销，避免长任务的令牌越积越多
+     */
+    public Registration onCancel(Runnable callback) {
+        if (!cancellable) {
+            return NO_REGISTRATION;
+        }
+        synchronized (callbacks) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (callbacks) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        runQuietly(callback);
+        return NO_REGISTRATION;
+    }
+
+    /**
+     * 取消时取消该Future，Future结束后自动注销
+     */
+    public <T> CompletableFuture<T> bind(CompletableFuture<T> future) {
+        Registration registration = onCancel(() -> future.cancel(true));
+        future.whenComplete((result, error) -> registration.unregister());
+        return future;
+    }
+
+    private static void runQuietly(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            logger.warn("执行取消动作失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 已登记的取消动作
+     */
+    @FunctionalInterface
+    public interface Registration {
+        void unregister();
+    }
+}
@@ -0,0 +1,124 @@
+package com.teachhelper.service.ai;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.teachhelper.entity.UserAIConfig;
+
+/**
+ * 带自适应并发限制的AI客户端装饰器
+ * 所有通过 AIClientFactory 获取的客户端都会经过此装饰器
+ */
+public class ConcurrencyLimitedAIClient implements AIClient {
+
+    private final AIClient delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitedAIClient(AIClient delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT);
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return chatAsync(prompt, config, format, CancellationToken.NONE);
+    }
+
+    /**
+     * 令牌取消时放弃排队中的许可等待；已拿到许可的请求由下层中止，许可在请求结束时立即归还
+     */
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
+        if (token.isCancelled()) {
+            return CompletableFuture.completedFuture(AIClient.cancelledResponse());
+        }
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> acquiring = limiter.acquireAsync(config);
+        // 以空许可结束等待，限流器会把该等待者移出队列
+        CancellationToken.Registration waiting = token.onCancel(() -> acquiring.complete(null));
+        return acquiring.thenCompose(permit -> {
+            waiting.unregister();
+            if (token.isCancelled()) {
+                if (permit != null) {
+                    permit.release(AIErrorType.CANCELLED);
+                }
+                return CompletableFuture.completedFuture(AIClient.cancelledResponse());
+            }
+            if (permit == null) {
+                return CompletableFuture.completedFuture(AIResponse.failure(AIErrorType.REJECTED.name(),
+                    delegate.getProviderName() + " 并发请求过多，等待许可超时"));
+            }
+            CompletableFuture<AIResponse> call;
+            try {
+                call = delegate.chatAsync(prompt, config, format, token);
+            } catch (RuntimeException e) {
+                permit.release(AIErrorType.fromException(e));
+                throw e;
+            }
+            return call.whenComplete((response, error) -> permit.release(
+                error != null ? AIErrorType.fromException(AIHttpTransport.rootCause(error)) : AIErrorType.fromResponse(response)));
+        });
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                    AIResponseFormat format) {
+        CompletableFuture<AIResponse> result = new CompletableFuture<>();
+        limiter.acquireAsync(config).whenComplete((permit, acquireError) -> {
+            if (acquireError != null || permit == null) {
+                result.complete(AIResponse.failure(AIErrorType.REJECTED.name(),
+                    delegate.getProviderName() + " 并发请求过多，等待许可超时"));
+                return;
+            }
+            // 等待许可期间调用方已取消
+            if (result.isDone()) {
+                permit.release(AIErrorType.REJECTED);
+                return;
+            }
+            CompletableFuture<AIResponse> call;
+            try {
+                call = delegate.chatStream(prompt, config, sink, format);
+            } catch (RuntimeException e) {
+                permit.release(AIErrorType.fromException(e));
+                result.completeExceptionally(e);
+                return;
+            }
+            // 流式请求在生成结束、被接收方提前结束或被取消时都要归还许可
+            result.whenComplete((response, error) -> call.cancel(true));
+            call.whenComplete((response, error) -> {
+                permit.release(error != null
+                    ? AIErrorType.fromException(AIHttpTransport.rootCause(error)) : AIErrorType.fromResponse(response));
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        });
+        return result;
+    }
+
+    @Override
+    public boolean validateConfig(UserAIConfig config) {
+        return delegate.validateConfig(config);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public int estimateTokens(String text) {
+        return delegate.estimateTokens(text);
+    }
+}
@@ -0,0 +1,247 @@
+package com.teachhelper.service.ai;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 本地模拟的OpenAI格式批处理服务，用于在没有外网的环境下联调离线批处理评估
+ * 支持文件上传/下载和批处理作业的创建、查询、取消：作业每被查询一次推进一个状态
+ * （validating -> in_progress -> completed），完成时为每个请求生成固定的评估结果。
+ * 把AI配置的接口地址设为 http://localhost:{port}/v1/chat/completions 即可使用
+ */
+@Component
+@ConditionalOnProperty(name = "app.ai.batch.mock-server.enabled", havingValue = "true")
+public class MockBatchServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MockBatchServer.class);
+
+    /** 模拟的评估结果 */
+    private static final String MOCK_EVALUATION = "{\"score\": 1, \"feedback\": \"模拟批处理评估\", \"criteriaEvaluations\": []}";
+
+    private final int port;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, MockBatch> batches = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MockBatchServer(@Value("${app.ai.batch.mock-server.port:18089}") int port) {
+        this.port = port;
+    }
+
+    @PostConstruct
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/v1/", this::handle);
+        executor = Executors.newFixedThreadPool(2);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("模拟批处理服务已启动: {}", getBaseUrl());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * 服务根地址，例如 http://localhost:18089/v1
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring("/v1/".length()).split("/");
+            if ("POST".equals(method) && path.length == 1 && "files".equals(path[0])) {
+                uploadFile(exchange);
+            } else if ("GET".equals(method) && path.length == 3 && "files".equals(path[0]) && "content".equals(path[2])) {
+                byte[] content = files.get(path[1]);
+                if (content == null) {
+                    send(exchange, 404, error("文件不存在: " + path[1]));
+                } else {
+                    send(exchange, 200, content);
+                }
+            } else if ("POST".equals(method) && path.length == 1 && "batches".equals(path[0])) {
+                createBatch(exchange);
+            } else if (path.length >= 2 && "batches".equals(path[0])) {
+                MockBatch batch = batches.get(path[1]);
+                if (batch == null) {
+                    send(exchange, 404, error("作业不存在: " + path[1]));
+                } else if ("GET".equals(method) && path.length == 2) {
+                    batch.advance();
+                    send(exchange, 200, batch.toJson());
+                } else if ("POST".equals(method) && path.length == 3 && "cancel".equals(path[2])) {
+                    batch.cancel();
+                    send(exchange, 200, batch.toJson());
+                } else {
+                    send(exchange, 404, error("不支持的接口"));
+                }
+            } else {
+                send(exchange, 404, error("不支持的接口"));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("模拟批处理服务处理请求失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 只取出 multipart 请求中的 file 字段
+     */
+    private void uploadFile(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        int boundaryIndex = contentType != null ? contentType.indexOf("boundary=") : -1;
+        if (boundaryIndex < 0) {
+            send(exchange, 400, error("缺少multipart边界"));
+            return;
+        }
+        String boundary = "--" + contentType.substring(boundaryIndex + "boundary=".length());
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        int part = body.indexOf("name=\"file\"");
+        int start = part >= 0 ? body.indexOf("\r\n\r\n", part) : -1;
+        int end = start >= 0 ? body.indexOf("\r\n" + boundary, start) : -1;
+        if (end < 0) {
+            send(exchange, 400, error("缺少file字段"));
+            return;
+        }
+        String id = "file-" + ids.incrementAndGet();
+        files.put(id, body.substring(start + 4, end).getBytes(StandardCharsets.UTF_8));
+        ObjectNode file = objectMapper.createObjectNode();
+        file.put("id", id);
+        file.put("object", "file");
+        file.put("purpose", "batch");
+        send(exchange, 200, objectMapper.writeValueAsBytes(file));
+    }
+
+    private void createBatch(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        byte[] input = files.get(request.path("input_file_id").asText());
+        if (input == null) {
+            send(exchange, 400, error("输入文件不存在"));
+            return;
+        }
+        MockBatch batch = new MockBatch("batch_" + ids.incrementAndGet(),
+            new String(input, StandardCharsets.UTF_8).lines().filter(line -> !line.isBlank()).toList());
+        batches.put(batch.id, batch);
+        send(exchange, 200, batch.toJson());
+    }
+
+    private byte[] error(String message) throws IOException {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.putObject("error").put("message", message);
+        return objectMapper.writeValueAsBytes(node);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private final class MockBatch {
+        private final String id;
+        private final List<String> requests;
+        private String status = "validating";
+        private String outputFileId;
+
+        MockBatch(String id, List<String> requests) {
+            this.id = id;
+            this.requests = requests;
+        }
+
+        synchronized void advance() throws IOException {
+            if ("validating".equals(status)) {
+                status = "in_progress";
+            } else if ("in_progress".equals(status)) {
+                outputFileId = "file-" + ids.incrementAndGet();
+                files.put(outputFileId, buildOutput());
+                status = "completed";
+            }
+        }
+
+        synchronized void cancel() {
+            if (!"completed".equals(status)) {
+                status = "cancelled";
+            }
+        }
+
+        private byte[] buildOutput() throws IOException {
+            StringBuilder output = new StringBuilder();
+            for (String line : requests) {
+                JsonNode request = objectMapper.readTree(line);
+                ObjectNode result = objectMapper.createObjectNode();
+                result.put("id", "batch_req_" + ids.incrementAndGet());
+                result.put("custom_id", request.path("custom_id").asText());
+                ObjectNode response = result.putObject("response");
+                response.put("status_code", 200);
+                ObjectNode body = response.putObject("body");
+                body.put("object", "chat.completion");
+                body.put("model", request.path("body").path("model").asText());
+                ArrayNode choices = body.putArray("choices");
+                ObjectNode choice = choices.addObject();
+                choice.put("index", 0);
+                choice.putObject("message").put("role", "assistant").put("content", MOCK_EVALUATION);
+                choice.put("finish_reason", "stop");
+                ObjectNode usage = body.putObject("usage");
+                usage.put("prompt_tokens", line.length() / 4);
+                usage.put("completion_tokens", MOCK_EVALUATION.length() / 4);
+                result.putNull("error");
+                output.append(objectMapper.writeValueAsString(result)).append('\n');
+            }
+            return output.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        synchronized byte[] toJson() throws IOException {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("id", id);
+            node.put("object", "batch");
+            node.put("status", status);
+            if (outputFileId != null) {
+                node.put("output_file_id", outputFileId);
+            } else {
+                node.putNull("output_file_id");
+            }
+            ObjectNode counts = node.putObject("request_counts");
+            counts.put("total", requests.size());
+            counts.put("completed", "completed".equals(status) ? requests.size() : 0);
+            counts.put("failed", 0);
+            return objectMapper.writeValueAsBytes(node);
+        }
+    }
+}
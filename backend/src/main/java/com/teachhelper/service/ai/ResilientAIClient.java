@@ -0,0 +1,163 @@
+package com.teachhelper.service.ai;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import com.teachhelper.entity.UserAIConfig;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.retry.Retry;
+
+/**
+ * 带熔断、退避重试和对冲请求的AI客户端装饰器
+ * 调用顺序：重试 -> 熔断 -> 对冲 -> 并发限制 -> 实际客户端，
+ * 每次重试和对冲请求都会重新经过熔断判断和并发许可
+ */
+public class ResilientAIClient implements AIClient {
+
+    private final AIClient delegate;
+    private final AIResilienceService resilienceService;
+    private final CircuitBreaker circuitBreaker;
+    private final Retry retry;
+
+    public ResilientAIClient(AIClient delegate, AIResilienceService resilienceService) {
+        this.delegate = delegate;
+        this.resilienceService = resilienceService;
+        this.circuitBreaker = resilienceService.circuitBreaker(delegate.getProviderName());
+        this.retry = resilienceService.retry(delegate.getProviderName());
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT);
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return chatAsync(prompt, config, format, CancellationToken.NONE);
+    }
+
+    /**
+     * 令牌传给每次重试和对冲请求；取消后不再发起新的尝试，返回的Future立即以取消响应结束，
+     * 不必等待退避间隔或在途请求
+     */
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
+        if (token.isCancelled()) {
+            return CompletableFuture.completedFuture(AIClient.cancelledResponse());
+        }
+        Supplier<CompletionStage<AIResponse>> attempt = () -> token.isCancelled()
+            ? CompletableFuture.completedFuture(AIClient.cancelledResponse())
+            : protectedCall(prompt, config, format, token);
+        CompletableFuture<AIResponse> retried =
+            retry.executeCompletionStage(resilienceService.getScheduler(), attempt).toCompletableFuture();
+        if (token == CancellationToken.NONE) {
+            return retried;
+        }
+        CompletableFuture<AIResponse> result = new CompletableFuture<>();
+        CancellationToken.Registration registration = token.onCancel(() -> result.complete(AIClient.cancelledResponse()));
+        retried.whenComplete((response, error) -> {
+            registration.unregister();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<AIResponse> protectedCall(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                        CancellationToken token) {
+        return circuitBreaker.executeCompletionStage(
+                () -> resilienceService.hedged(delegate.getProviderName(), token,
+                    attemptToken -> safeChat(prompt, config, format, attemptToken)))
+            .toCompletableFuture()
+            .exceptionally(error -> {
+                Throwable cause = AIHttpTransport.rootCause(error);
+                if (cause instanceof CallNotPermittedException) {
+                    return AIResponse.failure(AIErrorType.CIRCUIT_OPEN.name(),
+                        delegate.getProviderName() + " 近期失败率过高，已暂停调用，请稍后重试");
+                }
+                return AIResponse.failure(AIErrorType.fromException(cause).name(), "AI调用异常: " + cause.getMessage());
+            });
+    }
+
+    private CompletableFuture<AIResponse> safeChat(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
+        try {
+            return delegate.chatAsync(prompt, config, format, token).handle((response, error) -> {
+                if (error != null) {
+                    Throwable cause = AIHttpTransport.rootCause(error);
+                    return AIResponse.failure(AIErrorType.fromException(cause).name(), "AI调用异常: " + cause.getMessage());
+                }
+                return response != null ? response : AIResponse.failure(AIErrorType.UNKNOWN.name(), "AI响应为空");
+            });
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(
+                AIResponse.failure(AIErrorType.fromException(e).name(), "AI调用异常: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 流式请求只经过熔断判断：已经交给接收方的内容无法撤回，失败后不重试也不对冲
+     */
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                    AIResponseFormat format) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            return CompletableFuture.completedFuture(AIResponse.failure(AIErrorType.CIRCUIT_OPEN.name(),
+                delegate.getProviderName() + " 近期失败率过高，已暂停调用，请稍后重试"));
+        }
+        long start = circuitBreaker.getCurrentTimestamp();
+        CompletableFuture<AIResponse> call;
+        try {
+            call = delegate.chatStream(prompt, config, sink, format);
+        } catch (RuntimeException e) {
+            circuitBreaker.onError(circuitBreaker.getCurrentTimestamp() - start, circuitBreaker.getTimestampUnit(), e);
+            return CompletableFuture.completedFuture(
+                AIResponse.failure(AIErrorType.fromException(e).name(), "AI调用异常: " + e.getMessage()));
+        }
+        CompletableFuture<AIResponse> result = call.handle((response, error) -> {
+            long duration = circuitBreaker.getCurrentTimestamp() - start;
+            if (error != null) {
+                Throwable cause = AIHttpTransport.rootCause(error);
+                if (cause instanceof CancellationException) {
+                    circuitBreaker.releasePermission();
+                } else {
+                    circuitBreaker.onError(duration, circuitBreaker.getTimestampUnit(), cause);
+                }
+                return AIResponse.failure(AIErrorType.fromException(cause).name(), "AI调用异常: " + cause.getMessage());
+            }
+            circuitBreaker.onResult(duration, circuitBreaker.getTimestampUnit(), response);
+            return response != null ? response : AIResponse.failure(AIErrorType.UNKNOWN.name(), "AI响应为空");
+        });
+        // 调用方取消时中止下层的流
+        result.whenComplete((response, error) -> call.cancel(true));
+        return result;
+    }
+
+    @Override
+    public boolean validateConfig(UserAIConfig config) {
+        return delegate.validateConfig(config);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public int estimateTokens(String text) {
+        return delegate.estimateTokens(text);
+    }
+}
@@ -11,6 +11,7 @@ import com.teachhelper.service.AIUsageStatsService;
 
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
@@ -74,32 +75,41 @@ public class SpringAIProxyService {
     }
     
     /**
-     * 流式聊天请求
+     * 流式聊天请求，生成的文本逐段回调；返回的Future可用于中止生成
      */
-    public void chatStream(AIRequest request, 
+    public CompletableFuture<AIResponse> chatStream(AIRequest request, 
                           Consumer<String> onToken, 
                           Runnable onComplete, 
                           Consumer<Exception> onError) {
-        // 暂时使用异步方式模拟流式响应
-        new Thread(() -> {
-            try {
-                AIResponse response = chatSync(request);
-                if (response.isSuccess()) {
-                    // 模拟流式输出
-                    String content = response.getContent();
-                    String[] words = content.split(" ");
-                    for (String word : words) {
-                        onToken.accept(word + " ");
-                        Thread.sleep(50); // 模拟延迟
-                    }
-                    onComplete.run();
-                } else {
-                    onError.accept(new RuntimeException(response.getErrorMessage()));
-                }
-            } catch (Exception e) {
-                onError.accept(e);
+        long startTime = System.currentTimeMillis();
+        try {
+            UserAIConfig config = getUserConfig(request);
+            if (config == null) {
+                throw new RuntimeException("No AI configuration found for user: " + request.getUserId());
             }
-        }).start();
+            
+            AIClient client = aiClientFactory.getClient(config.getProvider());
+            return client.chatStream(buildFullPrompt(request), config, delta -> {
+                    onToken.accept(delta);
+                    return true;
+                })
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        onError.accept(error instanceof Exception ? (Exception) error : new RuntimeException(error));
+                    } else if (response.isSuccess()) {
+                        response.withDuration(System.currentTimeMillis() - startTime)
+                                .withModel(config.getProvider().name(), "default-model");
+                        recordUsage(request, response);
+                        onComplete.run();
+                    } else {
+                        onError.accept(new RuntimeException(response.getErrorMessage()));
+                    }
+                });
+        } catch (Exception e) {
+            log.error("AI stream request failed", e);
+            onError.accept(e);
+            return CompletableFuture.failedFuture(e);
+        }
     }
     
     /**
@@ -0,0 +1,85 @@
+package com.teachhelper.service.ai;
+
+/**
+ * 流式响应的汇总器：拼接增量文本、转交给接收方，并记录提供商在流中返回的token用量。
+ * 接收方提前结束生成时，提供商通常不会再返回用量，输出token按已生成内容估算
+ */
+public class StreamedResponseCollector {
+
+    /** 接收方提前结束生成时在响应元数据中的标记 */
+    public static final String STOPPED_EARLY = "streamStoppedEarly";
+
+    private final AIStreamSink sink;
+    private final long startTime;
+    private final StringBuilder content = new StringBuilder();
+    private volatile boolean stopped;
+    private int inputTokens;
+    private int cachedInputTokens;
+    private int outputTokens;
+
+    public StreamedResponseCollector(AIStreamSink sink) {
+        this.sink = sink;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 追加一段增量文本
+     * @return 是否继续接收
+     */
+    public boolean append(String delta) {
+        if (stopped) {
+            return false;
+        }
+        if (delta == null || delta.isEmpty()) {
+            return true;
+        }
+        content.append(delta);
+        if (sink != null && !sink.onDelta(delta)) {
+            stopped = true;
+        }
+        return !stopped;
+    }
+
+    public void setInputTokens(int inputTokens) {
+        if (inputTokens > 0) {
+            this.inputTokens = inputTokens;
+        }
+    }
+
+    public void setCachedInputTokens(int cachedInputTokens) {
+        if (cachedInputTokens > 0) {
+            this.cachedInputTokens = cachedInputTokens;
+        }
+    }
+
+    public void setOutputTokens(int outputTokens) {
+        if (outputTokens > 0) {
+            this.outputTokens = outputTokens;
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public String getContent() {
+        return content.toString();
+    }
+
+    /**
+     * 生成最终响应
+     * @param client 用于在缺少用量时估算token的客户端
+     * @param prompt 本次请求的提示词
+     */
+    public AIResponse toResponse(AIClient client, String prompt) {
+        String text = content.toString();
+        int input = inputTokens > 0 ? inputTokens : client.estimateTokens(prompt);
+        int output = outputTokens > 0 ? outputTokens : client.estimateTokens(text);
+        AIResponse response = new AIResponse(text, input, output, System.currentTimeMillis() - startTime)
+            .withCachedInputTokens(cachedInputTokens);
+        if (stopped) {
+            response.getMetadata().put(STOPPED_EARLY, true);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,32 @@
+package com.teachhelper.service.ai;
+
+/**
+ * 分词器：按模型的词表计算文本token数并按token数截断文本
+ */
+public interface Tokenizer {
+
+    /**
+     * 词表名称，例如 o200k_base、cl100k_base 或 heuristic
+     */
+    String getName();
+
+    /**
+     * 是否为模型自身使用的词表；近似词表的计数已按安全余量放大
+     */
+    boolean isExact();
+
+    /**
+     * 计算文本的token数
+     * @param text 文本内容，为空时返回0
+     * @return token数量
+     */
+    int countTokens(String text);
+
+    /**
+     * 截取文本开头不超过指定token数的部分，不会截断在字符中间
+     * @param text 文本内容
+     * @param maxTokens 最大token数
+     * @return 截断后的文本，未超出时返回原文本
+     */
+    String truncate(String text, int maxTokens);
+}
@@ -0,0 +1,236 @@
+package com.teachhelper.service.ai;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+
+/**
+ * 按模型选择分词器
+ * OpenAI模型使用其公开的BPE词表（gpt-4o、gpt-4.1、o系列为o200k_base，其余为cl100k_base），计数精确；
+ * 其他提供商没有公开词表，默认用cl100k_base近似并按安全余量放大计数，可按提供商覆盖。
+ * 词表在首次使用时才加载，每个 提供商+模型 的分词器创建后缓存复用
+ */
+@Service
+public class TokenizerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenizerService.class);
+
+    /** 不使用BPE词表、按字符类别估算的分词器名称 */
+    public static final String HEURISTIC = "heuristic";
+
+    private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+    private final Map<String, Tokenizer> tokenizers = new ConcurrentHashMap<>();
+    private final String defaultEncoding;
+    private final Map<AIProvider, String> providerEncodings;
+    private final double safetyMargin;
+
+    @Autowired
+    public TokenizerService(
+            @Value("${app.ai.tokenizer.default-encoding:cl100k_base}") String defaultEncoding,
+            @Value("${app.ai.tokenizer.provider-encodings:}") String providerEncodings,
+            @Value("${app.ai.tokenizer.safety-margin:0.1}") double safetyMargin) {
+        this.defaultEncoding = defaultEncoding;
+        this.providerEncodings = parseProviderEncodings(providerEncodings);
+        this.safetyMargin = Math.max(0, safetyMargin);
+    }
+
+    /**
+     * 获取AI配置所用模型的分词器
+     */
+    public Tokenizer forConfig(UserAIConfig config) {
+        return forModel(config.getProvider(), config.getModelName());
+    }
+
+    /**
+     * 获取指定提供商和模型的分词器
+     */
+    public Tokenizer forModel(AIProvider provider, String modelName) {
+        String model = modelName != null ? modelName.toLowerCase(Locale.ROOT) : "";
+        return tokenizers.computeIfAbsent(provider + "|" + model, key -> createTokenizer(provider, model));
+    }
+
+    /**
+     * 各模型当前使用的分词器，供调试接口查看
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("defaultEncoding", defaultEncoding);
+        snapshot.put("safetyMargin", safetyMargin);
+        Map<String, String> models = new HashMap<>();
+        tokenizers.forEach((key, tokenizer) -> models.put(key, tokenizer.getName() + (tokenizer.isExact() ? "" : "(近似)")));
+        snapshot.put("models", models);
+        return snapshot;
+    }
+
+    private Tokenizer createTokenizer(AIProvider provider, String model) {
+        String override = providerEncodings.get(provider);
+        boolean exact = false;
+        String encodingName;
+        if (override != null) {
+            encodingName = override;
+        } else if (provider == AIProvider.OPENAI || model.startsWith("gpt-")) {
+            encodingName = openAIEncoding(model);
+            exact = true;
+        } else {
+            encodingName = defaultEncoding;
+        }
+
+        if (HEURISTIC.equalsIgnoreCase(encodingName)) {
+            return new HeuristicTokenizer();
+        }
+        EncodingType type = EncodingType.fromName(encodingName).orElse(null);
+        if (type == null) {
+            logger.warn("未知的分词词表 {}，模型 {}:{} 改用字符估算", encodingName, provider, model);
+            return new HeuristicTokenizer();
+        }
+        logger.debug("模型 {}:{} 使用分词词表 {}{}", provider, model, encodingName, exact ? "" : "（近似）");
+        return new BpeTokenizer(registry.getEncoding(type), exact ? 0 : safetyMargin, exact);
+    }
+
+    /**
+     * OpenAI模型对应的词表，与官方tiktoken的模型映射一致
+     */
+    static String openAIEncoding(String model) {
+        if (model.startsWith("gpt-4o") || model.startsWith("gpt-4.1") || model.startsWith("gpt-4.5")
+                || model.startsWith("gpt-5") || model.startsWith("chatgpt-4o")
+                || model.startsWith("o1") || model.startsWith("o3") || model.startsWith("o4")) {
+            return EncodingType.O200K_BASE.getName();
+        }
+        return EncodingType.CL100K_BASE.getName();
+    }
+
+    private static Map<AIProvider, String> parseProviderEncodings(String value) {
+        Map<AIProvider, String> encodings = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return encodings;
+        }
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":", 2);
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                encodings.put(AIProvider.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), parts[1].trim());
+            } catch (IllegalArgumentException e) {
+                logger.warn("忽略未知提供商的分词配置: {}", entry);
+            }
+        }
+        return encodings;
+    }
+
+    /**
+     * 基于BPE词表的分词器，近似词表的计数乘以 1 + 余量，截断时按同样比例收紧
+     */
+    static final class BpeTokenizer implements Tokenizer {
+        private final Encoding encoding;
+        private final double margin;
+        private final boolean exact;
+
+        BpeTokenizer(Encoding encoding, double margin, boolean exact) {
+            this.encoding = encoding;
+            this.margin = margin;
+            this.exact = exact;
+        }
+
+        @Override
+        public String getName() {
+            return encoding.getName();
+        }
+
+        @Override
+        public boolean isExact() {
+            return exact;
+        }
+
+        @Override
+        public int countTokens(String text) {
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            return (int) Math.ceil(encoding.countTokensOrdinary(text) * (1 + margin));
+        }
+
+        @Override
+        public String truncate(String text, int maxTokens) {
+            if (text == null || text.isEmpty()) {
+                return text;
+            }
+            int limit = (int) Math.floor(Math.max(0, maxTokens) / (1 + margin));
+            EncodingResult result = encoding.encodeOrdinary(text, limit);
+            if (!result.isTruncated()) {
+                return text;
+            }
+            int end = Math.max(0, Math.min(text.length(), result.getLastProcessedCharacterIndex() + 1));
+            if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            return text.substring(0, end);
+        }
+    }
+
+    /**
+     * 字符类别估算：中文约1.5个字符1个token，其他约4个字符1个token，与各客户端的估算方式一致
+     */
+    static final class HeuristicTokenizer implements Tokenizer {
+
+        @Override
+        public String getName() {
+            return HEURISTIC;
+        }
+
+        @Override
+        public boolean isExact() {
+            return false;
+        }
+
+        @Override
+        public int countTokens(String text) {
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            int chineseChars = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (isChinese(text.charAt(i))) {
+                    chineseChars++;
+                }
+            }
+            return (int) Math.ceil(chineseChars / 1.5 + (text.length() - chineseChars) / 4.0);
+        }
+
+        @Override
+        public String truncate(String text, int maxTokens) {
+            if (text == null || text.isEmpty()) {
+                return text;
+            }
+            double used = 0;
+            for (int i = 0; i < text.length(); i++) {
+                used += isChinese(text.charAt(i)) ? 1 / 1.5 : 0.25;
+                if (used > maxTokens) {
+                    int end = Character.isLowSurrogate(text.charAt(i)) ? i - 1 : i;
+                    return text.substring(0, Math.max(0, end));
+                }
+            }
+            return text;
+        }
+
+        private static boolean isChinese(char c) {
+            return c >= 0x4E00 && c <= 0x9FFF;
+        }
+    }
+}
@@ -4,21 +4,24 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.teachhelper.entity.AIProvider;
 import com.teachhelper.entity.UserAIConfig;
 import com.teachhelper.service.ai.AIClient;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIHttpTransport;
 import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.AIResponseFormat;
+import com.teachhelper.service.ai.AIStreamSink;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.ai.StreamedResponseCollector;
 
 /**
  * Claude客户端实现
@@ -26,16 +29,22 @@ import com.teachhelper.service.ai.AIResponse;
 @Service
 public class ClaudeClient implements AIClient {
     
-    private final RestTemplate restTemplate;
+    private final AIHttpTransport transport;
     private final ObjectMapper objectMapper;
     
-    public ClaudeClient(@Qualifier("aiRestTemplate") RestTemplate aiRestTemplate) {
-        this.restTemplate = aiRestTemplate;
+    public ClaudeClient(AIHttpTransport transport) {
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
     
     @Override
-    public AIResponse chat(String prompt, UserAIConfig config) {
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT, CancellationToken.NONE);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
         long startTime = System.currentTimeMillis();
         
         try {
@@ -44,53 +53,139 @@ public class ClaudeClient implements AIClient {
             String model = config.getModelName() != null ? 
                 config.getModelName() : AIProvider.CLAUDE.getDefaultModel();
             
-            // 构建Claude特有的请求体格式
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("max_tokens", config.getMaxTokens());
-            requestBody.put("temperature", config.getTemperature().doubleValue());
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config);
+            HttpHeaders headers = buildHeaders(config);
             
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            messages.add(message);
-            requestBody.put("messages", messages);
+            // 发送请求，等待响应期间不占用线程
+            return transport.postJsonAsync(endpoint, headers, requestBody, token)
+                .thenApply(response -> response.isSuccessful()
+                    ? parseClaudeResponse(response.body(), startTime)
+                    : AIResponse.error("Claude API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("Claude API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
             
-            // 设置请求头
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.add("x-api-key", config.getApiKey());
-            headers.add("anthropic-version", "2023-06-01");
-            
-            // 添加自定义头部
-            if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
-                try {
-                    JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
-                    customHeadersNode.fields().forEachRemaining(entry -> {
-                        headers.add(entry.getKey(), entry.getValue().asText());
-                    });
-                } catch (Exception e) {
-                    System.out.println("解析自定义头部失败: " + e.getMessage());
-                }
-            }
-            
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(
+                AIResponse.error("Claude API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
+        }
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            String endpoint = config.getApiEndpoint() != null ? 
+                config.getApiEndpoint() : AIProvider.CLAUDE.getDefaultEndpoint();
+            String model = config.getModelName() != null ? 
+                config.getModelName() : AIProvider.CLAUDE.getDefaultModel();
             
-            // 发送请求
-            ResponseEntity<String> response = restTemplate.postForEntity(endpoint, entity, String.class);
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config);
+            requestBody.put("stream", true);
             
-            if (response.getStatusCode().is2xxSuccessful()) {
-                return parseClaudeResponse(response.getBody(), startTime);
-            } else {
-                return AIResponse.error("Claude API请求失败: " + response.getStatusCode(), 
-                                      System.currentTimeMillis() - startTime);
-            }
+            StreamedResponseCollector collector = new StreamedResponseCollector(sink);
+            CompletableFuture<AIHttpTransport.Response> stream = transport.postSseAsync(
+                endpoint, buildHeaders(config), requestBody, (event, data) -> onStreamEvent(data, collector));
+            CompletableFuture<AIResponse> result = stream
+                .thenApply(response -> response.isSuccessful()
+                    ? collector.toResponse(this, prompt)
+                    : AIResponse.error("Claude API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("Claude API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
+            // 调用方取消时中止响应流
+            result.whenComplete((response, error) -> stream.cancel(true));
+            return result;
             
         } catch (Exception e) {
-            return AIResponse.error("Claude API调用异常: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+            return CompletableFuture.completedFuture(
+                AIResponse.error("Claude API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
+        }
+    }
+    
+    /**
+     * 处理一个流式事件：message_start 带输入用量，content_block_delta 带增量文本，
+     * message_delta 带输出用量，error 表示生成中途失败
+     */
+    private boolean onStreamEvent(String data, StreamedResponseCollector collector) {
+        JsonNode rootNode;
+        try {
+            rootNode = objectMapper.readTree(data);
+        } catch (Exception e) {
+            return true;
+        }
+        switch (rootNode.path("type").asText()) {
+            case "message_start": {
+                JsonNode usageNode = rootNode.path("message").path("usage");
+                int cachedTokens = usageNode.path("cache_read_input_tokens").asInt(0);
+                collector.setInputTokens(usageNode.path("input_tokens").asInt(0) + cachedTokens);
+                collector.setCachedInputTokens(cachedTokens);
+                return true;
+            }
+            case "content_block_delta": {
+                JsonNode text = rootNode.path("delta").path("text");
+                return !text.isTextual() || collector.append(text.asText());
+            }
+            case "message_delta":
+                collector.setOutputTokens(rootNode.path("usage").path("output_tokens").asInt(0));
+                return true;
+            case "error":
+                throw new IllegalStateException("Claude流式响应错误: " + rootNode.path("error").path("message").asText());
+            default:
+                return true;
+        }
+    }
+    
+    private Map<String, Object> buildRequestBody(String prompt, String model, UserAIConfig config) {
+        // 构建Claude特有的请求体格式
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("max_tokens", config.getMaxTokens());
+        requestBody.put("temperature", config.getTemperature().doubleValue());
+        
+        List<Map<String, String>> messages = new ArrayList<>();
+        Map<String, String> message = new HashMap<>();
+        message.put("role", "user");
+        message.put("content", prompt);
+        messages.add(message);
+        requestBody.put("messages", messages);
+        return requestBody;
+    }
+    
+    private HttpHeaders buildHeaders(UserAIConfig config) {
+        // 设置请求头
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.add("x-api-key", config.getApiKey());
+        headers.add("anthropic-version", "2023-06-01");
+        
+        // 添加自定义头部
+        if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
+            try {
+                JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
+                customHeadersNode.fields().forEachRemaining(entry -> {
+                    headers.add(entry.getKey(), entry.getValue().asText());
+                });
+            } catch (Exception e) {
+                System.out.println("解析自定义头部失败: " + e.getMessage());
+            }
         }
+        return headers;
     }
     
     @Override
@@ -141,16 +236,21 @@ public class ClaudeClient implements AIClient {
             
             // Claude的token使用情况
             JsonNode usageNode = rootNode.path("usage");
-            Integer inputTokens = usageNode.path("input_tokens").asInt(0);
+            // input_tokens 不包含缓存读写部分，这里统一折算为总输入token
+            Integer cachedTokens = usageNode.path("cache_read_input_tokens").asInt(0);
+            Integer inputTokens = usageNode.path("input_tokens").asInt(0) + cachedTokens
+                    + usageNode.path("cache_creation_input_tokens").asInt(0);
             Integer outputTokens = usageNode.path("output_tokens").asInt(0);
             
             long duration = System.currentTimeMillis() - startTime;
             
-            return new AIResponse(content, inputTokens, outputTokens, duration);
+            return new AIResponse(content, inputTokens, outputTokens, duration)
+                    .withCachedInputTokens(cachedTokens);
             
         } catch (Exception e) {
             return AIResponse.error("解析Claude响应失败: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+                                  System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.PARSE_ERROR);
         }
     }
 }
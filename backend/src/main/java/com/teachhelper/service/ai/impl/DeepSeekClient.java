@@ -4,21 +4,24 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.teachhelper.entity.AIProvider;
 import com.teachhelper.entity.UserAIConfig;
 import com.teachhelper.service.ai.AIClient;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIHttpTransport;
 import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.AIResponseFormat;
+import com.teachhelper.service.ai.AIStreamSink;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.ai.StreamedResponseCollector;
 
 /**
  * DeepSeek客户端实现
@@ -26,16 +29,27 @@ import com.teachhelper.service.ai.AIResponse;
 @Service
 public class DeepSeekClient implements AIClient {
     
-    private final RestTemplate restTemplate;
+    private final AIHttpTransport transport;
     private final ObjectMapper objectMapper;
     
-    public DeepSeekClient(@Qualifier("aiRestTemplate") RestTemplate aiRestTemplate) {
-        this.restTemplate = aiRestTemplate;
+    public DeepSeekClient(AIHttpTransport transport) {
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
     
     @Override
-    public AIResponse chat(String prompt, UserAIConfig config) {
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return chatAsync(prompt, config, format, CancellationToken.NONE);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
         long startTime = System.currentTimeMillis();
         
         try {
@@ -45,52 +59,142 @@ public class DeepSeekClient implements AIClient {
             String model = config.getModelName() != null ? 
                 config.getModelName() : AIProvider.DEEPSEEK.getDefaultModel();
             
-            // 构建请求体
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("max_tokens", config.getMaxTokens());
-            requestBody.put("temperature", config.getTemperature().doubleValue());
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config, format);
+            HttpHeaders headers = buildHeaders(config);
             
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            messages.add(message);
-            requestBody.put("messages", messages);
+            // 发送请求，等待响应期间不占用线程
+            return transport.postJsonAsync(endpoint, headers, requestBody, token)
+                .thenApply(response -> response.isSuccessful()
+                    ? parseDeepSeekResponse(response.body(), startTime)
+                    : AIResponse.error("DeepSeek API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("DeepSeek API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
             
-            // 设置请求头
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(config.getApiKey());
-            
-            // 添加自定义头部
-            if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
-                try {
-                    JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
-                    customHeadersNode.fields().forEachRemaining(entry -> {
-                        headers.add(entry.getKey(), entry.getValue().asText());
-                    });
-                } catch (Exception e) {
-                    System.out.println("解析自定义头部失败: " + e.getMessage());
-                }
-            }
-            
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(
+                AIResponse.error("DeepSeek API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
+        }
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                    AIResponseFormat format) {
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            String endpoint = config.getApiEndpoint() != null ? 
+                config.getApiEndpoint() : AIProvider.DEEPSEEK.getDefaultEndpoint();
+            String model = config.getModelName() != null ? 
+                config.getModelName() : AIProvider.DEEPSEEK.getDefaultModel();
             
-            // 发送请求
-            ResponseEntity<String> response = restTemplate.postForEntity(endpoint, entity, String.class);
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config, format);
+            requestBody.put("stream", true);
+            // 在最后一个事件中返回token用量
+            requestBody.put("stream_options", Map.of("include_usage", true));
             
-            if (response.getStatusCode().is2xxSuccessful()) {
-                return parseDeepSeekResponse(response.getBody(), startTime);
-            } else {
-                return AIResponse.error("DeepSeek API请求失败: " + response.getStatusCode(), 
-                                      System.currentTimeMillis() - startTime);
-            }
+            StreamedResponseCollector collector = new StreamedResponseCollector(sink);
+            CompletableFuture<AIHttpTransport.Response> stream = transport.postSseAsync(
+                endpoint, buildHeaders(config), requestBody, (event, data) -> onStreamEvent(data, collector));
+            CompletableFuture<AIResponse> result = stream
+                .thenApply(response -> response.isSuccessful()
+                    ? collector.toResponse(this, prompt)
+                    : AIResponse.error("DeepSeek API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("DeepSeek API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
+            // 调用方取消时中止响应流
+            result.whenComplete((response, error) -> stream.cancel(true));
+            return result;
             
         } catch (Exception e) {
-            return AIResponse.error("DeepSeek API调用异常: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+            return CompletableFuture.completedFuture(
+                AIResponse.error("DeepSeek API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
+        }
+    }
+    
+    /**
+     * 处理一个流式事件：choices[0].delta.content 为增量文本，带 usage 的事件为最终用量
+     */
+    private boolean onStreamEvent(String data, StreamedResponseCollector collector) {
+        if ("[DONE]".equals(data)) {
+            return true;
+        }
+        JsonNode rootNode;
+        try {
+            rootNode = objectMapper.readTree(data);
+        } catch (Exception e) {
+            // 个别无法解析的事件（如心跳）不影响整体结果
+            return true;
+        }
+        JsonNode usageNode = rootNode.path("usage");
+        if (usageNode.isObject()) {
+            collector.setInputTokens(usageNode.path("prompt_tokens").asInt(0));
+            collector.setOutputTokens(usageNode.path("completion_tokens").asInt(0));
+            collector.setCachedInputTokens(usageNode.path("prompt_cache_hit_tokens").asInt(0));
+        }
+        JsonNode delta = rootNode.path("choices").path(0).path("delta").path("content");
+        return !delta.isTextual() || collector.append(delta.asText());
+    }
+    
+    private Map<String, Object> buildRequestBody(String prompt, String model, UserAIConfig config,
+                                                 AIResponseFormat format) {
+        // 构建请求体
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("max_tokens", config.getMaxTokens());
+        requestBody.put("temperature", config.getTemperature().doubleValue());
+        
+        List<Map<String, String>> messages = new ArrayList<>();
+        Map<String, String> message = new HashMap<>();
+        message.put("role", "user");
+        message.put("content", prompt);
+        messages.add(message);
+        requestBody.put("messages", messages);
+        // JSON模式：模型只输出一个合法的JSON对象（提示词中需包含"JSON"字样）
+        if (format == AIResponseFormat.JSON_OBJECT) {
+            requestBody.put("response_format", Map.of("type", "json_object"));
+        }
+        return requestBody;
+    }
+    
+    private HttpHeaders buildHeaders(UserAIConfig config) {
+        // 设置请求头
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(config.getApiKey());
+        
+        // 添加自定义头部
+        if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
+            try {
+                JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
+                customHeadersNode.fields().forEachRemaining(entry -> {
+                    headers.add(entry.getKey(), entry.getValue().asText());
+                });
+            } catch (Exception e) {
+                System.out.println("解析自定义头部失败: " + e.getMessage());
+            }
         }
+        return headers;
     }
     
     @Override
@@ -143,14 +247,18 @@ public class DeepSeekClient implements AIClient {
             JsonNode usageNode = rootNode.path("usage");
             Integer inputTokens = usageNode.path("prompt_tokens").asInt(0);
             Integer outputTokens = usageNode.path("completion_tokens").asInt(0);
+            // DeepSeek上下文硬盘缓存命中的输入token（已包含在 prompt_tokens 中）
+            Integer cachedTokens = usageNode.path("prompt_cache_hit_tokens").asInt(0);
             
             long duration = System.currentTimeMillis() - startTime;
             
-            return new AIResponse(content, inputTokens, outputTokens, duration);
+            return new AIResponse(content, inputTokens, outputTokens, duration)
+                    .withCachedInputTokens(cachedTokens);
             
         } catch (Exception e) {
             return AIResponse.error("解析DeepSeek响应失败: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+                                  System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.PARSE_ERROR);
         }
     }
 }
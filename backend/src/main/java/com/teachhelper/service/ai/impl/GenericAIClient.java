@@ -4,19 +4,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.teachhelper.entity.AIProvider;
 import com.teachhelper.entity.UserAIConfig;
 import com.teachhelper.service.ai.AIClient;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIHttpTransport;
 import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.AIResponseFormat;
+import com.teachhelper.service.ai.CancellationToken;
 
 /**
  * 通用AI客户端实现（用于支持其他提供商）
@@ -24,23 +26,23 @@ import com.teachhelper.service.ai.AIResponse;
 public class GenericAIClient implements AIClient {
     
     private final AIProvider provider;
-    private final RestTemplate restTemplate;
+    private final AIHttpTransport transport;
     private final ObjectMapper objectMapper;
     
-    public GenericAIClient(AIProvider provider) {
+    public GenericAIClient(AIProvider provider, AIHttpTransport transport) {
         this.provider = provider;
-        this.restTemplate = new RestTemplate();
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
     
-    public GenericAIClient(AIProvider provider, RestTemplate restTemplate) {
-        this.provider = provider;
-        this.restTemplate = restTemplate;
-        this.objectMapper = new ObjectMapper();
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT, CancellationToken.NONE);
     }
     
     @Override
-    public AIResponse chat(String prompt, UserAIConfig config) {
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
         long startTime = System.currentTimeMillis();
         
         try {
@@ -55,21 +57,25 @@ public class GenericAIClient implements AIClient {
             // 设置请求头
             HttpHeaders headers = buildHeaders(config);
             
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            
-            // 发送请求
-            ResponseEntity<String> response = restTemplate.postForEntity(endpoint, entity, String.class);
-            
-            if (response.getStatusCode().is2xxSuccessful()) {
-                return parseGenericResponse(response.getBody(), startTime);
-            } else {
-                return AIResponse.error(provider.getDisplayName() + " API请求失败: " + response.getStatusCode(), 
-                                      System.currentTimeMillis() - startTime);
-            }
+            // 发送请求，等待响应期间不占用线程
+            return transport.postJsonAsync(endpoint, headers, requestBody, token)
+                .thenApply(response -> response.isSuccessful()
+                    ? parseGenericResponse(response.body(), startTime)
+                    : AIResponse.error(provider.getDisplayName() + " API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error(provider.getDisplayName() + " API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
             
         } catch (Exception e) {
-            return AIResponse.error(provider.getDisplayName() + " API调用异常: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+            return CompletableFuture.completedFuture(
+                AIResponse.error(provider.getDisplayName() + " API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
         }
     }
     
@@ -200,6 +206,7 @@ public class GenericAIClient implements AIClient {
             String content = "";
             Integer inputTokens = 0;
             Integer outputTokens = 0;
+            Integer cachedTokens = 0;
             
             switch (provider) {
                 case ALIBABA_TONGYI:
@@ -227,15 +234,20 @@ public class GenericAIClient implements AIClient {
                     JsonNode usageNode = rootNode.path("usage");
                     inputTokens = usageNode.path("prompt_tokens").asInt(0);
                     outputTokens = usageNode.path("completion_tokens").asInt(0);
+                    // OpenAI兼容接口的前缀缓存命中数
+                    cachedTokens = usageNode.path("prompt_tokens_details").path("cached_tokens").asInt(
+                        usageNode.path("prompt_cache_hit_tokens").asInt(0));
                     break;
             }
             
             long duration = System.currentTimeMillis() - startTime;
-            return new AIResponse(content, inputTokens, outputTokens, duration);
+            return new AIResponse(content, inputTokens, outputTokens, duration)
+                    .withCachedInputTokens(cachedTokens);
             
         } catch (Exception e) {
             return AIResponse.error("解析" + provider.getDisplayName() + "响应失败: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+                                  System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.PARSE_ERROR);
         }
     }
 }
@@ -1,41 +1,62 @@
 package com.teachhelper.service.ai.impl;
 
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.teachhelper.entity.AIProvider;
 import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.ai.AIBatchClient;
 import com.teachhelper.service.ai.AIClient;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIHttpTransport;
 import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.AIResponseFormat;
+import com.teachhelper.service.ai.AIStreamSink;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.ai.StreamedResponseCollector;
 
 /**
  * OpenAI客户端实现
  */
 @Service
-public class OpenAIClient implements AIClient {
+public class OpenAIClient implements AIClient, AIBatchClient {
     
-    private final RestTemplate restTemplate;
+    private static final String CHAT_COMPLETIONS_PATH = "/chat/completions";
+    
+    private final AIHttpTransport transport;
     private final ObjectMapper objectMapper;
     
-    public OpenAIClient(@Qualifier("aiRestTemplate") RestTemplate aiRestTemplate) {
-        this.restTemplate = aiRestTemplate;
+    public OpenAIClient(AIHttpTransport transport) {
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
     
     @Override
-    public AIResponse chat(String prompt, UserAIConfig config) {
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+        return chatAsync(prompt, config, AIResponseFormat.TEXT);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format) {
+        return chatAsync(prompt, config, format, CancellationToken.NONE);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                   CancellationToken token) {
         long startTime = System.currentTimeMillis();
         
         try {
@@ -45,54 +66,144 @@ public class OpenAIClient implements AIClient {
             String model = config.getModelName() != null ? 
                 config.getModelName() : AIProvider.OPENAI.getDefaultModel();
             
-            // 构建请求体
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("max_tokens", config.getMaxTokens());
-            requestBody.put("temperature", config.getTemperature().doubleValue());
-            
-            List<Map<String, String>> messages = new ArrayList<>();
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            messages.add(message);
-            requestBody.put("messages", messages);
-            
-            // 设置请求头
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(config.getApiKey());
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config, format);
+            HttpHeaders headers = buildHeaders(config);
             
-            // 添加自定义头部
-            if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
-                try {
-                    JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
-                    customHeadersNode.fields().forEachRemaining(entry -> {
-                        headers.add(entry.getKey(), entry.getValue().asText());
-                    });
-                } catch (Exception e) {
-                    System.out.println("解析自定义头部失败: " + e.getMessage());
-                }
-            }
+            // 发送请求，等待响应期间不占用线程
+            return transport.postJsonAsync(endpoint, headers, requestBody, token)
+                .thenApply(response -> response.isSuccessful()
+                    ? parseOpenAIResponse(response.body(), startTime)
+                    : AIResponse.error("OpenAI API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("OpenAI API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
             
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(
+                AIResponse.error("OpenAI API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
+        }
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink) {
+        return chatStream(prompt, config, sink, AIResponseFormat.TEXT);
+    }
+    
+    @Override
+    public CompletableFuture<AIResponse> chatStream(String prompt, UserAIConfig config, AIStreamSink sink,
+                                                    AIResponseFormat format) {
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            String endpoint = config.getApiEndpoint() != null ? 
+                config.getApiEndpoint() : AIProvider.OPENAI.getDefaultEndpoint();
+            String model = config.getModelName() != null ? 
+                config.getModelName() : AIProvider.OPENAI.getDefaultModel();
             
-            // 发送请求
-            ResponseEntity<String> response = restTemplate.postForEntity(endpoint, entity, String.class);
+            Map<String, Object> requestBody = buildRequestBody(prompt, model, config, format);
+            requestBody.put("stream", true);
+            // 在最后一个事件中返回token用量
+            requestBody.put("stream_options", Map.of("include_usage", true));
             
-            if (response.getStatusCode().is2xxSuccessful()) {
-                return parseOpenAIResponse(response.getBody(), startTime);
-            } else {
-                return AIResponse.error("OpenAI API请求失败: " + response.getStatusCode(), 
-                                      System.currentTimeMillis() - startTime);
-            }
+            StreamedResponseCollector collector = new StreamedResponseCollector(sink);
+            CompletableFuture<AIHttpTransport.Response> stream = transport.postSseAsync(
+                endpoint, buildHeaders(config), requestBody, (event, data) -> onStreamEvent(data, collector));
+            CompletableFuture<AIResponse> result = stream
+                .thenApply(response -> response.isSuccessful()
+                    ? collector.toResponse(this, prompt)
+                    : AIResponse.error("OpenAI API请求失败: " + response.describe(),
+                                       System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromStatus(response.statusCode())))
+                .exceptionally(e -> {
+                    Throwable cause = AIHttpTransport.rootCause(e);
+                    return AIResponse.error("OpenAI API调用异常: " + cause.getMessage(),
+                                            System.currentTimeMillis() - startTime)
+                        .withErrorType(AIErrorType.fromException(cause));
+                });
+            // 调用方取消时中止响应流
+            result.whenComplete((response, error) -> stream.cancel(true));
+            return result;
             
         } catch (Exception e) {
-            return AIResponse.error("OpenAI API调用异常: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+            return CompletableFuture.completedFuture(
+                AIResponse.error("OpenAI API调用异常: " + e.getMessage(), 
+                                 System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.fromException(e)));
         }
     }
     
+    /**
+     * 处理一个流式事件：choices[0].delta.content 为增量文本，带 usage 的事件为最终用量
+     */
+    private boolean onStreamEvent(String data, StreamedResponseCollector collector) {
+        if ("[DONE]".equals(data)) {
+            return true;
+        }
+        JsonNode rootNode;
+        try {
+            rootNode = objectMapper.readTree(data);
+        } catch (Exception e) {
+            // 个别无法解析的事件（如心跳）不影响整体结果
+            return true;
+        }
+        JsonNode usageNode = rootNode.path("usage");
+        if (usageNode.isObject()) {
+            collector.setInputTokens(usageNode.path("prompt_tokens").asInt(0));
+            collector.setOutputTokens(usageNode.path("completion_tokens").asInt(0));
+            collector.setCachedInputTokens(usageNode.path("prompt_tokens_details").path("cached_tokens").asInt(0));
+        }
+        JsonNode delta = rootNode.path("choices").path(0).path("delta").path("content");
+        return !delta.isTextual() || collector.append(delta.asText());
+    }
+    
+    private Map<String, Object> buildRequestBody(String prompt, String model, UserAIConfig config,
+                                                 AIResponseFormat format) {
+        // 构建请求体
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("max_tokens", config.getMaxTokens());
+        requestBody.put("temperature", config.getTemperature().doubleValue());
+        
+        List<Map<String, String>> messages = new ArrayList<>();
+        Map<String, String> message = new HashMap<>();
+        message.put("role", "user");
+        message.put("content", prompt);
+        messages.add(message);
+        requestBody.put("messages", messages);
+        // JSON模式：模型只输出一个合法的JSON对象（提示词中需包含"JSON"字样）
+        if (format == AIResponseFormat.JSON_OBJECT) {
+            requestBody.put("response_format", Map.of("type", "json_object"));
+        }
+        return requestBody;
+    }
+    
+    private HttpHeaders buildHeaders(UserAIConfig config) {
+        // 设置请求头
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(config.getApiKey());
+        
+        // 添加自定义头部
+        if (config.getCustomHeaders() != null && !config.getCustomHeaders().trim().isEmpty()) {
+            try {
+                JsonNode customHeadersNode = objectMapper.readTree(config.getCustomHeaders());
+                customHeadersNode.fields().forEachRemaining(entry -> {
+                    headers.add(entry.getKey(), entry.getValue().asText());
+                });
+            } catch (Exception e) {
+                System.out.println("解析自定义头部失败: " + e.getMessage());
+            }
+        }
+        return headers;
+    }
+    
     @Override
     public boolean validateConfig(UserAIConfig config) {
         if (config.getApiKey() == null || config.getApiKey().trim().isEmpty()) {
@@ -133,6 +244,135 @@ public class OpenAIClient implements AIClient {
         return (int) Math.ceil(chineseChars / 1.5 + otherChars / 4.0);
     }
     
+    @Override
+    public String toBatchLine(String customId, String prompt, UserAIConfig config) {
+        String model = config.getModelName() != null ? 
+            config.getModelName() : AIProvider.OPENAI.getDefaultModel();
+        Map<String, Object> line = new HashMap<>();
+        line.put("custom_id", customId);
+        line.put("method", "POST");
+        line.put("url", batchEndpointPath(config));
+        line.put("body", buildRequestBody(prompt, model, config, AIResponseFormat.TEXT));
+        try {
+            return objectMapper.writeValueAsString(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化批处理请求失败: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public CompletableFuture<BatchJob> submitBatch(Path requestsFile, UserAIConfig config) {
+        String baseUrl = batchBaseUrl(config);
+        HttpHeaders headers = buildHeaders(config);
+        headers.remove(HttpHeaders.CONTENT_TYPE);
+        // 先上传输入文件，再以文件ID创建作业
+        return transport.uploadFileAsync(baseUrl + "/files", headers, Map.of("purpose", "batch"), "file", requestsFile)
+            .thenCompose(upload -> {
+                JsonNode file = readBatchResponse(upload, "上传批处理文件");
+                Map<String, Object> body = new HashMap<>();
+                body.put("input_file_id", file.path("id").asText());
+                body.put("endpoint", batchEndpointPath(config));
+                body.put("completion_window", "24h");
+                return transport.postJsonAsync(baseUrl + "/batches", buildHeaders(config), body);
+            })
+            .thenApply(response -> toBatchJob(readBatchResponse(response, "创建批处理作业")));
+    }
+    
+    @Override
+    public CompletableFuture<BatchJob> getBatch(String jobId, UserAIConfig config) {
+        return transport.getAsync(batchBaseUrl(config) + "/batches/" + jobId, buildHeaders(config))
+            .thenApply(response -> toBatchJob(readBatchResponse(response, "查询批处理作业")));
+    }
+    
+    @Override
+    public CompletableFuture<BatchJob> cancelBatch(String jobId, UserAIConfig config) {
+        return transport.postJsonAsync(batchBaseUrl(config) + "/batches/" + jobId + "/cancel", buildHeaders(config), Map.of())
+            .thenApply(response -> toBatchJob(readBatchResponse(response, "取消批处理作业")));
+    }
+    
+    @Override
+    public CompletableFuture<Path> downloadResults(BatchJob job, UserAIConfig config, Path target) {
+        if (job.resultLocation() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("批处理作业 " + job.id() + " 没有结果文件"));
+        }
+        return transport.downloadAsync(batchBaseUrl(config) + "/files/" + job.resultLocation() + "/content",
+                buildHeaders(config), target)
+            .thenApply(response -> {
+                if (!response.isSuccessful()) {
+                    throw new CompletionException(new IllegalStateException("下载批处理结果失败: " + response.describe()));
+                }
+                return target;
+            });
+    }
+    
+    @Override
+    public BatchResult parseResultLine(String line) {
+        JsonNode rootNode;
+        try {
+            rootNode = objectMapper.readTree(line);
+        } catch (Exception e) {
+            return new BatchResult(null, AIResponse.failure(AIErrorType.PARSE_ERROR.name(), "解析批处理结果失败: " + e.getMessage()));
+        }
+        String customId = rootNode.path("custom_id").asText(null);
+        JsonNode error = rootNode.path("error");
+        if (error.isObject()) {
+            return new BatchResult(customId, AIResponse.failure(AIErrorType.UNKNOWN.name(),
+                "批处理请求失败: " + error.path("message").asText(error.toString())));
+        }
+        JsonNode response = rootNode.path("response");
+        int statusCode = response.path("status_code").asInt(200);
+        if (statusCode / 100 != 2) {
+            return new BatchResult(customId, AIResponse.failure(AIErrorType.fromStatus(statusCode).name(),
+                "批处理请求失败: " + statusCode + ": " + response.path("body").toString()));
+        }
+        // 批处理没有单次请求耗时
+        return new BatchResult(customId, parseOpenAIResponse(response.path("body").toString(), System.currentTimeMillis()));
+    }
+    
+    /**
+     * 批处理接口与对话接口同域：去掉对话接口地址的 /chat/completions 即为 /v1 根地址
+     */
+    private String batchBaseUrl(UserAIConfig config) {
+        String endpoint = config.getApiEndpoint() != null ? 
+            config.getApiEndpoint() : AIProvider.OPENAI.getDefaultEndpoint();
+        int index = endpoint.indexOf(CHAT_COMPLETIONS_PATH);
+        return index >= 0 ? endpoint.substring(0, index) : endpoint.replaceAll("/+$", "");
+    }
+    
+    /**
+     * 批处理请求行中的相对地址，例如 /v1/chat/completions
+     */
+    private String batchEndpointPath(UserAIConfig config) {
+        String path = URI.create(batchBaseUrl(config)).getPath();
+        return (path == null ? "" : path) + CHAT_COMPLETIONS_PATH;
+    }
+    
+    private JsonNode readBatchResponse(AIHttpTransport.Response response, String action) {
+        if (!response.isSuccessful()) {
+            throw new CompletionException(new IllegalStateException(action + "失败: " + response.describe()));
+        }
+        try {
+            return objectMapper.readTree(response.body());
+        } catch (Exception e) {
+            throw new CompletionException(new IllegalStateException(action + "失败，响应无法解析: " + e.getMessage(), e));
+        }
+    }
+    
+    private BatchJob toBatchJob(JsonNode node) {
+        BatchStatus status = switch (node.path("status").asText("")) {
+            case "validating" -> BatchStatus.PENDING;
+            case "in_progress", "finalizing", "cancelling" -> BatchStatus.IN_PROGRESS;
+            case "completed" -> BatchStatus.COMPLETED;
+            case "expired" -> BatchStatus.EXPIRED;
+            case "cancelled" -> BatchStatus.CANCELLED;
+            default -> BatchStatus.FAILED;
+        };
+        JsonNode counts = node.path("request_counts");
+        String outputFileId = node.path("output_file_id").isTextual() ? node.path("output_file_id").asText() : null;
+        return new BatchJob(node.path("id").asText(), status, counts.path("total").asInt(0),
+            counts.path("completed").asInt(0), counts.path("failed").asInt(0), outputFileId);
+    }
+    
     private AIResponse parseOpenAIResponse(String responseBody, long startTime) {
         try {
             JsonNode rootNode = objectMapper.readTree(responseBody);
@@ -144,14 +384,18 @@ public class OpenAIClient implements AIClient {
             JsonNode usageNode = rootNode.path("usage");
             Integer inputTokens = usageNode.path("prompt_tokens").asInt(0);
             Integer outputTokens = usageNode.path("completion_tokens").asInt(0);
+            // 命中前缀缓存的输入token（已包含在 prompt_tokens 中）
+            Integer cachedTokens = usageNode.path("prompt_tokens_details").path("cached_tokens").asInt(0);
             
             long duration = System.currentTimeMillis() - startTime;
             
-            return new AIResponse(content, inputTokens, outputTokens, duration);
+            return new AIResponse(content, inputTokens, outputTokens, duration)
+                    .withCachedInputTokens(cachedTokens);
             
         } catch (Exception e) {
             return AIResponse.error("解析OpenAI响应失败: " + e.getMessage(), 
-                                  System.currentTimeMillis() - startTime);
+                                  System.currentTimeMillis() - startTime)
+                    .withErrorType(AIErrorType.PARSE_ERROR);
         }
     }
 }
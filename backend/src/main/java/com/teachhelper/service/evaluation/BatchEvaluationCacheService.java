@@ -1,26 +1,105 @@
 package com.teachhelper.service.evaluation;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.teachhelper.dto.response.BatchEvaluationResult;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
 /**
  * 批量评估进度跟踪和结果缓存服务
+ * 内存缓存按条目数和估算字节数双重限制，超出时淘汰最久未访问的结果；
+ * 结果写入后超过存活时间即过期。另按开始时间维护有序索引，获取最近任务时不必排序整个缓存
  */
 @Service
 public class BatchEvaluationCacheService {
-    
-    // 内存缓存，实际项目中可能需要使用Redis
-    private final Map<String, BatchEvaluationResult> resultCache = new ConcurrentHashMap<>();
-    
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchEvaluationCacheService.class);
+
+    private static final int RECENT_TASK_LIMIT = 10;
+
+    /** 单个结果对象的固定开销估算（对象头、字段、时间对象和列表本身） */
+    private static final long BASE_ENTRY_BYTES = 512;
+
+    /** 最近任务索引：开始时间新的在前，没有开始时间的排在最后 */
+    private static final Comparator<CacheEntry> RECENT_ORDER = Comparator
+        .comparing(CacheEntry::startTime, Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder()))
+        .thenComparingLong(CacheEntry::sequence);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.evaluation.batch-cache.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${app.evaluation.batch-cache.max-weight-bytes:16777216}")
+    private long maxWeightBytes;
+
+    @Value("${app.evaluation.batch-cache.ttl-ms:3600000}")
+    private long ttlMs;
+
+    private final Object lock = new Object();
+
+    /** 访问顺序的 LinkedHashMap，迭代顺序即淘汰顺序；与最近任务索引一起由 lock 保护 */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final TreeSet<CacheEntry> recentIndex = new TreeSet<>(RECENT_ORDER);
+
+    private long weightBytes;
+    private long nextSequence;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong weightEvictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        maxEntries = Math.max(1, maxEntries);
+        maxWeightBytes = Math.max(BASE_ENTRY_BYTES, maxWeightBytes);
+
+        FunctionCounter.builder("batch.evaluation.cache.requests", hits, AtomicLong::get)
+            .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("batch.evaluation.cache.requests", misses, AtomicLong::get)
+            .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("batch.evaluation.cache.evictions", sizeEvictions, AtomicLong::get)
+            .tag("cause", "size").register(meterRegistry);
+        FunctionCounter.builder("batch.evaluation.cache.evictions", weightEvictions, AtomicLong::get)
+            .tag("cause", "weight").register(meterRegistry);
+        FunctionCounter.builder("batch.evaluation.cache.evictions", expirations, AtomicLong::get)
+            .tag("cause", "expired").register(meterRegistry);
+        Gauge.builder("batch.evaluation.cache.hit.ratio", this, BatchEvaluationCacheService::hitRate)
+            .register(meterRegistry);
+        Gauge.builder("batch.evaluation.cache.size", this, BatchEvaluationCacheService::size)
+            .register(meterRegistry);
+        Gauge.builder("batch.evaluation.cache.estimated.bytes", this, BatchEvaluationCacheService::estimatedBytes)
+            .baseUnit("bytes").register(meterRegistry);
+
+        logger.info("批量评估结果缓存已初始化: 最大条目数={}, 最大估算字节数={}, 存活时间={}ms", maxEntries, maxWeightBytes, ttlMs);
+    }
+
     /**
      * 保存批量评估结果
+     * 结果的估算大小在保存时计算，之后修改同一对象的错误列表需要重新保存才会更新估算
      */
     public void saveResult(String taskId, BatchEvaluationResult result) {
         try {
@@ -30,99 +109,219 @@ public class BatchEvaluationCacheService {
             if (result == null) {
                 throw new IllegalArgumentException("Result cannot be null");
             }
-            
-                        result.setTaskId(taskId);
-            resultCache.put(taskId, result);
-            // 完成任务保存
-            System.out.println("Saved evaluation result for task: " + taskId);
+
+            result.setTaskId(taskId);
+            long now = System.currentTimeMillis();
+            synchronized (lock) {
+                removeEntry(taskId);
+                CacheEntry entry = new CacheEntry(taskId, result, result.getStartTime(), estimateBytes(result),
+                    now + ttlMs, nextSequence++);
+                entries.put(taskId, entry);
+                recentIndex.add(entry);
+                weightBytes += entry.weight();
+                evictOverflow(now);
+            }
+            logger.debug("已缓存批量评估结果: {}", taskId);
         } catch (Exception e) {
-            // Log error but don't throw to avoid breaking the evaluation process
-            System.err.println("Failed to save result for task " + taskId + ": " + e.getMessage());
+            // 记录错误但不抛出，避免中断评估流程
+            logger.warn("缓存任务 {} 的批量评估结果失败: {}", taskId, e.getMessage());
         }
     }
-    
+
     /**
      * 获取批量评估结果
      */
     public BatchEvaluationResult getResult(String taskId) {
-        try {
-            if (taskId == null || taskId.trim().isEmpty()) {
-                return null;
-            }
-            return resultCache.get(taskId);
-        } catch (Exception e) {
-            System.err.println("Failed to get result for task " + taskId + ": " + e.getMessage());
+        if (taskId == null || taskId.trim().isEmpty()) {
             return null;
         }
+        CacheEntry entry = lookup(taskId);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.result();
     }
-    
+
     /**
      * 检查结果是否存在
      */
     public boolean hasResult(String taskId) {
-        return resultCache.containsKey(taskId);
+        return taskId != null && lookup(taskId) != null;
     }
-    
+
     /**
      * 简单的进度更新方法 - 仅用于内部状态跟踪
      */
     public void updateProgress(String taskId, int totalAnswers, int evaluatedAnswers, String status) {
-        try {
-            if (taskId == null || taskId.trim().isEmpty()) {
-                return;
-            }
-            // 简单的日志记录，不使用复杂的缓存
-            System.out.println("Progress for task " + taskId + ": " + evaluatedAnswers + "/" + totalAnswers + " (" + status + ")");
-        } catch (Exception e) {
-            System.err.println("Failed to log progress for task " + taskId + ": " + e.getMessage());
+        if (taskId == null || taskId.trim().isEmpty()) {
+            return;
         }
+        logger.debug("任务 {} 进度: {}/{} ({})", taskId, evaluatedAnswers, totalAnswers, status);
     }
-    
+
     /**
      * 获取批量评估进度百分比
      */
     public Double getProgress(String taskId) {
-        try {
-            if (taskId == null || taskId.trim().isEmpty()) {
-                return null;
+        BatchEvaluationResult result = getResult(taskId);
+        if (result == null) {
+            return null;
+        }
+
+        int totalAnswers = result.getTotalAnswers();
+        int processedAnswers = result.getSuccessfulEvaluations() + result.getFailedEvaluations();
+
+        if (totalAnswers == 0) {
+            return 100.0;
+        }
+
+        return (double) processedAnswers / totalAnswers * 100.0;
+    }
+
+    /**
+     * 获取最近的评估任务列表，按开始时间从索引头部读取，不排序整个缓存
+     */
+    public List<BatchEvaluationResult> getRecentTasks() {
+        long now = System.currentTimeMillis();
+        List<BatchEvaluationResult> recent = new ArrayList<>(RECENT_TASK_LIMIT);
+        synchronized (lock) {
+            for (CacheEntry entry : recentIndex) {
+                if (entry.expiresAtMillis() > now) {
+                    recent.add(entry.result());
+                    if (recent.size() >= RECENT_TASK_LIMIT) {
+                        break;
+                    }
+                }
             }
-            BatchEvaluationResult result = resultCache.get(taskId);
-            if (result == null) {
+        }
+        return recent;
+    }
+
+    /**
+     * 定期清理过期结果，未被访问的过期结果不会一直占用内存
+     */
+    @Scheduled(fixedDelayString = "${app.evaluation.batch-cache.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                if (entry.expiresAtMillis() <= now) {
+                    iterator.remove();
+                    recentIndex.remove(entry);
+                    weightBytes -= entry.weight();
+                    expirations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("entries", entries.size());
+            stats.put("estimatedBytes", weightBytes);
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxWeightBytes", maxWeightBytes);
+        stats.put("ttlMs", ttlMs);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", hitRate());
+        stats.put("sizeEvictions", sizeEvictions.get());
+        stats.put("weightEvictions", weightEvictions.get());
+        stats.put("expirations", expirations.get());
+        return stats;
+    }
+
+    private CacheEntry lookup(String taskId) {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            CacheEntry entry = entries.get(taskId);
+            if (entry != null && entry.expiresAtMillis() <= now) {
+                removeEntry(taskId);
+                expirations.incrementAndGet();
                 return null;
             }
-            
-            int totalAnswers = result.getTotalAnswers();
-            int processedAnswers = result.getSuccessfulEvaluations() + result.getFailedEvaluations();
-            
-            if (totalAnswers == 0) {
-                return 100.0;
+            return entry;
+        }
+    }
+
+    /**
+     * 先淘汰已过期的最久未访问条目，再按条目数和估算字节数淘汰，至少保留刚写入的条目
+     */
+    private void evictOverflow(long now) {
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (entries.size() > 1 && iterator.hasNext()) {
+            boolean overSize = entries.size() > maxEntries;
+            boolean overWeight = weightBytes > maxWeightBytes;
+            CacheEntry eldest = iterator.next();
+            boolean expired = eldest.expiresAtMillis() <= now;
+            if (!overSize && !overWeight && !expired) {
+                break;
+            }
+            iterator.remove();
+            recentIndex.remove(eldest);
+            weightBytes -= eldest.weight();
+            if (expired) {
+                expirations.incrementAndGet();
+            } else if (overSize) {
+                sizeEvictions.incrementAndGet();
+            } else {
+                weightEvictions.incrementAndGet();
             }
-            
-            return (double) processedAnswers / totalAnswers * 100.0;
-        } catch (Exception e) {
-            System.err.println("Failed to get progress for task " + taskId + ": " + e.getMessage());
-            return null;
         }
     }
-    
+
+    private void removeEntry(String taskId) {
+        CacheEntry previous = entries.remove(taskId);
+        if (previous != null) {
+            recentIndex.remove(previous);
+            weightBytes -= previous.weight();
+        }
+    }
+
     /**
-     * 获取最近的评估任务列表
+     * 估算结果占用的堆内存：固定开销加上错误信息字符串（每个字符按2字节，另加对象开销）
      */
-    public List<BatchEvaluationResult> getRecentTasks() {
-        try {
-            return new ArrayList<>(resultCache.values())
-                .stream()
-                .sorted((a, b) -> {
-                    if (a.getStartTime() == null && b.getStartTime() == null) return 0;
-                    if (a.getStartTime() == null) return 1;
-                    if (b.getStartTime() == null) return -1;
-                    return b.getStartTime().compareTo(a.getStartTime()); // 最新的在前面
-                })
-                .limit(10) // 限制返回最近10个任务
-                .collect(Collectors.toList());
-        } catch (Exception e) {
-            System.err.println("Failed to get recent tasks: " + e.getMessage());
-            return new ArrayList<>();
+    static long estimateBytes(BatchEvaluationResult result) {
+        long bytes = BASE_ENTRY_BYTES;
+        List<String> errors = result.getErrors();
+        if (errors != null) {
+            for (String error : errors) {
+                bytes += 56 + (error != null ? 2L * error.length() : 0);
+            }
         }
+        return bytes;
+    }
+
+    private double hitRate() {
+        long total = hits.get() + misses.get();
+        return total > 0 ? (double) hits.get() / total : 0.0;
+    }
+
+    private int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    private long estimatedBytes() {
+        synchronized (lock) {
+            return weightBytes;
+        }
+    }
+
+    /**
+     * 缓存条目，开始时间在保存时记录，保证最近任务索引的排序键不变
+     */
+    private record CacheEntry(String taskId, BatchEvaluationResult result, LocalDateTime startTime, long weight,
+                              long expiresAtMillis, long sequence) {
     }
 }
@@ -1,7 +1,9 @@
 package com.teachhelper.service.evaluation;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -9,7 +11,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.teachhelper.ai.AIEvaluationService;
 import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.UserAIConfigService;
+import com.teachhelper.service.ai.Tokenizer;
+import com.teachhelper.service.ai.TokenizerService;
+import com.teachhelper.service.auth.AuthService;
 import com.teachhelper.service.student.StudentAnswerService;
 
 /**
@@ -24,6 +32,21 @@ public class BatchEvaluationPreChecker {
     @Autowired
     private StudentAnswerService studentAnswerService;
     
+    @Autowired
+    private AIEvaluationService aiEvaluationService;
+    
+    @Autowired
+    private UserAIConfigService userAIConfigService;
+    
+    @Autowired
+    private AuthService authService;
+    
+    @Autowired
+    private ObjectiveGradingEngine objectiveGradingEngine;
+    
+    @Autowired
+    private TokenizerService tokenizerService;
+    
     /**
      * 批量评估预检查结果
      */
@@ -35,6 +58,7 @@ public class BatchEvaluationPreChecker {
         private int unevaluatedAnswers;
         private String suggestion;
         private String warningLevel; // INFO, WARNING, ERROR
+        private TokenForecast forecast; // 无AI配置时为空
         
         public PreCheckResult(boolean canProceed, String message, int totalAnswers, 
                              int evaluatedAnswers, int unevaluatedAnswers, String suggestion, String warningLevel) {
@@ -55,6 +79,23 @@ public class BatchEvaluationPreChecker {
         public int getUnevaluatedAnswers() { return unevaluatedAnswers; }
         public String getSuggestion() { return suggestion; }
         public String getWarningLevel() { return warningLevel; }
+        public TokenForecast getForecast() { return forecast; }
+        
+        private PreCheckResult withForecast(TokenForecast forecast) {
+            this.forecast = forecast;
+            return this;
+        }
+    }
+    
+    /**
+     * 评估任务的token和费用预估，只统计需要调用AI的主观题答案
+     * @param aiAnswers 需要调用AI评估的答案数
+     * @param objectiveAnswers 由客观题引擎本地判分、不消耗token的答案数
+     * @param truncatedAnswers 超出模型上下文、发送前会被截断的答案数
+     */
+    public record TokenForecast(String provider, String model, String tokenizer, boolean exactTokenizer,
+                                int aiAnswers, int objectiveAnswers, int truncatedAnswers,
+                                long inputTokens, long outputTokens, BigDecimal estimatedCost) {
     }
     
     /**
@@ -92,6 +133,11 @@ public class BatchEvaluationPreChecker {
             logger.info("答案统计 - 总数: {}, 已评估: {}, 未评估: {}", 
                        totalAnswers, evaluatedAnswers, unevaluatedAnswers);
             
+            // 只评估未评估的答案；全部已评估时按重新评估全部答案预估
+            TokenForecast forecast = forecast(unevaluatedAnswers > 0
+                ? answers.stream().filter(answer -> !answer.isEvaluated()).collect(Collectors.toList())
+                : answers, config);
+            
             // 根据评估状态返回不同的结果
             if (unevaluatedAnswers == 0) {
                 return new PreCheckResult(
@@ -100,7 +146,7 @@ public class BatchEvaluationPreChecker {
                     totalAnswers, evaluatedAnswers, unevaluatedAnswers,
                     "所有答案已完成评估，您可以创建重新评估任务来改进评分结果",
                     "WARNING"
-                );
+                ).withForecast(forecast);
             } else if (evaluatedAnswers > 0) {
                 double evaluatedPercentage = (double) evaluatedAnswers / totalAnswers * 100;
                 return new PreCheckResult(
@@ -110,7 +156,7 @@ public class BatchEvaluationPreChecker {
                     totalAnswers, evaluatedAnswers, unevaluatedAnswers,
                     "系统将只评估未评估的答案。如需重新评估所有答案，请使用「重新评估」功能",
                     "INFO"
-                );
+                ).withForecast(forecast);
             } else {
                 return new PreCheckResult(
                     true,
@@ -118,7 +164,7 @@ public class BatchEvaluationPreChecker {
                     totalAnswers, evaluatedAnswers, unevaluatedAnswers,
                     "所有答案都未被评估，可以正常进行批量评估",
                     "INFO"
-                );
+                ).withForecast(forecast);
             }
             
         } catch (Exception e) {
@@ -133,6 +179,56 @@ public class BatchEvaluationPreChecker {
         }
     }
     
+    /**
+     * 按当前用户的默认AI配置预估评估这些答案所需的token数和费用，预估失败不影响预检查结果
+     */
+    private TokenForecast forecast(List<StudentAnswer> answers, Map<String, Object> config) {
+        try {
+            Optional<UserAIConfig> aiConfigOpt = userAIConfigService.getUserDefaultAIConfig(authService.getCurrentUser().getId());
+            if (aiConfigOpt.isEmpty()) {
+                return null;
+            }
+            UserAIConfig aiConfig = aiConfigOpt.get();
+            String evaluationStyle = config.get("evaluationStyle") != null ? config.get("evaluationStyle").toString() : "NORMAL";
+            ObjectiveGradingEngine.Session objectiveGrading = objectiveGradingEngine.newSession();
+            int maxOutputTokens = aiConfig.getMaxTokens() != null ? aiConfig.getMaxTokens() : 4000;
+            int contextWindow = aiConfig.getProvider().getContextWindow(aiConfig.getModelName());
+            int outputPerAnswer = Math.min(maxOutputTokens, aiEvaluationService.getOutputTokensPerAnswer());
+            
+            int aiAnswers = 0;
+            int objectiveAnswers = 0;
+            int truncatedAnswers = 0;
+            long inputTokens = 0;
+            for (StudentAnswer answer : answers) {
+                if (answer.getQuestion() == null) {
+                    continue;
+                }
+                if (objectiveGrading.supports(answer)) {
+                    objectiveAnswers++;
+                    continue;
+                }
+                int tokens = aiEvaluationService.estimateEvaluationInputTokens(answer, evaluationStyle, aiConfig);
+                if (tokens >= contextWindow - maxOutputTokens) {
+                    truncatedAnswers++;
+                }
+                aiAnswers++;
+                inputTokens += tokens;
+            }
+            long outputTokens = (long) aiAnswers * outputPerAnswer;
+            BigDecimal cost = userAIConfigService.calculateInputCost(aiConfig.getProvider(), (int) Math.min(Integer.MAX_VALUE, inputTokens))
+                .add(userAIConfigService.calculateOutputCost(aiConfig.getProvider(), (int) Math.min(Integer.MAX_VALUE, outputTokens)));
+            Tokenizer tokenizer = tokenizerService.forConfig(aiConfig);
+            
+            logger.info("批量评估预估 - 模型: {}, AI评估: {} 份, 客观题: {} 份, 截断: {} 份, 输入: {} tokens, 输出: {} tokens, 费用: {}",
+                       aiConfig.getModelName(), aiAnswers, objectiveAnswers, truncatedAnswers, inputTokens, outputTokens, cost);
+            return new TokenForecast(aiConfig.getProvider().name(), aiConfig.getModelName(), tokenizer.getName(), tokenizer.isExact(),
+                aiAnswers, objectiveAnswers, truncatedAnswers, inputTokens, outputTokens, cost);
+        } catch (Exception e) {
+            logger.warn("预估评估token和费用失败: {}", e.getMessage());
+            return null;
+        }
+    }
+    
     /**
      * 从配置中提取答案ID列表（复用BatchEvaluationExecutorService的逻辑）
      */
@@ -0,0 +1,280 @@
+package com.teachhelper.service.evaluation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.teachhelper.ai.AIEvaluationService.CriterionEvaluation;
+import com.teachhelper.ai.AIEvaluationService.EvaluationResult;
+
+/**
+ * 评估响应解析器
+ * 用Jackson流式解析器单遍读取评估JSON，直接构造评估结果，不建立中间的JSON树；
+ * JSON之前的说明文字、Markdown代码块标记和JSON之后的多余文字都会被忽略，
+ * 字符串中未转义的换行、结尾多余的逗号等模型常见的格式问题也能容忍。
+ * JSON无法解析时才用正则表达式从残缺的响应中提取分数和反馈。线程安全
+ */
+public final class EvaluationResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+        .enable(JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS)
+        .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+        .enable(JsonReadFeature.ALLOW_JAVA_COMMENTS)
+        .enable(JsonReadFeature.ALLOW_BACKSLASH_ESCAPING_ANY_CHARACTER)
+        .build();
+
+    private static final Pattern SCORE_FIELD = Pattern.compile("\"score\"\\s*:\\s*\"?(-?\\d+(?:\\.\\d+)?)");
+    private static final Pattern FEEDBACK_FIELD = Pattern.compile("\"feedback\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)");
+    private static final Pattern SCORE_TEXT = Pattern.compile("(?:总分|得分|分数)\\s*[：:]\\s*(\\d+(?:\\.\\d+)?)\\s*分?");
+
+    private EvaluationResponseParser() {
+    }
+
+    /**
+     * 解析单份答案的评估JSON对象
+     * @return 评估结果；找不到JSON对象、JSON不完整或缺少score字段时返回 null
+     */
+    public static EvaluationResult parseObject(String response, BigDecimal maxScore) {
+        int start = response != null ? response.indexOf('{') : -1;
+        // 没有闭合的花括号说明输出被截断，不必解析
+        if (start < 0 || response.lastIndexOf('}') < start) {
+            return null;
+        }
+        try (JsonParser parser = createParser(response, start)) {
+            parser.nextToken();
+            ParsedEvaluation parsed = readEvaluation(parser);
+            return parsed.score != null ? parsed.toResult(maxScore) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析打包评估的JSON数组，返回 答案序号(从0开始) -> 评估结果。
+     * 对象没有 index 字段时按数组中的位置对应；数组在中途截断时保留已经完整解析的对象
+     */
+    public static Map<Integer, EvaluationResult> parseArray(String response, int answerCount, BigDecimal maxScore) {
+        Map<Integer, EvaluationResult> results = new HashMap<>();
+        int start = response != null ? response.indexOf('[') : -1;
+        if (start < 0) {
+            return results;
+        }
+        try (JsonParser parser = createParser(response, start)) {
+            parser.nextToken();
+            int position = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+                position++;
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                ParsedEvaluation parsed = readEvaluation(parser);
+                int index = (parsed.index != null ? parsed.index : position) - 1;
+                if (parsed.score != null && index >= 0 && index < answerCount && !results.containsKey(index)) {
+                    results.put(index, parsed.toResult(maxScore));
+                }
+            }
+        } catch (IOException e) {
+            // 截断或格式错误之前已解析的结果仍然有效
+        }
+        return results;
+    }
+
+    /**
+     * 最后手段：JSON无法解析（例如输出被截断）时用正则表达式提取分数和反馈
+     * @return 评估结果；连分数都找不到时返回 null
+     */
+    public static EvaluationResult salvage(String response, BigDecimal maxScore) {
+        if (response == null || response.isEmpty()) {
+            return null;
+        }
+        Matcher scoreMatcher = SCORE_FIELD.matcher(response);
+        boolean found = scoreMatcher.find();
+        if (!found) {
+            scoreMatcher = SCORE_TEXT.matcher(response);
+            found = scoreMatcher.find();
+        }
+        if (!found) {
+            return null;
+        }
+        ParsedEvaluation parsed = new ParsedEvaluation();
+        parsed.score = BigDecimal.valueOf(Double.parseDouble(scoreMatcher.group(1)));
+        Matcher feedbackMatcher = FEEDBACK_FIELD.matcher(response);
+        if (feedbackMatcher.find()) {
+            parsed.feedback = unescape(feedbackMatcher.group(1));
+        }
+        return parsed.toResult(maxScore);
+    }
+
+    private static JsonParser createParser(String response, int start) throws IOException {
+        char[] chars = response.toCharArray();
+        return JSON_FACTORY.createParser(chars, start, chars.length - start);
+    }
+
+    /**
+     * 读取当前位置的评估对象，调用时解析器位于 START_OBJECT，返回时位于对应的 END_OBJECT
+     */
+    private static ParsedEvaluation readEvaluation(JsonParser parser) throws IOException {
+        ParsedEvaluation parsed = new ParsedEvaluation();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "score" -> parsed.score = readNumber(parser, value);
+                case "index" -> {
+                    BigDecimal index = readNumber(parser, value);
+                    parsed.index = index != null ? index.intValue() : null;
+                }
+                case "feedback" -> parsed.feedback = readText(parser, value);
+                case "strengths" -> parsed.strengths = readText(parser, value);
+                case "improvements" -> parsed.improvements = readText(parser, value);
+                case "criteriaEvaluations" -> readCriteria(parser, value, parsed.criteria);
+                case "weakness_tags" -> readTags(parser, value, parsed.weaknessTags);
+                default -> parser.skipChildren();
+            }
+        }
+        return parsed;
+    }
+
+    private static void readCriteria(JsonParser parser, JsonToken value, List<CriterionEvaluation> criteria) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String text = null;
+            BigDecimal earned = null;
+            BigDecimal max = null;
+            String comment = "";
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken fieldValue = parser.nextToken();
+                switch (field) {
+                    case "criterionText" -> text = readText(parser, fieldValue);
+                    case "earnedPoints" -> earned = readNumber(parser, fieldValue);
+                    case "maxPoints" -> max = readNumber(parser, fieldValue);
+                    case "comment" -> comment = readText(parser, fieldValue);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (text != null && earned != null && max != null) {
+                criteria.add(new CriterionEvaluation(text, earned, max, comment));
+            }
+        }
+    }
+
+    private static void readTags(JsonParser parser, JsonToken value, List<String> tags) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token.isScalarValue()) {
+                tags.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 数字字段：接受数字和数字字符串，其他类型视为缺失
+     */
+    private static BigDecimal readNumber(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return BigDecimal.valueOf(parser.getDoubleValue());
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return BigDecimal.valueOf(Double.parseDouble(parser.getText().trim()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * 文本字段：模型偶尔把优点、建议写成字符串数组，按行拼接
+     */
+    private static String readText(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_ARRAY) {
+            StringBuilder text = new StringBuilder();
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token.isScalarValue()) {
+                    if (text.length() > 0) {
+                        text.append('\n');
+                    }
+                    text.append(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return text.toString();
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return "";
+        }
+        if (value != null && value.isScalarValue()) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return "";
+    }
+
+    private static String unescape(String text) {
+        return text.replace("\\n", "\n").replace("\\\"", "\"").replace("\\t", "\t").replace("\\\\", "\\");
+    }
+
+    private static final class ParsedEvaluation {
+        private BigDecimal score;
+        private Integer index;
+        private String feedback = "";
+        private String strengths = "";
+        private String improvements = "";
+        private final List<CriterionEvaluation> criteria = new ArrayList<>();
+        private final List<String> weaknessTags = new ArrayList<>();
+
+        /**
+         * 分数限制在 [0, 满分] 内，反馈由总体评价、优点和改进建议拼接而成
+         */
+        EvaluationResult toResult(BigDecimal maxScore) {
+            BigDecimal finalScore = score;
+            if (maxScore != null && (finalScore.compareTo(BigDecimal.ZERO) < 0 || finalScore.compareTo(maxScore) > 0)) {
+                finalScore = finalScore.max(BigDecimal.ZERO).min(maxScore);
+            }
+            StringBuilder fullFeedback = new StringBuilder();
+            if (!feedback.trim().isEmpty()) {
+                // AI已经在feedback中包含了总体评价，不需要重复添加标题
+                fullFeedback.append(feedback).append("\n\n");
+            }
+            if (!strengths.trim().isEmpty()) {
+                fullFeedback.append("答案优点：").append(strengths).append("\n\n");
+            }
+            if (!improvements.trim().isEmpty()) {
+                fullFeedback.append("改进建议：").append(improvements).append("\n\n");
+            }
+            EvaluationResult result = new EvaluationResult(true, finalScore, fullFeedback.toString(), criteria);
+            result.setWeaknessTags(weaknessTags);
+            return result;
+        }
+    }
+}
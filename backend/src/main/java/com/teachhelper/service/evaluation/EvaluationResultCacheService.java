@@ -0,0 +1,330 @@
+package com.teachhelper.service.evaluation;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.teachhelper.ai.AIEvaluationService.CriterionEvaluation;
+import com.teachhelper.ai.AIEvaluationService.EvaluationResult;
+import com.teachhelper.entity.EvaluationResultCache;
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.RubricCriterion;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.repository.EvaluationResultCacheRepository;
+import com.teachhelper.service.ai.AIResponse;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * AI评估结果缓存服务
+ * 两级缓存：内存LRU + 数据库持久化表。
+ * 键由题目ID、规范化后的答案、评分标准版本、评分模式和模型共同决定，
+ * 任意一项变化都会得到新的键，因此不需要主动失效
+ */
+@Service
+public class EvaluationResultCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EvaluationResultCacheService.class);
+
+    /** 键格式版本：规范化规则或提示词结构变化时递增，旧格式的缓存条目不再命中 */
+    private static final String KEY_VERSION = "v2";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s。.！!？?…~～]+$");
+
+    @Autowired
+    private EvaluationResultCacheRepository cacheRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.evaluation.result-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.evaluation.result-cache.memory-size:10000}")
+    private int memorySize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Map<String, CachedEvaluation> memoryCache;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong persistentHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedInputTokens = new AtomicLong();
+    private final AtomicLong savedOutputTokens = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int capacity = Math.max(1, memorySize);
+        this.memoryCache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEvaluation> eldest) {
+                return size() > capacity;
+            }
+        });
+
+        FunctionCounter.builder("evaluation.cache.hits", memoryHits, AtomicLong::get)
+            .tag("tier", "memory").register(meterRegistry);
+        FunctionCounter.builder("evaluation.cache.hits", persistentHits, AtomicLong::get)
+            .tag("tier", "database").register(meterRegistry);
+        FunctionCounter.builder("evaluation.cache.misses", misses, AtomicLong::get)
+            .register(meterRegistry);
+        FunctionCounter.builder("evaluation.cache.tokens.saved", savedInputTokens, AtomicLong::get)
+            .tag("type", "input").register(meterRegistry);
+        FunctionCounter.builder("evaluation.cache.tokens.saved", savedOutputTokens, AtomicLong::get)
+            .tag("type", "output").register(meterRegistry);
+        Gauge.builder("evaluation.cache.memory.size", memoryCache, Map::size)
+            .register(meterRegistry);
+
+        logger.info("评估结果缓存已初始化: enabled={}, 内存容量={}", enabled, capacity);
+    }
+
+    /**
+     * 生成缓存键，不可缓存时返回 null
+     */
+    public CacheKey buildCacheKey(StudentAnswer studentAnswer, String evaluationStyle, UserAIConfig config) {
+        if (!enabled || studentAnswer == null || studentAnswer.getQuestion() == null
+                || studentAnswer.getQuestion().getId() == null || config == null) {
+            return null;
+        }
+        Question question = studentAnswer.getQuestion();
+        String style = evaluationStyle != null ? evaluationStyle : "NORMAL";
+        String model = config.getProvider() + ":" + (config.getModelName() != null
+            ? config.getModelName() : config.getProvider().getDefaultModel());
+        String rubricVersion = computeRubricVersion(question);
+        String normalizedAnswer = normalizeAnswer(studentAnswer.getAnswerText());
+
+        String hash = sha256(KEY_VERSION + "\n" + question.getId() + "\n" + rubricVersion + "\n" + style + "\n" + model + "\n" + normalizedAnswer);
+        return new CacheKey(hash, question.getId(), rubricVersion, style, model);
+    }
+
+    /**
+     * 查找缓存的评估结果，先查内存，再查数据库
+     */
+    public Optional<EvaluationResult> lookup(CacheKey key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        CachedEvaluation cached = memoryCache.get(key.hash());
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            recordSavedTokens(cached);
+            return Optional.of(cached.toResult());
+        }
+
+        try {
+            Optional<EvaluationResultCache> entity = cacheRepository.findByCacheKey(key.hash());
+            if (entity.isPresent()) {
+                cached = fromEntity(entity.get());
+                memoryCache.put(key.hash(), cached);
+                cacheRepository.recordHit(entity.get().getId(), LocalDateTime.now());
+                persistentHits.incrementAndGet();
+                recordSavedTokens(cached);
+                return Optional.of(cached.toResult());
+            }
+        } catch (Exception e) {
+            logger.warn("读取评估结果缓存失败: {}", e.getMessage());
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * 保存一次成功的AI评估结果
+     */
+    public void store(CacheKey key, EvaluationResult result, AIResponse aiResponse) {
+        if (key == null || result == null || !result.isSuccess()) {
+            return;
+        }
+        int inputTokens = aiResponse != null && aiResponse.getInputTokens() != null ? aiResponse.getInputTokens() : 0;
+        int outputTokens = aiResponse != null && aiResponse.getOutputTokens() != null ? aiResponse.getOutputTokens() : 0;
+        CachedEvaluation cached = new CachedEvaluation(result.getScore(), result.getFeedback(),
+            result.getCriteriaEvaluations(), result.getWeaknessTags(), inputTokens, outputTokens);
+        memoryCache.put(key.hash(), cached);
+
+        try {
+            EvaluationResultCache entity = new EvaluationResultCache();
+            entity.setCacheKey(key.hash());
+            entity.setQuestionId(key.questionId());
+            entity.setRubricVersion(key.rubricVersion());
+            entity.setEvaluationStyle(key.evaluationStyle());
+            entity.setModelName(key.model());
+            entity.setScore(result.getScore());
+            entity.setFeedback(result.getFeedback());
+            entity.setDetailsJson(writeDetails(cached));
+            entity.setInputTokens(inputTokens);
+            entity.setOutputTokens(outputTokens);
+            cacheRepository.save(entity);
+        } catch (DataIntegrityViolationException e) {
+            // 并发评估相同答案时，其他线程已经写入
+            logger.debug("评估结果缓存已存在: {}", key.hash());
+        } catch (Exception e) {
+            logger.warn("保存评估结果缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        long hits = memoryHits.get() + persistentHits.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("memoryEntries", memoryCache.size());
+        stats.put("memoryCapacity", memorySize);
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("persistentHits", persistentHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total > 0 ? (double) hits / total : 0.0);
+        stats.put("savedInputTokens", savedInputTokens.get());
+        stats.put("savedOutputTokens", savedOutputTokens.get());
+        stats.put("savedTotalTokens", savedInputTokens.get() + savedOutputTokens.get());
+        return stats;
+    }
+
+    /**
+     * 规范化学生答案：只折叠多余空白并去掉句末标点。
+     * 缓存的分数和反馈会直接给到其他学生，大小写、全角半角和引号都可能影响评分，不做归一
+     */
+    public static String normalizeAnswer(String answerText) {
+        if (answerText == null) {
+            return "";
+        }
+        String text = WHITESPACE.matcher(answerText.trim()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+    }
+
+    /**
+     * 计算评分标准版本：对题目内容、满分、参考答案、选项和评分标准取摘要，
+     * 题目或评分标准被修改后版本随之变化。选项和评分标准必须已随题目加载，
+     * 未加载时抛出异常，不用缺项的摘要生成缓存键
+     */
+    public static String computeRubricVersion(Question question) {
+        StringBuilder content = new StringBuilder();
+        content.append(question.getQuestionType()).append('\n')
+               .append(question.getTitle()).append('\n')
+               .append(question.getContent()).append('\n')
+               .append(question.getMaxScore() != null ? question.getMaxScore().stripTrailingZeros().toPlainString() : "").append('\n')
+               .append(question.getReferenceAnswer()).append('\n');
+        try {
+            if (question.getOptions() != null) {
+                question.getOptions().forEach(option -> content.append("option:").append(option.getContent())
+                    .append(Boolean.TRUE.equals(option.getIsCorrect()) ? "*" : "").append('\n'));
+            }
+            if (question.getRubricCriteria() != null) {
+                for (RubricCriterion criterion : question.getRubricCriteria()) {
+                    content.append("criterion:").append(criterion.getCriterionText()).append('|')
+                           .append(criterion.getPoints() != null ? criterion.getPoints().stripTrailingZeros().toPlainString() : "")
+                           .append('\n');
+                }
+            }
+        } catch (org.hibernate.LazyInitializationException e) {
+            throw new IllegalStateException("题目 " + question.getId() + " 的选项或评分标准未加载，无法计算评分标准版本", e);
+        }
+        return sha256(content.toString()).substring(0, 32);
+    }
+
+    private void recordSavedTokens(CachedEvaluation cached) {
+        savedInputTokens.addAndGet(cached.inputTokens());
+        savedOutputTokens.addAndGet(cached.outputTokens());
+    }
+
+    private String writeDetails(CachedEvaluation cached) throws Exception {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode criteria = root.putArray("criteriaEvaluations");
+        for (CriterionEvaluation criterion : cached.criteriaEvaluations()) {
+            ObjectNode node = criteria.addObject();
+            node.put("criterionText", criterion.getCriterionText());
+            node.put("earnedPoints", criterion.getEarnedPoints());
+            node.put("maxPoints", criterion.getMaxPoints());
+            node.put("comment", criterion.getComment());
+        }
+        ArrayNode tags = root.putArray("weaknessTags");
+        cached.weaknessTags().forEach(tags::add);
+        return objectMapper.writeValueAsString(root);
+    }
+
+    private CachedEvaluation fromEntity(EvaluationResultCache entity) throws Exception {
+        List<CriterionEvaluation> criteria = new ArrayList<>();
+        List<String> weaknessTags = new ArrayList<>();
+        if (entity.getDetailsJson() != null) {
+            JsonNode root = objectMapper.readTree(entity.getDetailsJson());
+            for (JsonNode node : root.path("criteriaEvaluations")) {
+                criteria.add(new CriterionEvaluation(
+                    node.path("criterionText").asText(null),
+                    node.hasNonNull("earnedPoints") ? node.get("earnedPoints").decimalValue() : null,
+                    node.hasNonNull("maxPoints") ? node.get("maxPoints").decimalValue() : null,
+                    node.path("comment").asText(null)));
+            }
+            for (JsonNode tag : root.path("weaknessTags")) {
+                weaknessTags.add(tag.asText());
+            }
+        }
+        return new CachedEvaluation(entity.getScore(), entity.getFeedback(), criteria, weaknessTags,
+            entity.getInputTokens() != null ? entity.getInputTokens() : 0,
+            entity.getOutputTokens() != null ? entity.getOutputTokens() : 0);
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 缓存键
+     */
+    public record CacheKey(String hash, Long questionId, String rubricVersion, String evaluationStyle, String model) {
+    }
+
+    /**
+     * 缓存的评估结论，每次命中返回新的 EvaluationResult 副本
+     */
+    private record CachedEvaluation(BigDecimal score, String feedback, List<CriterionEvaluation> criteriaEvaluations,
+                                    List<String> weaknessTags, int inputTokens, int outputTokens) {
+
+        CachedEvaluation {
+            criteriaEvaluations = criteriaEvaluations != null ? List.copyOf(criteriaEvaluations) : List.of();
+            weaknessTags = weaknessTags != null ? List.copyOf(weaknessTags) : List.of();
+        }
+
+        EvaluationResult toResult() {
+            EvaluationResult result = new EvaluationResult(true, score, feedback, new ArrayList<>(criteriaEvaluations));
+            result.setWeaknessTags(new ArrayList<>(weaknessTags));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.teachhelper.service.evaluation;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.teachhelper.entity.StudentAnswer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * 评估结果写回缓冲（write-behind）
+ * 批量评估过程中只把得分、反馈、评估状态、评估时间和评估类型收集到内存，
+ * 按条数或时间间隔合并为一次JDBC批量更新，避免每个答案单独一个事务
+ */
+@Service
+public class EvaluationResultWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EvaluationResultWriter.class);
+
+    private static final String UPDATE_SQL =
+        "UPDATE student_answers SET score = ?, feedback = ?, is_evaluated = ?, evaluated_at = ?, "
+            + "evaluation_type = ?, updated_at = ? WHERE id = ?";
+
+    private static final int[] ARG_TYPES = {
+        Types.DECIMAL, Types.LONGVARCHAR, Types.BOOLEAN, Types.TIMESTAMP, Types.VARCHAR, Types.TIMESTAMP, Types.BIGINT
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Counter flushCounter;
+    private final Counter rowCounter;
+    private final Counter failedRowCounter;
+
+    @Autowired
+    public EvaluationResultWriter(DataSource dataSource,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.evaluation.write-behind.batch-size:200}") int batchSize,
+                                  @Value("${app.evaluation.write-behind.flush-interval-ms:1000}") long flushIntervalMs) {
+        // 容器中的JdbcTemplate属于向量库，这里基于主数据源单独创建
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        this.flushCounter = Counter.builder("evaluation.writebehind.flushes")
+            .description("评估结果批量写回次数").register(meterRegistry);
+        this.rowCounter = Counter.builder("evaluation.writebehind.rows")
+            .description("批量写回的答案数").register(meterRegistry);
+        this.failedRowCounter = Counter.builder("evaluation.writebehind.failed")
+            .description("写回失败的答案数").register(meterRegistry);
+    }
+
+    /**
+     * 为一个批量评估任务创建写回缓冲，缓冲只允许单线程使用
+     */
+    public Buffer newBuffer(String taskId) {
+        return new Buffer(taskId);
+    }
+
+    /**
+     * 建议的轮询间隔，调用方在没有新结果时应至少按此间隔调用 {@link Buffer#flushIfDue()}
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * 写回一批结果，返回写回失败或没有匹配到答案（例如答案已被删除）的答案ID
+     */
+    private List<Long> write(String taskId, List<Object[]> rows) {
+        List<Long> failed = new ArrayList<>();
+        try {
+            int[] counts = transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(UPDATE_SQL, rows, ARG_TYPES));
+            for (int i = 0; counts != null && i < counts.length && i < rows.size(); i++) {
+                // 驱动可能返回 SUCCESS_NO_INFO(-2)，只有明确为0行的才算未写入
+                if (counts[i] == 0) {
+                    failed.add(answerId(rows.get(i)));
+                }
+            }
+            if (!failed.isEmpty()) {
+                logger.warn("任务 {} 有 {} 条评估结果没有匹配到答案: {}", taskId, failed.size(), failed);
+            }
+            return failed;
+        } catch (Exception e) {
+            logger.warn("任务 {} 批量写回 {} 条评估结果失败，改为逐条写回: {}", taskId, rows.size(), e.getMessage());
+        }
+        // 批量失败时逐条写回，确保单条坏数据不会拖累整批
+        for (Object[] row : rows) {
+            try {
+                if (jdbcTemplate.update(UPDATE_SQL, row, ARG_TYPES) == 0) {
+                    failed.add(answerId(row));
+                    logger.warn("任务 {} 写回答案 {} 的评估结果时没有匹配到答案", taskId, answerId(row));
+                }
+            } catch (Exception e) {
+                failed.add(answerId(row));
+                logger.error("任务 {} 写回答案 {} 的评估结果失败: {}", taskId, answerId(row), e.getMessage());
+            }
+        }
+        return failed;
+    }
+
+    private static Long answerId(Object[] row) {
+        return (Long) row[row.length - 1];
+    }
+
+    /**
+     * 单个任务的写回缓冲
+     */
+    public final class Buffer {
+        private final String taskId;
+        private final List<Object[]> pending = new ArrayList<>();
+        private final List<Long> unreportedFailures = new ArrayList<>();
+        private long lastFlushMillis = System.currentTimeMillis();
+        private int writtenCount;
+        private int failedCount;
+
+        private Buffer(String taskId) {
+            this.taskId = taskId;
+        }
+
+        /**
+         * 加入一个已评估的答案，达到批量大小或时间间隔时立即写回
+         */
+        public void add(StudentAnswer answer) {
+            LocalDateTime now = LocalDateTime.now();
+            pending.add(new Object[] {
+                answer.getScore(),
+                answer.getFeedback(),
+                answer.isEvaluated(),
+                answer.getEvaluatedAt() != null ? Timestamp.valueOf(answer.getEvaluatedAt()) : null,
+                answer.getEvaluationType() != null ? answer.getEvaluationType().name() : null,
+                Timestamp.valueOf(now),
+                answer.getId()
+            });
+            if (pending.size() >= batchSize) {
+                writePending();
+            } else {
+                flushIfDue();
+            }
+        }
+
+        /**
+         * 距上次写回超过时间间隔时写回
+         */
+        public void flushIfDue() {
+            if (!pending.isEmpty() && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMs) {
+                writePending();
+            }
+        }
+
+        /**
+         * 立即写回全部缓冲的结果，返回上次调用以来写回失败或没有匹配到答案的答案ID
+         * （包括 add/flushIfDue 自动写回时失败的答案），调用方应在保存检查点前把它们记为失败
+         */
+        public List<Long> flush() {
+            writePending();
+            if (unreportedFailures.isEmpty()) {
+                return List.of();
+            }
+            List<Long> failedIds = new ArrayList<>(unreportedFailures);
+            unreportedFailures.clear();
+            return failedIds;
+        }
+
+        private void writePending() {
+            lastFlushMillis = System.currentTimeMillis();
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Object[]> rows = new ArrayList<>(pending);
+            pending.clear();
+            List<Long> failed = write(taskId, rows);
+            flushCounter.increment();
+            rowCounter.increment(rows.size() - failed.size());
+            failedRowCounter.increment(failed.size());
+            writtenCount += rows.size() - failed.size();
+            failedCount += failed.size();
+            unreportedFailures.addAll(failed);
+            logger.debug("任务 {} 批量写回 {} 条评估结果，失败 {} 条", taskId, rows.size(), failed.size());
+        }
+
+        public int getWrittenCount() {
+            return writtenCount;
+        }
+
+        public int getFailedCount() {
+            return failedCount;
+        }
+    }
+}
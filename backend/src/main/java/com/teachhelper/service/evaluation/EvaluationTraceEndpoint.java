@@ -0,0 +1,49 @@
+package com.teachhelper.service.evaluation;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * 评估追踪监控端点 /actuator/evaluationtraces
+ * GET 查询最近的评估记录（可按结果、答案过滤）；POST/DELETE /{taskId} 标记或取消标记任务完整记录提示词和响应
+ */
+@Component
+@Endpoint(id = "evaluationtraces")
+public class EvaluationTraceEndpoint {
+
+    private static final int DEFAULT_LIMIT = 100;
+
+    @Autowired
+    private EvaluationTraceRecorder evaluationTraceRecorder;
+
+    @ReadOperation
+    public Map<String, Object> traces(@Nullable Integer limit, @Nullable String outcome, @Nullable Long answerId) {
+        Map<String, Object> result = new HashMap<>(evaluationTraceRecorder.getSnapshot());
+        result.put("traces", evaluationTraceRecorder.recent(limit != null && limit > 0 ? limit : DEFAULT_LIMIT,
+            outcome != null ? EvaluationTraceRecorder.Outcome.valueOf(outcome.toUpperCase()) : null, answerId));
+        result.put("timestamp", LocalDateTime.now());
+        return result;
+    }
+
+    @WriteOperation
+    public Map<String, Object> flagTask(@Selector String taskId) {
+        evaluationTraceRecorder.flagTask(taskId);
+        return Map.of("taskId", taskId, "flagged", true, "message", "任务下次启动或恢复时完整记录评估的提示词和响应");
+    }
+
+    @DeleteOperation
+    public Map<String, Object> unflagTask(@Selector String taskId) {
+        evaluationTraceRecorder.unflagTask(taskId);
+        return Map.of("taskId", taskId, "flagged", false);
+    }
+}
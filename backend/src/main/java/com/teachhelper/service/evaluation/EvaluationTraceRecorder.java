@@ -0,0 +1,247 @@
+package com.teachhelper.service.evaluation;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.ai.AIResponse;
+
+/**
+ * AI评估追踪记录
+ * 每次评估生成一条结构化记录（提示词哈希、token数、耗时、解析结果和回退原因），写入固定容量的无锁环形缓冲，
+ * 写满后覆盖最旧的记录。完整的提示词和响应只对按比例抽样的评估或被标记的任务保留，
+ * 其余评估只保存哈希和长度，不会在高并发评估时产生大量输出
+ */
+@Service
+public class EvaluationTraceRecorder {
+
+    /** 评估结果 */
+    public enum Outcome {
+        SUCCESS,        // AI评估并解析成功
+        CACHE_HIT,      // 命中评估结果缓存，未调用AI
+        PARSE_FAILED,   // AI调用成功但结果无法解析，回退到基础评估
+        CALL_FAILED,    // AI调用失败，回退到基础评估
+        ERROR,          // 评估过程异常，回退到基础评估
+        NO_CONFIG       // 评估者没有AI配置，使用基础评估
+    }
+
+    /**
+     * 一次评估的追踪记录，prompt 和 response 只在抽样或被标记时保留
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record EvaluationTrace(long sequence, Instant timestamp, String taskId, Long answerId, Long questionId,
+                                  String provider, String model, Object routedConfigId, String promptHash, int promptChars,
+                                  Integer inputTokens, Integer cachedInputTokens, Integer outputTokens, long latencyMs,
+                                  Outcome outcome, String fallbackReason, String prompt, String response) {
+    }
+
+    private final AtomicReferenceArray<EvaluationTrace> buffer;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong capturedCount = new AtomicLong();
+    private final Map<Outcome, AtomicLong> outcomeCounts = new ConcurrentHashMap<>();
+
+    /** 被标记完整记录的任务，任务启动时生效 */
+    private final Set<String> flaggedTasks = ConcurrentHashMap.newKeySet();
+    /** 正在运行的被标记任务的答案ID -> 任务ID */
+    private final Map<Long, String> watchedAnswers = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final int maxCaptureChars;
+
+    @Autowired
+    public EvaluationTraceRecorder(
+            @Value("${app.evaluation.trace.enabled:true}") boolean enabled,
+            @Value("${app.evaluation.trace.capacity:2048}") int capacity,
+            @Value("${app.evaluation.trace.sample-rate:0.01}") double sampleRate,
+            @Value("${app.evaluation.trace.max-capture-chars:20000}") int maxCaptureChars) {
+        this.enabled = enabled;
+        // 容量取2的幂，下标用位运算计算
+        int size = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 20)) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        this.maxCaptureChars = Math.max(0, maxCaptureChars);
+        for (Outcome outcome : Outcome.values()) {
+            outcomeCounts.put(outcome, new AtomicLong());
+        }
+    }
+
+    /**
+     * 开始追踪一次评估，提示词可为空（例如离线批处理的结果回填）
+     */
+    public Span start(StudentAnswer answer, UserAIConfig config, String prompt) {
+        Long answerId = answer != null ? answer.getId() : null;
+        String taskId = answerId != null ? watchedAnswers.get(answerId) : null;
+        boolean capture = enabled && (taskId != null
+            || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate));
+        return new Span(taskId, answerId, answer != null && answer.getQuestion() != null ? answer.getQuestion().getId() : null,
+            config, prompt, capture);
+    }
+
+    /**
+     * 标记任务：任务启动后其所有评估都完整记录提示词和响应
+     */
+    public void flagTask(String taskId) {
+        flaggedTasks.add(taskId);
+    }
+
+    public void unflagTask(String taskId) {
+        flaggedTasks.remove(taskId);
+    }
+
+    /**
+     * 任务启动时调用：任务被标记或配置要求完整记录时，登记任务的答案
+     * @return 是否完整记录该任务的评估
+     */
+    public boolean watchTask(String taskId, Collection<Long> answerIds, boolean requested) {
+        if (!enabled || !(requested || flaggedTasks.contains(taskId))) {
+            return false;
+        }
+        for (Long answerId : answerIds) {
+            watchedAnswers.put(answerId, taskId);
+        }
+        return true;
+    }
+
+    /**
+     * 任务结束时调用，释放登记的答案
+     */
+    public void releaseTask(String taskId) {
+        watchedAnswers.values().removeIf(taskId::equals);
+    }
+
+    /**
+     * 最近的追踪记录，按时间倒序
+     * @param limit 最多返回的条数
+     * @param outcome 只返回该结果的记录，为空时不过滤
+     * @param answerId 只返回该答案的记录，为空时不过滤
+     */
+    public List<EvaluationTrace> recent(int limit, Outcome outcome, Long answerId) {
+        List<EvaluationTrace> traces = new ArrayList<>();
+        long end = sequence.get();
+        long start = Math.max(0, end - buffer.length());
+        for (long seq = end - 1; seq >= start && traces.size() < limit; seq--) {
+            EvaluationTrace trace = buffer.get((int) (seq & mask));
+            // 读取期间该槽位可能已被更新的记录覆盖
+            if (trace == null || trace.sequence() != seq) {
+                continue;
+            }
+            if ((outcome == null || trace.outcome() == outcome) && (answerId == null || answerId.equals(trace.answerId()))) {
+                traces.add(trace);
+            }
+        }
+        return traces;
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("capacity", buffer.length());
+        snapshot.put("recorded", sequence.get());
+        snapshot.put("captured", capturedCount.get());
+        snapshot.put("sampleRate", sampleRate);
+        snapshot.put("flaggedTasks", new ArrayList<>(flaggedTasks));
+        snapshot.put("watchedAnswers", watchedAnswers.size());
+        Map<String, Long> outcomes = new LinkedHashMap<>();
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome.name(), outcomeCounts.get(outcome).get());
+        }
+        snapshot.put("outcomes", outcomes);
+        return snapshot;
+    }
+
+    private void append(Span span, AIResponse response, Outcome outcome, String fallbackReason, String responseContent) {
+        outcomeCounts.get(outcome).incrementAndGet();
+        if (!enabled) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        if (span.capture) {
+            capturedCount.incrementAndGet();
+        }
+        buffer.set((int) (seq & mask), new EvaluationTrace(
+            seq, Instant.now(), span.taskId, span.answerId, span.questionId,
+            span.provider, span.model, response != null && response.getMetadata() != null ? response.getMetadata().get("routedConfigId") : null,
+            span.promptHash, span.promptChars,
+            response != null ? response.getInputTokens() : null,
+            response != null ? response.getCachedInputTokens() : null,
+            response != null ? response.getOutputTokens() : null,
+            (System.nanoTime() - span.startNanos) / 1_000_000,
+            outcome, fallbackReason,
+            span.capture ? clip(span.prompt) : null,
+            span.capture ? clip(responseContent) : null));
+    }
+
+    private String clip(String text) {
+        return text != null && text.length() > maxCaptureChars ? text.substring(0, maxCaptureChars) : text;
+    }
+
+    /**
+     * 64位FNV-1a哈希，用于比对相同提示词，不需要抗碰撞
+     */
+    static String hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * 一次进行中的评估，结束时调用一次 success/cacheHit/fallback 写入记录
+     */
+    public final class Span {
+        private final String taskId;
+        private final Long answerId;
+        private final Long questionId;
+        private final String provider;
+        private final String model;
+        private final String promptHash;
+        private final int promptChars;
+        private final String prompt;
+        private final boolean capture;
+        private final long startNanos = System.nanoTime();
+
+        private Span(String taskId, Long answerId, Long questionId, UserAIConfig config, String prompt, boolean capture) {
+            this.taskId = taskId;
+            this.answerId = answerId;
+            this.questionId = questionId;
+            this.provider = config != null && config.getProvider() != null ? config.getProvider().name() : null;
+            this.model = config != null ? config.getModelName() : null;
+            this.promptHash = prompt != null && enabled ? hash(prompt) : null;
+            this.promptChars = prompt != null ? prompt.length() : 0;
+            this.prompt = capture ? prompt : null;
+            this.capture = capture;
+        }
+
+        public void success(AIResponse response, String content) {
+            append(this, response, Outcome.SUCCESS, null, content);
+        }
+
+        public void cacheHit() {
+            append(this, null, Outcome.CACHE_HIT, null, null);
+        }
+
+        public void fallback(Outcome outcome, AIResponse response, String reason) {
+            append(this, response, outcome, reason, response != null ? response.getContent() : null);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.teachhelper.service.evaluation;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.ai.AIEvaluationService.EvaluationResult;
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.QuestionOption;
+import com.teachhelper.entity.QuestionType;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.repository.QuestionOptionRepository;
+
+/**
+ * 客观题本地评分引擎
+ * 单选、多选、判断、填空题根据预先编译的标准答案直接评分，不调用AI。
+ * 无法得到标准答案的题目（例如既没有参考答案也没有标记正确选项）返回空，交给AI评估
+ */
+@Service
+public class ObjectiveGradingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(ObjectiveGradingEngine.class);
+
+    private static final Set<QuestionType> OBJECTIVE_TYPES = EnumSet.of(
+        QuestionType.SINGLE_CHOICE, QuestionType.MULTIPLE_CHOICE, QuestionType.TRUE_FALSE, QuestionType.FILL_BLANK);
+
+    private static final Set<String> TRUE_WORDS = Set.of("对", "正确", "√", "✓", "✔", "T", "TRUE", "是", "Y", "YES", "RIGHT");
+    private static final Set<String> FALSE_WORDS = Set.of("错", "错误", "×", "✗", "✕", "F", "FALSE", "否", "N", "NO", "X", "WRONG", "不对", "不正确");
+
+    private static final Pattern CHOICE_SEPARATORS = Pattern.compile("[\\s,;、.。/|()]+");
+    private static final Pattern LETTERS_ONLY = Pattern.compile("[A-Z]+");
+    private static final Pattern LEADING_LETTER = Pattern.compile("^([A-Z])(?:[.、:)\\s]|$)");
+    private static final Pattern BLANK_SEPARATORS = Pattern.compile("[;\\n]+");
+    private static final Pattern ANSWER_BLANK_SEPARATORS = Pattern.compile("[;\\n,、]+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s。.!?]+$");
+
+    /** 填空题做相似度比较的最大长度，超过后只做精确匹配 */
+    private static final int MAX_SIMILARITY_LENGTH = 200;
+
+    @Autowired
+    private QuestionOptionRepository questionOptionRepository;
+
+    /**
+     * 是否为可本地评分的客观题型
+     */
+    public boolean isObjective(QuestionType questionType) {
+        return questionType != null && OBJECTIVE_TYPES.contains(questionType);
+    }
+
+    /**
+     * 创建任务级评分会话，会话内每道题的标准答案只编译一次
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * 编译题目的标准答案，无法确定标准答案时返回空
+     */
+    public Optional<AnswerKey> compileAnswerKey(Question question) {
+        if (question == null || !isObjective(question.getQuestionType()) || question.getMaxScore() == null) {
+            return Optional.empty();
+        }
+        if (question.getQuestionType() == QuestionType.FILL_BLANK) {
+            return compileFillBlankKey(question);
+        }
+
+        List<QuestionOption> options = question.getId() != null
+            ? questionOptionRepository.findOptionsByQuestionId(question.getId())
+            : Collections.emptyList();
+        List<String> optionContents = options.stream()
+            .map(option -> normalize(option.getContent()))
+            .collect(Collectors.toList());
+
+        Set<Character> correctLetters = null;
+        String reference = question.getReferenceAnswer();
+        if (reference != null && !reference.isBlank()) {
+            correctLetters = parseLetters(normalize(reference), optionContents);
+        }
+        if (correctLetters == null || correctLetters.isEmpty()) {
+            correctLetters = new TreeSet<>();
+            for (int i = 0; i < options.size(); i++) {
+                if (Boolean.TRUE.equals(options.get(i).getIsCorrect())) {
+                    correctLetters.add((char) ('A' + i));
+                }
+            }
+        }
+
+        Boolean expectedTruth = null;
+        if (question.getQuestionType() == QuestionType.TRUE_FALSE) {
+            expectedTruth = reference != null ? parseTruth(normalize(reference)) : null;
+            if (expectedTruth == null && correctLetters.size() == 1) {
+                int index = correctLetters.iterator().next() - 'A';
+                if (index < optionContents.size()) {
+                    expectedTruth = parseTruth(optionContents.get(index));
+                }
+            }
+            if (expectedTruth == null && correctLetters.isEmpty()) {
+                return Optional.empty();
+            }
+        } else if (correctLetters.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new AnswerKey(question.getQuestionType(), question.getMaxScore(),
+            Collections.unmodifiableSet(correctLetters), optionContents, expectedTruth, List.of()));
+    }
+
+    /**
+     * 按标准答案评分
+     */
+    public EvaluationResult grade(AnswerKey key, String answerText) {
+        if (answerText == null || answerText.isBlank()) {
+            return result(BigDecimal.ZERO, "答案为空，未得分。");
+        }
+        return switch (key.questionType()) {
+            case TRUE_FALSE -> gradeTrueFalse(key, normalize(answerText));
+            case FILL_BLANK -> gradeFillBlank(key, answerText);
+            default -> gradeChoice(key, normalize(answerText));
+        };
+    }
+
+    private EvaluationResult gradeChoice(AnswerKey key, String answer) {
+        Set<Character> chosen = parseLetters(answer, key.optionContents());
+        String correct = formatLetters(key.correctLetters());
+        if (chosen == null || chosen.isEmpty()) {
+            return result(BigDecimal.ZERO, "无法识别作答选项，未得分，建议人工复查。正确答案：" + correct);
+        }
+        if (chosen.equals(key.correctLetters())) {
+            return result(key.maxScore(), "回答正确。正确答案：" + correct);
+        }
+        if (key.questionType() != QuestionType.MULTIPLE_CHOICE) {
+            return result(BigDecimal.ZERO, "回答错误。正确答案：" + correct + "，你的答案：" + formatLetters(chosen));
+        }
+
+        // 多选题按 Jaccard 相似度给部分分，与基础评估规则保持一致
+        Set<Character> intersection = new TreeSet<>(chosen);
+        intersection.retainAll(key.correctLetters());
+        Set<Character> union = new TreeSet<>(chosen);
+        union.addAll(key.correctLetters());
+        BigDecimal score = key.maxScore()
+            .multiply(BigDecimal.valueOf((double) intersection.size() / union.size()))
+            .setScale(1, RoundingMode.HALF_UP);
+        String feedback = intersection.isEmpty() ? "回答错误。" : "部分正确。";
+        return result(score, feedback + "正确答案：" + correct + "，你的答案：" + formatLetters(chosen));
+    }
+
+    private EvaluationResult gradeTrueFalse(AnswerKey key, String answer) {
+        Boolean truth = parseTruth(answer);
+        if (truth == null) {
+            Set<Character> chosen = parseLetters(answer, key.optionContents());
+            if (chosen != null && chosen.size() == 1) {
+                if (!key.correctLetters().isEmpty()) {
+                    boolean correct = chosen.equals(key.correctLetters());
+                    return result(correct ? key.maxScore() : BigDecimal.ZERO,
+                        (correct ? "回答正确。" : "回答错误。") + "正确答案：" + formatLetters(key.correctLetters()));
+                }
+                int index = chosen.iterator().next() - 'A';
+                truth = index < key.optionContents().size() ? parseTruth(key.optionContents().get(index)) : null;
+            }
+        }
+        String expected = key.expectedTruth() != null
+            ? (key.expectedTruth() ? "正确" : "错误")
+            : formatLetters(key.correctLetters());
+        if (truth == null || key.expectedTruth() == null) {
+            return result(BigDecimal.ZERO, "无法识别作答内容，未得分，建议人工复查。正确答案：" + expected);
+        }
+        boolean correct = truth.equals(key.expectedTruth());
+        return result(correct ? key.maxScore() : BigDecimal.ZERO,
+            (correct ? "回答正确。" : "回答错误。") + "正确答案：" + expected);
+    }
+
+    private Optional<AnswerKey> compileFillBlankKey(Question question) {
+        String reference = question.getReferenceAnswer();
+        if (reference == null || reference.isBlank()) {
+            return Optional.empty();
+        }
+        String normalized = Normalizer.normalize(reference, Normalizer.Form.NFKC).trim();
+        List<Set<String>> blanks = new ArrayList<>();
+        for (String blank : BLANK_SEPARATORS.split(normalized)) {
+            if (blank.isBlank()) {
+                continue;
+            }
+            Set<String> alternatives = Arrays.stream(blank.split("\\|"))
+                .map(EvaluationResultCacheService::normalizeAnswer)
+                .filter(alternative -> !alternative.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+            if (!alternatives.isEmpty()) {
+                blanks.add(alternatives);
+            }
+        }
+        if (blanks.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new AnswerKey(QuestionType.FILL_BLANK, question.getMaxScore(),
+            Set.of(), List.of(), null, List.copyOf(blanks)));
+    }
+
+    private EvaluationResult gradeFillBlank(AnswerKey key, String answerText) {
+        List<Set<String>> blanks = key.blanks();
+        if (blanks.size() == 1) {
+            return gradeSingleBlank(key, EvaluationResultCacheService.normalizeAnswer(answerText));
+        }
+
+        String normalized = Normalizer.normalize(answerText, Normalizer.Form.NFKC).trim();
+        String[] parts = ANSWER_BLANK_SEPARATORS.split(normalized);
+        if (parts.length != blanks.size()) {
+            parts = WHITESPACE.split(normalized);
+        }
+        int correctCount = 0;
+        List<Integer> wrongBlanks = new ArrayList<>();
+        for (int i = 0; i < blanks.size(); i++) {
+            String part = i < parts.length ? EvaluationResultCacheService.normalizeAnswer(parts[i]) : "";
+            if (blanks.get(i).contains(part)) {
+                correctCount++;
+            } else {
+                wrongBlanks.add(i + 1);
+            }
+        }
+        if (wrongBlanks.isEmpty()) {
+            return result(key.maxScore(), "全部填空正确。");
+        }
+        BigDecimal score = key.maxScore()
+            .multiply(BigDecimal.valueOf(correctCount))
+            .divide(BigDecimal.valueOf(blanks.size()), 1, RoundingMode.HALF_UP);
+        String wrong = wrongBlanks.stream().map(String::valueOf).collect(Collectors.joining("、"));
+        return result(score, "共" + blanks.size() + "空，答对" + correctCount + "空，第" + wrong + "空有误。");
+    }
+
+    private EvaluationResult gradeSingleBlank(AnswerKey key, String answer) {
+        Set<String> alternatives = key.blanks().get(0);
+        if (alternatives.contains(answer)) {
+            return result(key.maxScore(), "回答正确。");
+        }
+
+        // 沿用基础评估规则：包含关系给80%，相似度高于0.7按相似度给分
+        double best = 0.0;
+        for (String reference : alternatives) {
+            if (!answer.isEmpty() && (reference.contains(answer) || answer.contains(reference))) {
+                best = Math.max(best, 0.8);
+            } else if (reference.length() <= MAX_SIMILARITY_LENGTH && answer.length() <= MAX_SIMILARITY_LENGTH) {
+                double similarity = similarity(reference, answer);
+                if (similarity > 0.7) {
+                    best = Math.max(best, similarity);
+                }
+            }
+        }
+        if (best == 0.0) {
+            return result(BigDecimal.ZERO, "回答错误。参考答案：" + String.join(" 或 ", alternatives));
+        }
+        BigDecimal score = key.maxScore().multiply(BigDecimal.valueOf(best)).setScale(1, RoundingMode.HALF_UP);
+        return result(score, "部分正确。参考答案：" + String.join(" 或 ", alternatives));
+    }
+
+    /**
+     * 解析选项字母："A"、"a,c"、"AC"、"A. 北京"，或直接写出选项内容
+     */
+    private static Set<Character> parseLetters(String text, List<String> optionContents) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        String compact = CHOICE_SEPARATORS.matcher(text).replaceAll("");
+        int maxLetter = optionContents.isEmpty() ? 'Z' : 'A' + optionContents.size() - 1;
+        if (LETTERS_ONLY.matcher(compact).matches()
+                && compact.chars().allMatch(c -> c <= maxLetter)) {
+            Set<Character> letters = new TreeSet<>();
+            compact.chars().forEach(c -> letters.add((char) c));
+            return letters;
+        }
+        Matcher leading = LEADING_LETTER.matcher(text);
+        if (leading.find() && leading.group(1).charAt(0) <= maxLetter) {
+            return new TreeSet<>(Set.of(leading.group(1).charAt(0)));
+        }
+        String content = TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+        for (int i = 0; i < optionContents.size(); i++) {
+            if (!content.isEmpty() && content.equals(optionContents.get(i))) {
+                return new TreeSet<>(Set.of((char) ('A' + i)));
+            }
+        }
+        return null;
+    }
+
+    private static Boolean parseTruth(String text) {
+        String value = TRAILING_PUNCTUATION.matcher(text).replaceAll("").trim();
+        if (TRUE_WORDS.contains(value)) {
+            return Boolean.TRUE;
+        }
+        if (FALSE_WORDS.contains(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : Normalizer.normalize(text, Normalizer.Form.NFKC).trim().toUpperCase();
+    }
+
+    private static String formatLetters(Set<Character> letters) {
+        return letters.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static double similarity(String s1, String s2) {
+        int maxLength = Math.max(s1.length(), s2.length());
+        if (maxLength == 0) {
+            return 1.0;
+        }
+        int[] previous = new int[s2.length() + 1];
+        int[] current = new int[s2.length() + 1];
+        for (int j = 0; j <= s2.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= s1.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= s2.length(); j++) {
+                int cost = s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return 1.0 - (double) previous[s2.length()] / maxLength;
+    }
+
+    private static EvaluationResult result(BigDecimal score, String feedback) {
+        EvaluationResult result = new EvaluationResult(true, score, feedback, new ArrayList<>());
+        // 规则评分不是AI给出的分数，写回时记为规则自动评分
+        result.setAiEvaluated(false);
+        result.setRuleGraded(true);
+        return result;
+    }
+
+    /**
+     * 编译后的标准答案
+     */
+    public record AnswerKey(QuestionType questionType, BigDecimal maxScore, Set<Character> correctLetters,
+                            List<String> optionContents, Boolean expectedTruth, List<Set<String>> blanks) {
+    }
+
+    /**
+     * 任务级评分会话：缓存每道题的标准答案并统计本地评分数量
+     */
+    public final class Session {
+        private final Map<Long, Optional<AnswerKey>> answerKeys = new ConcurrentHashMap<>();
+        private final AtomicInteger gradedCount = new AtomicInteger();
+
+        private Session() {
+        }
+
+        /**
+         * 尝试本地评分，非客观题或无标准答案时返回空
+         */
+        public Optional<EvaluationResult> grade(StudentAnswer answer) {
+            Optional<AnswerKey> key = answerKeyFor(answer);
+            if (key.isEmpty()) {
+                return Optional.empty();
+            }
+            gradedCount.incrementAndGet();
+            return Optional.of(ObjectiveGradingEngine.this.grade(key.get(), answer.getAnswerText()));
+        }
+
+        /**
+         * 答案能否在本地评分（不计入评分数）
+         */
+        public boolean supports(StudentAnswer answer) {
+            return answerKeyFor(answer).isPresent();
+        }
+
+        private Optional<AnswerKey> answerKeyFor(StudentAnswer answer) {
+            Question question = answer.getQuestion();
+            if (question == null || question.getId() == null || !isObjective(question.getQuestionType())) {
+                return Optional.empty();
+            }
+            return answerKeys.computeIfAbsent(question.getId(), id -> {
+                try {
+                    return compileAnswerKey(question);
+                } catch (Exception e) {
+                    logger.warn("编译题目 {} 的标准答案失败，改用AI评估: {}", id, e.getMessage());
+                    return Optional.empty();
+                }
+            });
+        }
+
+        /**
+         * 本会话中本地评分的答案数
+         */
+        public int getGradedCount() {
+            return gradedCount.get();
+        }
+    }
+}
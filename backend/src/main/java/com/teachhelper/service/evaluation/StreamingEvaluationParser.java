@@ -0,0 +1,154 @@
+package com.teachhelper.service.evaluation;
+
+import java.math.BigDecimal;
+
+import com.teachhelper.service.ai.AIStreamSink;
+
+/**
+ * 评估响应的增量解析器
+ * 逐段扫描流式生成的文本，跟踪第一个顶层JSON对象的括号和字符串状态：
+ * 顶层 "score" 字段的数值一结束就可以读取，整个JSON对象闭合后立即结束生成，
+ * 不再为模型在JSON之后追加的解释文字等待和付费。每次评估使用一个新实例，非线程安全
+ */
+public class StreamingEvaluationParser implements AIStreamSink {
+
+    private static final String SCORE_FIELD = "score";
+
+    private final StringBuilder json = new StringBuilder();
+    private final StringBuilder token = new StringBuilder();
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private boolean complete;
+    private boolean received;
+
+    /** 顶层对象中最近一个已结束的字符串（可能是键） */
+    private String lastTopLevelString;
+    /** 当前正在读取值的顶层键 */
+    private String currentKey;
+    private boolean readingScore;
+    private BigDecimal score;
+
+    @Override
+    public boolean onDelta(String delta) {
+        received = true;
+        if (complete) {
+            return false;
+        }
+        for (int i = 0; i < delta.length() && !complete; i++) {
+            accept(delta.charAt(i));
+        }
+        return !complete;
+    }
+
+    private void accept(char c) {
+        if (depth == 0) {
+            // JSON对象之前的说明文字或代码块标记直接跳过
+            if (c == '{') {
+                depth = 1;
+                json.append(c);
+            }
+            return;
+        }
+        json.append(c);
+
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1) {
+                    lastTopLevelString = token.toString();
+                    // 分数以字符串形式给出时同样读取
+                    if (SCORE_FIELD.equals(currentKey) && score == null) {
+                        finishScore();
+                    }
+                }
+            } else if (depth == 1) {
+                token.append(c);
+            }
+            return;
+        }
+
+        if (readingScore) {
+            if (Character.isDigit(c) || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E') {
+                token.append(c);
+                return;
+            }
+            finishScore();
+        }
+
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                if (depth == 1) {
+                    token.setLength(0);
+                }
+            }
+            case '{', '[' -> depth++;
+            case '}', ']' -> {
+                depth--;
+                if (depth == 0) {
+                    complete = true;
+                }
+            }
+            case ':' -> {
+                if (depth == 1) {
+                    currentKey = lastTopLevelString;
+                }
+            }
+            case ',' -> {
+                if (depth == 1) {
+                    currentKey = null;
+                }
+            }
+            default -> {
+                if (depth == 1 && SCORE_FIELD.equals(currentKey) && score == null && !Character.isWhitespace(c)) {
+                    readingScore = true;
+                    token.setLength(0);
+                    token.append(c);
+                }
+            }
+        }
+    }
+
+    private void finishScore() {
+        readingScore = false;
+        try {
+            score = new BigDecimal(token.toString());
+        } catch (NumberFormatException e) {
+            // 分数格式异常时留给完整解析处理
+        }
+        token.setLength(0);
+    }
+
+    /**
+     * 顶层JSON对象是否已经完整
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 是否收到过任何生成内容
+     */
+    public boolean hasReceived() {
+        return received;
+    }
+
+    /**
+     * 已完整的JSON对象文本，未完整时返回null
+     */
+    public String getJson() {
+        return complete ? json.toString() : null;
+    }
+
+    /**
+     * 已经读到的总分，尚未生成完时返回null
+     */
+    public BigDecimal getScore() {
+        return score;
+    }
+}
@@ -5,6 +5,7 @@ import com.teachhelper.dto.response.AIQuestionGenerationResponse;
 import com.teachhelper.entity.*;
 import com.teachhelper.repository.*;
 import com.teachhelper.service.UserAIConfigService;
+import com.teachhelper.service.ai.AIClient;
 import com.teachhelper.service.ai.AIClientFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
@@ -18,6 +19,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -207,12 +209,15 @@ public class EnhancedAIQuestionGenerationService {
             // 验证知识库访问权限
             List<KnowledgeBase> knowledgeBases = validateKnowledgeBases(request.getKnowledgeBaseIds());
             
+            // 用户配置了默认AI模型时，检索内容的逐篇生成改为并发的非阻塞调用
+            UserAIConfig aiConfig = userId != null ? userAIConfigService.getUserDefaultAIConfig(userId).orElse(null) : null;
+            
             // 根据生成策略选择不同的生成方式
             List<EnhancedQuestionResponse> questions = switch (request.getGenerationStrategy()) {
-                case "RAG_BASED" -> generateQuestionsWithRAG(request, knowledgeBases);
+                case "RAG_BASED" -> generateQuestionsWithRAG(request, knowledgeBases, aiConfig);
                 case "DIRECT_LLM" -> generateQuestionsDirectLLM(request, knowledgeBases);
-                case "SMART_MIX" -> generateQuestionsSmartMix(request, knowledgeBases);
-                default -> generateQuestionsWithRAG(request, knowledgeBases);
+                case "SMART_MIX" -> generateQuestionsSmartMix(request, knowledgeBases, aiConfig);
+                default -> generateQuestionsWithRAG(request, knowledgeBases, aiConfig);
             };
 
             // 构建响应
@@ -242,7 +247,7 @@ public class EnhancedAIQuestionGenerationService {
      * 基于RAG检索生成题目
      */
     private List<EnhancedQuestionResponse> generateQuestionsWithRAG(
-            EnhancedQuestionGenerationRequest request, List<KnowledgeBase> knowledgeBases) {
+            EnhancedQuestionGenerationRequest request, List<KnowledgeBase> knowledgeBases, UserAIConfig aiConfig) {
         
         List<EnhancedQuestionResponse> questions = new ArrayList<>();
         
@@ -268,7 +273,7 @@ public class EnhancedAIQuestionGenerationService {
             
             // 为每个难度级别生成题目
             List<EnhancedQuestionResponse> difficultyQuestions = 
-                generateQuestionsFromRetrievedContent(docs, difficulty, request);
+                generateQuestionsFromRetrievedContent(docs, difficulty, request, aiConfig);
             
             questions.addAll(difficultyQuestions);
             
@@ -314,7 +319,7 @@ public class EnhancedAIQuestionGenerationService {
      * 智能混合模式生成题目
      */
     private List<EnhancedQuestionResponse> generateQuestionsSmartMix(
-            EnhancedQuestionGenerationRequest request, List<KnowledgeBase> knowledgeBases) {
+            EnhancedQuestionGenerationRequest request, List<KnowledgeBase> knowledgeBases, UserAIConfig aiConfig) {
         
         List<EnhancedQuestionResponse> questions = new ArrayList<>();
         
@@ -327,7 +332,7 @@ public class EnhancedAIQuestionGenerationService {
         
         // RAG生成
         List<EnhancedQuestionResponse> ragQuestions = 
-            generateQuestionsWithRAG(ragRequest, knowledgeBases);
+            generateQuestionsWithRAG(ragRequest, knowledgeBases, aiConfig);
         
         // LLM生成
         List<EnhancedQuestionResponse> llmQuestions = 
@@ -361,13 +366,38 @@ public class EnhancedAIQuestionGenerationService {
 
     /**
      * 根据检索内容生成题目
+     * 有用户AI配置时每篇检索内容的生成请求同时发出，按检索顺序收集结果；否则逐篇调用默认模型
      */
     private List<EnhancedQuestionResponse> generateQuestionsFromRetrievedContent(
             List<VectorStoreService.RetrievedDocument> docs, String difficulty, 
-            EnhancedQuestionGenerationRequest request) {
+            EnhancedQuestionGenerationRequest request, UserAIConfig aiConfig) {
         
         List<EnhancedQuestionResponse> questions = new ArrayList<>();
         
+        if (aiConfig != null) {
+            AIClient aiClient = aiClientFactory.getClient(aiConfig.getProvider());
+            List<CompletableFuture<List<EnhancedQuestionResponse>>> pending = new ArrayList<>();
+            for (VectorStoreService.RetrievedDocument doc : docs) {
+                pending.add(aiClient.chatAsync(buildRAGPrompt(doc, difficulty, request), aiConfig)
+                    .thenApply(response -> {
+                        if (!response.isSuccess()) {
+                            log.warn("基于检索内容生成题目失败: {}", response.getErrorMessage());
+                            return Collections.<EnhancedQuestionResponse>emptyList();
+                        }
+                        List<EnhancedQuestionResponse> generatedQuestions = parseAIResponse(response.getContent(), request);
+                        addSourceCitationToQuestions(generatedQuestions, doc);
+                        return generatedQuestions;
+                    })
+                    .exceptionally(e -> {
+                        log.error("基于检索内容生成题目失败", e);
+                        return Collections.emptyList();
+                    }));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+            pending.forEach(future -> questions.addAll(future.join()));
+            return questions;
+        }
+        
         for (VectorStoreService.RetrievedDocument doc : docs) {
             try {
                 // 构建基于检索内容的生成提示
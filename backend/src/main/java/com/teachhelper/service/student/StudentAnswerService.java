@@ -213,7 +213,7 @@ public class StudentAnswerService {
         // 获取答案ID列表并使用FETCH JOIN查询来加载关联数据
         if (!answers.isEmpty()) {
             List<Long> answerIds = answers.stream().map(StudentAnswer::getId).toList();
-            return studentAnswerRepository.findByIdInWithFetch(answerIds);
+            return loadQuestionOptions(studentAnswerRepository.findByIdInWithFetch(answerIds));
         }
         return answers;
     }
@@ -274,10 +274,31 @@ public class StudentAnswerService {
     
     @Transactional(readOnly = true)
     public List<Long> getUnevaluatedAnswerIdsByQuestionId(Long questionId) {
-        return studentAnswerRepository.findByQuestionIdAndIsEvaluatedFalse(questionId)
-            .stream()
-            .map(StudentAnswer::getId)
-            .toList();
+        return studentAnswerRepository.findIdsByQuestionId(questionId, false);
+    }
+    
+    /**
+     * 只查询题目下的答案ID，不加载答案实体；evaluated 为 null 时返回全部答案
+     */
+    @Transactional(readOnly = true)
+    public List<Long> getAnswerIdsByQuestionId(Long questionId, Boolean evaluated) {
+        return studentAnswerRepository.findIdsByQuestionId(questionId, evaluated);
+    }
+    
+    /**
+     * 只查询考试下的答案ID，不加载答案实体；evaluated 为 null 时返回全部答案
+     */
+    @Transactional(readOnly = true)
+    public List<Long> getAnswerIdsByExamId(Long examId, Boolean evaluated) {
+        return studentAnswerRepository.findIdsByExamId(examId, evaluated);
+    }
+    
+    /**
+     * 只查询学生在考试中的答案ID，不加载答案实体；evaluated 为 null 时返回全部答案
+     */
+    @Transactional(readOnly = true)
+    public List<Long> getStudentAnswerIdsInExam(Long examId, Long studentId, Boolean evaluated) {
+        return studentAnswerRepository.findIdsByExamIdAndStudentId(examId, studentId, evaluated);
     }
     
     @Transactional(readOnly = true)
@@ -383,7 +404,11 @@ public class StudentAnswerService {
     // Batch fetch operations
     @Transactional(readOnly = true)
     public StudentAnswer getAnswerByIdWithFetch(Long answerId) {
-        return studentAnswerRepository.findByIdWithFetch(answerId);
+        StudentAnswer answer = studentAnswerRepository.findByIdWithFetch(answerId);
+        if (answer != null) {
+            loadQuestionOptions(List.of(answer));
+        }
+        return answer;
     }
     
     @Transactional(readOnly = true)
@@ -391,7 +416,19 @@ public class StudentAnswerService {
         if (answerIds == null || answerIds.isEmpty()) {
             return List.of();
         }
-        return studentAnswerRepository.findByIdInWithFetch(answerIds);
+        return loadQuestionOptions(studentAnswerRepository.findByIdInWithFetch(answerIds));
+    }
+    
+    /**
+     * 在同一会话中加载答案所属题目的选项。评分标准已随答案一起抓取，两个列表不能在一次查询中同时抓取，
+     * 选项单独查询后填充到同一题目实例上，离开事务后评估仍可读取选项和评分标准
+     */
+    private List<StudentAnswer> loadQuestionOptions(List<StudentAnswer> answers) {
+        List<Long> questionIds = answers.stream().map(answer -> answer.getQuestion().getId()).distinct().toList();
+        if (!questionIds.isEmpty()) {
+            questionRepository.loadOptionsForQuestions(questionIds);
+        }
+        return answers;
     }
     
     // Export functionality
@@ -2,14 +2,18 @@ package com.teachhelper.service.task;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -21,7 +25,6 @@ import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import javax.annotation.PostConstruct;
@@ -29,11 +32,22 @@ import java.util.concurrent.Executor;
 
 import com.teachhelper.ai.AIEvaluationService;
 import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.UserAIConfig;
 
 import com.teachhelper.entity.EvaluationType;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIResilienceService;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.evaluation.EvaluationResultWriter;
+import com.teachhelper.service.evaluation.EvaluationTraceRecorder;
+import com.teachhelper.service.evaluation.ObjectiveGradingEngine;
 import com.teachhelper.service.student.StudentAnswerService;
 import com.teachhelper.service.exam.ExamService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 
 /**
  * 批量评估执行引擎
@@ -46,8 +60,24 @@ public class BatchEvaluationExecutorService {
     
     @Value("${app.evaluation.max-concurrent-tasks:10}")
     private int maxConcurrentTasks;
+    
+    @Value("${app.evaluation.page-size:100}")
+    private int pageSize;
+    
+    @Value("${app.evaluation.async.enabled:true}")
+    private boolean asyncEvaluationEnabled;
+    
+    /** 单个答案的最大评估次数（含首次） */
+    private static final int MAX_ANSWER_ATTEMPTS = 3;
+    
+    /** 离线批处理评估模式 */
+    private static final String PROVIDER_BATCH_MODE = "PROVIDER_BATCH";
 
-    private Semaphore evaluationSemaphore;
+    private int concurrency;
+    
+    /** 取消时被中止的在途评估和尚未开始的答案数 */
+    private Counter cancelledInFlightCounter;
+    private Counter cancelledPendingCounter;
     
     @Autowired
     private AIEvaluationService aiEvaluationService;
@@ -58,6 +88,39 @@ public class BatchEvaluationExecutorService {
     @Autowired
     private ExamService examService;
     
+    @Autowired
+    private ObjectiveGradingEngine objectiveGradingEngine;
+    
+    @Autowired
+    private EvaluationTraceRecorder evaluationTraceRecorder;
+    
+    @Autowired
+    private EvaluationResultWriter evaluationResultWriter;
+    
+    @Autowired
+    private TaskResultStore taskResultStore;
+    
+    @Autowired
+    private TaskCheckpointService taskCheckpointService;
+    
+    @Autowired
+    private EvaluationSlotScheduler evaluationSlotScheduler;
+    
+    @Autowired
+    private AIResilienceService aiResilienceService;
+    
+    @Autowired
+    private ProviderBatchEvaluationService providerBatchEvaluationService;
+    
+    @Autowired
+    private TaskChunkLeaseService taskChunkLeaseService;
+    
+    @Autowired
+    private TaskRuntimeManager taskRuntimeManager;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
     @Autowired
     @Qualifier("securityContextTaskExecutor")
     private Executor securityContextTaskExecutor;
@@ -65,9 +128,13 @@ public class BatchEvaluationExecutorService {
     @PostConstruct
     public void init() {
         // 限制并发数在1到200之间，防止过高导致系统不稳定
-        int concurrency = Math.max(1, Math.min(maxConcurrentTasks, 200));
-        this.evaluationSemaphore = new Semaphore(concurrency);
-        logger.info("BatchEvaluationExecutorService initialized with concurrency: {}", concurrency);
+        this.concurrency = Math.max(1, Math.min(maxConcurrentTasks, 200));
+        this.pageSize = Math.max(1, pageSize);
+        this.cancelledInFlightCounter = Counter.builder("task.cancel.skipped.answers")
+            .tag("stage", "inflight").register(meterRegistry);
+        this.cancelledPendingCounter = Counter.builder("task.cancel.skipped.answers")
+            .tag("stage", "pending").register(meterRegistry);
+        logger.info("BatchEvaluationExecutorService initialized with concurrency: {}, page size: {}", concurrency, pageSize);
     }
     
     /**
@@ -75,6 +142,14 @@ public class BatchEvaluationExecutorService {
      */
     @Async("securityContextTaskExecutor")
     public CompletableFuture<Void> executeBatchEvaluationTask(String taskId, Map<String, Object> config, TaskProgressCallback callback) {
+        return executeBatchEvaluationTask(taskId, config, "MEDIUM", callback);
+    }
+    
+    /**
+     * 异步执行批量评估任务，priority 为任务优先级，决定任务在共享评估名额中的权重
+     */
+    @Async("securityContextTaskExecutor")
+    public CompletableFuture<Void> executeBatchEvaluationTask(String taskId, Map<String, Object> config, String priority, TaskProgressCallback callback) {
         logger.info("开始执行批量评估任务: {}", taskId);
         
         try {
@@ -82,20 +157,32 @@ public class BatchEvaluationExecutorService {
             callback.updateTaskProgress(taskId, 0, 0, "RUNNING");
             callback.addTaskLog(taskId, "INFO", "开始执行批量评估任务");
             
-            // 根据配置获取答案ID列表
-            List<Long> answerIds = extractAnswerIds(config);
+            // 答案ID列表只在首次执行时根据配置提取，之后从检查点恢复
+            TaskCheckpointService.Cursor cursor = taskCheckpointService.open(taskId, () -> extractAnswerIds(config));
             
-            if (answerIds.isEmpty()) {
+            if (cursor.getTotalCount() == 0) {
                 callback.updateTaskProgress(taskId, 0, 0, "FAILED");
                 callback.addTaskLog(taskId, "ERROR", "没有找到需要评估的答案");
                 return CompletableFuture.completedFuture(null);
             }
             
-            logger.info("找到 {} 个答案需要评估", answerIds.size());
-            callback.addTaskLog(taskId, "INFO", "找到 " + answerIds.size() + " 个答案需要评估");
+            if (cursor.getAlreadyProcessedCount() > 0) {
+                logger.info("任务 {} 从检查点继续：已完成 {}/{}，剩余 {} 个答案", taskId,
+                    cursor.getAlreadyProcessedCount(), cursor.getTotalCount(), cursor.getRemainingIds().size());
+                callback.addTaskLog(taskId, "INFO", "从检查点继续执行，已完成 " + cursor.getAlreadyProcessedCount()
+                    + "/" + cursor.getTotalCount() + "，剩余 " + cursor.getRemainingIds().size() + " 个答案");
+            } else {
+                logger.info("找到 {} 个答案需要评估", cursor.getTotalCount());
+                callback.addTaskLog(taskId, "INFO", "找到 " + cursor.getTotalCount() + " 个答案需要评估");
+            }
+            
+            // 集群分片模式：首次执行时切分分片，恢复或重试时把失败的答案重新放回待租用
+            if (useChunkLeasing(config, cursor)) {
+                taskChunkLeaseService.plan(taskId, cursor.getRemainingIds());
+            }
             
             // 执行批量评估
-            return executeBatchEvaluation(taskId, answerIds, config, callback);
+            return executeBatchEvaluation(taskId, cursor, config, priority, callback);
             
         } catch (Exception e) {
             logger.error("批量评估任务执行失败: {}", e.getMessage(), e);
@@ -105,6 +192,45 @@ public class BatchEvaluationExecutorService {
         }
     }
     
+    /**
+     * 集群分片模式：加入其他节点启动的任务，租用尚未完成的分片执行
+     */
+    @Async("securityContextTaskExecutor")
+    public CompletableFuture<Void> joinLeasedTask(String taskId, Map<String, Object> config, String priority, TaskProgressCallback callback) {
+        try {
+            Optional<TaskCheckpointService.Cursor> cursor = taskCheckpointService.find(taskId);
+            if (cursor.isEmpty() || !useChunkLeasing(config, cursor.get())) {
+                return CompletableFuture.completedFuture(null);
+            }
+            logger.info("节点 {} 加入任务 {} 的分片执行", taskChunkLeaseService.getNodeId(), taskId);
+            return executeBatchEvaluation(taskId, cursor.get(), config, priority, callback);
+        } catch (Exception e) {
+            logger.error("节点加入任务 {} 失败: {}", taskId, e.getMessage(), e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+    
+    /**
+     * 集群分片模式的任务收尾，由完成最后一个分片的节点调用（该节点宕机时由其他节点补做）
+     */
+    public void completeLeasedTask(String taskId, TaskChunkLeaseService.Summary summary, TaskProgressCallback callback) {
+        int totalAnswers = summary.processedCount();
+        int failed = summary.failedCount();
+        int succeeded = totalAnswers - failed;
+        String finalStatus = failed == 0 || succeeded > 0 ? "COMPLETED" : "FAILED";
+        callback.updateTaskProgress(taskId, totalAnswers, totalAnswers, finalStatus);
+        String completionMsg = String.format("批量评估任务完成（集群分片）！总计: %d，成功: %d，失败: %d", totalAnswers, succeeded, failed);
+        callback.addTaskLog(taskId, "INFO", completionMsg);
+        logger.info("任务 {} 完成: {}", taskId, completionMsg);
+    }
+    
+    /**
+     * 是否按集群分片执行：离线批处理整批提交给提供商，只有一个答案的任务不必切分
+     */
+    private boolean useChunkLeasing(Map<String, Object> config, TaskCheckpointService.Cursor cursor) {
+        return taskChunkLeaseService.isEnabled() && !isProviderBatchRequested(config) && cursor.getTotalCount() > 1;
+    }
+    
     /**
      * 从配置中提取答案ID列表
      */
@@ -143,37 +269,14 @@ public class BatchEvaluationExecutorService {
             }
         }
         
-        // 检查是否按题目ID获取答案
+        // 检查是否按题目ID获取答案（只查询ID，不加载答案实体）
         if (config.containsKey("questionId")) {
             logger.info("发现questionId配置");
             Long questionId = extractLongValue(config.get("questionId"));
             if (questionId != null) {
-                boolean evaluateAll = Boolean.TRUE.equals(config.get("evaluateAll"));
-                boolean revaluateOnly = Boolean.TRUE.equals(config.get("revaluateOnly"));
-                
-                if (revaluateOnly) {
-                    // 只重新评估已评估的答案
-                    List<Long> answerIds = studentAnswerService.getAnswersByQuestionId(questionId)
-                        .stream()
-                        .filter(StudentAnswer::isEvaluated)
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从题目ID {} 获取到 {} 个已评估答案（重新评阅）", questionId, answerIds.size());
-                    return answerIds;
-                } else if (evaluateAll) {
-                    // 获取题目的所有答案
-                    List<Long> answerIds = studentAnswerService.getAnswersByQuestionId(questionId)
-                        .stream()
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从题目ID {} 获取到 {} 个答案", questionId, answerIds.size());
-                    return answerIds;
-                } else {
-                    // 只获取未评估的答案
-                    List<Long> answerIds = studentAnswerService.getUnevaluatedAnswerIdsByQuestionId(questionId);
-                    logger.info("从题目ID {} 获取到 {} 个未评估答案", questionId, answerIds.size());
-                    return answerIds;
-                }
+                List<Long> answerIds = studentAnswerService.getAnswerIdsByQuestionId(questionId, evaluatedFilter(config));
+                logger.info("从题目ID {} 获取到 {} 个答案{}", questionId, answerIds.size(), scopeLabel(config));
+                return answerIds;
             }
         }
         
@@ -182,35 +285,9 @@ public class BatchEvaluationExecutorService {
             logger.info("发现examId配置");
             Long examId = extractLongValue(config.get("examId"));
             if (examId != null) {
-                boolean evaluateAll = Boolean.TRUE.equals(config.get("evaluateAll"));
-                boolean revaluateOnly = Boolean.TRUE.equals(config.get("revaluateOnly"));
-                
-                if (revaluateOnly) {
-                    // 只重新评估已评估的答案
-                    List<Long> answerIds = studentAnswerService.getAnswersByExamId(examId)
-                        .stream()
-                        .filter(StudentAnswer::isEvaluated)
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从考试ID {} 获取到 {} 个已评估答案（重新评阅）", examId, answerIds.size());
-                    return answerIds;
-                } else if (evaluateAll) {
-                    // 获取考试的所有答案
-                    List<Long> answerIds = studentAnswerService.getAnswersByExamId(examId)
-                        .stream()
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从考试ID {} 获取到 {} 个答案", examId, answerIds.size());
-                    return answerIds;
-                } else {
-                    // 只获取未评估的答案
-                    List<Long> answerIds = studentAnswerService.getUnevaluatedAnswersByExamId(examId)
-                        .stream()
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从考试ID {} 获取到 {} 个未评估答案", examId, answerIds.size());
-                    return answerIds;
-                }
+                List<Long> answerIds = studentAnswerService.getAnswerIdsByExamId(examId, evaluatedFilter(config));
+                logger.info("从考试ID {} 获取到 {} 个答案{}", examId, answerIds.size(), scopeLabel(config));
+                return answerIds;
             }
         }
         
@@ -221,34 +298,11 @@ public class BatchEvaluationExecutorService {
             List<Long> examIds = (List<Long>) config.get("examIds");
             if (examIds != null && !examIds.isEmpty()) {
                 List<Long> allAnswerIds = new ArrayList<>();
-                boolean evaluateAll = Boolean.TRUE.equals(config.get("evaluateAll"));
-                boolean revaluateOnly = Boolean.TRUE.equals(config.get("revaluateOnly"));
-                
+                Boolean evaluated = evaluatedFilter(config);
                 for (Long examId : examIds) {
-                    if (revaluateOnly) {
-                        // 只重新评估已评估的答案
-                        List<Long> examAnswerIds = studentAnswerService.getAnswersByExamId(examId)
-                            .stream()
-                            .filter(StudentAnswer::isEvaluated)
-                            .map(StudentAnswer::getId)
-                            .toList();
-                        allAnswerIds.addAll(examAnswerIds);
-                    } else if (evaluateAll) {
-                        List<Long> examAnswerIds = studentAnswerService.getAnswersByExamId(examId)
-                            .stream()
-                            .map(StudentAnswer::getId)
-                            .toList();
-                        allAnswerIds.addAll(examAnswerIds);
-                    } else {
-                        List<Long> examAnswerIds = studentAnswerService.getUnevaluatedAnswersByExamId(examId)
-                            .stream()
-                            .map(StudentAnswer::getId)
-                            .toList();
-                        allAnswerIds.addAll(examAnswerIds);
-                    }
+                    allAnswerIds.addAll(studentAnswerService.getAnswerIdsByExamId(examId, evaluated));
                 }
-                logger.info("从 {} 个考试获取到 {} 个答案{}", examIds.size(), allAnswerIds.size(), 
-                    revaluateOnly ? "（重新评阅）" : (evaluateAll ? "（全部）" : "（未评估）"));
+                logger.info("从 {} 个考试获取到 {} 个答案{}", examIds.size(), allAnswerIds.size(), scopeLabel(config));
                 return allAnswerIds;
             }
         }
@@ -259,25 +313,12 @@ public class BatchEvaluationExecutorService {
             Long studentId = extractLongValue(config.get("studentId"));
             Long examId = extractLongValue(config.get("examId"));
             if (studentId != null && examId != null) {
-                boolean evaluateAll = Boolean.TRUE.equals(config.get("evaluateAll"));
-                if (evaluateAll) {
-                    // 获取该学生在该考试中的所有答案
-                    List<Long> answerIds = studentAnswerService.getStudentAnswersInExam(examId, studentId)
-                        .stream()
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从学生ID {} 在考试ID {} 中获取到 {} 个答案", studentId, examId, answerIds.size());
-                    return answerIds;
-                } else {
-                    // 只获取该学生在该考试中的未评估答案
-                    List<Long> answerIds = studentAnswerService.getStudentAnswersInExam(examId, studentId)
-                        .stream()
-                        .filter(answer -> !answer.isEvaluated())
-                        .map(StudentAnswer::getId)
-                        .toList();
-                    logger.info("从学生ID {} 在考试ID {} 中获取到 {} 个未评估答案", studentId, examId, answerIds.size());
-                    return answerIds;
-                }
+                // 该场景不支持只重新评阅：evaluateAll 时取全部答案，否则只取未评估答案
+                Boolean evaluated = Boolean.TRUE.equals(config.get("evaluateAll")) ? null : Boolean.FALSE;
+                List<Long> answerIds = studentAnswerService.getStudentAnswerIdsInExam(examId, studentId, evaluated);
+                logger.info("从学生ID {} 在考试ID {} 中获取到 {} 个答案{}", studentId, examId, answerIds.size(),
+                    evaluated == null ? "（全部）" : "（未评估）");
+                return answerIds;
             }
         }
         
@@ -285,6 +326,29 @@ public class BatchEvaluationExecutorService {
         return List.of();
     }
     
+    /**
+     * 按配置确定答案的评估状态筛选：revaluateOnly 只取已评估答案，evaluateAll 取全部（null），默认只取未评估答案
+     */
+    private Boolean evaluatedFilter(Map<String, Object> config) {
+        if (Boolean.TRUE.equals(config.get("revaluateOnly"))) {
+            return Boolean.TRUE;
+        }
+        return Boolean.TRUE.equals(config.get("evaluateAll")) ? null : Boolean.FALSE;
+    }
+    
+    private String scopeLabel(Map<String, Object> config) {
+        Boolean evaluated = evaluatedFilter(config);
+        return evaluated == null ? "（全部）" : (evaluated ? "（重新评阅）" : "（未评估）");
+    }
+    
+    /**
+     * 任务配置中的打包评估开关（answerPacking），未设置时返回 null 表示使用全局配置
+     */
+    private Boolean answerPackingSetting(Map<String, Object> config) {
+        Object value = config != null ? config.get("answerPacking") : null;
+        return value != null ? Boolean.valueOf(value.toString()) : null;
+    }
+    
     /**
      * 从对象中提取Long值
      */
@@ -303,19 +367,52 @@ public class BatchEvaluationExecutorService {
     
     /**
      * 执行批量评估的核心逻辑
+     * 
+     * 采用有界的生产者/消费者流水线：
+     * 1. 加载阶段（当前线程）按页加载答案，每提交一个评估前先获取并发许可，许可不足时阻塞，从而对加载形成背压
+     * 2. 评估阶段在线程池中执行，同时在途的评估数不超过并发上限，不会一次性向线程池提交全部答案
+     * 3. 持久化阶段由单独的消费线程从有界队列中取出评估结果，负责保存答案与上报进度
+     * 因此内存占用和线程数只与并发上限和分页大小有关，与任务规模无关
+     * 
+     * 任务取消通过取消令牌协作完成：令牌传到AI客户端，取消时加载线程停止取名额，
+     * 在途的AI请求被中止并立即归还名额，中止的答案不写分数，在检查点中记为失败，恢复时重新评估
      */
-    private CompletableFuture<Void> executeBatchEvaluation(String taskId, List<Long> answerIds, Map<String, Object> config, TaskProgressCallback callback) {
+    private CompletableFuture<Void> executeBatchEvaluation(String taskId, TaskCheckpointService.Cursor cursor, Map<String, Object> config, String priority, TaskProgressCallback callback) {
+        CancellationToken cancellation = taskRuntimeManager.openCancellationToken(taskId);
+        try {
+            return executeBatchEvaluation(taskId, cursor, config, priority, callback, cancellation);
+        } finally {
+            taskRuntimeManager.releaseCancellationToken(taskId, cancellation);
+        }
+    }
+    
+    private CompletableFuture<Void> executeBatchEvaluation(String taskId, TaskCheckpointService.Cursor cursor, Map<String, Object> config, String priority,
+                                                           TaskProgressCallback callback, CancellationToken cancellation) {
         
-        final int totalAnswers = answerIds.size();
-        final AtomicInteger processedCount = new AtomicInteger(0);
+        final List<Long> answerIds = cursor.getRemainingIds();
+        final int totalAnswers = cursor.getTotalCount();
+        final AtomicInteger processedCount = new AtomicInteger(cursor.getAlreadyProcessedCount());
         final AtomicInteger successCount = new AtomicInteger(0);
         final AtomicInteger failureCount = new AtomicInteger(0);
+        // 因任务取消而中止的评估，不计入失败，答案仍在检查点中等待恢复
+        final AtomicInteger abortedCount = new AtomicInteger(0);
         
-        // 用于收集详细的评估结果
-        List<Map<String, Object>> detailedResults = Collections.synchronizedList(new ArrayList<>());
+        // 涉及的考试ID，用于任务完成后检查考试状态（只保存ID，避免持有全部答案）
+        final Set<Long> examIds = ConcurrentHashMap.newKeySet();
         
-        logger.info("开始评估 {} 个答案，并发数: {}", totalAnswers, maxConcurrentTasks);
-        callback.addTaskLog(taskId, "INFO", "开始批量评估，总计 " + totalAnswers + " 个答案，并发数: " + maxConcurrentTasks);
+        // 集群分片模式：答案按分片从数据库租用，各节点的进度记录在分片上
+        final TaskChunkLeaseService.Session leases = useChunkLeasing(config, cursor) ? taskChunkLeaseService.openSession(taskId, pageSize) : null;
+        if (leases != null) {
+            cursor.detach();
+            processedCount.set(leases.getProcessedCount());
+            logger.info("任务 {} 按集群分片执行，节点: {}，已完成 {}/{}", taskId, taskChunkLeaseService.getNodeId(), processedCount.get(), totalAnswers);
+            callback.addTaskLog(taskId, "INFO", "节点 " + taskChunkLeaseService.getNodeId() + " 开始租用分片评估，已完成 "
+                + processedCount.get() + "/" + totalAnswers + "，并发数: " + concurrency);
+        } else {
+            logger.info("开始评估 {} 个答案，并发数: {}，分页大小: {}", answerIds.size(), concurrency, pageSize);
+            callback.addTaskLog(taskId, "INFO", "开始批量评估，总计 " + answerIds.size() + " 个答案，并发数: " + concurrency);
+        }
+        callback.updateTaskProgress(taskId, processedCount.get(), totalAnswers, "RUNNING");
         
         // 获取当前SecurityContext以传播到并行线程
         SecurityContext securityContext = SecurityContextHolder.getContext();
@@ -348,73 +445,651 @@ public class BatchEvaluationExecutorService {
         final Long evaluatorUserId = currentUserId;
         final String evaluatorUsername = currentUsername;
         
-        List<StudentAnswer> answers;
-        try {
-            answers = studentAnswerService.getAnswersByIdsWithFetch(answerIds);
-        } catch (Exception e) {
-            logger.error("预加载答案信息失败: {}", e.getMessage(), e);
-            callback.updateTaskProgress(taskId, 0, totalAnswers, "FAILED");
-            callback.addTaskLog(taskId, "ERROR", "预加载答案信息失败: " + e.getMessage());
-            return CompletableFuture.completedFuture(null);
+        // 被标记的任务完整记录每次评估的提示词和响应
+        if (evaluationTraceRecorder.watchTask(taskId, answerIds, config != null && Boolean.TRUE.equals(config.get("traceCapture")))) {
+            callback.addTaskLog(taskId, "INFO", "已开启评估追踪，本任务的评估提示词和响应将完整记录");
         }
         
-        List<CompletableFuture<Void>> evaluationFutures = new ArrayList<>();
-        for (StudentAnswer answer : answers) {
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                boolean success = false;
-                try {
-                    evaluationSemaphore.acquire();
+        // 评估名额在所有任务间按用户加权公平分配
+        final EvaluationSlotScheduler.Ticket slotTicket = evaluationSlotScheduler.register(taskId, evaluatorUserId, priority);
+        
+        // 取消时立即停止加载，唤醒正在等待名额的加载线程
+        CancellationToken.Registration haltOnCancel = cancellation.onCancel(() -> {
+            cursor.halt(TaskStatus.CANCELLED);
+            slotTicket.cancel();
+        });
+        
+        // 客观题标准答案在本任务内按题目编译一次
+        final ObjectiveGradingEngine.Session objectiveGrading = objectiveGradingEngine.newSession();
+        
+        // 同题答案打包评估：评估配置和评分模式在本任务内只解析一次
+        final String evaluationStyle = config != null && config.get("evaluationStyle") != null
+            ? config.get("evaluationStyle").toString() : "NORMAL";
+        final UserAIConfig evaluatorConfig = aiEvaluationService.findEvaluatorConfig(evaluatorUserId, evaluatorUsername).orElse(null);
+        final UserAIConfig packingConfig =
+            aiEvaluationService.isAnswerPackingEnabled(answerPackingSetting(config)) ? evaluatorConfig : null;
+        final AtomicInteger packedCount = new AtomicInteger(0);
+        
+        // 离线批处理模式：整批写入提供商的批处理作业，不占用实时评估名额
+        final boolean providerBatch = isProviderBatchRequested(config) && providerBatchEvaluationService.supports(evaluatorConfig);
+        if (isProviderBatchRequested(config) && !providerBatch) {
+            logger.warn("任务 {} 请求离线批处理评估，但评估配置的AI提供商不支持，改用实时评估", taskId);
+            callback.addTaskLog(taskId, "WARN", "当前AI提供商不支持离线批处理，改用实时评估");
+        }
+        
+        // 持久化阶段：单个消费者从有界队列中取出评估结果
+        final BlockingQueue<EvaluationOutcome> persistQueue = new ArrayBlockingQueue<>(Math.max(concurrency, 1) * 2);
+        CompletableFuture<Void> persister = CompletableFuture.runAsync(
+            () -> runPersistenceStage(taskId, persistQueue, cursor, leases, totalAnswers, processedCount, examIds, callback),
+            securityContextTaskExecutor);
+        
+        // 加载线程作为一方注册，每个在途评估额外注册一方，用于等待全部评估结束
+        final Phaser inFlight = new Phaser(1);
+        boolean interrupted = false;
+        
+        try {
+            if (providerBatch) {
+                providerBatchEvaluationService.evaluate(taskId, cursor, answerIds, evaluatorConfig, evaluationStyle,
+                    objectiveGrading, pageSize, callback, new ProviderBatchEvaluationService.OutcomeSink() {
+                        @Override
+                        public void evaluated(StudentAnswer answer, AIEvaluationService.EvaluationResult result) throws InterruptedException {
+                            boolean success = isFinalResult(result);
+                            if (success) {
+                                applyEvaluationResult(answer, result);
+                                successCount.incrementAndGet();
+                            } else {
+                                failureCount.incrementAndGet();
+                                callback.addTaskLog(taskId, "ERROR", "答案 " + answer.getId() + " AI评估失败: "
+                                    + (result != null ? result.getFeedback() : "无评估结果"));
+                            }
+                            persistQueue.put(new EvaluationOutcome(answer, success));
+                        }
+                        
+                        @Override
+                        public void skipped(Long answerId) throws InterruptedException {
+                            failureCount.incrementAndGet();
+                            persistQueue.put(EvaluationOutcome.skipped(answerId));
+                        }
+                    });
+            } else {
+                int pageNumber = 0;
+                List<Long> pageIds;
+                while (!interrupted && !cursor.isHalted() && (pageIds = nextPage(answerIds, pageNumber, leases)) != null) {
+                    pageNumber++;
+                
+                    List<StudentAnswer> answers;
                     try {
-                        // 传递config参数给评估方法
-                        Map<String, Object> evaluationResult = evaluateSingleAnswerWithFetchedData(taskId, answer, callback, evaluatorUserId, evaluatorUsername, config);
-                        detailedResults.add(evaluationResult);
-                        String status = (String) evaluationResult.getOrDefault("evaluationStatus", "failed");
-                        if ("success".equals(status)) {
-                            successCount.incrementAndGet();
-                        } else {
+                        answers = studentAnswerService.getAnswersByIdsWithFetch(pageIds);
+                    } catch (Exception e) {
+                        logger.error("加载第 {} 页答案失败: {}", pageNumber, e.getMessage(), e);
+                        callback.addTaskLog(taskId, "ERROR", "加载答案失败: " + e.getMessage());
+                        for (Long answerId : pageIds) {
+                            failureCount.incrementAndGet();
+                            persistQueue.put(EvaluationOutcome.skipped(answerId));
+                        }
+                        continue;
+                    }
+                
+                    // 分页查询可能遗漏已被删除的答案，按失败计入以保证进度能够走到100%
+                    Set<Long> loadedIds = new HashSet<>();
+                    answers.forEach(answer -> loadedIds.add(answer.getId()));
+                    for (Long answerId : pageIds) {
+                        if (!loadedIds.contains(answerId)) {
+                            failureCount.incrementAndGet();
+                            persistQueue.put(EvaluationOutcome.skipped(answerId));
+                        }
+                    }
+                
+                    for (List<StudentAnswer> unit : planEvaluationUnits(answers, packingConfig, evaluationStyle, objectiveGrading)) {
+                        // 任务被暂停或取消时停止提交；暂停时已提交的评估照常完成并计入检查点，取消时在途评估被中止
+                        if (cursor.isHalted()) {
+                            break;
+                        }
+                        // 客观题由本地规则引擎直接评分：不调用AI，也不占用评估名额
+                        if (unit.size() == 1 && objectiveGrading.supports(unit.get(0))) {
+                            if (cancellation.isCancelled()) {
+                                break;
+                            }
+                            EvaluationOutcome outcome = gradeObjectiveAnswer(taskId, unit.get(0), objectiveGrading, callback);
+                            if (outcome.success()) {
+                                successCount.incrementAndGet();
+                            } else {
+                                failureCount.incrementAndGet();
+                            }
+                            persistQueue.put(outcome);
+                            continue;
+                        }
+                        // 背压：评估名额不足时阻塞加载线程，一个打包请求只占用一个名额；任务取消时不再获取
+                        if (!slotTicket.acquire()) {
+                            break;
+                        }
+                        // 名额在取消前已分到：归还名额，不再发出新的评估
+                        if (cancellation.isCancelled()) {
+                            slotTicket.release();
+                            break;
+                        }
+                        inFlight.register();
+                        if (unit.size() > 1) {
+                            try {
+                                CompletableFuture.runAsync(() -> {
+                                    List<EvaluationOutcome> outcomes = evaluateAnswerPack(taskId, unit, packingConfig, evaluationStyle, callback, cancellation);
+                                    slotTicket.release();
+                                    packedCount.addAndGet(unit.size());
+                                    try {
+                                        for (EvaluationOutcome outcome : outcomes) {
+                                            if (outcome.aborted()) {
+                                                abortedCount.incrementAndGet();
+                                            } else if (outcome.success()) {
+                                                successCount.incrementAndGet();
+                                            } else {
+                                                failureCount.incrementAndGet();
+                                            }
+                                            persistQueue.put(outcome);
+                                        }
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    } finally {
+                                        inFlight.arriveAndDeregister();
+                                    }
+                                }, securityContextTaskExecutor);
+                            } catch (RuntimeException e) {
+                                slotTicket.release();
+                                inFlight.arriveAndDeregister();
+                                for (StudentAnswer packed : unit) {
+                                    failureCount.incrementAndGet();
+                                    persistQueue.put(EvaluationOutcome.skipped(packed.getId()));
+                                }
+                                logger.error("提交 {} 份答案的打包评估失败: {}", unit.size(), e.getMessage());
+                            }
+                            continue;
+                        }
+                    
+                        StudentAnswer answer = unit.get(0);
+                        if (asyncEvaluationEnabled && evaluatorConfig != null && answer.getQuestion() != null) {
+                            // 主观题走非阻塞调用：等待AI响应期间不占用线程，在途数量只受评估名额限制
+                            evaluateSingleAnswerAsync(taskId, answer, evaluatorConfig, evaluationStyle, callback, cancellation, 0)
+                                .exceptionally(error -> {
+                                    logger.error("评估答案 " + answer.getId() + " 时发生未知异常", error);
+                                    return false;
+                                })
+                                .whenComplete((success, error) -> {
+                                    // 名额在完成回调线程上立即归还；入队可能阻塞，只把入队交给线程池，
+                                    // 交接成功时由入队任务在结果入队后注销在途评估，否则在这里注销
+                                    boolean handedOff = false;
+                                    try {
+                                        slotTicket.release();
+                                        EvaluationOutcome outcome;
+                                        if (!Boolean.TRUE.equals(success) && cancellation.isCancelled()) {
+                                            outcome = EvaluationOutcome.aborted(answer.getId());
+                                        } else {
+                                            outcome = new EvaluationOutcome(answer, Boolean.TRUE.equals(success));
+                                        }
+                                        try {
+                                            securityContextTaskExecutor.execute(() -> {
+                                                try {
+                                                    if (outcome.aborted()) {
+                                                        abortedCount.incrementAndGet();
+                                                    } else if (outcome.success()) {
+                                                        successCount.incrementAndGet();
+                                                    } else {
+                                                        failureCount.incrementAndGet();
+                                                    }
+                                                    persistQueue.put(outcome);
+                                                } catch (InterruptedException e) {
+                                                    Thread.currentThread().interrupt();
+                                                } finally {
+                                                    inFlight.arriveAndDeregister();
+                                                }
+                                            });
+                                            handedOff = true;
+                                        } catch (RuntimeException e) {
+                                            // 线程池拒绝入队任务：不写回评估结果，答案计为失败，直接在当前线程入队
+                                            logger.error("提交答案 {} 的结果写回失败，按评估失败处理: {}", answer.getId(), e.getMessage());
+                                            failureCount.incrementAndGet();
+                                            persistQueue.put(new EvaluationOutcome(answer, false));
+                                        }
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    } finally {
+                                        if (!handedOff) {
+                                            inFlight.arriveAndDeregister();
+                                        }
+                                    }
+                                });
+                            continue;
+                        }
+                        try {
+                            CompletableFuture.runAsync(() -> {
+                                EvaluationOutcome outcome;
+                                try {
+                                    if (cancellation.isCancelled()) {
+                                        abortedCount.incrementAndGet();
+                                        outcome = EvaluationOutcome.aborted(answer.getId());
+                                    } else {
+                                        Map<String, Object> evaluationResult = evaluateSingleAnswerWithFetchedData(taskId, answer, callback, evaluatorUserId, evaluatorUsername, config, objectiveGrading, cancellation);
+                                        boolean success = "success".equals(evaluationResult.getOrDefault("evaluationStatus", "failed"));
+                                        if (!success && cancellation.isCancelled()) {
+                                            // 在途AI请求随任务取消而中止：不写分数，检查点记为失败
+                                            abortedCount.incrementAndGet();
+                                            outcome = EvaluationOutcome.aborted(answer.getId());
+                                        } else if (success) {
+                                            successCount.incrementAndGet();
+                                            outcome = new EvaluationOutcome(answer, true);
+                                        } else {
+                                            failureCount.incrementAndGet();
+                                            outcome = new EvaluationOutcome(answer, false);
+                                        }
+                                    }
+                                } catch (Exception e) {
+                                    logger.error("评估答案 " + answer.getId() + " 时发生未知异常", e);
+                                    failureCount.incrementAndGet();
+                                    outcome = new EvaluationOutcome(answer, false);
+                                } finally {
+                                    slotTicket.release();
+                                }
+                                try {
+                                    persistQueue.put(outcome);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                } finally {
+                                    inFlight.arriveAndDeregister();
+                                }
+                            }, securityContextTaskExecutor);
+                        } catch (RuntimeException e) {
+                            // 提交失败（例如线程池拒绝），归还许可并计为失败
+                            slotTicket.release();
+                            inFlight.arriveAndDeregister();
                             failureCount.incrementAndGet();
+                            persistQueue.put(EvaluationOutcome.skipped(answer.getId()));
+                            logger.error("提交答案 {} 的评估失败: {}", answer.getId(), e.getMessage());
                         }
-                    } finally {
-                        evaluationSemaphore.release();
                     }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+            logger.warn("任务 {} 的答案加载被中断", taskId);
+            callback.addTaskLog(taskId, "WARN", "答案加载被中断，停止提交新的评估");
+        }
+        
+        // 通过轮询数据库发现的取消同样中止在途的AI请求
+        if (cursor.getHaltedStatus() == TaskStatus.CANCELLED) {
+            cancellation.cancel();
+        }
+        
+        // 等待所有在途评估结束，然后通知持久化阶段收尾
+        inFlight.arriveAndAwaitAdvance();
+        haltOnCancel.unregister();
+        slotTicket.close();
+        evaluationTraceRecorder.releaseTask(taskId);
+        try {
+            persistQueue.put(EvaluationOutcome.POISON);
+            persister.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        if (cursor.getHaltedStatus() != null || interrupted) {
+            // 暂停或取消：保留当前状态，只同步已保存的进度，恢复时从检查点继续
+            callback.updateTaskProgress(taskId, processedCount.get(), totalAnswers, null);
+            String haltMsg = String.format("任务已停止（%s），进度已保存: %d/%d，本次成功: %d，失败: %d",
+                cursor.getHaltedStatus() != null ? cursor.getHaltedStatus() : "INTERRUPTED",
+                processedCount.get(), totalAnswers, successCount.get(), failureCount.get());
+            callback.addTaskLog(taskId, "INFO", haltMsg);
+            logger.info("任务 {} {}", taskId, haltMsg);
+            if (cancellation.isCancelled()) {
+                recordSkippedWork(taskId, totalAnswers - processedCount.get(), abortedCount.get(), callback);
+            }
+            checkAndUpdateExamStatusAfterEvaluation(examIds, taskId);
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        if (leases != null) {
+            checkAndUpdateExamStatusAfterEvaluation(examIds, taskId);
+            String nodeMsg = String.format("节点 %s 已没有可租用的分片，本节点成功: %d，失败: %d",
+                taskChunkLeaseService.getNodeId(), successCount.get(), failureCount.get());
+            callback.addTaskLog(taskId, "INFO", nodeMsg);
+            logger.info("任务 {} {}", taskId, nodeMsg);
+            // 其他节点仍持有分片时由最后完成的节点收尾
+            TaskChunkLeaseService.Summary summary = taskChunkLeaseService.finish(taskId);
+            if (summary != null) {
+                completeLeasedTask(taskId, summary, callback);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        // 部分失败的任务仍记为完成，失败的答案可通过重试从检查点重新评估
+        String finalStatus = failureCount.get() == 0 || successCount.get() > 0 ? "COMPLETED" : "FAILED";
+        callback.updateTaskProgress(taskId, totalAnswers, totalAnswers, finalStatus);
+        String completionMsg = String.format(
+            "批量评估任务完成！总计: %d，成功: %d，失败: %d，其中客观题本地评分: %d，打包评估: %d",
+            totalAnswers, successCount.get(), failureCount.get(), objectiveGrading.getGradedCount(), packedCount.get()
+        );
+        callback.addTaskLog(taskId, "INFO", completionMsg);
+        logger.info("任务 {} 完成: {}", taskId, completionMsg);
+        
+        checkAndUpdateExamStatusAfterEvaluation(examIds, taskId);
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    /**
+     * 记录取消时跳过的工作：中止的在途评估和尚未开始的答案
+     */
+    private void recordSkippedWork(String taskId, int unprocessed, int aborted, TaskProgressCallback callback) {
+        int pending = Math.max(0, unprocessed - aborted);
+        cancelledInFlightCounter.increment(aborted);
+        cancelledPendingCounter.increment(pending);
+        String skippedMsg = String.format("任务取消，已中止 %d 个在途评估，%d 个答案未开始评估", aborted, pending);
+        callback.addTaskLog(taskId, "INFO", skippedMsg);
+        logger.info("任务 {} {}", taskId, skippedMsg);
+    }
+    
+    /**
+     * 下一页答案ID：集群分片模式从租用的分片中取，否则按顺序分页
+     * @return 答案ID；没有更多答案时返回 null
+     */
+    private List<Long> nextPage(List<Long> answerIds, int pageNumber, TaskChunkLeaseService.Session leases) {
+        if (leases != null) {
+            return leases.nextPage();
+        }
+        int from = pageNumber * pageSize;
+        return from < answerIds.size() ? answerIds.subList(from, Math.min(from + pageSize, answerIds.size())) : null;
+    }
+    
+    /**
+     * 任务配置是否要求离线批处理评估（evaluationMode = PROVIDER_BATCH）
+     */
+    private boolean isProviderBatchRequested(Map<String, Object> config) {
+        return config != null && PROVIDER_BATCH_MODE.equals(String.valueOf(config.get("evaluationMode")));
+    }
+    
+    /**
+     * 持久化阶段：收集评估结果并上报进度，直到收到结束标记
+     * 评估结果先进入写回缓冲，按条数或时间间隔批量写入数据库，同时为每个答案记录一行任务结果；
+     * 正常结束、被中断或异常退出时都会把缓冲中剩余的结果写回
+     */
+    private void runPersistenceStage(String taskId, BlockingQueue<EvaluationOutcome> persistQueue, TaskCheckpointService.Cursor cursor,
+                                     TaskChunkLeaseService.Session leases, int totalAnswers, AtomicInteger processedCount, Set<Long> examIds, TaskProgressCallback callback) {
+        EvaluationResultWriter.Buffer writeBuffer = evaluationResultWriter.newBuffer(taskId);
+        TaskResultStore.Buffer resultBuffer = taskResultStore.newBuffer(taskId);
+        long pollIntervalMs = Math.max(100, evaluationResultWriter.getFlushIntervalMs());
+        try {
+            while (true) {
+                EvaluationOutcome outcome;
+                try {
+                    outcome = persistQueue.poll(pollIntervalMs, TimeUnit.MILLISECONDS);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
-                    logger.error("评估任务被中断", e);
-                    failureCount.incrementAndGet();
+                    logger.warn("任务 {} 的持久化阶段被中断", taskId);
+                    return;
+                }
+                if (outcome == null) {
+                    writeBuffer.flushIfDue();
+                    resultBuffer.flushIfDue();
+                    saveCheckpointIfDue(writeBuffer, cursor, leases);
+                    continue;
+                }
+                if (outcome == EvaluationOutcome.POISON) {
+                    return;
+                }
+                if (outcome.aborted()) {
+                    // 中止的答案不写结果行也不推进进度，只在检查点中记为失败
+                    cursor.markProcessed(outcome.answerId(), false);
+                    saveCheckpointIfDue(writeBuffer, cursor, leases);
+                    continue;
+                }
+                
+                StudentAnswer answer = outcome.answer();
+                if (answer != null) {
+                    if (outcome.success()) {
+                        writeBuffer.add(answer);
+                    }
+                    if (answer.getQuestion() != null && answer.getQuestion().getExam() != null) {
+                        examIds.add(answer.getQuestion().getExam().getId());
+                    }
+                    resultBuffer.add(answer, outcome.success());
+                } else if (outcome.answerId() != null) {
+                    resultBuffer.addSkipped(outcome.answerId());
+                }
+                if (outcome.answerId() != null) {
+                    cursor.markProcessed(outcome.answerId(), outcome.success());
+                }
+                saveCheckpointIfDue(writeBuffer, cursor, leases);
+                
+                int currentProcessed;
+                if (leases != null) {
+                    leases.markProcessed(outcome.answerId(), outcome.success());
+                    if (leases.hasReadyChunks()) {
+                        // 与检查点相同，分片完成前先写回评估结果
+                        flushResults(writeBuffer, cursor, leases);
+                        try {
+                            leases.completeReady();
+                        } catch (Exception e) {
+                            logger.warn("任务 {} 完成分片失败，稍后重试: {}", taskId, e.getMessage());
+                        }
+                    }
+                    currentProcessed = processedCount.accumulateAndGet(leases.getProcessedCount(), Math::max);
+                } else {
+                    currentProcessed = processedCount.incrementAndGet();
+                }
+                // 状态传 null，避免覆盖执行期间被改为暂停或取消的任务状态
+                callback.updateTaskProgress(taskId, currentProcessed, totalAnswers, null);
+            }
+        } finally {
+            flushResults(writeBuffer, cursor, leases);
+            resultBuffer.flush();
+            cursor.save();
+            if (leases != null) {
+                try {
+                    leases.close();
                 } catch (Exception e) {
-                    logger.error("评估答案 " + answer.getId() + " 时发生未知异常", e);
-                    failureCount.incrementAndGet();
-                } finally {
-                    int currentProcessed = processedCount.incrementAndGet();
-                    callback.updateTaskProgress(taskId, currentProcessed, totalAnswers, "RUNNING");
+                    logger.warn("归还任务 {} 的分片失败，租约过期后由其他节点收回: {}", taskId, e.getMessage());
                 }
-            }, securityContextTaskExecutor);
-            evaluationFutures.add(future);
+            }
+            if (writeBuffer.getFailedCount() > 0) {
+                callback.addTaskLog(taskId, "ERROR", "有 " + writeBuffer.getFailedCount() + " 个答案的评估结果保存失败");
+            }
+            logger.info("任务 {} 共批量写回 {} 个答案的评估结果", taskId, writeBuffer.getWrittenCount());
+        }
+    }
+    
+    /**
+     * 把一页答案划分为评估单元：可本地评分的客观题和无法打包时每份答案单独一个单元，
+     * 其余答案按题目打包，每个单元对应一次AI请求
+     */
+    private List<List<StudentAnswer>> planEvaluationUnits(List<StudentAnswer> answers, UserAIConfig packingConfig,
+                                                          String evaluationStyle, ObjectiveGradingEngine.Session objectiveGrading) {
+        List<List<StudentAnswer>> units = new ArrayList<>();
+        List<StudentAnswer> packable = new ArrayList<>();
+        for (StudentAnswer answer : answers) {
+            if (packingConfig == null || answer.getQuestion() == null || objectiveGrading.supports(answer)) {
+                units.add(List.of(answer));
+            } else {
+                packable.add(answer);
+            }
+        }
+        if (!packable.isEmpty()) {
+            try {
+                units.addAll(aiEvaluationService.planAnswerPacks(packable, packingConfig, evaluationStyle));
+            } catch (Exception e) {
+                logger.warn("答案打包规划失败，改为逐份评估: {}", e.getMessage());
+                packable.forEach(answer -> units.add(List.of(answer)));
+            }
         }
+        return units;
+    }
+    
+    /**
+     * 打包评估同一题目的多份答案，每份答案返回一个评估结果
+     */
+    private List<EvaluationOutcome> evaluateAnswerPack(String taskId, List<StudentAnswer> answers, UserAIConfig packingConfig,
+                                                       String evaluationStyle, TaskProgressCallback callback,
+                                                       CancellationToken cancellation) {
+        List<EvaluationOutcome> outcomes = new ArrayList<>(answers.size());
+        try {
+            List<AIEvaluationService.EvaluationResult> results =
+                aiEvaluationService.evaluateAnswerPack(answers, packingConfig, evaluationStyle, cancellation);
+            for (int i = 0; i < answers.size(); i++) {
+                StudentAnswer answer = answers.get(i);
+                AIEvaluationService.EvaluationResult result = results.get(i);
+                // 取消优先于成功判断：被中止的答案不写分数，由持久化阶段记为失败以便恢复时重新评估
+                if (result != null && result.getErrorType() == AIErrorType.CANCELLED) {
+                    outcomes.add(EvaluationOutcome.aborted(answer.getId()));
+                } else if (isFinalResult(result)) {
+                    applyEvaluationResult(answer, result);
+                    outcomes.add(new EvaluationOutcome(answer, true));
+                } else {
+                    String reason = result != null ? result.getFeedback() : "无评估结果";
+                    callback.addTaskLog(taskId, "ERROR", "答案 " + answer.getId() + " AI评估失败: " + reason);
+                    outcomes.add(new EvaluationOutcome(answer, false));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("打包评估 {} 份答案时发生异常", answers.size(), e);
+            callback.addTaskLog(taskId, "ERROR", "打包评估 " + answers.size() + " 份答案失败: " + e.getMessage());
+            outcomes.clear();
+            answers.forEach(answer -> outcomes.add(cancellation.isCancelled()
+                ? EvaluationOutcome.aborted(answer.getId()) : new EvaluationOutcome(answer, false)));
+        }
+        return outcomes;
+    }
+    
+    /**
+     * 按标准答案在本地为客观题评分
+     */
+    private EvaluationOutcome gradeObjectiveAnswer(String taskId, StudentAnswer answer,
+                                                   ObjectiveGradingEngine.Session objectiveGrading, TaskProgressCallback callback) {
+        try {
+            Optional<AIEvaluationService.EvaluationResult> result = objectiveGrading.grade(answer);
+            if (result.isPresent() && isFinalResult(result.get())) {
+                applyEvaluationResult(answer, result.get());
+                return new EvaluationOutcome(answer, true);
+            }
+            callback.addTaskLog(taskId, "ERROR", "答案 " + answer.getId() + " 规则评分失败");
+        } catch (Exception e) {
+            logger.error("规则评分答案 {} 时发生异常", answer.getId(), e);
+            callback.addTaskLog(taskId, "ERROR", "答案 " + answer.getId() + " 规则评分异常: " + e.getMessage());
+        }
+        return new EvaluationOutcome(answer, false);
+    }
+    
+    /**
+     * 把评估结果写回答案对象，保存交给持久化阶段统一处理
+     */
+    private void applyEvaluationResult(StudentAnswer answer, AIEvaluationService.EvaluationResult result) {
+        answer.setScore(result.getScore());
+        answer.setFeedback(result.getFeedback());
+        answer.setEvaluated(true);
+        answer.setEvaluatedAt(LocalDateTime.now());
+        // 规则评分记为规则自动评分，与AI评分和教师手动评分区分
+        answer.setEvaluationType(result.isRuleGraded() ? EvaluationType.RULE_AUTO : EvaluationType.AI_AUTO);
+    }
+    
+    /**
+     * 结果能否作为答案的最终评分：必须成功，且分数来自AI或规则评分；基础评估的占位分数按失败处理
+     */
+    private static boolean isFinalResult(AIEvaluationService.EvaluationResult result) {
+        return result != null && result.isSuccess() && !result.isFallback();
+    }
+    
+    /**
+     * 保存检查点前先写回缓冲中的评估结果，保证检查点不会超前于数据库中的答案
+     */
+    private void saveCheckpointIfDue(EvaluationResultWriter.Buffer writeBuffer, TaskCheckpointService.Cursor cursor,
+                                     TaskChunkLeaseService.Session leases) {
+        if (cursor.isSaveDue()) {
+            flushResults(writeBuffer, cursor, leases);
+            cursor.save();
+        }
+    }
+    
+    /**
+     * 写回缓冲中的评估结果，写回失败或没有匹配到答案的答案在检查点和分片中改记为失败，恢复时重新评估
+     */
+    private void flushResults(EvaluationResultWriter.Buffer writeBuffer, TaskCheckpointService.Cursor cursor,
+                              TaskChunkLeaseService.Session leases) {
+        for (Long answerId : writeBuffer.flush()) {
+            cursor.markProcessed(answerId, false);
+            if (leases != null) {
+                leases.markFailed(answerId);
+            }
+        }
+    }
+    
+    /**
+     * 评估阶段交给持久化阶段的结果
+     */
+    private record EvaluationOutcome(Long answerId, StudentAnswer answer, boolean success, boolean aborted) {
         
-        return CompletableFuture.allOf(evaluationFutures.toArray(new CompletableFuture[0]))
-            .whenComplete((res, err) -> {
-                String finalStatus = failureCount.get() == 0 ? "COMPLETED" : (successCount.get() > 0 ? "COMPLETED_WITH_ERRORS" : "FAILED");
-                callback.updateTaskProgress(taskId, totalAnswers, totalAnswers, finalStatus);
-                String completionMsg = String.format(
-                    "批量评估任务完成！总计: %d，成功: %d，失败: %d",
-                    totalAnswers, successCount.get(), failureCount.get()
-                );
-                callback.addTaskLog(taskId, "INFO", completionMsg);
-                logger.info("任务 {} 完成: {}", taskId, completionMsg);
-                
-                checkAndUpdateExamStatusAfterEvaluation(answerIds, taskId);
-            });
+        static final EvaluationOutcome POISON = new EvaluationOutcome(null, null, false, false);
+        
+        EvaluationOutcome(StudentAnswer answer, boolean success) {
+            this(answer.getId(), answer, success, false);
+        }
+        
+        /**
+         * 未能评估（加载失败、答案已删除或提交失败）的答案
+         */
+        static EvaluationOutcome skipped(Long answerId) {
+            return new EvaluationOutcome(answerId, null, false, false);
+        }
+        
+        /**
+         * 因任务取消而中止的评估：答案保持未评估，检查点记为失败，恢复时重新评估
+         */
+        static EvaluationOutcome aborted(Long answerId) {
+            return new EvaluationOutcome(answerId, null, false, true);
+        }
+    }
+    
+    /**
+     * 非阻塞评估单个主观题答案，返回是否评估成功
+     * 传输层错误已在AI客户端内退避重试，这里只对解析失败等答案级错误按退避间隔重新评估，
+     * 等待期间同样不占用线程
+     */
+    private CompletableFuture<Boolean> evaluateSingleAnswerAsync(String taskId, StudentAnswer answer, UserAIConfig evaluatorConfig,
+                                                                 String evaluationStyle, TaskProgressCallback callback,
+                                                                 CancellationToken cancellation, int attempt) {
+        return aiEvaluationService.evaluateAnswerAsync(answer, evaluatorConfig, evaluationStyle, cancellation).thenCompose(result -> {
+            // 任务已取消：不写分数、不重试也不记失败日志，由调用方计为中止
+            if (result.getErrorType() == AIErrorType.CANCELLED || cancellation.isCancelled()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            if (isFinalResult(result)) {
+                applyEvaluationResult(answer, result);
+                if (attempt > 0) {
+                    callback.addTaskLog(taskId, "INFO",
+                        String.format("答案 %d 在第 %d 次尝试后评估成功", answer.getId(), attempt + 1));
+                }
+                return CompletableFuture.completedFuture(true);
+            }
+            
+            AIErrorType errorType = result.getErrorType() != null ? result.getErrorType() : AIErrorType.UNKNOWN;
+            String errorMsg = "答案 " + answer.getId() + " AI评估失败: " + result.getFeedback();
+            if (attempt + 1 >= MAX_ANSWER_ATTEMPTS || !aiResilienceService.isAnswerRetryable(errorType)) {
+                logger.warn(errorMsg);
+                callback.addTaskLog(taskId, "ERROR", errorMsg + " (共尝试 " + (attempt + 1) + " 次，错误类型: " + errorType + ")");
+                return CompletableFuture.completedFuture(false);
+            }
+            
+            long delayMs = aiResilienceService.backoffMillis(errorType, attempt + 1);
+            logger.debug("{}，{}ms 后进行第 {} 次尝试", errorMsg, delayMs, attempt + 2);
+            return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS))
+                .thenCompose(ignored -> evaluateSingleAnswerAsync(taskId, answer, evaluatorConfig, evaluationStyle, callback,
+                    cancellation, attempt + 1));
+        });
     }
     
     /**
      * 评估单个答案（使用预加载的答案数据，避免LazyInitializationException）
-     * 返回详细的评估结果信息
+     * 返回详细的评估结果信息（答案的保存由持久化阶段批量完成，这里不开启事务）
      */
-    @Transactional
-    private Map<String, Object> evaluateSingleAnswerWithFetchedData(String taskId, StudentAnswer answer, TaskProgressCallback callback, Long evaluatorUserId, String evaluatorUsername, Map<String, Object> config) {
+    private Map<String, Object> evaluateSingleAnswerWithFetchedData(String taskId, StudentAnswer answer, TaskProgressCallback callback, Long evaluatorUserId, String evaluatorUsername, Map<String, Object> config, ObjectiveGradingEngine.Session objectiveGrading, CancellationToken cancellation) {
         int maxRetries = 3;
         int retryCount = 0;
+        // 上一次失败的错误类型，决定是否重试以及退避间隔
+        AIErrorType lastErrorType = null;
         
         while (retryCount < maxRetries) {
             try {
@@ -468,16 +1143,17 @@ public class BatchEvaluationExecutorService {
                 logger.debug("- evaluationStyle: {}", evaluationStyle);
                 
                 AIEvaluationService.EvaluationResult result;
-                if (evaluatorUsername != null) {
+                // 客观题优先由本地规则引擎评分，只有主观题才调用AI
+                Optional<AIEvaluationService.EvaluationResult> objectiveResult = objectiveGrading.grade(answer);
+                if (objectiveResult.isPresent()) {
+                    result = objectiveResult.get();
+                } else if (evaluatorUsername != null) {
+                    // 批量任务不回退到基础评估：失败时返回带错误分类的结果，由下面按错误类型决定是否重试
                     logger.debug("🔄 使用用户名 {} 进行AI评估，评分模式: {}", evaluatorUsername, evaluationStyle);
-                    result = aiEvaluationService.evaluateAnswer(answer, evaluatorUsername, evaluationStyle);
-                } else if (evaluatorUserId != null) {
-                    logger.debug("🔄 使用用户ID {} 进行AI评估，评分模式: {}", evaluatorUserId, evaluationStyle);
-                    result = aiEvaluationService.evaluateAnswer(answer, evaluatorUserId, evaluationStyle);
+                    result = aiEvaluationService.evaluateAnswer(answer, evaluatorUsername, evaluationStyle, cancellation);
                 } else {
-                    logger.debug("🔄 无用户信息，使用默认AI评估方法");
-                    // 如果无法获取用户信息，使用原方法（会自动回退到基础评估）
-                    result = aiEvaluationService.evaluateAnswer(answer);
+                    logger.debug("🔄 使用用户ID {} 进行AI评估，评分模式: {}", evaluatorUserId, evaluationStyle);
+                    result = aiEvaluationService.evaluateAnswer(answer, evaluatorUserId, evaluationStyle, cancellation);
                 }
                 
                 logger.debug("=== AI评估结果 ===");
@@ -485,16 +1161,11 @@ public class BatchEvaluationExecutorService {
                 logger.debug("- 得分: {}", result.getScore());
                 logger.debug("- 反馈: {}", result.getFeedback());
                 
-                if (result.isSuccess()) {
+                if (isFinalResult(result)) {
                     // 更新答案评估结果
-                    answer.setScore(result.getScore());
-                    answer.setFeedback(result.getFeedback());
-                    answer.setEvaluated(true);
-                    answer.setEvaluatedAt(LocalDateTime.now());
-                    answer.setEvaluationType(EvaluationType.AI_AUTO);
+                    applyEvaluationResult(answer, result);
                     
-                    // 保存更新的答案
-                    studentAnswerService.updateAnswer(answer.getId(), answer);
+                    // 答案的保存交给持久化阶段统一处理
                     
                     logger.debug("答案 {} 评估成功，得分: {}", answer.getId(), result.getScore());
                     
@@ -517,18 +1188,28 @@ public class BatchEvaluationExecutorService {
                     detailResult.put("feedback", result.getFeedback());
                     detailResult.put("evaluationStatus", "success");
                     detailResult.put("evaluatedAt", answer.getEvaluatedAt().toString());
-                    detailResult.put("evaluationType", "AI_AUTO");
+                    detailResult.put("evaluationType", answer.getEvaluationType().name());
                     detailResult.put("retryCount", retryCount);
                     detailResult.put("evaluationStyle", evaluationStyle);
+                    detailResult.put("gradingMode", objectiveResult.isPresent() ? "RULE" : "AI");
                     
                     return detailResult;
                     
+                } else if (result.getErrorType() == AIErrorType.CANCELLED || cancellation.isCancelled()) {
+                    // 任务已取消：不重试也不记失败日志，由调用方计为中止
+                    Map<String, Object> cancelledResult = new HashMap<>();
+                    cancelledResult.put("id", answer.getId());
+                    cancelledResult.put("evaluationStatus", "cancelled");
+                    cancelledResult.put("errorMessage", result.getFeedback());
+                    return cancelledResult;
                 } else {
                     String errorMsg = "答案 " + answer.getId() + " AI评估失败: " + result.getFeedback();
                     logger.warn(errorMsg);
+                    lastErrorType = result.getErrorType() != null ? result.getErrorType() : AIErrorType.UNKNOWN;
                     
-                    if (retryCount == maxRetries - 1) {
-                        callback.addTaskLog(taskId, "ERROR", errorMsg + " (已重试 " + maxRetries + " 次)");
+                    // 传输层错误已在AI客户端内退避重试，这里只重试解析失败等答案级错误
+                    if (retryCount == maxRetries - 1 || !aiResilienceService.isAnswerRetryable(lastErrorType)) {
+                        callback.addTaskLog(taskId, "ERROR", errorMsg + " (共尝试 " + (retryCount + 1) + " 次，错误类型: " + lastErrorType + ")");
                         
                         // 返回失败的详细结果
                         Map<String, Object> failedResult = new HashMap<>();
@@ -555,11 +1236,12 @@ public class BatchEvaluationExecutorService {
             } catch (Exception e) {
                 logger.warn("评估答案 {} 时发生异常 (尝试 {}/{}): {}", 
                            answer.getId(), retryCount + 1, maxRetries, e.getMessage());
+                lastErrorType = AIErrorType.fromException(e);
                 
-                if (retryCount == maxRetries - 1) {
+                if (retryCount == maxRetries - 1 || !aiResilienceService.isAnswerRetryable(lastErrorType)) {
                     logger.error("答案 {} 评估最终失败: {}", answer.getId(), e.getMessage(), e);
                     callback.addTaskLog(taskId, "ERROR", 
-                        String.format("评估答案 %d 异常 (已重试 %d 次): %s", answer.getId(), maxRetries, e.getMessage()));
+                        String.format("评估答案 %d 异常 (共尝试 %d 次): %s", answer.getId(), retryCount + 1, e.getMessage()));
                     
                     // 返回异常的详细结果
                     Map<String, Object> errorResult = new HashMap<>();
@@ -587,7 +1269,8 @@ public class BatchEvaluationExecutorService {
             // 如果不是最后一次尝试，等待一段时间再重试
             if (retryCount < maxRetries) {
                 try {
-                    Thread.sleep(1000 * retryCount); // 递增等待时间：1秒、2秒、3秒
+                    // 按错误类型指数退避并加随机抖动
+                    Thread.sleep(aiResilienceService.backoffMillis(lastErrorType, retryCount));
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
                     callback.addTaskLog(taskId, "ERROR", "评估答案 " + answer.getId() + " 被中断");
@@ -637,23 +1320,8 @@ public class BatchEvaluationExecutorService {
     /**
      * 批阅任务完成后检查并更新相关考试的状态
      */
-    private void checkAndUpdateExamStatusAfterEvaluation(List<Long> answerIds, String taskId) {
+    private void checkAndUpdateExamStatusAfterEvaluation(Set<Long> examIds, String taskId) {
         try {
-            // 获取所有涉及的考试ID
-            Set<Long> examIds = new java.util.HashSet<>();
-            
-            // 批量获取答案信息以减少数据库查询
-            for (Long answerId : answerIds) {
-                try {
-                    StudentAnswer answer = studentAnswerService.getAnswerById(answerId);
-                    if (answer != null && answer.getQuestion() != null && answer.getQuestion().getExam() != null) {
-                        examIds.add(answer.getQuestion().getExam().getId());
-                    }
-                } catch (Exception e) {
-                    logger.warn("获取答案 {} 的考试信息失败: {}", answerId, e.getMessage());
-                }
-            }
-            
             if (!examIds.isEmpty()) {
                 logger.info("任务 {} 完成，检查 {} 个考试的状态", taskId, examIds.size());
                 
@@ -0,0 +1,292 @@
+package com.teachhelper.service.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.entity.Task.TaskPriority;
+
+/**
+ * 评估并发名额调度器
+ * 所有批量评估任务共享同一组AI评估名额。名额紧张时按用户加权公平排队（start-time fair queuing）：
+ * 每个用户维护虚拟时间，每获得一个名额前进 1/权重，权重由任务优先级决定；虚拟时间最小的用户优先获得名额。
+ * 因此一个用户的大批量任务不会让其他用户的小任务长时间等待；等待超过上限的请求直接优先，防止饥饿
+ */
+@Service
+public class EvaluationSlotScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(EvaluationSlotScheduler.class);
+
+    private final int capacity;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Request> waiting = new ArrayList<>();
+    private final Map<Long, Double> userFinishTime = new HashMap<>();
+    private final Map<Long, Integer> userTickets = new HashMap<>();
+    private int available;
+    private double virtualTime;
+    private long sequence;
+    private long starvationGrants;
+
+    public EvaluationSlotScheduler(
+            @Value("${app.evaluation.max-concurrent-tasks:10}") int maxConcurrentTasks,
+            @Value("${app.task.scheduler.max-slot-wait-ms:30000}") long maxSlotWaitMs) {
+        // 限制并发数在1到200之间，防止过高导致系统不稳定
+        this.capacity = Math.max(1, Math.min(maxConcurrentTasks, 200));
+        this.available = capacity;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, maxSlotWaitMs));
+        logger.info("评估名额调度器初始化，名额: {}", capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 为任务登记一个名额票据，任务结束后必须调用 {@link Ticket#close()}
+     */
+    public Ticket register(String taskId, Long userId, String priority) {
+        Long user = userId != null ? userId : 0L;
+        lock.lock();
+        try {
+            userTickets.merge(user, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+        return new Ticket(taskId, user, weightOf(priority));
+    }
+
+    /**
+     * 当前名额使用情况
+     */
+    public Map<String, Object> getSnapshot() {
+        lock.lock();
+        try {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("capacity", capacity);
+            snapshot.put("inUse", capacity - available);
+            snapshot.put("waiting", waiting.size());
+            snapshot.put("virtualTime", virtualTime);
+            snapshot.put("userFinishTime", new HashMap<>(userFinishTime));
+            snapshot.put("starvationGrants", starvationGrants);
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean acquire(Ticket ticket) throws InterruptedException {
+        lock.lock();
+        try {
+            if (ticket.cancelled) {
+                return false;
+            }
+            if (available > 0 && waiting.isEmpty()) {
+                grant(ticket);
+                return true;
+            }
+            Request request = new Request(ticket, lock.newCondition(), System.nanoTime(), sequence++);
+            waiting.add(request);
+            try {
+                while (!request.granted && !ticket.cancelled) {
+                    request.condition.await();
+                }
+                if (!request.granted) {
+                    waiting.remove(request);
+                    return false;
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (request.granted) {
+                    // 已分配名额但线程被中断，归还名额
+                    available++;
+                    dispatch();
+                } else {
+                    waiting.remove(request);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            available = Math.min(capacity, available + 1);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取消票据：把该任务正在等待的请求移出队列并唤醒，之后归还的名额不会再分给它，后续获取直接失败
+     */
+    private void cancel(Ticket ticket) {
+        lock.lock();
+        try {
+            ticket.cancelled = true;
+            waiting.removeIf(request -> {
+                if (request.ticket != ticket) {
+                    return false;
+                }
+                request.condition.signal();
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(Ticket ticket) {
+        lock.lock();
+        try {
+            Integer remaining = userTickets.computeIfPresent(ticket.userId, (k, v) -> v > 1 ? v - 1 : null);
+            if (remaining == null) {
+                userFinishTime.remove(ticket.userId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在持有锁的情况下把空闲名额分配给等待的请求
+     */
+    private void dispatch() {
+        while (available > 0 && !waiting.isEmpty()) {
+            Request next = selectNext();
+            waiting.remove(next);
+            grant(next.ticket);
+            next.granted = true;
+            next.condition.signal();
+        }
+    }
+
+    private Request selectNext() {
+        long now = System.nanoTime();
+        Request oldest = null;
+        Request best = null;
+        double bestStart = Double.MAX_VALUE;
+        for (Request request : waiting) {
+            if (oldest == null || request.sequence < oldest.sequence) {
+                oldest = request;
+            }
+            double start = startTime(request.ticket.userId);
+            if (best == null || start < bestStart || (start == bestStart && request.sequence < best.sequence)) {
+                best = request;
+                bestStart = start;
+            }
+        }
+        if (oldest != null && now - oldest.enqueuedNanos > maxWaitNanos && oldest != best) {
+            starvationGrants++;
+            return oldest;
+        }
+        return best;
+    }
+
+    private double startTime(Long userId) {
+        return Math.max(virtualTime, userFinishTime.getOrDefault(userId, 0.0));
+    }
+
+    private void grant(Ticket ticket) {
+        available--;
+        double start = startTime(ticket.userId);
+        virtualTime = start;
+        userFinishTime.put(ticket.userId, start + 1.0 / ticket.weight);
+    }
+
+    private static double weightOf(String priority) {
+        TaskPriority taskPriority;
+        try {
+            taskPriority = priority != null ? TaskPriority.valueOf(priority.toUpperCase()) : TaskPriority.MEDIUM;
+        } catch (IllegalArgumentException e) {
+            taskPriority = TaskPriority.MEDIUM;
+        }
+        // LOW=1, MEDIUM=2, HIGH=4, URGENT=8
+        return 1 << taskPriority.ordinal();
+    }
+
+    /**
+     * 任务的名额票据，加载线程每提交一个评估单元前获取一个名额，评估完成后释放
+     */
+    public final class Ticket implements AutoCloseable {
+        private final String taskId;
+        private final Long userId;
+        private final double weight;
+        private boolean closed;
+        /** 由调度器的锁保护 */
+        private boolean cancelled;
+
+        private Ticket(String taskId, Long userId, double weight) {
+            this.taskId = taskId;
+            this.userId = userId;
+            this.weight = weight;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        /**
+         * 获取一个名额，名额不足时阻塞
+         * @return 是否获得名额，票据已取消时返回false
+         */
+        public boolean acquire() throws InterruptedException {
+            return EvaluationSlotScheduler.this.acquire(this);
+        }
+
+        /**
+         * 任务取消时调用，等待中的加载线程立即返回，不再占用名额
+         */
+        public void cancel() {
+            EvaluationSlotScheduler.this.cancel(this);
+        }
+
+        /**
+         * 释放一个名额
+         */
+        public void release() {
+            EvaluationSlotScheduler.this.release();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                EvaluationSlotScheduler.this.close(this);
+            }
+        }
+    }
+
+    /**
+     * 等待名额的请求
+     */
+    private static final class Request {
+        private final Ticket ticket;
+        private final Condition condition;
+        private final long enqueuedNanos;
+        private final long sequence;
+        private boolean granted;
+
+        Request(Ticket ticket, Condition condition, long enqueuedNanos, long sequence) {
+            this.ticket = ticket;
+            this.condition = condition;
+            this.enqueuedNanos = enqueuedNanos;
+            this.sequence = sequence;
+        }
+    }
+}
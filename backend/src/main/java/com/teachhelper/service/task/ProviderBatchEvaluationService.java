@@ -0,0 +1,407 @@
+package com.teachhelper.service.task;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.ai.AIEvaluationService;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.ai.AIBatchClient;
+import com.teachhelper.service.ai.AIClientFactory;
+import com.teachhelper.service.ai.AIHttpTransport;
+import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.evaluation.ObjectiveGradingEngine;
+import com.teachhelper.service.student.StudentAnswerService;
+
+/**
+ * 离线批处理评估
+ * 把批量评估任务中需要AI评分的答案写成JSONL批处理作业一次提交给提供商，轮询到作业结束后
+ * 逐行读取结果文件写回答案。适合对时效要求不高的整场考试评分（如夜间批改），费用约为实时调用的一半。
+ * 作业ID保存在任务检查点中：暂停或服务重启后恢复执行时继续轮询同一个作业，不会重复提交
+ */
+@Service
+public class ProviderBatchEvaluationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderBatchEvaluationService.class);
+
+    /** 批处理请求标识前缀，结果按标识对应回答案 */
+    private static final String CUSTOM_ID_PREFIX = "answer-";
+
+    /** 连续查询作业状态失败的上限，超过后放弃本次轮询 */
+    private static final int MAX_POLL_FAILURES = 10;
+
+    /** 轮询等待期间检查任务状态的间隔 */
+    private static final long HALT_CHECK_INTERVAL_MS = 1000;
+
+    @Autowired
+    private AIClientFactory aiClientFactory;
+
+    @Autowired
+    private AIEvaluationService aiEvaluationService;
+
+    @Autowired
+    private StudentAnswerService studentAnswerService;
+
+    @Value("${app.evaluation.provider-batch.poll-interval-ms:60000}")
+    private long pollIntervalMs;
+
+    /**
+     * 评估结果的接收方，由调用方负责写回和记录进度
+     */
+    public interface OutcomeSink {
+        /**
+         * 答案得到了评估结果（可能是回退的基础评估）
+         */
+        void evaluated(StudentAnswer answer, AIEvaluationService.EvaluationResult result) throws InterruptedException;
+
+        /**
+         * 答案未能评估，下次恢复或重试时重新评估
+         */
+        void skipped(Long answerId) throws InterruptedException;
+    }
+
+    /**
+     * 该AI配置的提供商是否支持离线批处理
+     */
+    public boolean supports(UserAIConfig config) {
+        return config != null && config.getProvider() != null
+            && aiClientFactory.getBatchClient(config.getProvider()).isPresent();
+    }
+
+    /**
+     * 以离线批处理方式评估答案，阻塞到作业结束且结果全部交给接收方，或任务被暂停/取消为止。
+     * 客观题和命中结果缓存的答案在本地直接得出结果，不写入批处理作业
+     * @param answerIds 本次需要处理的答案ID
+     */
+    public void evaluate(String taskId, TaskCheckpointService.Cursor cursor, List<Long> answerIds, UserAIConfig config,
+                         String evaluationStyle, ObjectiveGradingEngine.Session objectiveGrading, int pageSize,
+                         TaskProgressCallback callback, OutcomeSink sink) throws InterruptedException {
+        AIBatchClient client = aiClientFactory.getBatchClient(config.getProvider())
+            .orElseThrow(() -> new IllegalArgumentException("AI提供商 " + config.getProvider() + " 不支持离线批处理"));
+
+        // 作业中尚未取回结果的答案
+        Set<Long> pending = new LinkedHashSet<>();
+        String jobId = cursor.getProviderBatchId();
+        if (jobId == null) {
+            jobId = submit(taskId, cursor, client, answerIds, config, evaluationStyle, objectiveGrading, pageSize,
+                callback, sink, pending);
+            if (jobId == null) {
+                return;
+            }
+        } else {
+            // 恢复执行：剩余答案都在之前提交的作业中，已处理答案的结果在读取时忽略
+            pending.addAll(answerIds);
+            logger.info("任务 {} 继续轮询批处理作业 {}（{} 个答案）", taskId, jobId, pending.size());
+            callback.addTaskLog(taskId, "INFO", "继续轮询之前提交的批处理作业 " + jobId + "，待取回 " + pending.size() + " 个答案");
+        }
+
+        AIBatchClient.BatchJob job;
+        try {
+            job = awaitCompletion(taskId, cursor, client, jobId, config, callback);
+        } catch (IllegalStateException e) {
+            // 作业ID保留在检查点中，重试任务时继续轮询同一个作业
+            logger.error("任务 {} 轮询批处理作业 {} 失败: {}", taskId, jobId, e.getMessage());
+            callback.addTaskLog(taskId, "ERROR", "轮询批处理作业失败: " + e.getMessage() + "，重试任务时将继续轮询该作业");
+            skipAll(pending, sink);
+            return;
+        }
+        if (job == null) {
+            return;
+        }
+
+        if (job.resultLocation() == null) {
+            logger.warn("任务 {} 的批处理作业 {} 结束但没有结果文件，状态: {}", taskId, job.id(), job.status());
+            callback.addTaskLog(taskId, "ERROR", "批处理作业结束但没有结果，状态: " + job.status()
+                + "，" + pending.size() + " 个答案将在重试时重新评估");
+            cursor.clearProviderBatch();
+            skipAll(pending, sink);
+            return;
+        }
+
+        if (readResults(taskId, cursor, client, job, config, evaluationStyle, pageSize, callback, sink, pending)) {
+            if (!pending.isEmpty()) {
+                callback.addTaskLog(taskId, "WARN", "批处理结果中缺少 " + pending.size() + " 个答案，将在重试时重新评估");
+            }
+            skipAll(pending, sink);
+            cursor.clearProviderBatch();
+        }
+    }
+
+    /**
+     * 写入并提交批处理作业，返回作业ID；没有需要AI评估的答案或任务已停止时返回null
+     */
+    private String submit(String taskId, TaskCheckpointService.Cursor cursor, AIBatchClient client, List<Long> answerIds,
+                          UserAIConfig config, String evaluationStyle, ObjectiveGradingEngine.Session objectiveGrading,
+                          int pageSize, TaskProgressCallback callback, OutcomeSink sink, Set<Long> pending)
+            throws InterruptedException {
+        Path requestsFile = null;
+        try {
+            requestsFile = Files.createTempFile("provider-batch-" + taskId + "-", ".jsonl");
+            int localCount = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(requestsFile, StandardCharsets.UTF_8)) {
+                for (int from = 0; from < answerIds.size(); from += pageSize) {
+                    if (cursor.isHalted()) {
+                        // 作业尚未提交，未写入的答案恢复时重新处理
+                        return null;
+                    }
+                    List<Long> pageIds = answerIds.subList(from, Math.min(from + pageSize, answerIds.size()));
+                    List<StudentAnswer> answers = loadAnswers(taskId, pageIds, callback, sink);
+                    for (StudentAnswer answer : answers) {
+                        Optional<AIEvaluationService.EvaluationResult> local = objectiveGrading.grade(answer);
+                        if (local.isEmpty() && answer.getQuestion() != null) {
+                            local = aiEvaluationService.findCachedEvaluation(answer, config, evaluationStyle);
+                        }
+                        if (local.isPresent() || answer.getQuestion() == null) {
+                            localCount++;
+                            if (local.isPresent()) {
+                                sink.evaluated(answer, local.get());
+                            } else {
+                                sink.skipped(answer.getId());
+                            }
+                            continue;
+                        }
+                        String prompt = aiEvaluationService.buildBatchEvaluationPrompt(answer, evaluationStyle, config);
+                        writer.write(client.toBatchLine(CUSTOM_ID_PREFIX + answer.getId(), prompt, config));
+                        writer.newLine();
+                        pending.add(answer.getId());
+                    }
+                }
+            }
+
+            if (pending.isEmpty()) {
+                callback.addTaskLog(taskId, "INFO", "全部 " + localCount + " 个答案已在本地评分或命中缓存，无需提交批处理作业");
+                return null;
+            }
+
+            AIBatchClient.BatchJob job = await(client.submitBatch(requestsFile, config));
+            cursor.recordProviderBatch(job.id());
+            logger.info("任务 {} 已提交批处理作业 {}：{} 个答案，本地评分 {} 个", taskId, job.id(), pending.size(), localCount);
+            callback.addTaskLog(taskId, "INFO", String.format("已提交批处理作业 %s：%d 个答案待AI评估，%d 个答案已在本地评分或命中缓存",
+                job.id(), pending.size(), localCount));
+            return job.id();
+        } catch (IOException | IllegalStateException e) {
+            logger.error("任务 {} 提交批处理作业失败: {}", taskId, e.getMessage(), e);
+            callback.addTaskLog(taskId, "ERROR", "提交批处理作业失败: " + e.getMessage());
+            skipAll(pending, sink);
+            return null;
+        } finally {
+            deleteQuietly(requestsFile);
+        }
+    }
+
+    /**
+     * 按间隔轮询作业直到结束，返回结束时的作业；任务被暂停或取消时返回null。
+     * 暂停时作业继续在提供商处运行，恢复后接着轮询；取消时同时取消提供商处的作业
+     */
+    private AIBatchClient.BatchJob awaitCompletion(String taskId, TaskCheckpointService.Cursor cursor, AIBatchClient client,
+                                                   String jobId, UserAIConfig config, TaskProgressCallback callback)
+            throws InterruptedException {
+        AIBatchClient.BatchStatus lastStatus = null;
+        int failures = 0;
+        while (true) {
+            AIBatchClient.BatchJob job = null;
+            try {
+                job = await(client.getBatch(jobId, config));
+                failures = 0;
+            } catch (IllegalStateException e) {
+                if (++failures >= MAX_POLL_FAILURES) {
+                    throw e;
+                }
+                logger.warn("任务 {} 查询批处理作业 {} 失败（第 {} 次）: {}", taskId, jobId, failures, e.getMessage());
+            }
+            if (job != null) {
+                if (job.status() != lastStatus) {
+                    lastStatus = job.status();
+                    callback.addTaskLog(taskId, "INFO", String.format("批处理作业 %s 状态: %s，已完成 %d/%d，失败 %d",
+                        jobId, job.status(), job.completed(), job.total(), job.failed()));
+                }
+                if (job.status().isTerminal()) {
+                    return job;
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + Math.max(HALT_CHECK_INTERVAL_MS, pollIntervalMs);
+            while (System.currentTimeMillis() < deadline) {
+                if (cursor.isHalted()) {
+                    onHalted(taskId, cursor, client, jobId, config, callback);
+                    return null;
+                }
+                Thread.sleep(Math.min(HALT_CHECK_INTERVAL_MS, Math.max(1, deadline - System.currentTimeMillis())));
+            }
+        }
+    }
+
+    private void onHalted(String taskId, TaskCheckpointService.Cursor cursor, AIBatchClient client, String jobId,
+                          UserAIConfig config, TaskProgressCallback callback) throws InterruptedException {
+        if (cursor.getHaltedStatus() != TaskStatus.CANCELLED) {
+            callback.addTaskLog(taskId, "INFO", "任务已暂停，批处理作业 " + jobId + " 继续在提供商处运行，恢复后接着轮询");
+            return;
+        }
+        try {
+            await(client.cancelBatch(jobId, config));
+            callback.addTaskLog(taskId, "INFO", "任务已取消，已取消批处理作业 " + jobId);
+        } catch (IllegalStateException e) {
+            logger.warn("任务 {} 取消批处理作业 {} 失败: {}", taskId, jobId, e.getMessage());
+            callback.addTaskLog(taskId, "WARN", "取消批处理作业 " + jobId + " 失败: " + e.getMessage());
+        }
+        cursor.clearProviderBatch();
+    }
+
+    /**
+     * 下载结果文件并按页写回，返回结果是否已全部读取（任务中途停止时为false）
+     */
+    private boolean readResults(String taskId, TaskCheckpointService.Cursor cursor, AIBatchClient client,
+                                AIBatchClient.BatchJob job, UserAIConfig config, String evaluationStyle, int pageSize,
+                                TaskProgressCallback callback, OutcomeSink sink, Set<Long> pending) throws InterruptedException {
+        Path resultsFile = null;
+        try {
+            resultsFile = Files.createTempFile("provider-batch-" + taskId + "-", ".results.jsonl");
+            await(client.downloadResults(job, config, resultsFile));
+
+            Map<Long, AIResponse> chunk = new LinkedHashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(resultsFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    AIBatchClient.BatchResult result = client.parseResultLine(line);
+                    Long answerId = parseAnswerId(result.customId());
+                    // 恢复执行时已处理过的答案不再写回
+                    if (answerId == null || !pending.contains(answerId)) {
+                        continue;
+                    }
+                    chunk.put(answerId, result.response());
+                    if (chunk.size() >= pageSize) {
+                        if (cursor.isHalted()) {
+                            // 作业ID仍保留，恢复时重新下载并只处理剩余答案
+                            if (cursor.getHaltedStatus() == TaskStatus.CANCELLED) {
+                                cursor.clearProviderBatch();
+                            }
+                            return false;
+                        }
+                        applyResults(taskId, chunk, config, evaluationStyle, callback, sink, pending);
+                    }
+                }
+            }
+            applyResults(taskId, chunk, config, evaluationStyle, callback, sink, pending);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            logger.error("任务 {} 读取批处理作业 {} 的结果失败: {}", taskId, job.id(), e.getMessage(), e);
+            callback.addTaskLog(taskId, "ERROR", "读取批处理结果失败: " + e.getMessage() + "，重试任务时将重新下载");
+            skipAll(pending, sink);
+            return false;
+        } finally {
+            deleteQuietly(resultsFile);
+        }
+    }
+
+    private void applyResults(String taskId, Map<Long, AIResponse> chunk, UserAIConfig config, String evaluationStyle,
+                              TaskProgressCallback callback, OutcomeSink sink, Set<Long> pending) throws InterruptedException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<StudentAnswer> answers = loadAnswers(taskId, new ArrayList<>(chunk.keySet()), callback, sink);
+        for (StudentAnswer answer : answers) {
+            AIResponse response = chunk.get(answer.getId());
+            if (answer.getQuestion() == null) {
+                sink.skipped(answer.getId());
+            } else {
+                sink.evaluated(answer, aiEvaluationService.completeBatchEvaluation(answer, config, evaluationStyle, response));
+            }
+        }
+        pending.removeAll(chunk.keySet());
+        chunk.clear();
+    }
+
+    /**
+     * 按ID加载答案，加载失败或已被删除的答案直接交给接收方记为未评估
+     */
+    private List<StudentAnswer> loadAnswers(String taskId, List<Long> ids, TaskProgressCallback callback, OutcomeSink sink)
+            throws InterruptedException {
+        List<StudentAnswer> answers;
+        try {
+            answers = studentAnswerService.getAnswersByIdsWithFetch(ids);
+        } catch (Exception e) {
+            logger.error("任务 {} 加载答案失败: {}", taskId, e.getMessage(), e);
+            callback.addTaskLog(taskId, "ERROR", "加载答案失败: " + e.getMessage());
+            for (Long id : ids) {
+                sink.skipped(id);
+            }
+            return List.of();
+        }
+        Set<Long> loadedIds = new HashSet<>();
+        answers.forEach(answer -> loadedIds.add(answer.getId()));
+        for (Long id : ids) {
+            if (!loadedIds.contains(id)) {
+                sink.skipped(id);
+            }
+        }
+        return answers;
+    }
+
+    private static void skipAll(Set<Long> pending, OutcomeSink sink) throws InterruptedException {
+        for (Long id : pending) {
+            sink.skipped(id);
+        }
+        pending.clear();
+    }
+
+    private static Long parseAnswerId(String customId) {
+        if (customId == null || !customId.startsWith(CUSTOM_ID_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(customId.substring(CUSTOM_ID_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 等待批处理接口调用完成，调用失败统一转换为 IllegalStateException
+     */
+    private static <T> T await(CompletableFuture<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = AIHttpTransport.rootCause(e);
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("删除临时文件 {} 失败: {}", file, e.getMessage());
+        }
+    }
+}
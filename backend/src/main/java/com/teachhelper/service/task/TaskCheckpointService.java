@@ -0,0 +1,321 @@
+package com.teachhelper.service.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.entity.TaskCheckpoint;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.repository.TaskCheckpointRepository;
+import com.teachhelper.repository.TaskRepository;
+
+/**
+ * 批量任务检查点服务
+ * 任务首次执行时固定答案ID列表，执行过程中按时间间隔批量保存处理进度（高水位 + 高水位之后的已完成ID + 失败ID），
+ * 暂停恢复、重试或服务重启后只处理尚未成功的答案
+ */
+@Service
+public class TaskCheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskCheckpointService.class);
+
+    @Autowired
+    private TaskCheckpointRepository taskCheckpointRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Value("${app.task.checkpoint.save-interval-ms:2000}")
+    private long saveIntervalMs;
+
+    @Value("${app.task.checkpoint.status-check-interval-ms:1000}")
+    private long statusCheckIntervalMs;
+
+    /**
+     * 打开任务的检查点，不存在时用 answerIdSource 提取答案列表并创建
+     */
+    public Cursor open(String taskId, Supplier<List<Long>> answerIdSource) {
+        TaskCheckpoint checkpoint = taskCheckpointRepository.findByTaskId(taskId).orElse(null);
+        if (checkpoint == null) {
+            List<Long> answerIds = new ArrayList<>(new LinkedHashSet<>(answerIdSource.get()));
+            checkpoint = new TaskCheckpoint();
+            checkpoint.setTaskId(taskId);
+            checkpoint.setAnswerIds(join(answerIds));
+            checkpoint.setTotalCount(answerIds.size());
+            checkpoint = taskCheckpointRepository.save(checkpoint);
+            return new Cursor(checkpoint, answerIds);
+        }
+        return new Cursor(checkpoint, split(checkpoint.getAnswerIds()));
+    }
+
+    /**
+     * 打开已存在的检查点，不存在时返回空
+     */
+    public Optional<Cursor> find(String taskId) {
+        return taskCheckpointRepository.findByTaskId(taskId)
+            .map(checkpoint -> new Cursor(checkpoint, split(checkpoint.getAnswerIds())));
+    }
+
+    /**
+     * 删除任务的检查点
+     */
+    public void deleteCheckpoint(String taskId) {
+        taskCheckpointRepository.deleteByTaskId(taskId);
+    }
+
+    private static String join(Iterable<Long> ids) {
+        StringBuilder builder = new StringBuilder();
+        for (Long id : ids) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(id);
+        }
+        return builder.toString();
+    }
+
+    private static List<Long> split(String ids) {
+        if (ids == null || ids.isBlank()) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(ids.split(","))
+            .map(String::trim)
+            .filter(id -> !id.isEmpty())
+            .map(Long::valueOf)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * 单次执行中的任务进度游标
+     * markProcessed/save 只能由同一个线程（持久化阶段）调用，isHalted 由加载线程调用；
+     * 离线批处理作业ID的记录和保存之间互斥
+     */
+    public final class Cursor {
+        private final TaskCheckpoint checkpoint;
+        private final List<Long> answerIds;
+        private final Map<Long, Integer> positions;
+        private final boolean[] processed;
+        private final Set<Long> failed = new LinkedHashSet<>();
+        private final List<Long> remainingIds = new ArrayList<>();
+        private final int alreadyProcessed;
+        private int highWaterMark;
+        private int processedCount;
+        private boolean dirty;
+        private long lastSaveMillis = System.currentTimeMillis();
+        private long lastStatusCheckMillis;
+        private volatile TaskStatus haltedStatus;
+        private boolean detached;
+
+        private Cursor(TaskCheckpoint checkpoint, List<Long> answerIds) {
+            this.checkpoint = checkpoint;
+            this.answerIds = answerIds;
+            this.positions = new HashMap<>(answerIds.size() * 2);
+            this.processed = new boolean[answerIds.size()];
+            for (int i = 0; i < answerIds.size(); i++) {
+                positions.put(answerIds.get(i), i);
+            }
+
+            // 高水位之前和之后已完成的答案视为已处理，失败的答案重新评估
+            int mark = Math.min(checkpoint.getHighWaterMark() != null ? checkpoint.getHighWaterMark() : 0, processed.length);
+            Arrays.fill(processed, 0, mark, true);
+            for (Long id : split(checkpoint.getCompletedAhead())) {
+                Integer position = positions.get(id);
+                if (position != null) {
+                    processed[position] = true;
+                }
+            }
+            for (Long id : split(checkpoint.getFailedIds())) {
+                Integer position = positions.get(id);
+                if (position != null) {
+                    processed[position] = false;
+                }
+            }
+            int count = 0;
+            for (int i = 0; i < processed.length; i++) {
+                if (processed[i]) {
+                    count++;
+                } else {
+                    remainingIds.add(answerIds.get(i));
+                }
+            }
+            this.alreadyProcessed = count;
+            this.processedCount = count;
+            advanceHighWaterMark();
+        }
+
+        public String getTaskId() {
+            return checkpoint.getTaskId();
+        }
+
+        public int getTotalCount() {
+            return answerIds.size();
+        }
+
+        /**
+         * 打开游标时已完成的答案数
+         */
+        public int getAlreadyProcessedCount() {
+            return alreadyProcessed;
+        }
+
+        /**
+         * 本次执行需要处理的答案ID，保持原有顺序
+         */
+        public List<Long> getRemainingIds() {
+            return remainingIds;
+        }
+
+        /**
+         * 记录一个答案已处理，success 为 false 的答案下次恢复时重新评估
+         */
+        public void markProcessed(Long answerId, boolean success) {
+            if (detached) {
+                return;
+            }
+            Integer position = positions.get(answerId);
+            if (position == null) {
+                return;
+            }
+            if (!processed[position]) {
+                processed[position] = true;
+                processedCount++;
+            }
+            if (success) {
+                failed.remove(answerId);
+            } else {
+                failed.add(answerId);
+            }
+            dirty = true;
+        }
+
+        /**
+         * 集群分片模式：处理进度由任务分片记录，检查点只保留答案列表，本游标不再记录和保存进度
+         */
+        public void detach() {
+            detached = true;
+        }
+
+        /**
+         * 距上次保存超过间隔且有新进度
+         */
+        public boolean isSaveDue() {
+            return dirty && System.currentTimeMillis() - lastSaveMillis >= saveIntervalMs;
+        }
+
+        /**
+         * 保存检查点。调用前必须先把已处理答案的评估结果写入数据库，保证检查点不会超前于实际结果
+         */
+        public synchronized void save() {
+            lastSaveMillis = System.currentTimeMillis();
+            if (!dirty) {
+                return;
+            }
+            advanceHighWaterMark();
+            List<Long> ahead = new ArrayList<>();
+            for (int i = highWaterMark; i < processed.length; i++) {
+                if (processed[i]) {
+                    ahead.add(answerIds.get(i));
+                }
+            }
+            checkpoint.setHighWaterMark(highWaterMark);
+            checkpoint.setCompletedAhead(join(ahead));
+            checkpoint.setFailedIds(join(failed));
+            checkpoint.setProcessedCount(processedCount);
+            try {
+                taskCheckpointRepository.save(checkpoint);
+                dirty = false;
+            } catch (Exception e) {
+                logger.warn("保存任务 {} 的检查点失败: {}", checkpoint.getTaskId(), e.getMessage());
+            }
+        }
+
+        /**
+         * 之前提交、尚未取回结果的离线批处理作业ID
+         */
+        public synchronized String getProviderBatchId() {
+            return checkpoint.getProviderBatchId();
+        }
+
+        /**
+         * 立即保存已提交的离线批处理作业ID，服务重启后据此继续轮询同一个作业
+         */
+        public synchronized void recordProviderBatch(String batchId) {
+            checkpoint.setProviderBatchId(batchId);
+            taskCheckpointRepository.save(checkpoint);
+        }
+
+        /**
+         * 批处理结果已全部取回（或作业已取消），清除作业ID
+         */
+        public synchronized void clearProviderBatch() {
+            if (checkpoint.getProviderBatchId() == null) {
+                return;
+            }
+            checkpoint.setProviderBatchId(null);
+            try {
+                taskCheckpointRepository.save(checkpoint);
+            } catch (Exception e) {
+                logger.warn("清除任务 {} 的批处理作业ID失败: {}", checkpoint.getTaskId(), e.getMessage());
+            }
+        }
+
+        /**
+         * 任务是否已被暂停或取消，按间隔查询数据库中的任务状态
+         */
+        public boolean isHalted() {
+            if (haltedStatus != null) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastStatusCheckMillis < statusCheckIntervalMs) {
+                return false;
+            }
+            lastStatusCheckMillis = now;
+            TaskStatus status = taskRepository.findStatusByTaskId(checkpoint.getTaskId()).orElse(TaskStatus.CANCELLED);
+            if (status == TaskStatus.PAUSED || status == TaskStatus.CANCELLED) {
+                haltedStatus = status;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 收到取消信号时立即标记停止，不必等下一次状态查询；已停止时保留原状态
+         */
+        public void halt(TaskStatus status) {
+            if (haltedStatus == null) {
+                haltedStatus = status;
+            }
+        }
+
+        /**
+         * 任务停止时的状态（PAUSED/CANCELLED），未停止时为 null
+         */
+        public TaskStatus getHaltedStatus() {
+            return haltedStatus;
+        }
+
+        public int getFailedCount() {
+            return failed.size();
+        }
+
+        private void advanceHighWaterMark() {
+            while (highWaterMark < processed.length && processed[highWaterMark]) {
+                highWaterMark++;
+            }
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.teachhelper.service.task;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * 批量任务分片租约
+ * 多节点部署时，批量评估任务的答案ID按固定大小切分为分片保存在 task_chunks 表中，
+ * 各节点用 SELECT ... FOR UPDATE SKIP LOCKED 租用分片，互不阻塞也不会重复租用。
+ * 持有节点定期续约；节点宕机后租约过期，分片被其他节点收回重新执行。
+ * 完成分片时按租约持有者做条件更新，已被收回的租约不会覆盖新持有者的结果。
+ * 所有分片完成后，恰好一个节点在锁住全部分片的事务中完成任务收尾
+ */
+@Service
+public class TaskChunkLeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskChunkLeaseService.class);
+
+    private static final String CLAIMABLE = "(status = 'PENDING' OR (status = 'LEASED' AND lease_expires_at < ?))";
+
+    /**
+     * 所有分片完成时的任务汇总
+     */
+    public record Summary(int processedCount, int failedCount) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final String nodeId;
+    private final int chunkSize;
+    private final long leaseMs;
+    /** 本节点持有的租约：分片主键 -> 租约，由心跳续约 */
+    private final Map<Long, Lease> activeLeases = new ConcurrentHashMap<>();
+    private final Counter claimedCounter;
+    private final Counter reclaimedCounter;
+    private final Counter completedCounter;
+    private final Counter releasedCounter;
+    private final Counter lostCounter;
+
+    @Autowired
+    public TaskChunkLeaseService(DataSource dataSource,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.task.cluster.enabled:false}") boolean enabled,
+                                 @Value("${app.task.cluster.node-id:}") String nodeId,
+                                 @Value("${app.task.cluster.chunk-size:200}") int chunkSize,
+                                 @Value("${app.task.cluster.lease-ms:60000}") long leaseMs) {
+        // 容器中的JdbcTemplate属于向量库，这里基于主数据源单独创建
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        // 未配置时用 进程号@主机名 加随机后缀，重启后的同一进程不会被当成旧租约的持有者
+        this.nodeId = nodeId != null && !nodeId.isBlank() ? nodeId
+            : ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.leaseMs = Math.max(1, leaseMs);
+        this.claimedCounter = Counter.builder("task.chunk.claimed")
+            .description("租用的任务分片数").register(meterRegistry);
+        this.reclaimedCounter = Counter.builder("task.chunk.reclaimed")
+            .description("从租约过期的节点收回的任务分片数").register(meterRegistry);
+        this.completedCounter = Counter.builder("task.chunk.completed")
+            .description("完成的任务分片数").register(meterRegistry);
+        this.releasedCounter = Counter.builder("task.chunk.released")
+            .description("任务暂停或取消时归还的任务分片数").register(meterRegistry);
+        this.lostCounter = Counter.builder("task.chunk.lost")
+            .description("续约失败、已被其他节点收回的租约数").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 规划任务分片，在任务启动、恢复或重试时调用：
+     * 任务还没有分片时按答案ID切分；已有分片时把失败的答案重新放回待租用，已收尾的分片重新参与收尾
+     * @return 新建或重新放回待租用的分片数
+     */
+    public int plan(String taskId, List<Long> answerIds) {
+        try {
+            Integer planned = transactionTemplate.execute(status -> {
+                Timestamp now = now();
+                List<Map<String, Object>> chunks = jdbcTemplate.queryForList(
+                    "SELECT id, status, failed_ids FROM task_chunks WHERE task_id = ? ORDER BY chunk_index FOR UPDATE", taskId);
+                if (chunks.isEmpty()) {
+                    List<Object[]> rows = new ArrayList<>();
+                    for (int from = 0, index = 0; from < answerIds.size(); from += chunkSize, index++) {
+                        List<Long> ids = answerIds.subList(from, Math.min(from + chunkSize, answerIds.size()));
+                        rows.add(new Object[] { taskId, index, join(ids), ids.size(), now, now });
+                    }
+                    jdbcTemplate.batchUpdate("INSERT INTO task_chunks (task_id, chunk_index, answer_ids, answer_count, processed_count, "
+                        + "status, attempts, created_at, updated_at) VALUES (?, ?, ?, ?, 0, 'PENDING', 0, ?, ?)", rows);
+                    return rows.size();
+                }
+                int requeued = 0;
+                for (Map<String, Object> chunk : chunks) {
+                    String chunkStatus = String.valueOf(chunk.get("status"));
+                    if (!"DONE".equals(chunkStatus) && !"CLOSED".equals(chunkStatus)) {
+                        continue;
+                    }
+                    List<Long> failed = split((String) chunk.get("failed_ids"));
+                    if (!failed.isEmpty()) {
+                        jdbcTemplate.update("UPDATE task_chunks SET status = 'PENDING', answer_ids = ?, answer_count = ?, "
+                            + "processed_count = processed_count - ?, failed_ids = NULL, lease_owner = NULL, lease_expires_at = NULL, "
+                            + "updated_at = ? WHERE id = ?", join(failed), failed.size(), failed.size(), now, chunk.get("id"));
+                        requeued++;
+                    } else if ("CLOSED".equals(chunkStatus)) {
+                        jdbcTemplate.update("UPDATE task_chunks SET status = 'DONE', updated_at = ? WHERE id = ?", now, chunk.get("id"));
+                    }
+                }
+                return requeued;
+            });
+            return planned != null ? planned : 0;
+        } catch (DuplicateKeyException e) {
+            // 其他节点同时完成了规划
+            return 0;
+        }
+    }
+
+    /**
+     * 租用任务的下一个分片：待租用的分片或租约已过期的分片
+     * @return 租约；没有可租用的分片时返回 null
+     */
+    public Lease claim(String taskId) {
+        Lease lease = transactionTemplate.execute(status -> {
+            Timestamp now = now();
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT id, chunk_index, answer_ids, failed_ids, status, lease_owner FROM task_chunks WHERE task_id = ? AND "
+                    + CLAIMABLE + " ORDER BY chunk_index LIMIT 1 FOR UPDATE SKIP LOCKED", taskId, now);
+            if (rows.isEmpty()) {
+                return null;
+            }
+            Map<String, Object> row = rows.get(0);
+            Long chunkId = ((Number) row.get("id")).longValue();
+            jdbcTemplate.update("UPDATE task_chunks SET status = 'LEASED', lease_owner = ?, lease_expires_at = ?, "
+                + "attempts = attempts + 1, updated_at = ? WHERE id = ?", nodeId, expiry(), now, chunkId);
+            boolean reclaimed = "LEASED".equals(String.valueOf(row.get("status")));
+            if (reclaimed) {
+                logger.warn("节点 {} 收回任务 {} 的分片 {}（原租约持有者 {} 已过期）", nodeId, taskId, row.get("chunk_index"), row.get("lease_owner"));
+            }
+            return new Lease(chunkId, taskId, ((Number) row.get("chunk_index")).intValue(),
+                split((String) row.get("answer_ids")), (String) row.get("failed_ids"), reclaimed);
+        });
+        if (lease != null) {
+            activeLeases.put(lease.chunkId, lease);
+            claimedCounter.increment();
+            if (lease.reclaimed) {
+                reclaimedCounter.increment();
+            }
+        }
+        return lease;
+    }
+
+    /**
+     * 续约本节点持有的全部租约。续约失败说明租约已过期并被其他节点收回，本节点放弃该分片
+     */
+    @Scheduled(fixedDelayString = "${app.task.cluster.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        if (activeLeases.isEmpty()) {
+            return;
+        }
+        for (Lease lease : activeLeases.values()) {
+            try {
+                int updated = jdbcTemplate.update("UPDATE task_chunks SET lease_expires_at = ? WHERE id = ? AND lease_owner = ? "
+                    + "AND status = 'LEASED'", expiry(), lease.chunkId, nodeId);
+                if (updated == 0 && activeLeases.remove(lease.chunkId) != null) {
+                    lease.lost = true;
+                    lostCounter.increment();
+                    logger.warn("任务 {} 的分片 {} 续约失败，租约已被其他节点收回", lease.taskId, lease.chunkIndex);
+                }
+            } catch (Exception e) {
+                logger.warn("任务 {} 的分片 {} 续约失败: {}", lease.taskId, lease.chunkIndex, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 完成分片，只有仍持有租约时才生效
+     * @param processedCount 本次租约处理的答案数
+     * @param failedIds 本次租约中评估失败的答案
+     * @return 是否仍持有租约并已完成
+     */
+    public boolean complete(Lease lease, int processedCount, List<Long> failedIds) {
+        activeLeases.remove(lease.chunkId);
+        int updated = jdbcTemplate.update("UPDATE task_chunks SET status = 'DONE', answer_ids = NULL, answer_count = 0, "
+            + "processed_count = processed_count + ?, failed_ids = ?, lease_owner = NULL, lease_expires_at = NULL, updated_at = ? "
+            + "WHERE id = ? AND lease_owner = ? AND status = 'LEASED'",
+            processedCount, mergeFailed(lease, failedIds), now(), lease.chunkId, nodeId);
+        if (updated == 0) {
+            logger.warn("任务 {} 的分片 {} 已被其他节点收回，本节点的完成记录被忽略", lease.taskId, lease.chunkIndex);
+            return false;
+        }
+        completedCounter.increment();
+        return true;
+    }
+
+    /**
+     * 归还分片（任务暂停、取消或本节点停止），未处理的答案留给下次租用
+     */
+    public boolean release(Lease lease, List<Long> remainingIds, int processedCount, List<Long> failedIds) {
+        if (remainingIds.isEmpty()) {
+            return complete(lease, processedCount, failedIds);
+        }
+        activeLeases.remove(lease.chunkId);
+        int updated = jdbcTemplate.update("UPDATE task_chunks SET status = 'PENDING', answer_ids = ?, answer_count = ?, "
+            + "processed_count = processed_count + ?, failed_ids = ?, lease_owner = NULL, lease_expires_at = NULL, updated_at = ? "
+            + "WHERE id = ? AND lease_owner = ? AND status = 'LEASED'",
+            join(remainingIds), remainingIds.size(), processedCount, mergeFailed(lease, failedIds), now(), lease.chunkId, nodeId);
+        if (updated > 0) {
+            releasedCounter.increment();
+        }
+        return updated > 0;
+    }
+
+    /**
+     * 所有节点已处理的答案数
+     */
+    public int getProcessedCount(String taskId) {
+        Integer processed = jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(processed_count), 0) FROM task_chunks WHERE task_id = ?", Integer.class, taskId);
+        return processed != null ? processed : 0;
+    }
+
+    /**
+     * 尝试收尾任务：锁住任务的全部分片，全部完成且尚未收尾时标记为已收尾
+     * @return 任务汇总；还有分片未完成或已由其他节点收尾时返回 null
+     */
+    public Summary finish(String taskId) {
+        return transactionTemplate.execute(status -> {
+            List<Map<String, Object>> chunks = jdbcTemplate.queryForList(
+                "SELECT status, processed_count, failed_ids FROM task_chunks WHERE task_id = ? ORDER BY chunk_index FOR UPDATE", taskId);
+            int processed = 0;
+            int failed = 0;
+            boolean done = false;
+            for (Map<String, Object> chunk : chunks) {
+                String chunkStatus = String.valueOf(chunk.get("status"));
+                if ("PENDING".equals(chunkStatus) || "LEASED".equals(chunkStatus)) {
+                    return null;
+                }
+                done |= "DONE".equals(chunkStatus);
+                processed += ((Number) chunk.get("processed_count")).intValue();
+                failed += split((String) chunk.get("failed_ids")).size();
+            }
+            if (!done) {
+                return null;
+            }
+            jdbcTemplate.update("UPDATE task_chunks SET status = 'CLOSED', updated_at = ? WHERE task_id = ? AND status = 'DONE'", now(), taskId);
+            return new Summary(processed, failed);
+        });
+    }
+
+    /**
+     * 运行中且有可租用分片的任务
+     */
+    public List<String> findClaimableTaskIds() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT c.task_id FROM task_chunks c JOIN tasks t ON t.task_id = c.task_id "
+            + "WHERE t.status = 'RUNNING' AND (c.status = 'PENDING' OR (c.status = 'LEASED' AND c.lease_expires_at < ?))",
+            String.class, now());
+    }
+
+    /**
+     * 分片已全部完成、但超过一个租约期仍未收尾的运行中任务（最后完成分片的节点在收尾前宕机）
+     */
+    public List<String> findStaleFinishedTaskIds() {
+        return jdbcTemplate.queryForList("SELECT c.task_id FROM task_chunks c JOIN tasks t ON t.task_id = c.task_id "
+            + "WHERE t.status = 'RUNNING' GROUP BY c.task_id "
+            + "HAVING SUM(CASE WHEN c.status = 'DONE' THEN 0 ELSE 1 END) = 0 AND MAX(c.updated_at) < ?",
+            String.class, Timestamp.valueOf(LocalDateTime.now().minusNanos(leaseMs * 1_000_000)));
+    }
+
+    /**
+     * 删除任务的分片
+     */
+    public void deleteChunks(String taskId) {
+        jdbcTemplate.update("DELETE FROM task_chunks WHERE task_id = ?", taskId);
+    }
+
+    /**
+     * 本节点一次执行的分片会话
+     */
+    public Session openSession(String taskId, int pageSize) {
+        return new Session(taskId, Math.max(1, pageSize));
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("nodeId", nodeId);
+        snapshot.put("chunkSize", chunkSize);
+        snapshot.put("leaseMs", leaseMs);
+        snapshot.put("activeLeases", activeLeases.size());
+        snapshot.put("claimed", (long) claimedCounter.count());
+        snapshot.put("reclaimed", (long) reclaimedCounter.count());
+        snapshot.put("completed", (long) completedCounter.count());
+        snapshot.put("released", (long) releasedCounter.count());
+        snapshot.put("lost", (long) lostCounter.count());
+        return snapshot;
+    }
+
+    private Timestamp expiry() {
+        return Timestamp.valueOf(LocalDateTime.now().plusNanos(leaseMs * 1_000_000));
+    }
+
+    private static Timestamp now() {
+        return Timestamp.valueOf(LocalDateTime.now());
+    }
+
+    private static String mergeFailed(Lease lease, List<Long> failedIds) {
+        List<Long> merged = split(lease.previousFailedIds);
+        merged.addAll(failedIds);
+        return merged.isEmpty() ? null : join(merged);
+    }
+
+    private static String join(List<Long> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static List<Long> split(String ids) {
+        if (ids == null || ids.isBlank()) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(ids.split(","))
+            .map(String::trim)
+            .filter(id -> !id.isEmpty())
+            .map(Long::valueOf)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * 本节点持有的一个分片租约
+     */
+    public static final class Lease {
+        private final Long chunkId;
+        private final String taskId;
+        private final int chunkIndex;
+        private final List<Long> answerIds;
+        private final String previousFailedIds;
+        private final boolean reclaimed;
+        private volatile boolean lost;
+        /** 以下字段只由持久化阶段访问 */
+        private final Set<Long> processed = new HashSet<>();
+        private final List<Long> failed = new ArrayList<>();
+
+        private Lease(Long chunkId, String taskId, int chunkIndex, List<Long> answerIds, String previousFailedIds, boolean reclaimed) {
+            this.chunkId = chunkId;
+            this.taskId = taskId;
+            this.chunkIndex = chunkIndex;
+            this.answerIds = answerIds;
+            this.previousFailedIds = previousFailedIds;
+            this.reclaimed = reclaimed;
+        }
+
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+
+        public List<Long> getAnswerIds() {
+            return answerIds;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+    }
+
+    /**
+     * 单次执行中的分片会话
+     * nextPage 由加载线程调用，markProcessed/completeReady/close 只能由持久化阶段调用
+     */
+    public final class Session {
+        private final String taskId;
+        private final int pageSize;
+        private final Map<Long, Lease> leaseByAnswer = new ConcurrentHashMap<>();
+        private final Map<Long, Lease> open = new ConcurrentHashMap<>();
+        private final List<Lease> ready = new ArrayList<>();
+        private final AtomicInteger openProcessed = new AtomicInteger();
+        private volatile int baseProcessed;
+        private Lease current;
+        private int offset;
+
+        private Session(String taskId, int pageSize) {
+            this.taskId = taskId;
+            this.pageSize = pageSize;
+            this.baseProcessed = TaskChunkLeaseService.this.getProcessedCount(taskId);
+        }
+
+        /**
+         * 下一页答案ID，当前分片用完时租用下一个分片
+         * @return 答案ID；没有可租用的分片时返回 null
+         */
+        public List<Long> nextPage() {
+            while (current == null || current.lost || offset >= current.answerIds.size()) {
+                current = claim(taskId);
+                offset = 0;
+                if (current == null) {
+                    return null;
+                }
+                open.put(current.chunkId, current);
+                for (Long answerId : current.answerIds) {
+                    leaseByAnswer.put(answerId, current);
+                }
+            }
+            List<Long> page = current.answerIds.subList(offset, Math.min(offset + pageSize, current.answerIds.size()));
+            offset += page.size();
+            return page;
+        }
+
+        /**
+         * 记录答案已处理，分片的答案全部处理后等待 completeReady
+         */
+        public void markProcessed(Long answerId, boolean success) {
+            Lease lease = leaseByAnswer.remove(answerId);
+            if (lease == null || !lease.processed.add(answerId)) {
+                return;
+            }
+            if (!success) {
+                lease.failed.add(answerId);
+            }
+            openProcessed.incrementAndGet();
+            if (lease.processed.size() == lease.answerIds.size()) {
+                ready.add(lease);
+            }
+        }
+
+        /**
+         * 已记为成功的答案事后写回失败时改记为失败，分片完成时归入失败ID
+         */
+        public void markFailed(Long answerId) {
+            for (Lease lease : open.values()) {
+                if (lease.processed.contains(answerId)) {
+                    if (!lease.failed.contains(answerId)) {
+                        lease.failed.add(answerId);
+                    }
+                    return;
+                }
+            }
+        }
+
+        public boolean hasReadyChunks() {
+            return !ready.isEmpty();
+        }
+
+        /**
+         * 完成已全部处理的分片。调用前必须先把这些答案的评估结果写入数据库
+         */
+        public void completeReady() {
+            if (ready.isEmpty()) {
+                return;
+            }
+            Iterator<Lease> iterator = ready.iterator();
+            while (iterator.hasNext()) {
+                Lease lease = iterator.next();
+                complete(lease, lease.processed.size(), lease.failed);
+                iterator.remove();
+                open.remove(lease.chunkId);
+                openProcessed.addAndGet(-lease.processed.size());
+            }
+            baseProcessed = TaskChunkLeaseService.this.getProcessedCount(taskId);
+        }
+
+        /**
+         * 所有节点已处理的答案数（其他节点的进度在本节点完成分片时刷新）
+         */
+        public int getProcessedCount() {
+            return baseProcessed + openProcessed.get();
+        }
+
+        /**
+         * 执行结束：完成已处理完的分片，其余分片连同未处理的答案归还
+         */
+        public void close() {
+            completeReady();
+            for (Lease lease : open.values()) {
+                List<Long> remaining = new ArrayList<>();
+                for (Long answerId : lease.answerIds) {
+                    if (!lease.processed.contains(answerId)) {
+                        remaining.add(answerId);
+                    }
+                }
+                release(lease, remaining, lease.processed.size(), lease.failed);
+            }
+            open.clear();
+            leaseByAnswer.clear();
+        }
+    }
+}
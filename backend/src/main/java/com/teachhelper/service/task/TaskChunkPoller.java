@@ -0,0 +1,84 @@
+package com.teachhelper.service.task;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.dto.response.TaskResponse;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.repository.TaskRepository;
+import com.teachhelper.utils.TaskConverter;
+
+/**
+ * 集群分片轮询
+ * 每个节点定期查找有可租用分片（未开始或租约已过期）的运行中任务，本节点未在执行时加入执行，
+ * 任务的吞吐量随节点数增加；同时补做最后完成分片的节点宕机而遗漏的任务收尾
+ */
+@Service
+public class TaskChunkPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskChunkPoller.class);
+
+    @Autowired
+    private TaskChunkLeaseService taskChunkLeaseService;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskQueueScheduler taskQueueScheduler;
+
+    @Autowired
+    private TaskRuntimeManager taskRuntimeManager;
+
+    @Autowired
+    private BatchEvaluationExecutorService batchEvaluationExecutor;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Scheduled(fixedDelayString = "${app.task.cluster.poll-interval-ms:5000}")
+    public void pollChunks() {
+        if (!taskChunkLeaseService.isEnabled()) {
+            return;
+        }
+        try {
+            for (String taskId : taskChunkLeaseService.findClaimableTaskIds()) {
+                if (taskRuntimeManager.isTaskRunning(taskId)) {
+                    continue;
+                }
+                taskRepository.findByTaskId(taskId)
+                    .filter(task -> task.getStatus() == TaskStatus.RUNNING)
+                    .ifPresent(task -> join(TaskConverter.convertToResponse(task)));
+            }
+            for (String taskId : taskChunkLeaseService.findStaleFinishedTaskIds()) {
+                if (taskRuntimeManager.isTaskRunning(taskId)) {
+                    continue;
+                }
+                TaskChunkLeaseService.Summary summary = taskChunkLeaseService.finish(taskId);
+                if (summary != null) {
+                    logger.warn("任务 {} 的分片已全部完成但未收尾，由节点 {} 补做收尾", taskId, taskChunkLeaseService.getNodeId());
+                    batchEvaluationExecutor.completeLeasedTask(taskId, summary, (TaskProgressCallback) taskService);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("轮询任务分片失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 与本节点启动的任务一样受运行任务数上限约束
+     */
+    private void join(TaskResponse task) {
+        taskQueueScheduler.submit(task, () -> {
+            CompletableFuture<Void> future = batchEvaluationExecutor.joinLeasedTask(
+                task.getTaskId(), task.getConfig(), task.getPriority(), (TaskProgressCallback) taskService);
+            taskRuntimeManager.registerTask(task.getTaskId(), future);
+            return future;
+        });
+    }
+}
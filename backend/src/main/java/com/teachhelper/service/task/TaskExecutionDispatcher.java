@@ -27,6 +27,9 @@ public class TaskExecutionDispatcher {
     @Autowired
     private TaskService taskService;
     
+    @Autowired
+    private TaskRuntimeManager taskRuntimeManager;
+    
     // 跟踪正在执行的任务
     private final Map<String, CompletableFuture<Void>> runningTasks = new ConcurrentHashMap<>();
     
@@ -87,6 +90,8 @@ public class TaskExecutionDispatcher {
      * 取消任务执行
      */
     public boolean cancelTask(String taskId) {
+        // 先通知执行器中止在途的AI请求，Future 本身的取消不会传到评估流水线
+        taskRuntimeManager.signalCancellation(taskId);
         CompletableFuture<Void> future = runningTasks.get(taskId);
         if (future != null) {
             boolean cancelled = future.cancel(true);
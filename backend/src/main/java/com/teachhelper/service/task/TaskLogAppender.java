@@ -0,0 +1,246 @@
+package com.teachhelper.service.task;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.teachhelper.entity.Task;
+import com.teachhelper.entity.TaskLog.LogLevel;
+import com.teachhelper.repository.TaskRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * 任务日志异步写入
+ * 评估线程只把日志放入有界队列，由后台线程批量插入数据库，每个任务的主键只查询一次。
+ * 队列积压超过阈值时 DEBUG/INFO 日志按比例抽样、其余丢弃并计数；
+ * WARN/ERROR 日志从不丢弃，队列已满时由调用线程直接写入
+ */
+@Service
+public class TaskLogAppender {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskLogAppender.class);
+
+    private static final String INSERT_SQL = "INSERT INTO task_logs (task_id, level, message, created_at) VALUES (?, ?, ?, ?)";
+
+    /** 任务主键缓存的最大条数，超过后整体清空 */
+    private static final int TASK_ID_CACHE_SIZE = 1024;
+
+    private record Entry(String taskId, LogLevel level, String message, LocalDateTime createdAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskRepository taskRepository;
+    private final BlockingQueue<Entry> queue;
+    private final int pressureThreshold;
+    private final double pressureSampleRate;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Map<String, Long> taskIds = new ConcurrentHashMap<>();
+    private final Map<LogLevel, Counter> droppedCounters = new LinkedHashMap<>();
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+    private final Counter directCounter;
+    private volatile boolean running;
+    private Thread writer;
+
+    @Autowired
+    public TaskLogAppender(DataSource dataSource,
+                           PlatformTransactionManager transactionManager,
+                           TaskRepository taskRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.task.log.queue-capacity:10000}") int queueCapacity,
+                           @Value("${app.task.log.pressure-threshold:0.8}") double pressureThreshold,
+                           @Value("${app.task.log.pressure-sample-rate:0.1}") double pressureSampleRate,
+                           @Value("${app.task.log.batch-size:500}") int batchSize,
+                           @Value("${app.task.log.flush-interval-ms:500}") long flushIntervalMs) {
+        // 容器中的JdbcTemplate属于向量库，这里基于主数据源单独创建
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.taskRepository = taskRepository;
+        int capacity = Math.max(1, queueCapacity);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.pressureThreshold = (int) Math.ceil(capacity * Math.max(0, Math.min(1, pressureThreshold)));
+        this.pressureSampleRate = Math.max(0, Math.min(1, pressureSampleRate));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(10, flushIntervalMs);
+        for (LogLevel level : LogLevel.values()) {
+            droppedCounters.put(level, Counter.builder("task.log.dropped").tag("level", level.name())
+                .description("积压时被丢弃的任务日志数").register(meterRegistry));
+        }
+        this.writtenCounter = Counter.builder("task.log.written")
+            .description("写入数据库的任务日志数").register(meterRegistry);
+        this.failedCounter = Counter.builder("task.log.failed")
+            .description("写入失败的任务日志数").register(meterRegistry);
+        this.directCounter = Counter.builder("task.log.direct")
+            .description("队列已满时由调用线程直接写入的警告和错误日志数").register(meterRegistry);
+        Gauge.builder("task.log.queue", queue, BlockingQueue::size)
+            .description("等待写入的任务日志数").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "task-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 停止时把队列中剩余的日志写完
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 追加一条任务日志，不等待写入完成
+     * @return 日志是否被接受（积压时 DEBUG/INFO 日志可能被丢弃）
+     */
+    public boolean append(String taskId, String level, String message) {
+        Entry entry = new Entry(taskId, parseLevel(level), message, LocalDateTime.now());
+        if (entry.level() == LogLevel.WARN || entry.level() == LogLevel.ERROR) {
+            if (!queue.offer(entry)) {
+                directCounter.increment();
+                write(List.of(entry));
+            }
+            return true;
+        }
+        boolean accepted = (queue.size() < pressureThreshold
+                || (pressureSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < pressureSampleRate))
+            && queue.offer(entry);
+        if (!accepted) {
+            droppedCounters.get(entry.level()).increment();
+        }
+        return accepted;
+    }
+
+    /**
+     * 任务删除后清除缓存的任务主键
+     */
+    public void forget(String taskId) {
+        taskIds.remove(taskId);
+    }
+
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("queued", queue.size());
+        snapshot.put("capacity", queue.size() + queue.remainingCapacity());
+        snapshot.put("pressureThreshold", pressureThreshold);
+        snapshot.put("written", (long) writtenCounter.count());
+        snapshot.put("failed", (long) failedCounter.count());
+        snapshot.put("direct", (long) directCounter.count());
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        droppedCounters.forEach((level, counter) -> dropped.put(level.name(), (long) counter.count()));
+        snapshot.put("dropped", dropped);
+        return snapshot;
+    }
+
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                logger.error("写入任务日志失败", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Entry> entries) {
+        List<Object[]> rows = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Long id = resolveTaskId(entry.taskId());
+            if (id != null) {
+                rows.add(new Object[] { id, entry.level().name(), entry.message(), Timestamp.valueOf(entry.createdAt()) });
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_SQL, rows));
+            writtenCounter.increment(rows.size());
+        } catch (Exception e) {
+            // 例如任务在日志写入前已被删除，逐条写入使其余日志不受影响
+            logger.warn("批量写入 {} 条任务日志失败，改为逐条写入: {}", rows.size(), e.getMessage());
+            for (Object[] row : rows) {
+                try {
+                    jdbcTemplate.update(INSERT_SQL, row);
+                    writtenCounter.increment();
+                } catch (Exception rowError) {
+                    failedCounter.increment();
+                }
+            }
+        }
+    }
+
+    private Long resolveTaskId(String taskId) {
+        Long id = taskIds.get(taskId);
+        if (id != null) {
+            return id;
+        }
+        id = taskRepository.findByTaskId(taskId).map(Task::getId).orElse(null);
+        if (id != null) {
+            if (taskIds.size() >= TASK_ID_CACHE_SIZE) {
+                taskIds.clear();
+            }
+            taskIds.put(taskId, id);
+        } else {
+            logger.debug("任务 {} 不存在，丢弃其日志", taskId);
+        }
+        return id;
+    }
+
+    private static LogLevel parseLevel(String level) {
+        try {
+            return LogLevel.valueOf(level.toUpperCase(Locale.ROOT));
+        } catch (RuntimeException e) {
+            return LogLevel.INFO;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.teachhelper.service.task;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.teachhelper.entity.TaskLog.LogLevel;
+import com.teachhelper.entity.TaskLogSummary;
+import com.teachhelper.repository.TaskLogSummaryRepository;
+
+/**
+ * 任务日志保留
+ * 定期把超过保留期的任务日志按任务汇总到 task_log_summaries（各级别条数、时间范围、最后一条警告或错误），
+ * 然后删除这些日志，日志表不再无限增长。每个任务的汇总和删除在同一个事务中完成
+ */
+@Service
+public class TaskLogRetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskLogRetentionService.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskLogSummaryRepository summaryRepository;
+    private final boolean enabled;
+    private final int retentionDays;
+    private final int tasksPerRun;
+
+    @Autowired
+    public TaskLogRetentionService(DataSource dataSource,
+                                   PlatformTransactionManager transactionManager,
+                                   TaskLogSummaryRepository summaryRepository,
+                                   @Value("${app.task.log.retention.enabled:true}") boolean enabled,
+                                   @Value("${app.task.log.retention.days:30}") int retentionDays,
+                                   @Value("${app.task.log.retention.tasks-per-run:500}") int tasksPerRun) {
+        // 容器中的JdbcTemplate属于向量库，这里基于主数据源单独创建
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.summaryRepository = summaryRepository;
+        this.enabled = enabled;
+        this.retentionDays = Math.max(1, retentionDays);
+        this.tasksPerRun = Math.max(1, tasksPerRun);
+    }
+
+    @Scheduled(cron = "${app.task.log.retention.cron:0 30 3 * * ?}")
+    public void rollUpExpiredLogs() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        int tasks = 0;
+        long rows = 0;
+        for (String taskId : findTasksWithExpiredLogs(cutoff)) {
+            try {
+                rows += rollUp(taskId, cutoff);
+                tasks++;
+            } catch (Exception e) {
+                logger.warn("汇总任务 {} 的过期日志失败: {}", taskId, e.getMessage());
+            }
+        }
+        if (tasks > 0) {
+            logger.info("已汇总并删除 {} 个任务的 {} 条过期日志（早于 {}）", tasks, rows, cutoff);
+        }
+    }
+
+    private List<String> findTasksWithExpiredLogs(LocalDateTime cutoff) {
+        return jdbcTemplate.queryForList(
+            "SELECT DISTINCT t.task_id FROM task_logs l JOIN tasks t ON t.id = l.task_id WHERE l.created_at < ?",
+            String.class, Timestamp.valueOf(cutoff)).stream().limit(tasksPerRun).toList();
+    }
+
+    /**
+     * 汇总并删除一个任务早于截止时间的日志
+     * @return 删除的日志条数
+     */
+    int rollUp(String taskId, LocalDateTime cutoff) {
+        Integer deleted = transactionTemplate.execute(status -> {
+            Long id = jdbcTemplate.queryForObject("SELECT id FROM tasks WHERE task_id = ?", Long.class, taskId);
+            Timestamp before = Timestamp.valueOf(cutoff);
+            List<Map<String, Object>> counts = jdbcTemplate.queryForList(
+                "SELECT level, COUNT(*) AS cnt, MIN(created_at) AS first_at, MAX(created_at) AS last_at "
+                    + "FROM task_logs WHERE task_id = ? AND created_at < ? GROUP BY level", id, before);
+            if (counts.isEmpty()) {
+                return 0;
+            }
+            TaskLogSummary summary = summaryRepository.findByTaskId(taskId).orElseGet(() -> {
+                TaskLogSummary created = new TaskLogSummary();
+                created.setTaskId(taskId);
+                return created;
+            });
+            for (Map<String, Object> row : counts) {
+                summary.addCount(LogLevel.valueOf(String.valueOf(row.get("level"))), ((Number) row.get("cnt")).longValue());
+                summary.extendRange(toDateTime(row.get("first_at")), toDateTime(row.get("last_at")));
+            }
+            List<String> problems = jdbcTemplate.queryForList(
+                "SELECT message FROM task_logs WHERE task_id = ? AND created_at < ? AND level IN ('WARN', 'ERROR') "
+                    + "ORDER BY created_at DESC LIMIT 1", String.class, id, before);
+            if (!problems.isEmpty()) {
+                summary.setLastProblem(problems.get(0));
+            }
+            summaryRepository.save(summary);
+            return jdbcTemplate.update("DELETE FROM task_logs WHERE task_id = ? AND created_at < ?", id, before);
+        });
+        return deleted != null ? deleted : 0;
+    }
+
+    private static LocalDateTime toDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return value instanceof LocalDateTime dateTime ? dateTime : null;
+    }
+}
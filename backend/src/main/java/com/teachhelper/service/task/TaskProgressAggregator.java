@@ -0,0 +1,136 @@
+package com.teachhelper.service.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * 任务进度合并
+ * 执行过程中每处理一个答案都会上报一次进度，这里只在内存中累计，
+ * 距上次写入超过时间间隔或进度百分比变化达到步长时才返回需要写入数据库和推送的进度；
+ * 两次写入之间的最新进度由定时任务补写，状态变化（含完成、失败、取消）时调用方直接写入并清除合并状态
+ */
+@Service
+public class TaskProgressAggregator {
+
+    /** 没有新进度的任务保留合并状态的时长，超过后清除（例如暂停后不再上报的任务） */
+    private static final long IDLE_EVICT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * 需要写入的进度
+     */
+    public record Snapshot(String taskId, int processedCount, int totalCount) {
+    }
+
+    private final Map<String, Progress> tasks = new ConcurrentHashMap<>();
+    private final long flushIntervalNanos;
+    private final int percentStep;
+    private final Counter reportedCounter;
+    private final Counter flushedCounter;
+
+    @Autowired
+    public TaskProgressAggregator(MeterRegistry meterRegistry,
+                                  @Value("${app.task.progress.flush-interval-ms:500}") long flushIntervalMs,
+                                  @Value("${app.task.progress.percent-step:1}") int percentStep) {
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMs));
+        this.percentStep = Math.max(1, percentStep);
+        this.reportedCounter = Counter.builder("task.progress.reported")
+            .description("上报的任务进度次数").register(meterRegistry);
+        this.flushedCounter = Counter.builder("task.progress.flushed")
+            .description("合并后写入数据库并推送的任务进度次数").register(meterRegistry);
+    }
+
+    /**
+     * 记录一次进度上报，可由多个线程并发调用
+     * @return 需要立即写入的进度；仍在合并窗口内时返回 null
+     */
+    public Snapshot record(String taskId, int processedCount, int totalCount) {
+        reportedCounter.increment();
+        long now = System.nanoTime();
+        Progress progress = tasks.computeIfAbsent(taskId, id -> new Progress(now - flushIntervalNanos));
+        int processed = progress.processed.accumulateAndGet(processedCount, Math::max);
+        progress.total = totalCount;
+        progress.lastReportNanos = now;
+
+        long lastFlush = progress.lastFlushNanos.get();
+        boolean due = now - lastFlush >= flushIntervalNanos
+            || percent(processed, totalCount) - progress.flushedPercent >= percentStep;
+        // 同一时刻只有一个线程取得写入权
+        if (due && progress.lastFlushNanos.compareAndSet(lastFlush, now)) {
+            return claim(taskId, progress);
+        }
+        return null;
+    }
+
+    /**
+     * 距上次写入超过时间间隔、仍有未写入进度的任务，由定时任务补写
+     */
+    public List<Snapshot> drainDue() {
+        List<Snapshot> due = new ArrayList<>();
+        long now = System.nanoTime();
+        tasks.forEach((taskId, progress) -> {
+            long lastFlush = progress.lastFlushNanos.get();
+            if (progress.processed.get() == progress.flushedProcessed) {
+                if (now - progress.lastReportNanos >= IDLE_EVICT_NANOS) {
+                    tasks.remove(taskId, progress);
+                }
+                return;
+            }
+            if (now - lastFlush >= flushIntervalNanos && progress.lastFlushNanos.compareAndSet(lastFlush, now)) {
+                due.add(claim(taskId, progress));
+            }
+        });
+        return due;
+    }
+
+    /**
+     * 任务状态变化时调用，清除合并状态，之后的进度重新开始合并
+     */
+    public void clear(String taskId) {
+        tasks.remove(taskId);
+    }
+
+    public int getTrackedTaskCount() {
+        return tasks.size();
+    }
+
+    private Snapshot claim(String taskId, Progress progress) {
+        int processed = progress.processed.get();
+        int total = progress.total;
+        progress.flushedProcessed = processed;
+        progress.flushedPercent = percent(processed, total);
+        flushedCounter.increment();
+        return new Snapshot(taskId, processed, total);
+    }
+
+    private static int percent(int processed, int total) {
+        return total > 0 ? (int) ((long) processed * 100 / total) : 0;
+    }
+
+    /**
+     * 单个任务的合并状态
+     */
+    private static final class Progress {
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicLong lastFlushNanos;
+        private volatile int total;
+        private volatile long lastReportNanos;
+        private volatile int flushedProcessed = -1;
+        private volatile int flushedPercent;
+
+        private Progress(long lastFlushNanos) {
+            this.lastFlushNanos = new AtomicLong(lastFlushNanos);
+        }
+    }
+}
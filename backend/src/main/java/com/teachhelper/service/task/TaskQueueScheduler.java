@@ -0,0 +1,233 @@
+package com.teachhelper.service.task;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.teachhelper.dto.response.TaskResponse;
+import com.teachhelper.entity.Task.TaskPriority;
+
+/**
+ * 任务排队调度器
+ * 限制同时运行的任务数（全局和每个用户），超出的任务进入等待队列。
+ * 出队顺序：有效优先级（任务优先级 + 等待时长老化）高者优先，其次是当前运行任务较少的用户，最后按提交顺序
+ */
+@Service
+public class TaskQueueScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskQueueScheduler.class);
+
+    private final int maxRunningTasks;
+    private final int maxRunningTasksPerUser;
+    private final long agingIntervalMs;
+    private final Set<String> exemptTypes;
+
+    private final Map<String, QueuedTask> queue = new LinkedHashMap<>();
+    private final Map<String, Long> running = new HashMap<>();
+    private final Map<Long, Integer> runningByUser = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TaskQueueScheduler(
+            @Value("${app.task.scheduler.max-running-tasks:8}") int maxRunningTasks,
+            @Value("${app.task.scheduler.max-running-tasks-per-user:3}") int maxRunningTasksPerUser,
+            @Value("${app.task.scheduler.aging-interval-ms:60000}") long agingIntervalMs,
+            @Value("${app.task.scheduler.exempt-types:SINGLE_EVALUATION,SINGLE_REVALUATION}") Set<String> exemptTypes) {
+        this.maxRunningTasks = Math.max(1, maxRunningTasks);
+        this.maxRunningTasksPerUser = Math.max(1, maxRunningTasksPerUser);
+        this.agingIntervalMs = Math.max(1000, agingIntervalMs);
+        this.exemptTypes = exemptTypes;
+    }
+
+    /**
+     * 提交任务，有空闲名额时立即启动，否则排队。
+     * starter 负责真正启动任务并返回任务的执行结果，任务结束后自动释放名额并启动下一个排队任务
+     */
+    public void submit(TaskResponse task, Supplier<CompletableFuture<Void>> starter) {
+        Long userId = resolveUserId(task);
+        // 单个答案的评估任务耗时很短，不占用名额，避免被大批量任务长时间阻塞
+        if (exemptTypes.contains(task.getType())) {
+            start(task.getTaskId(), starter, false);
+            return;
+        }
+
+        synchronized (this) {
+            if (running.containsKey(task.getTaskId()) || queue.containsKey(task.getTaskId())) {
+                logger.warn("任务 {} 已在运行或排队中，忽略重复提交", task.getTaskId());
+                return;
+            }
+            queue.put(task.getTaskId(), new QueuedTask(task.getTaskId(), userId, priorityOf(task.getPriority()),
+                starter, System.currentTimeMillis(), sequence.incrementAndGet()));
+        }
+        dispatch();
+        int position = getQueuePosition(task.getTaskId());
+        if (position > 0) {
+            logger.info("任务 {} 进入等待队列，当前位置: {}", task.getTaskId(), position);
+        }
+    }
+
+    /**
+     * 从等待队列中移除任务（取消或暂停时），返回任务是否在队列中
+     */
+    public synchronized boolean remove(String taskId) {
+        return queue.remove(taskId) != null;
+    }
+
+    /**
+     * 任务在等待队列中的位置（从1开始），不在队列中返回0
+     */
+    public synchronized int getQueuePosition(String taskId) {
+        if (!queue.containsKey(taskId)) {
+            return 0;
+        }
+        List<QueuedTask> ordered = orderedQueue();
+        for (int i = 0; i < ordered.size(); i++) {
+            if (ordered.get(i).taskId.equals(taskId)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 调度器状态快照
+     */
+    public synchronized Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("maxRunningTasks", maxRunningTasks);
+        snapshot.put("maxRunningTasksPerUser", maxRunningTasksPerUser);
+        snapshot.put("runningTasks", new ArrayList<>(running.keySet()));
+        snapshot.put("runningByUser", new HashMap<>(runningByUser));
+        List<Map<String, Object>> queued = new ArrayList<>();
+        for (QueuedTask task : orderedQueue()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("taskId", task.taskId);
+            item.put("userId", task.userId);
+            item.put("priority", task.priority.name());
+            item.put("effectivePriority", task.effectivePriority(System.currentTimeMillis()));
+            item.put("waitingMs", System.currentTimeMillis() - task.enqueuedAt);
+            queued.add(item);
+        }
+        snapshot.put("queue", queued);
+        return snapshot;
+    }
+
+    /**
+     * 在名额允许的范围内按顺序启动排队任务
+     */
+    private void dispatch() {
+        List<QueuedTask> toStart = new ArrayList<>();
+        synchronized (this) {
+            for (QueuedTask task : orderedQueue()) {
+                if (running.size() >= maxRunningTasks) {
+                    break;
+                }
+                if (runningByUser.getOrDefault(task.userId, 0) >= maxRunningTasksPerUser) {
+                    continue;
+                }
+                queue.remove(task.taskId);
+                running.put(task.taskId, task.userId);
+                runningByUser.merge(task.userId, 1, Integer::sum);
+                toStart.add(task);
+            }
+        }
+        for (QueuedTask task : toStart) {
+            start(task.taskId, task.starter, true);
+        }
+    }
+
+    /**
+     * 启动任务，counted 为 true 时任务占用运行名额，结束后释放
+     */
+    private void start(String taskId, Supplier<CompletableFuture<Void>> starter, boolean counted) {
+        CompletableFuture<Void> future = null;
+        try {
+            future = starter.get();
+        } catch (Exception e) {
+            logger.error("启动任务 {} 失败: {}", taskId, e.getMessage(), e);
+        }
+        if (!counted) {
+            return;
+        }
+        if (future == null) {
+            finished(taskId);
+        } else {
+            future.whenComplete((result, throwable) -> finished(taskId));
+        }
+    }
+
+    private void finished(String taskId) {
+        synchronized (this) {
+            if (running.containsKey(taskId)) {
+                Long userId = running.remove(taskId);
+                runningByUser.computeIfPresent(userId, (k, v) -> v > 1 ? v - 1 : null);
+            }
+        }
+        dispatch();
+    }
+
+    private List<QueuedTask> orderedQueue() {
+        long now = System.currentTimeMillis();
+        List<QueuedTask> ordered = new ArrayList<>(queue.values());
+        ordered.sort(Comparator
+            .comparingLong((QueuedTask task) -> -task.effectivePriority(now))
+            .thenComparingInt(task -> runningByUser.getOrDefault(task.userId, 0))
+            .thenComparingLong(task -> task.sequence));
+        return ordered;
+    }
+
+    private static Long resolveUserId(TaskResponse task) {
+        if (task.getConfig() != null && task.getConfig().get("userId") instanceof Number number) {
+            return number.longValue();
+        }
+        return task.getCreatedBy() != null ? task.getCreatedBy() : 0L;
+    }
+
+    private static TaskPriority priorityOf(String priority) {
+        try {
+            return priority != null ? TaskPriority.valueOf(priority.toUpperCase()) : TaskPriority.MEDIUM;
+        } catch (IllegalArgumentException e) {
+            return TaskPriority.MEDIUM;
+        }
+    }
+
+    /**
+     * 等待队列中的任务
+     */
+    private final class QueuedTask {
+        private final String taskId;
+        private final Long userId;
+        private final TaskPriority priority;
+        private final Supplier<CompletableFuture<Void>> starter;
+        private final long enqueuedAt;
+        private final long sequence;
+
+        QueuedTask(String taskId, Long userId, TaskPriority priority, Supplier<CompletableFuture<Void>> starter,
+                   long enqueuedAt, long sequence) {
+            this.taskId = taskId;
+            this.userId = userId;
+            this.priority = priority;
+            this.starter = starter;
+            this.enqueuedAt = enqueuedAt;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 防饥饿：每等待一个老化周期，有效优先级提升一级
+         */
+        long effectivePriority(long now) {
+            return priority.ordinal() + (now - enqueuedAt) / agingIntervalMs;
+        }
+    }
+}
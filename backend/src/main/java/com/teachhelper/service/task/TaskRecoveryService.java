@@ -0,0 +1,69 @@
+package com.teachhelper.service.task;
+
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.teachhelper.entity.Task;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.event.TaskCreatedEvent;
+import com.teachhelper.repository.TaskRepository;
+import com.teachhelper.utils.TaskConverter;
+
+/**
+ * 任务恢复服务
+ * 服务启动后查找上次异常退出时仍处于运行中的批量评估任务，从检查点自动继续执行
+ */
+@Service
+public class TaskRecoveryService implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskRecoveryService.class);
+
+    /** 支持从检查点恢复的任务类型 */
+    private static final Set<String> RESUMABLE_TYPES = Set.of(
+        "BATCH_EVALUATION", "BATCH_EVALUATION_ANSWERS", "BATCH_EVALUATION_QUESTION",
+        "BATCH_EVALUATION_ALL_QUESTION", "BATCH_REVALUATION_QUESTION", "BATCH_EVALUATION_STUDENT");
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.task.auto-resume:true}")
+    private boolean autoResume;
+
+    @Override
+    @Transactional
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!autoResume) {
+            return;
+        }
+        List<Task> runningTasks = taskRepository.findByStatus(TaskStatus.RUNNING);
+        for (Task task : runningTasks) {
+            if (!RESUMABLE_TYPES.contains(task.getType())) {
+                logger.warn("任务 {} (类型: {}) 在服务重启前处于运行中，不支持自动恢复", task.getTaskId(), task.getType());
+                continue;
+            }
+            try {
+                logger.info("检测到未完成的任务 {}，从检查点自动恢复", task.getTaskId());
+                taskService.addTaskLog(task.getTaskId(), "WARN", "服务重启，任务从检查点自动恢复执行");
+                eventPublisher.publishEvent(new TaskCreatedEvent(this, TaskConverter.convertToResponse(task)));
+            } catch (Exception e) {
+                logger.error("自动恢复任务 {} 失败: {}", task.getTaskId(), e.getMessage(), e);
+            }
+        }
+    }
+}
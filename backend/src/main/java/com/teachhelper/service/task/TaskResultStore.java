@@ -0,0 +1,351 @@
+package com.teachhelper.service.task;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.teachhelper.entity.StudentAnswer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * 任务结果行存储
+ * 批量评估每处理完一个答案就把结果加入缓冲，按条数或时间间隔批量写入 task_results；
+ * 查询按主键做键集分页，导出逐页读取并直接写入输出流，任何时候内存中只有一页结果
+ */
+@Service
+public class TaskResultStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskResultStore.class);
+
+    private static final String INSERT_SQL = "INSERT INTO task_results (task_id, item_id, question_id, student_id, status, score, "
+        + "max_score, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int[] ARG_TYPES = {
+        Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.DECIMAL, Types.DECIMAL, Types.TIMESTAMP, Types.TIMESTAMP
+    };
+
+    private static final String[] CSV_HEADER = { "结果ID", "答案ID", "题目ID", "学生ID", "状态", "得分", "满分", "记录时间" };
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /** Excel 导出时内存中保留的行数，其余行由 POI 写入临时文件 */
+    private static final int EXCEL_ROW_WINDOW = 100;
+
+    /**
+     * 一行任务结果
+     */
+    public record ResultRow(long id, long itemId, Long questionId, Long studentId, String status,
+                            BigDecimal score, BigDecimal maxScore, LocalDateTime createdAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final int exportPageSize;
+    private final Counter rowCounter;
+    private final Counter failedRowCounter;
+
+    @Autowired
+    public TaskResultStore(DataSource dataSource,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.task.results.batch-size:200}") int batchSize,
+                           @Value("${app.task.results.flush-interval-ms:1000}") long flushIntervalMs,
+                           @Value("${app.task.results.export-page-size:1000}") int exportPageSize) {
+        // 容器中的JdbcTemplate属于向量库，这里基于主数据源单独创建
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        this.exportPageSize = Math.max(1, exportPageSize);
+        this.rowCounter = Counter.builder("task.result.rows")
+            .description("写入的任务结果行数").register(meterRegistry);
+        this.failedRowCounter = Counter.builder("task.result.failed")
+            .description("写入失败的任务结果行数").register(meterRegistry);
+    }
+
+    /**
+     * 为一个任务创建结果缓冲，缓冲只允许单线程使用
+     */
+    public Buffer newBuffer(String taskId) {
+        return new Buffer(taskId);
+    }
+
+    /**
+     * 键集分页：返回主键大于 afterId 的下一页结果，afterId 为空时从头开始
+     */
+    public List<ResultRow> page(String taskId, Long afterId, int limit) {
+        return jdbcTemplate.query("SELECT id, item_id, question_id, student_id, status, score, max_score, created_at "
+            + "FROM task_results WHERE task_id = ? AND id > ? ORDER BY id LIMIT ?",
+            (rs, rowNum) -> toRow(rs), taskId, afterId != null ? afterId : 0L, Math.max(1, limit));
+    }
+
+    /**
+     * 各状态的结果行数
+     */
+    public Map<String, Long> countByStatus(String taskId) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT status, COUNT(*) AS cnt FROM task_results WHERE task_id = ? GROUP BY status",
+            rs -> {
+                counts.put(rs.getString("status"), rs.getLong("cnt"));
+            }, taskId);
+        return counts;
+    }
+
+    /**
+     * 流式导出任务结果，format 为 json、csv（带 BOM）或 excel
+     */
+    public void export(String taskId, String format, OutputStream out) throws IOException {
+        if ("json".equalsIgnoreCase(format)) {
+            exportJson(taskId, out);
+        } else if ("csv".equalsIgnoreCase(format)) {
+            exportCsv(taskId, out);
+        } else {
+            exportExcel(taskId, out);
+        }
+    }
+
+    /**
+     * 删除任务的结果行
+     */
+    public void deleteResults(String taskId) {
+        jdbcTemplate.update("DELETE FROM task_results WHERE task_id = ?", taskId);
+    }
+
+    private void exportJson(String taskId, OutputStream out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("taskId", taskId);
+            json.writeStringField("exportTime", LocalDateTime.now().toString());
+            json.writeArrayFieldStart("results");
+            Long after = null;
+            List<ResultRow> rows;
+            while (!(rows = page(taskId, after, exportPageSize)).isEmpty()) {
+                for (ResultRow row : rows) {
+                    json.writeStartObject();
+                    json.writeNumberField("id", row.id());
+                    json.writeNumberField("answerId", row.itemId());
+                    writeNumber(json, "questionId", row.questionId());
+                    writeNumber(json, "studentId", row.studentId());
+                    json.writeStringField("status", row.status());
+                    if (row.score() != null) {
+                        json.writeNumberField("score", row.score());
+                    }
+                    if (row.maxScore() != null) {
+                        json.writeNumberField("maxScore", row.maxScore());
+                    }
+                    json.writeStringField("createdAt", row.createdAt() != null ? row.createdAt().toString() : null);
+                    json.writeEndObject();
+                }
+                after = rows.get(rows.size() - 1).id();
+                json.flush();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    private void exportCsv(String taskId, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write('\uFEFF');
+        writer.write(String.join(",", CSV_HEADER));
+        writer.write("\r\n");
+        Long after = null;
+        List<ResultRow> rows;
+        while (!(rows = page(taskId, after, exportPageSize)).isEmpty()) {
+            for (ResultRow row : rows) {
+                writer.write(csvLine(row.id(), row.itemId(), row.questionId(), row.studentId(), row.status(),
+                    row.score(), row.maxScore(), row.createdAt()));
+            }
+            after = rows.get(rows.size() - 1).id();
+            writer.flush();
+        }
+        writer.flush();
+    }
+
+    /**
+     * SXSSF 只在内存中保留最近的行窗口，已写出的行进入临时文件，导出行数不受堆大小限制
+     */
+    private void exportExcel(String taskId, OutputStream out) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(EXCEL_ROW_WINDOW);
+        try {
+            Sheet sheet = workbook.createSheet("任务结果");
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < CSV_HEADER.length; i++) {
+                header.createCell(i).setCellValue(CSV_HEADER[i]);
+            }
+            int rowNum = 1;
+            Long after = null;
+            List<ResultRow> rows;
+            while (!(rows = page(taskId, after, exportPageSize)).isEmpty()) {
+                for (ResultRow result : rows) {
+                    Row row = sheet.createRow(rowNum++);
+                    row.createCell(0).setCellValue(result.id());
+                    row.createCell(1).setCellValue(result.itemId());
+                    if (result.questionId() != null) {
+                        row.createCell(2).setCellValue(result.questionId());
+                    }
+                    if (result.studentId() != null) {
+                        row.createCell(3).setCellValue(result.studentId());
+                    }
+                    row.createCell(4).setCellValue(result.status());
+                    if (result.score() != null) {
+                        row.createCell(5).setCellValue(result.score().doubleValue());
+                    }
+                    if (result.maxScore() != null) {
+                        row.createCell(6).setCellValue(result.maxScore().doubleValue());
+                    }
+                    row.createCell(7).setCellValue(result.createdAt() != null ? result.createdAt().toString() : "");
+                }
+                after = rows.get(rows.size() - 1).id();
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static String csvLine(Object... values) {
+        List<String> cells = new ArrayList<>(values.length);
+        for (Object value : values) {
+            String text = value == null ? "" : value instanceof BigDecimal decimal ? decimal.toPlainString() : value.toString();
+            if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                text = '"' + text.replace("\"", "\"\"") + '"';
+            }
+            cells.add(text);
+        }
+        return cells.stream().collect(Collectors.joining(",", "", "\r\n"));
+    }
+
+    private static void writeNumber(JsonGenerator json, String field, Long value) throws IOException {
+        if (value != null) {
+            json.writeNumberField(field, value);
+        }
+    }
+
+    private static ResultRow toRow(ResultSet rs) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return new ResultRow(rs.getLong("id"), rs.getLong("item_id"),
+            rs.getObject("question_id") != null ? rs.getLong("question_id") : null,
+            rs.getObject("student_id") != null ? rs.getLong("student_id") : null,
+            rs.getString("status"), rs.getBigDecimal("score"), rs.getBigDecimal("max_score"),
+            createdAt != null ? createdAt.toLocalDateTime() : null);
+    }
+
+    /**
+     * 先删除同一答案的旧结果再插入，恢复或重试后重新评估的答案只保留最新一行
+     */
+    private int write(String taskId, List<Object[]> rows) {
+        String itemIds = rows.stream().map(row -> String.valueOf(row[1])).collect(Collectors.joining(","));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update("DELETE FROM task_results WHERE task_id = ? AND item_id IN (" + itemIds + ")", taskId);
+                jdbcTemplate.batchUpdate(INSERT_SQL, rows, ARG_TYPES);
+            });
+            return 0;
+        } catch (Exception e) {
+            logger.warn("任务 {} 写入 {} 行结果失败: {}", taskId, rows.size(), e.getMessage());
+            return rows.size();
+        }
+    }
+
+    /**
+     * 单个任务的结果缓冲
+     */
+    public final class Buffer {
+        private final String taskId;
+        private final List<Object[]> pending = new ArrayList<>();
+        private long lastFlushMillis = System.currentTimeMillis();
+
+        private Buffer(String taskId) {
+            this.taskId = taskId;
+        }
+
+        /**
+         * 加入一个已处理的答案
+         */
+        public void add(StudentAnswer answer, boolean success) {
+            add(answer.getId(),
+                answer.getQuestion() != null ? answer.getQuestion().getId() : null,
+                answer.getStudent() != null ? answer.getStudent().getId() : null,
+                success,
+                success ? answer.getScore() : null,
+                answer.getQuestion() != null ? answer.getQuestion().getMaxScore() : null);
+        }
+
+        /**
+         * 加入一个未能评估（加载失败或已被删除）的答案
+         */
+        public void addSkipped(Long answerId) {
+            add(answerId, null, null, false, null, null);
+        }
+
+        private void add(Long itemId, Long questionId, Long studentId, boolean success, BigDecimal score, BigDecimal maxScore) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            pending.add(new Object[] { taskId, itemId, questionId, studentId, success ? "SUCCESS" : "FAILED", score, maxScore, now, now });
+            if (pending.size() >= batchSize) {
+                flush();
+            } else {
+                flushIfDue();
+            }
+        }
+
+        /**
+         * 距上次写入超过时间间隔时写入
+         */
+        public void flushIfDue() {
+            if (!pending.isEmpty() && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMs) {
+                flush();
+            }
+        }
+
+        /**
+         * 立即写入全部缓冲的结果
+         */
+        public void flush() {
+            lastFlushMillis = System.currentTimeMillis();
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Object[]> rows = new ArrayList<>(pending);
+            pending.clear();
+            int failed = write(taskId, rows);
+            rowCounter.increment(rows.size() - failed);
+            failedRowCounter.increment(failed);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.teachhelper.service.ai.CancellationToken;
+
 /**
  * 任务运行时管理器
  * 只负责管理运行中的任务，不包含任务分发逻辑
@@ -20,6 +22,9 @@ public class TaskRuntimeManager {
     // 跟踪正在执行的任务
     private final Map<String, CompletableFuture<Void>> runningTasks = new ConcurrentHashMap<>();
     
+    // 正在执行的任务的取消令牌，由执行器在任务开始时登记、结束时移除
+    private final Map<String, CancellationToken> cancellationTokens = new ConcurrentHashMap<>();
+    
     /**
      * 注册运行中的任务
      */
@@ -35,10 +40,45 @@ public class TaskRuntimeManager {
         });
     }
     
+    /**
+     * 为开始执行的任务登记取消令牌
+     */
+    public CancellationToken openCancellationToken(String taskId) {
+        CancellationToken token = new CancellationToken();
+        cancellationTokens.put(taskId, token);
+        return token;
+    }
+    
+    /**
+     * 任务执行结束时移除令牌；同一任务已重新开始执行时保留新的令牌
+     */
+    public void releaseCancellationToken(String taskId, CancellationToken token) {
+        cancellationTokens.remove(taskId, token);
+    }
+    
+    /**
+     * 通知任务取消：中止在途的AI请求并停止提交新的评估
+     * @return 任务是否持有取消令牌（即正在本节点执行）
+     */
+    public boolean signalCancellation(String taskId) {
+        CancellationToken token = cancellationTokens.get(taskId);
+        if (token == null) {
+            return false;
+        }
+        token.cancel();
+        return true;
+    }
+    
     /**
      * 取消任务执行
+     * 持有取消令牌的任务协作结束：Future 保留到任务真正停止，期间任务仍计入运行数；
+     * 没有令牌的任务退回到取消 Future
      */
     public boolean cancelTask(String taskId) {
+        if (signalCancellation(taskId)) {
+            logger.info("任务 {} 已收到取消信号，正在中止在途评估", taskId);
+            return true;
+        }
         CompletableFuture<Void> future = runningTasks.get(taskId);
         if (future != null) {
             boolean cancelled = future.cancel(true);
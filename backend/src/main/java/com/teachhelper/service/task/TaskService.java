@@ -1,5 +1,7 @@
 package com.teachhelper.service.task;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +49,11 @@ public interface TaskService {
      */
     Map<String, Object> getTaskResults(String taskId, int page, int size);
 
+    /**
+     * 按结果行主键键集分页获取任务结果，afterId 为上一页返回的 nextAfter
+     */
+    Map<String, Object> getTaskResultPage(String taskId, Long afterId, int size);
+
     /**
      * 创建任务
      */
@@ -88,9 +95,9 @@ public interface TaskService {
     int pauseAllRunningTasks();
 
     /**
-     * 导出任务结果
+     * 导出任务结果，逐页读取结果行直接写入输出流
      */
-    byte[] exportTaskResults(String taskId, String format);
+    void exportTaskResults(String taskId, String format, OutputStream out) throws IOException;
 
     /**
      * 更新任务进度
@@ -1,5 +1,7 @@
 package com.teachhelper.service.task;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -8,10 +10,13 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.teachhelper.dto.request.TaskCreateRequest;
@@ -20,10 +25,10 @@ import com.teachhelper.dto.response.TaskStatistics;
 import com.teachhelper.entity.Task;
 import com.teachhelper.entity.TaskStatus;
 import com.teachhelper.entity.TaskLog;
-import com.teachhelper.entity.TaskLog.LogLevel;
 import com.teachhelper.entity.User;
 import com.teachhelper.event.TaskCreatedEvent;
 import com.teachhelper.repository.TaskLogRepository;
+import com.teachhelper.repository.TaskLogSummaryRepository;
 import com.teachhelper.repository.TaskRepository;
 import com.teachhelper.service.auth.AuthService;
 import com.teachhelper.utils.TaskConverter;
@@ -35,6 +40,8 @@ import com.teachhelper.websocket.TaskWebSocketHandler;
 @Service
 public class TaskServiceImpl implements TaskService, TaskProgressCallback {
 
+    private static final Logger logger = LoggerFactory.getLogger(TaskServiceImpl.class);
+
     @Autowired
     private AuthService authService;
     
@@ -52,6 +59,27 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
     
     @Autowired
     private TaskRuntimeManager taskRuntimeManager;
+    
+    @Autowired
+    private TaskCheckpointService taskCheckpointService;
+    
+    @Autowired
+    private TaskChunkLeaseService taskChunkLeaseService;
+    
+    @Autowired
+    private TaskResultStore taskResultStore;
+    
+    @Autowired
+    private TaskQueueScheduler taskQueueScheduler;
+    
+    @Autowired
+    private TaskProgressAggregator taskProgressAggregator;
+    
+    @Autowired
+    private TaskLogAppender taskLogAppender;
+    
+    @Autowired
+    private TaskLogSummaryRepository taskLogSummaryRepository;
 
     @Override
     public Page<TaskResponse> getTasks(Pageable pageable, String status, String type, 
@@ -68,7 +96,7 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         Page<Task> taskPage = taskRepository.findTasksWithFilters(
             taskStatus, type, startDate, endDate, pageable);
         
-        return taskPage.map(TaskConverter::convertToResponse);
+        return taskPage.map(this::toResponse);
     }
 
     @Override
@@ -108,7 +136,7 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         if (taskOpt.isEmpty()) {
             throw new RuntimeException("任务不存在: " + taskId);
         }
-        return TaskConverter.convertToResponse(taskOpt.get());
+        return toResponse(taskOpt.get());
     }
 
     @Override
@@ -135,30 +163,34 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         results.put("totalCount", task.getTotalCount());
         results.put("page", page);
         results.put("size", size);
+        // 逐行记录的结果只返回各状态计数，明细通过键集分页接口获取
+        results.put("resultCounts", taskResultStore.countByStatus(taskId));
         
-        // 如果任务有结果数据，尝试返回
+        // 任务的汇总结果数据，直接将原始JSON数据作为字符串返回，让前端处理
         if (task.getResultData() != null && !task.getResultData().trim().isEmpty()) {
-            System.out.println("✅ TaskService.getTaskResults - 找到任务结果数据:");
-            System.out.println("  - 任务ID: " + taskId);
-            System.out.println("  - 状态: " + task.getStatus());
-            System.out.println("  - 数据长度: " + task.getResultData().length());
-            System.out.println("  - 数据内容前100字符: " + 
-                (task.getResultData().length() > 100 ? 
-                    task.getResultData().substring(0, 100) + "..." : 
-                    task.getResultData()));
-            
-            // 直接将原始JSON数据作为字符串返回，让前端处理
             results.put("resultData", task.getResultData());
-        } else {
-            System.out.println("⚠️ TaskService.getTaskResults - 任务无结果数据:");
-            System.out.println("  - 任务ID: " + taskId);
-            System.out.println("  - 状态: " + task.getStatus());
-            System.out.println("  - 结果数据: " + task.getResultData());
         }
         
         return results;
     }
 
+    @Override
+    public Map<String, Object> getTaskResultPage(String taskId, Long afterId, int size) {
+        if (taskRepository.findByTaskId(taskId).isEmpty()) {
+            throw new RuntimeException("任务不存在: " + taskId);
+        }
+        int pageSize = Math.min(Math.max(size, 1), 1000);
+        List<TaskResultStore.ResultRow> rows = taskResultStore.page(taskId, afterId, pageSize);
+        
+        Map<String, Object> results = new HashMap<>();
+        results.put("taskId", taskId);
+        results.put("items", rows);
+        results.put("size", pageSize);
+        // 返回满页时才可能还有下一页
+        results.put("nextAfter", rows.size() == pageSize ? rows.get(rows.size() - 1).id() : null);
+        return results;
+    }
+
     @Override
     @Transactional
     public TaskResponse createTask(TaskCreateRequest request) {
@@ -217,8 +249,9 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         task.setStatus(TaskStatus.PAUSED);
         task.setUpdatedAt(LocalDateTime.now());
         task = taskRepository.save(task);
+        taskQueueScheduler.remove(taskId);
         
-        addTaskLog(taskId, "INFO", "任务已暂停");
+        addTaskLog(taskId, "INFO", "任务已暂停，在途评估完成后保存进度");
         
         TaskResponse response = TaskConverter.convertToResponse(task);
         broadcastTaskUpdate(response);
@@ -237,12 +270,15 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         if (task.getStatus() != TaskStatus.PAUSED) {
             throw new RuntimeException("只能恢复已暂停的任务");
         }
+        if (taskRuntimeManager.isTaskRunning(taskId)) {
+            throw new RuntimeException("任务正在停止中，请稍后再恢复");
+        }
         
         task.setStatus(TaskStatus.RUNNING);
         task.setUpdatedAt(LocalDateTime.now());
         task = taskRepository.save(task);
         
-        addTaskLog(taskId, "INFO", "任务已恢复，重新开始执行");
+        addTaskLog(taskId, "INFO", "任务已恢复，从检查点继续执行");
         
         TaskResponse response = TaskConverter.convertToResponse(task);
         broadcastTaskUpdate(response);
@@ -281,13 +317,14 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         if (task.getStatus() == TaskStatus.RUNNING) {
             cancelled = taskRuntimeManager.cancelTask(taskId);
         }
+        taskQueueScheduler.remove(taskId);
         
         task.setStatus(TaskStatus.CANCELLED);
         task.setCompletedAt(LocalDateTime.now());
         task.setUpdatedAt(LocalDateTime.now());
         task = taskRepository.save(task);
         
-        String logMessage = cancelled ? "运行中的任务已被强制取消" : "任务已取消";
+        String logMessage = cancelled ? "运行中的任务已取消，在途评估已中止" : "任务已取消";
         addTaskLog(taskId, "WARN", logMessage);
         
         TaskResponse response = TaskConverter.convertToResponse(task);
@@ -307,17 +344,19 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         if (task.getStatus() != TaskStatus.FAILED && task.getStatus() != TaskStatus.CANCELLED) {
             throw new RuntimeException("只能重试失败或已取消的任务");
         }
+        if (taskRuntimeManager.isTaskRunning(taskId)) {
+            throw new RuntimeException("任务正在停止中，请稍后再重试");
+        }
         
+        // 进度由执行器根据检查点重新计算
         task.setStatus(TaskStatus.RUNNING);
-        task.setProgress(0);
-        task.setProcessedCount(0);
         task.setStartedAt(LocalDateTime.now());
         task.setCompletedAt(null);
         task.setErrorMessage(null);
         task.setUpdatedAt(LocalDateTime.now());
         task = taskRepository.save(task);
         
-        addTaskLog(taskId, "INFO", "任务重试已启动，开始重新执行");
+        addTaskLog(taskId, "INFO", "任务重试已启动，从检查点继续执行，失败的答案将重新评估");
         
         TaskResponse response = TaskConverter.convertToResponse(task);
         broadcastTaskUpdate(response);
@@ -352,8 +391,13 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
             throw new RuntimeException("无法删除运行中的任务，请先停止任务");
         }
         
-        // 删除相关日志
+        // 删除相关日志和检查点
         taskLogRepository.deleteByTaskId(taskId);
+        taskLogSummaryRepository.deleteByTaskId(taskId);
+        taskLogAppender.forget(taskId);
+        taskCheckpointService.deleteCheckpoint(taskId);
+        taskChunkLeaseService.deleteChunks(taskId);
+        taskResultStore.deleteResults(taskId);
         
         // 删除任务
         taskRepository.deleteByTaskId(taskId);
@@ -368,6 +412,11 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         
         for (Task task : completedTasks) {
             taskLogRepository.deleteByTask(task);
+            taskLogSummaryRepository.deleteByTaskId(task.getTaskId());
+            taskLogAppender.forget(task.getTaskId());
+            taskCheckpointService.deleteCheckpoint(task.getTaskId());
+            taskChunkLeaseService.deleteChunks(task.getTaskId());
+            taskResultStore.deleteResults(task.getTaskId());
         }
         
         int count = completedTasks.size();
@@ -392,19 +441,62 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
     }
 
     @Override
-    public byte[] exportTaskResults(String taskId, String format) {
-        Map<String, Object> results = getTaskResults(taskId, 0, 1000);
-        
-        // 简单的JSON导出实现
-        String jsonData = "{\n  \"taskId\": \"" + taskId + "\",\n  \"exportTime\": \"" + 
-                         LocalDateTime.now() + "\",\n  \"results\": " + results + "\n}";
-        
-        return jsonData.getBytes();
+    public void exportTaskResults(String taskId, String format, OutputStream out) throws IOException {
+        if (taskRepository.findByTaskId(taskId).isEmpty()) {
+            throw new RuntimeException("任务不存在: " + taskId);
+        }
+        taskResultStore.export(taskId, format, out);
     }
 
+    /**
+     * 更新任务进度：不带状态的进度先在内存中合并，按时间间隔或百分比步长写入数据库并推送；
+     * 带状态的更新（开始、完成、失败等）立即写入
+     */
     @Override
-    @Transactional
     public void updateTaskProgress(String taskId, int processedCount, int totalCount, String status) {
+        if (status == null) {
+            TaskProgressAggregator.Snapshot snapshot = taskProgressAggregator.record(taskId, processedCount, totalCount);
+            if (snapshot != null) {
+                writeCoalescedProgress(snapshot);
+            }
+            return;
+        }
+        taskProgressAggregator.clear(taskId);
+        writeTaskProgress(taskId, processedCount, totalCount, status);
+    }
+    
+    /**
+     * 定时补写合并窗口内最后一次上报的进度
+     */
+    @Scheduled(fixedDelayString = "${app.task.progress.flush-interval-ms:500}")
+    public void flushCoalescedProgress() {
+        for (TaskProgressAggregator.Snapshot snapshot : taskProgressAggregator.drainDue()) {
+            try {
+                writeCoalescedProgress(snapshot);
+            } catch (Exception e) {
+                logger.warn("写入任务 {} 的进度失败: {}", snapshot.taskId(), e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 写入合并后的进度；任务已经结束时不再写入，避免较早的进度覆盖最终结果
+     */
+    private void writeCoalescedProgress(TaskProgressAggregator.Snapshot snapshot) {
+        Optional<Task> taskOpt = taskRepository.findByTaskId(snapshot.taskId());
+        if (taskOpt.isPresent() && !isTerminal(taskOpt.get().getStatus())) {
+            Task task = taskOpt.get();
+            TaskConverter.updateTaskProgress(task, snapshot.processedCount(), snapshot.totalCount(), null);
+            taskRepository.save(task);
+            broadcastTaskUpdate(TaskConverter.convertToResponse(task));
+        }
+    }
+    
+    private static boolean isTerminal(TaskStatus status) {
+        return status == TaskStatus.COMPLETED || status == TaskStatus.FAILED || status == TaskStatus.CANCELLED;
+    }
+    
+    private void writeTaskProgress(String taskId, int processedCount, int totalCount, String status) {
         Optional<Task> taskOpt = taskRepository.findByTaskId(taskId);
         if (taskOpt.isPresent()) {
             Task task = taskOpt.get();
@@ -438,23 +530,12 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
         }
     }
 
+    /**
+     * 添加任务日志：异步批量写入，不阻塞评估线程
+     */
     @Override
-    @Transactional
     public void addTaskLog(String taskId, String level, String message) {
-        Optional<Task> taskOpt = taskRepository.findByTaskId(taskId);
-        if (taskOpt.isPresent()) {
-            Task task = taskOpt.get();
-            
-            LogLevel logLevel;
-            try {
-                logLevel = LogLevel.valueOf(level.toUpperCase());
-            } catch (IllegalArgumentException e) {
-                logLevel = LogLevel.INFO;
-            }
-            
-            TaskLog taskLog = new TaskLog(task, logLevel, message);
-            taskLogRepository.save(taskLog);
-        }
+        taskLogAppender.append(taskId, level, message);
     }
     
     @Override
@@ -483,25 +564,30 @@ public class TaskServiceImpl implements TaskService, TaskProgressCallback {
     }
 
     /**
-     * 广播任务更新事件
+     * 转换为响应对象，并填充等待队列位置
+     */
+    private TaskResponse toResponse(Task task) {
+        TaskResponse response = TaskConverter.convertToResponse(task);
+        response.setQueuePosition(taskQueueScheduler.getQueuePosition(task.getTaskId()));
+        return response;
+    }
+
+    /**
+     * 推送任务更新：只发给订阅者，不在当前线程等待发送
      */
     private void broadcastTaskUpdate(TaskResponse task) {
         try {
-            // 立即广播任务状态变化
-            webSocketHandler.broadcastTaskUpdate(
+            webSocketHandler.publishTaskUpdate(
                 task.getTaskId(), 
+                task.getCreatedBy(), 
                 task.getStatus(), 
                 task.getProgress(), 
                 task.getType(), 
                 task.getResultSummary()
             );
-            
-            // 添加日志以便调试
-            System.out.println("📡 广播任务更新: " + task.getTaskId() + " -> " + task.getStatus());
         } catch (Exception e) {
-            // 忽略广播失败，不影响主要功能
-            System.err.println("❌ 广播任务更新失败: " + e.getMessage());
-            e.printStackTrace();
+            // 忽略推送失败，不影响主要功能
+            logger.warn("推送任务 {} 的更新失败: {}", task.getTaskId(), e.getMessage());
         }
     }
     
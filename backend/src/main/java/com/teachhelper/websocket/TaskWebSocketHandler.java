@@ -1,102 +1,287 @@
 package com.teachhelper.websocket;
 
-import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
-import org.springframework.stereotype.Component;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import java.io.IOException;
+import java.security.Principal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-// 使用 TextWebSocketHandler 是一个更好的选择，它是 WebSocketHandler 的实现
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.teachhelper.entity.User;
+import com.teachhelper.repository.TaskRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * 任务更新推送
+ * 客户端连接后默认订阅本人创建的任务，也可以按任务ID订阅：
+ * {"action":"subscribe","taskIds":[...]}、{"action":"unsubscribe","taskIds":[...]}，
+ * 按任务ID只能订阅本人创建的任务（管理员不受限制），管理员可以用 {"action":"subscribe","scope":"all"} 订阅全部任务。
+ * 每次更新只序列化一次；发送在独立线程上进行，每个会话有发送时间和缓冲大小上限，
+ * 同一任务尚未发出的旧进度被新进度覆盖，慢速客户端不会拖慢评估线程
+ */
 @Component
 public class TaskWebSocketHandler extends TextWebSocketHandler {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(TaskWebSocketHandler.class);
-    
-    // 用于存储会话的 Map
-    private static final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    
+
+    /**
+     * 推送给客户端的任务更新
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record TaskUpdateFrame(String taskId, String status, int progress, String type, long timestamp, Object result) {
+    }
+
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscriber>> taskSubscribers = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Subscriber>> userSubscribers = new ConcurrentHashMap<>();
+    private final Set<Subscriber> allTaskSubscribers = ConcurrentHashMap.newKeySet();
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final ObjectWriter frameWriter = objectMapper.writerFor(TaskUpdateFrame.class);
+    private final TaskRepository taskRepository;
+    private final ExecutorService sender;
+    private final int sendTimeLimitMs;
+    private final int bufferSizeLimit;
+
+    @Autowired
+    public TaskWebSocketHandler(TaskRepository taskRepository,
+                                @Value("${app.websocket.send-threads:2}") int sendThreads,
+                                @Value("${app.websocket.send-time-limit-ms:10000}") int sendTimeLimitMs,
+                                @Value("${app.websocket.buffer-size-limit:524288}") int bufferSizeLimit) {
+        this.taskRepository = taskRepository;
+        this.sendTimeLimitMs = Math.max(1000, sendTimeLimitMs);
+        this.bufferSizeLimit = Math.max(8192, bufferSizeLimit);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(Math.max(1, sendThreads), runnable -> {
+            Thread thread = new Thread(runnable, "task-ws-sender-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        String userId = getUserId(session);
-        sessions.put(userId, session);
-        System.out.println("WebSocket connection established for user: " + userId);
+        Subscriber subscriber = new Subscriber(session, getUserId(session), isAdmin(session));
+        subscribers.put(session.getId(), subscriber);
+        // 默认订阅本人创建的任务
+        if (subscriber.userId != null) {
+            userSubscribers.computeIfAbsent(subscriber.userId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+        logger.debug("任务WebSocket连接建立: session={}, user={}", session.getId(), subscriber.userId);
     }
-    
+
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        // 处理接收到的消息
-        String payload = message.getPayload();
-        System.out.println("Received message: " + payload);
-        
-        // 这里可以添加消息处理逻辑
+        Subscriber subscriber = subscribers.get(session.getId());
+        if (subscriber == null) {
+            return;
+        }
+        JsonNode request;
+        try {
+            request = objectMapper.readTree(message.getPayload());
+        } catch (IOException e) {
+            logger.debug("忽略无法解析的WebSocket消息: {}", e.getMessage());
+            return;
+        }
+        boolean subscribe = "subscribe".equals(request.path("action").asText());
+        if (!subscribe && !"unsubscribe".equals(request.path("action").asText())) {
+            return;
+        }
+        for (JsonNode taskId : request.path("taskIds")) {
+            if (subscribe) {
+                if (!canSubscribe(subscriber, taskId.asText())) {
+                    logger.warn("用户 {} 无权订阅任务 {} 的更新，已忽略", subscriber.userId, taskId.asText());
+                    continue;
+                }
+                subscriber.taskIds.add(taskId.asText());
+                taskSubscribers.computeIfAbsent(taskId.asText(), id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+            } else {
+                subscriber.taskIds.remove(taskId.asText());
+                removeFrom(taskSubscribers, taskId.asText(), subscriber);
+            }
+        }
+        if ("all".equals(request.path("scope").asText())) {
+            if (!subscribe) {
+                allTaskSubscribers.remove(subscriber);
+            } else if (subscriber.admin) {
+                allTaskSubscribers.add(subscriber);
+            }
+        }
     }
-    
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.debug("任务WebSocket传输错误: session={}, {}", session.getId(), exception.getMessage());
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String userId = getUserId(session);
-        sessions.remove(userId);
-        System.out.println("WebSocket connection closed for user: " + userId);
+        Subscriber subscriber = subscribers.remove(session.getId());
+        if (subscriber == null) {
+            return;
+        }
+        for (String taskId : subscriber.taskIds) {
+            removeFrom(taskSubscribers, taskId, subscriber);
+        }
+        if (subscriber.userId != null) {
+            removeFrom(userSubscribers, subscriber.userId, subscriber);
+        }
+        allTaskSubscribers.remove(subscriber);
+        logger.debug("任务WebSocket连接关闭: session={}, status={}", session.getId(), status);
     }
-    
-    // 从会话中获取用户ID的辅助方法
-    private String getUserId(WebSocketSession session) {
-        // 实现获取用户ID的逻辑，例如从session属性中获取
-        return session.getId(); // 简单示例，使用会话ID作为用户ID
+
+    /**
+     * 推送任务更新给订阅了该任务、任务创建者本人以及订阅全部任务的会话，不等待发送完成
+     * @param ownerId 任务创建者的用户ID，可为空
+     */
+    public void publishTaskUpdate(String taskId, Long ownerId, String status, Integer progress, String type, Object result) {
+        Set<Subscriber> byTask = taskSubscribers.get(taskId);
+        Set<Subscriber> byOwner = ownerId != null ? userSubscribers.get(ownerId) : null;
+        if ((byTask == null || byTask.isEmpty()) && (byOwner == null || byOwner.isEmpty()) && allTaskSubscribers.isEmpty()) {
+            return;
+        }
+        TextMessage frame;
+        try {
+            frame = new TextMessage(frameWriter.writeValueAsString(new TaskUpdateFrame(
+                taskId, status, progress != null ? progress : 0, type != null ? type : "", System.currentTimeMillis(), result)));
+        } catch (IOException e) {
+            logger.warn("序列化任务 {} 的更新失败: {}", taskId, e.getMessage());
+            return;
+        }
+        if (byTask != null) {
+            byTask.forEach(subscriber -> subscriber.offer(taskId, frame));
+        }
+        if (byOwner != null) {
+            byOwner.forEach(subscriber -> subscriber.offer(taskId, frame));
+        }
+        allTaskSubscribers.forEach(subscriber -> subscriber.offer(taskId, frame));
     }
-    
-    // 发送消息给指定用户的方法
-    public void sendMessageToUser(String userId, String message) {
-        WebSocketSession session = sessions.get(userId);
-        if (session != null && session.isOpen()) {
-            try {
-                session.sendMessage(new TextMessage(message));
-            } catch (IOException e) {
-                logger.error("Failed to send message to user {}: {}", userId, e.getMessage());
-            }
+
+    /**
+     * 管理员可以订阅任意任务，其他用户只能订阅本人创建的任务
+     */
+    private boolean canSubscribe(Subscriber subscriber, String taskId) {
+        if (subscriber.admin) {
+            return true;
+        }
+        if (subscriber.userId == null) {
+            return false;
+        }
+        try {
+            return taskRepository.findCreatorIdByTaskId(taskId).map(subscriber.userId::equals).orElse(false);
+        } catch (RuntimeException e) {
+            logger.warn("查询任务 {} 的创建者失败，拒绝订阅: {}", taskId, e.getMessage());
+            return false;
         }
     }
-    
-    // 广播消息的方法
-    public void broadcast(String message) {
-        sessions.forEach((userId, session) -> {
-            if (session.isOpen()) {
+
+    public int getSessionCount() {
+        return subscribers.size();
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Subscriber>> index, K key, Subscriber subscriber) {
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static Long getUserId(WebSocketSession session) {
+        Principal principal = session.getPrincipal();
+        if (principal instanceof Authentication authentication && authentication.getPrincipal() instanceof User user) {
+            return user.getId();
+        }
+        return null;
+    }
+
+    private static boolean isAdmin(WebSocketSession session) {
+        return session.getPrincipal() instanceof Authentication authentication
+            && authentication.getAuthorities().stream().anyMatch(authority -> "ROLE_ADMIN".equals(authority.getAuthority()));
+    }
+
+    /**
+     * 一个客户端会话：待发送的更新按任务合并，同一时刻最多一个发送线程在处理
+     */
+    private final class Subscriber {
+        private final WebSocketSession session;
+        private final Long userId;
+        private final boolean admin;
+        private final Set<String> taskIds = ConcurrentHashMap.newKeySet();
+        private final Map<String, TextMessage> pending = new LinkedHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscriber(WebSocketSession session, Long userId, boolean admin) {
+            // 超过发送时间或缓冲上限时丢弃最早的缓冲消息，后续的更新仍包含最新状态
+            this.session = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, bufferSizeLimit,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP);
+            this.userId = userId;
+            this.admin = admin;
+        }
+
+        /**
+         * 同一会话可能通过多个订阅收到同一帧，合并后只发送一次
+         */
+        void offer(String taskId, TextMessage frame) {
+            synchronized (pending) {
+                pending.put(taskId, frame);
+            }
+            if (scheduled.compareAndSet(false, true)) {
                 try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (IOException e) {
-                    logger.error("Failed to send broadcast message: {}", e.getMessage());
+                    sender.execute(this::drain);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
                 }
             }
-        });
-    }
-    
-    // 广播任务更新的方法
-    public void broadcastTaskUpdate(String taskId, String status, Integer progress, String type, Object result) {
-        try {
-            // 构建更完整的任务更新消息
-            StringBuilder messageBuilder = new StringBuilder();
-            messageBuilder.append("{")
-                .append("\"taskId\":\"").append(taskId).append("\",")
-                .append("\"status\":\"").append(status).append("\",")
-                .append("\"progress\":").append(progress != null ? progress : 0).append(",")
-                .append("\"type\":\"").append(type != null ? type : "").append("\",")
-                .append("\"timestamp\":").append(System.currentTimeMillis());
-            
-            if (result != null) {
-                messageBuilder.append(",\"result\":").append(result.toString());
+        }
+
+        private void drain() {
+            while (true) {
+                Map<String, TextMessage> batch;
+                synchronized (pending) {
+                    if (pending.isEmpty()) {
+                        scheduled.set(false);
+                        return;
+                    }
+                    batch = new LinkedHashMap<>(pending);
+                    pending.clear();
+                }
+                Iterator<TextMessage> frames = batch.values().iterator();
+                while (frames.hasNext() && session.isOpen()) {
+                    try {
+                        session.sendMessage(frames.next());
+                    } catch (IOException | RuntimeException e) {
+                        logger.debug("向会话 {} 推送任务更新失败: {}", session.getId(), e.getMessage());
+                    }
+                }
             }
-            
-            messageBuilder.append("}");
-            
-            String message = messageBuilder.toString();
-            logger.info("广播任务更新: taskId={}, status={}, progress={}", taskId, status, progress);
-            broadcast(message);
-        } catch (Exception e) {
-            logger.error("广播任务更新失败: taskId={}, error={}", taskId, e.getMessage());
         }
     }
 }
@@ -0,0 +1,292 @@
+package com.teachhelper.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.QuestionType;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.UserAIConfigService;
+import com.teachhelper.service.ai.AIClient;
+import com.teachhelper.service.ai.AIConfigRouter;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIResponse;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.ai.TokenizerService;
+import com.teachhelper.service.evaluation.EvaluationResultCacheService;
+import com.teachhelper.service.evaluation.EvaluationTraceRecorder;
+
+/**
+ * AI评估服务测试：同题答案打包的规划和拆分回退，以及批量任务评估的失败处理
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class AIEvaluationServiceTest {
+
+    @Mock
+    private AIConfigRouter aiConfigRouter;
+
+    @Mock
+    private AIClient aiClient;
+
+    @Mock
+    private UserAIConfigService userAIConfigService;
+
+    @Mock
+    private EvaluationResultCacheService evaluationResultCacheService;
+
+    @Mock
+    private EvaluationTraceRecorder evaluationTraceRecorder;
+
+    @Mock
+    private EvaluationTraceRecorder.Span trace;
+
+    @InjectMocks
+    private AIEvaluationService service;
+
+    private UserAIConfig config;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(service, "tokenizerService", new TokenizerService("cl100k_base", "CLAUDE:heuristic", 0.1));
+        ReflectionTestUtils.setField(service, "packingEnabled", true);
+        ReflectionTestUtils.setField(service, "maxAnswersPerPack", 3);
+        ReflectionTestUtils.setField(service, "outputTokensPerAnswer", 600);
+        config = new UserAIConfig();
+        config.setProvider(AIProvider.DEEPSEEK);
+        config.setModelName("deepseek-chat");
+        config.setMaxTokens(4000);
+        when(aiConfigRouter.clientFor(config)).thenReturn(aiClient);
+        when(evaluationTraceRecorder.start(any(), any(), any())).thenReturn(trace);
+    }
+
+    @Test
+    public void testPlanGroupsByQuestionAndRespectsPackSize() {
+        Question first = question(1L);
+        Question second = question(2L);
+        List<StudentAnswer> answers = List.of(answer(1L, first, "甲"), answer(2L, second, "乙"), answer(3L, first, "丙"),
+            answer(4L, first, "丁"), answer(5L, first, "戊"));
+
+        List<List<StudentAnswer>> packs = service.planAnswerPacks(answers, config, "NORMAL");
+
+        assertEquals(List.of(List.of(1L, 3L, 4L), List.of(5L), List.of(2L)), ids(packs));
+    }
+
+    @Test
+    public void testPlanPutsOversizedAnswerInItsOwnPack() {
+        Question question = question(1L);
+        int contextWindow = AIProvider.DEEPSEEK.getContextWindow("deepseek-chat");
+        List<StudentAnswer> answers = List.of(answer(1L, question, "短答案"),
+            answer(2L, question, "超长的大作业正文".repeat(contextWindow / 4)), answer(3L, question, "另一份短答案"));
+
+        List<List<StudentAnswer>> packs = service.planAnswerPacks(answers, config, "NORMAL");
+
+        // 超出输入预算的答案单独成包，前后的答案不与它合并
+        assertEquals(List.of(List.of(1L), List.of(2L), List.of(3L)), ids(packs));
+    }
+
+    @Test
+    public void testMissingIndexIsRetriedAlone() {
+        Question question = question(1L);
+        List<StudentAnswer> answers = List.of(answer(1L, question, "甲"), answer(2L, question, "乙"), answer(3L, question, "丙"));
+        // 打包响应少了第2份，只有第2份单独重新评估
+        when(aiClient.chat(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            String prompt = invocation.getArgument(0);
+            if (prompt.contains("共有 3 份学生答案")) {
+                return AIResponse.success("[{\"index\": 1, \"score\": 8, \"feedback\": \"好\"},"
+                    + "{\"index\": 3, \"score\": 4, \"feedback\": \"一般\"}]");
+            }
+            return AIResponse.success("{\"score\": 6, \"feedback\": \"单独评估\"}");
+        });
+
+        List<AIEvaluationService.EvaluationResult> results = service.evaluateAnswerPack(answers, config, "NORMAL");
+
+        assertEquals(List.of("8", "6", "4"), scores(results));
+        assertEquals("单独评估", results.get(1).getFeedback().strip());
+    }
+
+    @Test
+    public void testCountMismatchSplitsPackInHalves() {
+        Question question = question(1L);
+        List<StudentAnswer> answers = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            answers.add(answer(id, question, "答案" + id));
+        }
+        List<String> prompts = new ArrayList<>();
+        // 4份的包只返回1个对象，剩余3份先按 1 + 2 拆分，2份的包正常返回
+        when(aiClient.chat(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            String prompt = invocation.getArgument(0);
+            prompts.add(prompt);
+            if (prompt.contains("共有 4 份学生答案")) {
+                return AIResponse.success("[{\"index\": 1, \"score\": 9, \"feedback\": \"好\"}]");
+            }
+            if (prompt.contains("共有 2 份学生答案")) {
+                return AIResponse.success("[{\"index\": 1, \"score\": 5, \"feedback\": \"中\"},"
+                    + "{\"index\": 2, \"score\": 3, \"feedback\": \"差\"}]");
+            }
+            return AIResponse.success("{\"score\": 7, \"feedback\": \"单独评估\"}");
+        });
+
+        List<AIEvaluationService.EvaluationResult> results = service.evaluateAnswerPack(answers, config, "NORMAL");
+
+        assertEquals(List.of("9", "7", "5", "3"), scores(results));
+        assertEquals(3, prompts.size());
+    }
+
+    @Test
+    public void testUnparsableSingleFallbackIsReportedAsFailure() {
+        Question question = question(1L);
+        List<StudentAnswer> answers = List.of(answer(1L, question, "甲"), answer(2L, question, "乙"));
+        when(aiClient.chat(anyString(), any(), any(), any())).thenReturn(AIResponse.success("无法评估"));
+
+        List<AIEvaluationService.EvaluationResult> results = service.evaluateAnswerPack(answers, config, "NORMAL");
+
+        // 打包和单独评估都无法解析时返回失败结果，不给基础分
+        assertFalse(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.stream().allMatch(result -> result.getErrorType() != null));
+    }
+
+    @Test
+    public void testOverloadedPackFailsWithoutSplitting() {
+        Question question = question(1L);
+        List<StudentAnswer> answers = List.of(answer(1L, question, "甲"), answer(2L, question, "乙"), answer(3L, question, "丙"));
+        List<String> prompts = new ArrayList<>();
+        when(aiClient.chat(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return AIResponse.failure("RATE_LIMITED", "rate limited");
+        });
+
+        List<AIEvaluationService.EvaluationResult> results = service.evaluateAnswerPack(answers, config, "NORMAL");
+
+        // 限流时拆分只会放大请求量，整包以限流错误失败
+        assertEquals(1, prompts.size());
+        assertTrue(results.stream().noneMatch(AIEvaluationService.EvaluationResult::isSuccess));
+        assertTrue(results.stream().allMatch(result -> result.getErrorType() == AIErrorType.RATE_LIMITED));
+    }
+
+    @Test
+    public void testOversizedAnswerIsTruncatedInPackedPrompt() {
+        Question question = question(1L);
+        int contextWindow = AIProvider.DEEPSEEK.getContextWindow("deepseek-chat");
+        List<StudentAnswer> answers = List.of(answer(1L, question, "短答案"),
+            answer(2L, question, "超长的大作业正文".repeat(contextWindow / 4)));
+        List<String> prompts = new ArrayList<>();
+        when(aiClient.chat(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return AIResponse.success("[{\"index\": 1, \"score\": 8, \"feedback\": \"好\"},"
+                + "{\"index\": 2, \"score\": 6, \"feedback\": \"一般\"}]");
+        });
+
+        service.evaluateAnswerPack(answers, config, "NORMAL");
+
+        // 超长答案按单份评估的方式截断，短答案保留原文，整个提示词放得进上下文窗口
+        String prompt = prompts.get(0);
+        assertTrue(prompt.contains("【答案 1】\n短答案\n"));
+        assertTrue(prompt.contains("答案过长，以下内容已截断"));
+        assertTrue(new TokenizerService("cl100k_base", "CLAUDE:heuristic", 0.1).forConfig(config).countTokens(prompt)
+            <= contextWindow - config.getMaxTokens());
+    }
+
+    @Test
+    public void testTaskEvaluationReturnsClassifiedFailureWithoutBasicFallback() {
+        StudentAnswer answer = answer(1L, question(1L), "光合作用把光能转化为化学能");
+        when(userAIConfigService.getUserDefaultAIConfig(7L)).thenReturn(Optional.of(config));
+        when(aiClient.chat(anyString(), any(), any(), any())).thenReturn(AIResponse.failure("RATE_LIMITED", "rate limited"));
+
+        // 批量任务拿到带错误分类的失败结果，由调用方决定是否重试
+        AIEvaluationService.EvaluationResult result = service.evaluateAnswer(answer, 7L, "NORMAL", CancellationToken.NONE);
+        assertFalse(result.isSuccess());
+        assertEquals(AIErrorType.RATE_LIMITED, result.getErrorType());
+
+        // 交互式评估仍回退到基础评估，并标记为非AI评分
+        AIEvaluationService.EvaluationResult interactive = service.evaluateAnswer(answer, 7L, "NORMAL");
+        assertTrue(interactive.isSuccess());
+        assertTrue(interactive.isFallback());
+        assertEquals(AIErrorType.RATE_LIMITED, interactive.getErrorType());
+    }
+
+    @Test
+    public void testTaskEvaluationWithoutConfigFails() {
+        StudentAnswer answer = answer(1L, question(1L), "甲");
+        when(userAIConfigService.getUserDefaultAIConfig(7L)).thenReturn(Optional.empty());
+
+        AIEvaluationService.EvaluationResult result = service.evaluateAnswer(answer, 7L, "NORMAL", CancellationToken.NONE);
+
+        assertFalse(result.isSuccess());
+        assertEquals(AIErrorType.REJECTED, result.getErrorType());
+    }
+
+    @Test
+    public void testRoutedResponseIsCachedUnderAnsweringConfig() {
+        StudentAnswer answer = answer(1L, question(1L), "甲");
+        UserAIConfig other = new UserAIConfig();
+        other.setId(2L);
+        other.setProvider(AIProvider.OPENAI);
+        other.setModelName("gpt-4o");
+        EvaluationResultCacheService.CacheKey preferredKey = new EvaluationResultCacheService.CacheKey("a", 1L, "r", "NORMAL", "DEEPSEEK:deepseek-chat");
+        EvaluationResultCacheService.CacheKey answeredKey = new EvaluationResultCacheService.CacheKey("b", 1L, "r", "NORMAL", "OPENAI:gpt-4o");
+        when(evaluationResultCacheService.buildCacheKey(answer, "NORMAL", config)).thenReturn(preferredKey);
+        when(evaluationResultCacheService.buildCacheKey(answer, "NORMAL", other)).thenReturn(answeredKey);
+        when(evaluationResultCacheService.lookup(any())).thenReturn(Optional.empty());
+        when(userAIConfigService.getUserDefaultAIConfig(7L)).thenReturn(Optional.of(config));
+        when(aiClient.chat(anyString(), any(), any(), any())).thenReturn(
+            AIResponse.success("{\"score\": 6, \"feedback\": \"好\"}").withMetadata(AIConfigRouter.ROUTED_CONFIG, other));
+
+        service.evaluateAnswer(answer, 7L, "NORMAL", CancellationToken.NONE);
+
+        // 路由到其他配置作答的结论按实际模型写入缓存，不记在首选模型名下
+        verify(evaluationResultCacheService).store(eq(answeredKey), any(), any());
+        verify(evaluationResultCacheService, never()).store(eq(preferredKey), any(), any());
+    }
+
+    private static Question question(Long id) {
+        Question question = new Question();
+        question.setId(id);
+        question.setTitle("简答题" + id);
+        question.setContent("简述光合作用的过程");
+        question.setQuestionType(QuestionType.SHORT_ANSWER);
+        question.setMaxScore(BigDecimal.TEN);
+        return question;
+    }
+
+    private static StudentAnswer answer(Long id, Question question, String text) {
+        StudentAnswer answer = new StudentAnswer();
+        answer.setId(id);
+        answer.setQuestion(question);
+        answer.setAnswerText(text);
+        return answer;
+    }
+
+    private static List<List<Long>> ids(List<List<StudentAnswer>> packs) {
+        return packs.stream().map(pack -> pack.stream().map(StudentAnswer::getId).toList()).toList();
+    }
+
+    private static List<String> scores(List<AIEvaluationService.EvaluationResult> results) {
+        return results.stream().map(result -> result.getScore().stripTrailingZeros().toPlainString()).toList();
+    }
+}
@@ -0,0 +1,58 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.UserAIConfig;
+
+/**
+ * AI客户端同步调用的默认实现测试
+ */
+public class AIClientTest {
+
+    @Test
+    public void testCancelledCallIsClassifiedInBothSyncOverloads() {
+        AIClient client = new CancelledClient();
+
+        AIResponse withoutToken = client.chat("prompt", new UserAIConfig(), AIResponseFormat.TEXT);
+        AIResponse withToken = client.chat("prompt", new UserAIConfig(), AIResponseFormat.TEXT, CancellationToken.NONE);
+
+        // 被取消的Future不能以未分类的运行时异常抛出，两个重载都返回 CANCELLED 失败响应
+        assertFalse(withoutToken.isSuccess());
+        assertEquals(AIErrorType.CANCELLED, AIErrorType.fromResponse(withoutToken));
+        assertFalse(withToken.isSuccess());
+        assertEquals(AIErrorType.CANCELLED, AIErrorType.fromResponse(withToken));
+    }
+
+    /**
+     * 返回已取消Future的客户端
+     */
+    private static final class CancelledClient implements AIClient {
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+            CompletableFuture<AIResponse> call = new CompletableFuture<>();
+            call.cancel(true);
+            return call;
+        }
+
+        @Override
+        public boolean validateConfig(UserAIConfig config) {
+            return true;
+        }
+
+        @Override
+        public String getProviderName() {
+            return "CANCELLED_CASE";
+        }
+
+        @Override
+        public int estimateTokens(String text) {
+            return text.length();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.UserAIConfigService;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+/**
+ * 多AI配置路由测试
+ */
+public class AIConfigRouterTest {
+
+    private final CircuitBreakerRegistry breakers = CircuitBreakerRegistry.ofDefaults();
+    private AIClientFactory factory;
+    private AIClient openAiClient;
+    private AIClient deepSeekClient;
+    private AIConfigRouter router;
+    private UserAIConfig primary;
+    private UserAIConfig secondary;
+
+    @BeforeEach
+    public void setUp() {
+        factory = mock(AIClientFactory.class);
+        openAiClient = mock(AIClient.class);
+        deepSeekClient = mock(AIClient.class);
+        when(factory.getClient(AIProvider.OPENAI)).thenReturn(openAiClient);
+        when(factory.getClient(AIProvider.DEEPSEEK)).thenReturn(deepSeekClient);
+        when(factory.isSupported(any())).thenReturn(true);
+
+        AIResilienceService resilience = mock(AIResilienceService.class);
+        when(resilience.circuitBreaker(anyString())).thenAnswer(invocation -> breakers.circuitBreaker(invocation.getArgument(0)));
+
+        primary = config(1L, AIProvider.OPENAI, "gpt-4o");
+        secondary = config(2L, AIProvider.DEEPSEEK, "deepseek-chat");
+        UserAIConfigService configService = mock(UserAIConfigService.class);
+        when(configService.getUserActiveAIConfigs(7L)).thenReturn(List.of(primary, secondary));
+        when(configService.calculateInputCost(any(), anyInt())).thenReturn(BigDecimal.ONE);
+        when(configService.calculateOutputCost(any(), anyInt())).thenReturn(BigDecimal.ONE);
+
+        router = new AIConfigRouter(factory, resilience, configService, new TokenizerService("cl100k_base", "", 0.1), true, 60000, 0.5, 4.0, 0.2, 2000);
+    }
+
+    @Test
+    public void failsOverToAnotherConfigWhenRateLimited() throws Exception {
+        when(openAiClient.chatAsync(anyString(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(
+            AIResponse.failure(AIErrorType.RATE_LIMITED.name(), "429")));
+        when(deepSeekClient.chatAsync(anyString(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(
+            AIResponse.success("{\"score\": 1}")));
+
+        for (int i = 0; i < 10; i++) {
+            AIResponse response = router.clientFor(primary).chatAsync("评估", primary).get();
+            assertTrue(response.isSuccess());
+            assertEquals(2L, response.getMetadata().get("routedConfigId"));
+            assertSame(secondary, AIConfigRouter.answeredBy(response, primary));
+        }
+    }
+
+    @Test
+    public void skipsConfigWhoseCircuitIsOpen() {
+        breakers.circuitBreaker(AIProvider.OPENAI.name()).transitionToOpenState();
+        assertEquals(CircuitBreaker.State.OPEN, breakers.circuitBreaker(AIProvider.OPENAI.name()).getState());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(secondary, router.choose(List.of(primary, secondary), new HashSet<>(), 100));
+        }
+    }
+
+    private static UserAIConfig config(Long id, AIProvider provider, String model) {
+        UserAIConfig config = new UserAIConfig();
+        config.setId(id);
+        config.setUserId(7L);
+        config.setProvider(provider);
+        config.setModelName(model);
+        config.setApiKey("key-" + id);
+        return config;
+    }
+}
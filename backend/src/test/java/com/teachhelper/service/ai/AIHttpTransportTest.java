@@ -0,0 +1,176 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * AI HTTP传输层测试
+ */
+public class AIHttpTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/chat", exchange -> {
+            byte[] payload = "{\"content\":\"压缩响应\"}".getBytes(StandardCharsets.UTF_8);
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(payload);
+                }
+                payload = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(payload);
+            }
+        });
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 1000; i++) {
+                    body.write(("data: {\"n\":" + i + "}\n\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                    Thread.sleep(5);
+                }
+            } catch (Exception e) {
+                // 客户端提前断开
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                slowRelease.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        slowRelease.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGzipResponseIsDecodedAndConnectionReturned() {
+        AIHttpTransport transport = new AIHttpTransport(5000, 5000, 2, 1000, 60, true, 2, new SimpleMeterRegistry());
+        RestTemplate restTemplate = new RestTemplate(transport.requestFactory());
+        restTemplate.getInterceptors().add(transport);
+
+        for (int i = 0; i < 5; i++) {
+            String body = restTemplate.postForObject(baseUrl + "/chat", "{}", String.class);
+            assertEquals("{\"content\":\"压缩响应\"}", body);
+        }
+
+        Map<String, Object> hosts = (Map<String, Object>) transport.getSnapshot().get("hosts");
+        Map<String, Object> host = (Map<String, Object>) hosts.values().iterator().next();
+        // 每个名额都在响应关闭时归还，连续请求不会耗尽每主机上限
+        assertEquals(0, host.get("leased"));
+        assertEquals(2, host.get("available"));
+        assertEquals(5L, host.get("requests"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAsyncRequestsBeyondHostLimitQueueWithoutBlocking() {
+        AIHttpTransport transport = new AIHttpTransport(5000, 5000, 2, 5000, 60, true, 2, new SimpleMeterRegistry());
+
+        List<CompletableFuture<AIHttpTransport.Response>> pending = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            pending.add(transport.postJsonAsync(baseUrl + "/chat", new HttpHeaders(), Map.of("index", i)));
+        }
+        // 超过每主机上限的请求排队等待名额，提交本身不阻塞调用线程
+        for (CompletableFuture<AIHttpTransport.Response> future : pending) {
+            AIHttpTransport.Response response = future.join();
+            assertTrue(response.isSuccessful());
+            assertEquals("{\"content\":\"压缩响应\"}", response.body());
+        }
+
+        Map<String, Object> hosts = (Map<String, Object>) transport.getSnapshot().get("hosts");
+        Map<String, Object> host = (Map<String, Object>) hosts.values().iterator().next();
+        assertEquals(0, host.get("leased"));
+        assertEquals(20L, host.get("requests"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSseListenerCanStopStreamEarly() {
+        AIHttpTransport transport = new AIHttpTransport(5000, 5000, 2, 5000, 60, true, 2, new SimpleMeterRegistry());
+        List<String> events = new ArrayList<>();
+
+        AIHttpTransport.Response response = transport.postSseAsync(baseUrl + "/stream", new HttpHeaders(), Map.of(),
+            (event, data) -> {
+                events.add(data);
+                return events.size() < 3;
+            }).join();
+
+        // 第三个事件后主动结束，不等待服务端发完全部事件
+        assertTrue(response.isSuccessful());
+        assertEquals(List.of("{\"n\":0}", "{\"n\":1}", "{\"n\":2}"), events);
+        Map<String, Object> hosts = (Map<String, Object>) transport.getSnapshot().get("hosts");
+        Map<String, Object> host = (Map<String, Object>) hosts.values().iterator().next();
+        assertEquals(0, host.get("leased"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancellationAbortsInFlightAndQueuedRequests() {
+        AIHttpTransport transport = new AIHttpTransport(5000, 5000, 2, 5000, 60, true, 2, new SimpleMeterRegistry());
+        CancellationToken token = new CancellationToken();
+
+        List<CompletableFuture<AIHttpTransport.Response>> pending = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pending.add(transport.postJsonAsync(baseUrl + "/slow", new HttpHeaders(), Map.of("index", i), token));
+        }
+        token.cancel();
+
+        // 两个在途请求和一个排队请求都立即结束，不等待服务端响应
+        for (CompletableFuture<AIHttpTransport.Response> future : pending) {
+            CompletionException error = assertThrows(CompletionException.class, () -> future.getNow(null));
+            assertTrue(AIHttpTransport.rootCause(error) instanceof CancellationException);
+        }
+        Map<String, Object> hosts = (Map<String, Object>) transport.getSnapshot().get("hosts");
+        Map<String, Object> host = (Map<String, Object>) hosts.values().iterator().next();
+        assertEquals(0, host.get("leased"));
+        assertEquals(2, host.get("available"));
+    }
+}
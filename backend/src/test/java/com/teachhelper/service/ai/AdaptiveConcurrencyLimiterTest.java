@@ -0,0 +1,77 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.AIProvider;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 自适应并发限制器测试
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final String ENDPOINT = "https://api.deepseek.com/v1/chat/completions";
+
+    private AdaptiveConcurrencyLimiter newLimiter(int initial) {
+        return new AdaptiveConcurrencyLimiter(initial, 1, 10, 0.5, 2.0, 0, new SimpleMeterRegistry());
+    }
+
+    private Map<String, Object> snapshot(AdaptiveConcurrencyLimiter limiter) {
+        return limiter.getSnapshot().get(0);
+    }
+
+    @Test
+    public void testRejectsWhenLimitReached() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(2);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(AIProvider.DEEPSEEK, ENDPOINT);
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire(AIProvider.DEEPSEEK, ENDPOINT);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.acquire(AIProvider.DEEPSEEK, ENDPOINT));
+
+        // 不同接口地址互不影响
+        assertNotNull(limiter.acquire(AIProvider.DEEPSEEK, "http://localhost:8000/v1/chat/completions"));
+
+        first.release((AIErrorType) null);
+        assertNotNull(limiter.acquire(AIProvider.DEEPSEEK, ENDPOINT));
+    }
+
+    @Test
+    public void testBacksOffOnRateLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(8);
+        AdaptiveConcurrencyLimiter.Permit a = limiter.acquire(AIProvider.OPENAI, ENDPOINT);
+        AdaptiveConcurrencyLimiter.Permit b = limiter.acquire(AIProvider.OPENAI, ENDPOINT);
+
+        a.release(AIErrorType.RATE_LIMITED);
+        assertEquals(4, snapshot(limiter).get("limit"));
+
+        // 同一批并发请求的失败只回退一次
+        b.release(AIErrorType.SERVER_ERROR);
+        assertEquals(4, snapshot(limiter).get("limit"));
+        assertEquals(0, snapshot(limiter).get("inFlight"));
+    }
+
+    @Test
+    public void testClientErrorsDoNotChangeLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(4);
+        limiter.acquire(AIProvider.CLAUDE, ENDPOINT).release(AIErrorType.CLIENT_ERROR);
+        assertEquals(4, snapshot(limiter).get("limit"));
+    }
+
+    @Test
+    public void testGrowsWhenSaturatedAndStable() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(1);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(AIProvider.OPENAI, ENDPOINT).release((AIErrorType) null);
+        }
+        // 只有首个请求用满了上限，之后串行请求不再推动增长
+        assertEquals(2, snapshot(limiter).get("limit"));
+    }
+}
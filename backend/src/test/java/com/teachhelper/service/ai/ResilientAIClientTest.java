@@ -0,0 +1,191 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * AI调用容错装饰器测试
+ */
+public class ResilientAIClientTest {
+
+    @Test
+    public void testRetriesRateLimitButNotClientError() {
+        AIResilienceService resilience = newService(0, 100);
+        ScriptedClient rateLimited = new ScriptedClient("RETRY_CASE",
+            AIResponse.failure(AIErrorType.RATE_LIMITED.name(), "429"),
+            AIResponse.success("ok"));
+        AIResponse response = new ResilientAIClient(rateLimited, resilience).chat("prompt", new UserAIConfig());
+        assertTrue(response.isSuccess());
+        assertEquals(2, rateLimited.calls.get());
+
+        ScriptedClient badRequest = new ScriptedClient("NO_RETRY_CASE",
+            AIResponse.failure(AIErrorType.CLIENT_ERROR.name(), "400"),
+            AIResponse.success("ok"));
+        response = new ResilientAIClient(badRequest, resilience).chat("prompt", new UserAIConfig());
+        assertFalse(response.isSuccess());
+        assertEquals(1, badRequest.calls.get());
+    }
+
+    @Test
+    public void testCircuitOpensAfterRepeatedOverload() {
+        AIResilienceService resilience = newService(0, 2);
+        ScriptedClient failing = new ScriptedClient("CIRCUIT_CASE");
+        ResilientAIClient client = new ResilientAIClient(failing, resilience);
+
+        client.chat("prompt", new UserAIConfig());
+        AIResponse response = client.chat("prompt", new UserAIConfig());
+
+        assertEquals(AIErrorType.CIRCUIT_OPEN, AIErrorType.fromResponse(response));
+        // 两次503后熔断器打开，之后的重试和调用都不再访问提供商
+        assertEquals(2, failing.calls.get());
+    }
+
+    @Test
+    public void testBackoffGrowsWithAttemptAndStaysJittered() {
+        AIResilienceService resilience = newService(500, 100);
+        for (int i = 0; i < 50; i++) {
+            long first = resilience.backoffMillis(AIErrorType.SERVER_ERROR, 1);
+            long third = resilience.backoffMillis(AIErrorType.SERVER_ERROR, 3);
+            long rateLimited = resilience.backoffMillis(AIErrorType.RATE_LIMITED, 1);
+            assertTrue(first >= 250 && first <= 500, "first=" + first);
+            assertTrue(third >= 1000 && third <= 2000, "third=" + third);
+            assertTrue(rateLimited >= 1000 && rateLimited <= 2000, "rateLimited=" + rateLimited);
+        }
+    }
+
+    @Test
+    public void testHedgeWinnerCancelsLoserAndReleasesPermit() throws Exception {
+        AIResilienceService resilience = new AIResilienceService(
+            new StaticListableBeanFactory().getBeanProvider(CircuitBreakerRegistry.class),
+            new StaticListableBeanFactory().getBeanProvider(RetryRegistry.class),
+            new SimpleMeterRegistry(),
+            1, 0, 0, 20000,
+            50f, 100, 100, 60000,
+            true, 20, 1, 1.0);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 0.5, 2.0, 0, new SimpleMeterRegistry());
+        HangingClient hanging = new HangingClient();
+        ResilientAIClient client = new ResilientAIClient(new ConcurrencyLimitedAIClient(hanging, limiter), resilience);
+        UserAIConfig config = new UserAIConfig();
+        config.setProvider(AIProvider.DEEPSEEK);
+
+        // 第一次调用提供延迟样本，第二次调用的原请求一直不返回，由对冲请求先得到结果
+        assertTrue(client.chat("warm-up", config).isSuccess());
+        AIResponse response = client.chat("prompt", config);
+
+        assertTrue(response.isSuccess());
+        assertTrue(hanging.loserCancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(3, hanging.tokens.size());
+        // 被取消的原请求立即归还并发许可
+        assertEquals(0, limiter.getSnapshot().get(0).get("inFlight"));
+    }
+
+    private static AIResilienceService newService(long baseDelayMs, int minimumCalls) {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        return new AIResilienceService(
+            beanFactory.getBeanProvider(CircuitBreakerRegistry.class),
+            beanFactory.getBeanProvider(RetryRegistry.class),
+            new SimpleMeterRegistry(),
+            3, baseDelayMs, baseDelayMs * 4, 20000,
+            50f, minimumCalls, minimumCalls, 60000,
+            false, 0, 20, 0.1);
+    }
+
+    /**
+     * 第二次调用一直不返回（直到令牌取消），其余调用立即成功
+     */
+    private static final class HangingClient implements AIClient {
+        private final List<CancellationToken> tokens = new CopyOnWriteArrayList<>();
+        private final CountDownLatch loserCancelled = new CountDownLatch(1);
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config, AIResponseFormat format,
+                                                       CancellationToken token) {
+            tokens.add(token);
+            CompletableFuture<AIResponse> call = AIClient.super.chatAsync(prompt, config, format, token);
+            if (tokens.size() == 2) {
+                // 在客户端自身的取消动作之后登记，触发时许可已归还
+                token.onCancel(loserCancelled::countDown);
+            }
+            return call;
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+            return tokens.size() == 2 ? new CompletableFuture<>() : CompletableFuture.completedFuture(AIResponse.success("ok"));
+        }
+
+        @Override
+        public boolean validateConfig(UserAIConfig config) {
+            return true;
+        }
+
+        @Override
+        public String getProviderName() {
+            return "HEDGE_CASE";
+        }
+
+        @Override
+        public int estimateTokens(String text) {
+            return text.length();
+        }
+    }
+
+    /**
+     * 按脚本返回响应的客户端，脚本用完后一直返回服务端错误
+     */
+    private static final class ScriptedClient implements AIClient {
+        private final String providerName;
+        private final Deque<AIResponse> script = new ArrayDeque<>();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        ScriptedClient(String providerName, AIResponse... responses) {
+            this.providerName = providerName;
+            for (AIResponse response : responses) {
+                script.add(response);
+            }
+        }
+
+        @Override
+        public CompletableFuture<AIResponse> chatAsync(String prompt, UserAIConfig config) {
+            calls.incrementAndGet();
+            AIResponse next = script.poll();
+            return CompletableFuture.completedFuture(
+                next != null ? next : AIResponse.failure(AIErrorType.SERVER_ERROR.name(), "503"));
+        }
+
+        @Override
+        public boolean validateConfig(UserAIConfig config) {
+            return true;
+        }
+
+        @Override
+        public String getProviderName() {
+            return providerName;
+        }
+
+        @Override
+        public int estimateTokens(String text) {
+            return text.length();
+        }
+    }
+}
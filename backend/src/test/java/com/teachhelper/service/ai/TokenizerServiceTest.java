@@ -0,0 +1,48 @@
+package com.teachhelper.service.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.AIProvider;
+
+/**
+ * 分词器选择与截断测试
+ */
+public class TokenizerServiceTest {
+
+    private final TokenizerService service = new TokenizerService("cl100k_base", "CLAUDE:heuristic", 0.1);
+
+    @Test
+    public void selectsVocabularyByModel() {
+        Tokenizer gpt4o = service.forModel(AIProvider.OPENAI, "gpt-4o-mini");
+        assertEquals("o200k_base", gpt4o.getName());
+        assertTrue(gpt4o.isExact());
+        assertEquals("cl100k_base", service.forModel(AIProvider.OPENAI, "gpt-3.5-turbo").getName());
+        assertSame(gpt4o, service.forModel(AIProvider.OPENAI, "GPT-4o-mini"));
+
+        Tokenizer deepSeek = service.forModel(AIProvider.DEEPSEEK, "deepseek-chat");
+        assertEquals("cl100k_base", deepSeek.getName());
+        assertFalse(deepSeek.isExact());
+        assertEquals(TokenizerService.HEURISTIC, service.forModel(AIProvider.CLAUDE, "claude-3-5-sonnet").getName());
+    }
+
+    @Test
+    public void countsAndTruncatesWithinBudget() {
+        Tokenizer tokenizer = service.forModel(AIProvider.OPENAI, "gpt-4o");
+        assertEquals(2, tokenizer.countTokens("hello world"));
+
+        String answer = "学生答案：".repeat(2000) + "结尾";
+        String truncated = tokenizer.truncate(answer, 100);
+        assertTrue(answer.startsWith(truncated));
+        assertTrue(truncated.length() > 0 && truncated.length() < answer.length());
+        assertTrue(tokenizer.countTokens(truncated) <= 100);
+        assertSame(answer, tokenizer.truncate(answer, 1_000_000));
+
+        Tokenizer approximate = service.forModel(AIProvider.DEEPSEEK, "deepseek-chat");
+        assertTrue(approximate.countTokens(approximate.truncate(answer, 100)) <= 100);
+    }
+}
@@ -0,0 +1,100 @@
+package com.teachhelper.service.ai.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.teachhelper.entity.AIProvider;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.service.ai.AIBatchClient;
+import com.teachhelper.service.ai.AIHttpTransport;
+import com.teachhelper.service.ai.MockBatchServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * OpenAI批处理接口测试（使用本地模拟批处理服务）
+ */
+public class OpenAIBatchClientTest {
+
+    private MockBatchServer server;
+    private OpenAIClient client;
+    private UserAIConfig config;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new MockBatchServer(0);
+        server.start();
+        client = new OpenAIClient(new AIHttpTransport(5000, 5000, 4, 5000, 60, true, 2, new SimpleMeterRegistry()));
+        config = new UserAIConfig();
+        config.setProvider(AIProvider.OPENAI);
+        config.setApiKey("test-key");
+        config.setModelName("gpt-4o-mini");
+        config.setApiEndpoint(server.getBaseUrl() + "/chat/completions");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void submitPollAndDownloadBatch() throws Exception {
+        Path requests = tempDir.resolve("requests.jsonl");
+        Files.write(requests, List.of(
+            client.toBatchLine("answer-1", "评估答案一", config),
+            client.toBatchLine("answer-2", "评估答案二", config)), StandardCharsets.UTF_8);
+
+        AIBatchClient.BatchJob job = client.submitBatch(requests, config).get();
+        assertFalse(job.status().isTerminal());
+        assertEquals(2, job.total());
+
+        // 模拟服务每次查询推进一个状态
+        while (!job.status().isTerminal()) {
+            job = client.getBatch(job.id(), config).get();
+        }
+        assertEquals(AIBatchClient.BatchStatus.COMPLETED, job.status());
+
+        Path results = client.downloadResults(job, config, tempDir.resolve("results.jsonl")).get();
+        List<String> lines = Files.readAllLines(results, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        AIBatchClient.BatchResult first = client.parseResultLine(lines.get(0));
+        assertEquals("answer-1", first.customId());
+        assertTrue(first.response().isSuccess());
+        assertTrue(first.response().getContent().contains("\"score\""));
+    }
+
+    @Test
+    public void cancelledBatchHasNoResults() throws Exception {
+        Path requests = tempDir.resolve("requests.jsonl");
+        Files.write(requests, List.of(client.toBatchLine("answer-1", "评估答案", config)), StandardCharsets.UTF_8);
+
+        AIBatchClient.BatchJob job = client.submitBatch(requests, config).get();
+        job = client.cancelBatch(job.id(), config).get();
+
+        assertEquals(AIBatchClient.BatchStatus.CANCELLED, job.status());
+        assertEquals(null, job.resultLocation());
+    }
+
+    @Test
+    public void failedRequestLineIsReportedAsFailure() {
+        AIBatchClient.BatchResult result = client.parseResultLine(
+            "{\"custom_id\":\"answer-3\",\"response\":{\"status_code\":429,\"body\":{}},\"error\":null}");
+
+        assertEquals("answer-3", result.customId());
+        assertFalse(result.response().isSuccess());
+    }
+}
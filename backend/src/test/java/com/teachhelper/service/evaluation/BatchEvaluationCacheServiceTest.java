@@ -0,0 +1,91 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.teachhelper.dto.response.BatchEvaluationResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 批量评估结果缓存的容量、过期和最近任务测试
+ */
+public class BatchEvaluationCacheServiceTest {
+
+    private final LocalDateTime base = LocalDateTime.of(2024, 1, 1, 8, 0);
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBeyondMaxEntries() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BatchEvaluationCacheService cache = cache(registry, 3, 1 << 20, 60000);
+        for (int i = 1; i <= 3; i++) {
+            cache.saveResult("t" + i, result(i));
+        }
+        // 访问 t1 后，最久未访问的是 t2
+        assertNotNull(cache.getResult("t1"));
+        cache.saveResult("t4", result(4));
+
+        assertFalse(cache.hasResult("t2"));
+        assertTrue(cache.hasResult("t1"));
+        assertNull(cache.getResult("t2"));
+        assertEquals(1.0, registry.get("batch.evaluation.cache.evictions").tag("cause", "size").functionCounter().count());
+        assertEquals(0.5, registry.get("batch.evaluation.cache.hit.ratio").gauge().value());
+        assertEquals(List.of("t4", "t3", "t1"),
+            cache.getRecentTasks().stream().map(BatchEvaluationResult::getTaskId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testEvictsByEstimatedBytesAndKeepsWeightInSync() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BatchEvaluationCacheService cache = cache(registry, 100, 2000, 60000);
+        BatchEvaluationResult large = result(1);
+        large.addError("x".repeat(600));
+        cache.saveResult("large", large);
+        cache.saveResult("small", result(2));
+        assertFalse(cache.hasResult("large"));
+        assertEquals(1.0, registry.get("batch.evaluation.cache.evictions").tag("cause", "weight").functionCounter().count());
+
+        // 重新保存同一任务不会重复计算大小
+        cache.saveResult("small", result(2));
+        assertEquals(BatchEvaluationCacheService.estimateBytes(result(2)),
+            registry.get("batch.evaluation.cache.estimated.bytes").gauge().value());
+    }
+
+    @Test
+    public void testExpiredResultsAreDropped() throws Exception {
+        BatchEvaluationCacheService cache = cache(new SimpleMeterRegistry(), 100, 1 << 20, 20);
+        cache.saveResult("t1", result(1));
+        Thread.sleep(40);
+        assertTrue(cache.getRecentTasks().isEmpty());
+        cache.evictExpired();
+        assertEquals(0, cache.getStatistics().get("entries"));
+        assertEquals(1L, cache.getStatistics().get("expirations"));
+    }
+
+    private BatchEvaluationCacheService cache(SimpleMeterRegistry registry, int maxEntries, long maxWeightBytes, long ttlMs) {
+        BatchEvaluationCacheService cache = new BatchEvaluationCacheService();
+        ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "maxWeightBytes", maxWeightBytes);
+        ReflectionTestUtils.setField(cache, "ttlMs", ttlMs);
+        cache.init();
+        return cache;
+    }
+
+    private BatchEvaluationResult result(int minutes) {
+        BatchEvaluationResult result = new BatchEvaluationResult();
+        result.setStartTime(base.plusMinutes(minutes));
+        result.setTotalAnswers(10);
+        return result;
+    }
+}
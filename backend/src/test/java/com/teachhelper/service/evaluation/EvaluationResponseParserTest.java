@@ -0,0 +1,102 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.ai.AIEvaluationService.EvaluationResult;
+
+/**
+ * 评估响应解析器测试
+ */
+public class EvaluationResponseParserTest {
+
+    private static final BigDecimal MAX_SCORE = new BigDecimal("10");
+
+    @Test
+    public void testParsesWrappedJsonWithModelFormattingQuirks() {
+        String response = "好的，评估结果如下：\n```json\n{\n"
+            + "  \"score\": \"12\",\n"
+            + "  \"feedback\": \"总体评价：较好。\n【得分点分析】\",\n"
+            + "  \"strengths\": [\"条理清楚\", \"用词规范\"],\n"
+            + "  \"criteriaEvaluations\": [{\"criterionText\": \"概念\", \"earnedPoints\": 4, \"maxPoints\": 5}, {\"comment\": \"缺字段\"}],\n"
+            + "  \"weakness_tags\": [\"#进程\",],\n"
+            + "}\n```\n以上评分依据 {评分标准} 给出";
+
+        EvaluationResult result = EvaluationResponseParser.parseObject(response, MAX_SCORE);
+
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+        // 超出满分时限制为满分
+        assertEquals(0, MAX_SCORE.compareTo(result.getScore()));
+        assertEquals("总体评价：较好。\n【得分点分析】\n\n答案优点：条理清楚\n用词规范\n\n", result.getFeedback());
+        assertEquals(1, result.getCriteriaEvaluations().size());
+        assertEquals(0, new BigDecimal("4").compareTo(result.getCriteriaEvaluations().get(0).getEarnedPoints()));
+        assertEquals(List.of("#进程"), result.getWeaknessTags());
+    }
+
+    @Test
+    public void testTruncatedObjectFallsBackToSalvage() {
+        String response = "{\"score\": 6.5, \"feedback\": \"缺少对同步机制的说明，\\\"临界区\\\"概念模糊";
+
+        assertNull(EvaluationResponseParser.parseObject(response, MAX_SCORE));
+        EvaluationResult salvaged = EvaluationResponseParser.salvage(response, MAX_SCORE);
+        assertNotNull(salvaged);
+        assertEquals(0, new BigDecimal("6.5").compareTo(salvaged.getScore()));
+        assertTrue(salvaged.getFeedback().contains("\"临界区\""));
+
+        assertNull(EvaluationResponseParser.salvage("无法评估该答案", MAX_SCORE));
+    }
+
+    @Test
+    public void testTruncatedArrayKeepsCompletedEvaluations() {
+        String response = "[{\"index\": 3, \"score\": 5, \"feedback\": \"一般\"},"
+            + "{\"score\": 9, \"feedback\": \"很好\"},"
+            + "{\"index\": 1, \"score\": 7, \"feedback\": \"被截";
+
+        Map<Integer, EvaluationResult> results = EvaluationResponseParser.parseArray(response, 3, MAX_SCORE);
+
+        assertEquals(2, results.size());
+        assertEquals(0, new BigDecimal("5").compareTo(results.get(2).getScore()));
+        // 没有 index 字段时按数组位置对应
+        assertEquals(0, new BigDecimal("9").compareTo(results.get(1).getScore()));
+        assertFalse(results.containsKey(0));
+    }
+
+    @Test
+    public void testArrayWithMoreObjectsThanAnswersKeepsOnlyKnownIndexes() {
+        String response = "[{\"index\": 1, \"score\": 4, \"feedback\": \"一\"},"
+            + "{\"index\": 2, \"score\": 6, \"feedback\": \"二\"},"
+            + "{\"index\": 3, \"score\": 8, \"feedback\": \"多出的一份\"},"
+            + "{\"index\": 1, \"score\": 10, \"feedback\": \"重复编号\"}]";
+
+        Map<Integer, EvaluationResult> results = EvaluationResponseParser.parseArray(response, 2, MAX_SCORE);
+
+        // 超出答案数的编号被忽略，重复编号以第一次出现的为准
+        assertEquals(2, results.size());
+        assertEquals(0, new BigDecimal("4").compareTo(results.get(0).getScore()));
+        assertEquals(0, new BigDecimal("6").compareTo(results.get(1).getScore()));
+    }
+
+    @Test
+    public void testArrayMissingIndexOrScoreLeavesAnswerUnresolved() {
+        String response = "[{\"index\": 1, \"score\": 5, \"feedback\": \"一\"},"
+            + "{\"index\": 3, \"feedback\": \"没有分数\"},"
+            + "{\"index\": 0, \"score\": 7, \"feedback\": \"编号越界\"}]";
+
+        Map<Integer, EvaluationResult> results = EvaluationResponseParser.parseArray(response, 3, MAX_SCORE);
+
+        // 未返回第2份，第3份缺少分数，交给调用方拆分重试
+        assertEquals(1, results.size());
+        assertTrue(results.containsKey(0));
+        assertTrue(EvaluationResponseParser.parseArray("无法评估", 3, MAX_SCORE).isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+
+import org.hibernate.collection.spi.PersistentBag;
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.RubricCriterion;
+
+/**
+ * 评估结果缓存键计算测试
+ */
+public class EvaluationResultCacheServiceTest {
+
+    @Test
+    public void testNormalizeIgnoresWhitespaceAndTrailingPunctuation() {
+        String expected = EvaluationResultCacheService.normalizeAnswer("光合作用");
+        assertEquals(expected, EvaluationResultCacheService.normalizeAnswer("  光合作用。"));
+        assertEquals(expected, EvaluationResultCacheService.normalizeAnswer("光合作用！ "));
+        assertEquals("北京, 上海", EvaluationResultCacheService.normalizeAnswer("北京,\n\t上海."));
+    }
+
+    @Test
+    public void testNormalizeKeepsCaseQuotesAndFullWidthCharacters() {
+        // 这些差异可能影响评分，不能共用缓存的评估结果
+        assertNotEquals(EvaluationResultCacheService.normalizeAnswer("光合作用"),
+            EvaluationResultCacheService.normalizeAnswer("“光合作用”"));
+        assertNotEquals(EvaluationResultCacheService.normalizeAnswer("ABC"),
+            EvaluationResultCacheService.normalizeAnswer("abc"));
+        assertNotEquals(EvaluationResultCacheService.normalizeAnswer("ＡＢＣ"),
+            EvaluationResultCacheService.normalizeAnswer("ABC"));
+    }
+
+    @Test
+    public void testNormalizeKeepsSeparatorsBetweenValues() {
+        assertNotEquals(EvaluationResultCacheService.normalizeAnswer("1,2"),
+            EvaluationResultCacheService.normalizeAnswer("12"));
+        assertNotEquals(EvaluationResultCacheService.normalizeAnswer("3.14"),
+            EvaluationResultCacheService.normalizeAnswer("314"));
+    }
+
+    @Test
+    public void testRubricVersionChangesWithCriteria() {
+        Question question = new Question();
+        question.setContent("简述光合作用的过程");
+        question.setMaxScore(new BigDecimal("10"));
+        String before = EvaluationResultCacheService.computeRubricVersion(question);
+
+        RubricCriterion criterion = new RubricCriterion();
+        criterion.setCriterionText("说明光反应阶段");
+        criterion.setPoints(new BigDecimal("5"));
+        question.getRubricCriteria().add(criterion);
+
+        assertNotEquals(before, EvaluationResultCacheService.computeRubricVersion(question));
+    }
+
+    @Test
+    public void testRubricVersionFailsWhenOptionsAreNotLoaded() {
+        Question question = new Question();
+        question.setId(1L);
+        question.setContent("下列哪项是光合作用的产物");
+        question.setOptions(new PersistentBag<>());
+
+        // 未加载的选项不能当作没有选项来计算版本
+        assertThrows(IllegalStateException.class, () -> EvaluationResultCacheService.computeRubricVersion(question));
+    }
+}
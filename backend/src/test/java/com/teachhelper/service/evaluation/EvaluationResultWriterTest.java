@@ -0,0 +1,105 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.teachhelper.entity.EvaluationType;
+import com.teachhelper.entity.StudentAnswer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 评估结果写回缓冲测试
+ */
+public class EvaluationResultWriterTest {
+
+    private EvaluationResultWriter writer;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:answers" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE student_answers (id BIGINT PRIMARY KEY, score DECIMAL(10,2), "
+            + "feedback VARCHAR(20), is_evaluated BOOLEAN, evaluated_at TIMESTAMP, evaluation_type VARCHAR(20), "
+            + "updated_at TIMESTAMP)");
+        for (long id = 1; id <= 3; id++) {
+            jdbcTemplate.update("INSERT INTO student_answers (id, is_evaluated) VALUES (?, FALSE)", id);
+        }
+        writer = new EvaluationResultWriter(dataSource, new DataSourceTransactionManager(dataSource),
+            new SimpleMeterRegistry(), 10, 60000);
+    }
+
+    @Test
+    public void batchWriteReportsAnswersThatMatchNoRow() {
+        EvaluationResultWriter.Buffer buffer = writer.newBuffer("t1");
+        buffer.add(answer(1L, "8", "好"));
+        buffer.add(answer(9L, "5", "答案已删除"));
+        buffer.add(answer(2L, "6", "一般"));
+
+        assertEquals(List.of(9L), buffer.flush());
+        assertEquals(0, new BigDecimal("8").compareTo(score(1L)));
+        assertEquals(0, new BigDecimal("6").compareTo(score(2L)));
+        assertEquals(2, buffer.getWrittenCount());
+        assertEquals(1, buffer.getFailedCount());
+    }
+
+    @Test
+    public void failedBatchFallsBackToRowByRowAndReportsBadRows() {
+        EvaluationResultWriter.Buffer buffer = writer.newBuffer("t1");
+        buffer.add(answer(1L, "8", "好"));
+        buffer.add(answer(2L, "6", "超出字段长度的反馈内容".repeat(5)));
+        buffer.add(answer(9L, "5", "答案已删除"));
+        buffer.add(answer(3L, "4", "差"));
+
+        // 整批回滚后逐条写回，只有超长的一行和不存在的答案失败
+        assertEquals(List.of(2L, 9L), buffer.flush());
+        assertEquals(0, new BigDecimal("8").compareTo(score(1L)));
+        assertNull(score(2L));
+        assertEquals(0, new BigDecimal("4").compareTo(score(3L)));
+        assertEquals(2, buffer.getWrittenCount());
+        assertEquals(2, buffer.getFailedCount());
+    }
+
+    @Test
+    public void failuresFromAutomaticFlushAreReportedByNextFlush() {
+        EvaluationResultWriter.Buffer buffer = new EvaluationResultWriter(
+            jdbcTemplate.getDataSource(), new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+            new SimpleMeterRegistry(), 2, 60000).newBuffer("t1");
+        buffer.add(answer(9L, "5", "答案已删除"));
+        // 达到批量大小时在 add 中自动写回
+        buffer.add(answer(1L, "8", "好"));
+        assertEquals(0, new BigDecimal("8").compareTo(score(1L)));
+
+        assertEquals(List.of(9L), buffer.flush());
+        assertTrue(buffer.flush().isEmpty());
+    }
+
+    private BigDecimal score(Long id) {
+        return jdbcTemplate.queryForObject("SELECT score FROM student_answers WHERE id = ?", BigDecimal.class, id);
+    }
+
+    private static StudentAnswer answer(Long id, String score, String feedback) {
+        StudentAnswer answer = new StudentAnswer();
+        answer.setId(id);
+        answer.setScore(new BigDecimal(score));
+        answer.setFeedback(feedback);
+        answer.setEvaluated(true);
+        answer.setEvaluatedAt(LocalDateTime.now());
+        answer.setEvaluationType(EvaluationType.AI_AUTO);
+        return answer;
+    }
+}
@@ -0,0 +1,63 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.service.ai.AIResponse;
+
+/**
+ * 评估追踪环形缓冲测试
+ */
+public class EvaluationTraceRecorderTest {
+
+    @Test
+    public void keepsOnlyNewestRecordsWhenFull() {
+        EvaluationTraceRecorder recorder = new EvaluationTraceRecorder(true, 16, 0, 1000);
+        for (long i = 1; i <= 40; i++) {
+            recorder.start(answer(i), null, "提示词" + i).cacheHit();
+        }
+
+        List<EvaluationTraceRecorder.EvaluationTrace> traces = recorder.recent(100, null, null);
+        assertEquals(16, traces.size());
+        assertEquals(40L, traces.get(0).answerId());
+        assertEquals(25L, traces.get(15).answerId());
+        assertEquals(1, recorder.recent(100, null, 30L).size());
+        assertEquals(0, recorder.recent(100, EvaluationTraceRecorder.Outcome.SUCCESS, null).size());
+    }
+
+    @Test
+    public void capturesPromptOnlyForWatchedTasks() {
+        EvaluationTraceRecorder recorder = new EvaluationTraceRecorder(true, 64, 0, 1000);
+        recorder.flagTask("task-1");
+        recorder.watchTask("task-1", List.of(1L), false);
+        AIResponse response = AIResponse.success("{\"score\": 1}");
+
+        recorder.start(answer(1L), null, "完整提示词").success(response, response.getContent());
+        recorder.start(answer(2L), null, "完整提示词").success(response, response.getContent());
+
+        EvaluationTraceRecorder.EvaluationTrace watched = recorder.recent(1, null, 1L).get(0);
+        assertEquals("task-1", watched.taskId());
+        assertEquals("完整提示词", watched.prompt());
+        assertEquals("{\"score\": 1}", watched.response());
+        EvaluationTraceRecorder.EvaluationTrace sampled = recorder.recent(1, null, 2L).get(0);
+        assertNull(sampled.prompt());
+        assertNotNull(sampled.promptHash());
+        assertEquals(watched.promptHash(), sampled.promptHash());
+
+        recorder.releaseTask("task-1");
+        recorder.start(answer(1L), null, "完整提示词").cacheHit();
+        assertNull(recorder.recent(1, null, 1L).get(0).prompt());
+    }
+
+    private static StudentAnswer answer(Long id) {
+        StudentAnswer answer = new StudentAnswer();
+        answer.setId(id);
+        return answer;
+    }
+}
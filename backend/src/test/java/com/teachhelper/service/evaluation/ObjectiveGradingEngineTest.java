@@ -0,0 +1,91 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.QuestionOption;
+import com.teachhelper.entity.QuestionType;
+import com.teachhelper.repository.QuestionOptionRepository;
+import com.teachhelper.service.evaluation.ObjectiveGradingEngine.AnswerKey;
+
+/**
+ * 客观题本地评分引擎测试
+ */
+@ExtendWith(MockitoExtension.class)
+public class ObjectiveGradingEngineTest {
+
+    @Mock
+    private QuestionOptionRepository questionOptionRepository;
+
+    @InjectMocks
+    private ObjectiveGradingEngine engine;
+
+    private Question question(QuestionType type, String referenceAnswer) {
+        Question question = new Question();
+        question.setId(1L);
+        question.setQuestionType(type);
+        question.setMaxScore(new BigDecimal("10"));
+        question.setReferenceAnswer(referenceAnswer);
+        return question;
+    }
+
+    private BigDecimal score(AnswerKey key, String answer) {
+        return engine.grade(key, answer).getScore();
+    }
+
+    @Test
+    public void testSingleChoiceFromCorrectOption() {
+        when(questionOptionRepository.findOptionsByQuestionId(anyLong())).thenReturn(List.of(
+            new QuestionOption("北京", false), new QuestionOption("上海", true)));
+        AnswerKey key = engine.compileAnswerKey(question(QuestionType.SINGLE_CHOICE, null)).orElseThrow();
+
+        assertEquals(0, score(key, " b ").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "B. 上海").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "上海").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "A").compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testMultipleChoicePartialCredit() {
+        AnswerKey key = engine.compileAnswerKey(question(QuestionType.MULTIPLE_CHOICE, "A、C")).orElseThrow();
+
+        assertEquals(0, score(key, "ca").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "A").compareTo(new BigDecimal("5.0")));
+        assertEquals(0, score(key, "B,D").compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testTrueFalseWords() {
+        AnswerKey key = engine.compileAnswerKey(question(QuestionType.TRUE_FALSE, "正确")).orElseThrow();
+
+        assertEquals(0, score(key, "√").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "T").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "错").compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testFillBlankMultipleBlanks() {
+        AnswerKey key = engine.compileAnswerKey(question(QuestionType.FILL_BLANK, "光合作用；叶绿体|叶绿素")).orElseThrow();
+
+        assertEquals(0, score(key, "光合作用，叶绿素").compareTo(new BigDecimal("10")));
+        assertEquals(0, score(key, "光合作用；线粒体").compareTo(new BigDecimal("5.0")));
+    }
+
+    @Test
+    public void testNoAnswerKeyFallsBackToAI() {
+        assertTrue(engine.compileAnswerKey(question(QuestionType.FILL_BLANK, " ")).isEmpty());
+        assertTrue(engine.compileAnswerKey(question(QuestionType.SHORT_ANSWER, "答案")).isEmpty());
+    }
+}
@@ -0,0 +1,46 @@
+package com.teachhelper.service.evaluation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 评估响应增量解析器测试
+ */
+public class StreamingEvaluationParserTest {
+
+    @Test
+    public void testScoreAvailableBeforeObjectCompletesAndStopsAfterClose() {
+        StreamingEvaluationParser parser = new StreamingEvaluationParser();
+
+        assertTrue(parser.onDelta("好的，评估结果如下：\n```json\n{\n  \"sco"));
+        assertTrue(parser.onDelta("re\": 8."));
+        assertNull(parser.getScore());
+        assertTrue(parser.onDelta("5,\n  \"feedback\": \"思路清晰 {含括号} 与 \\\"引号\\\"\",\n"));
+        assertEquals(new BigDecimal("8.5"), parser.getScore());
+        assertFalse(parser.isComplete());
+
+        // 对象闭合后要求结束生成，之后的文字不再计入
+        assertFalse(parser.onDelta("  \"weakness_tags\": [\"#概念\"]\n}\n```\n以上是我的评分理由……"));
+        assertTrue(parser.isComplete());
+        assertTrue(parser.getJson().startsWith("{"));
+        assertTrue(parser.getJson().endsWith("}"));
+        assertFalse(parser.getJson().contains("评分理由"));
+    }
+
+    @Test
+    public void testNestedScoreFieldsAndQuotedTopLevelScore() {
+        StreamingEvaluationParser parser = new StreamingEvaluationParser();
+
+        parser.onDelta("{\"criteriaEvaluations\": [{\"score\": 3}], \"score\": \"7\"}");
+
+        // 只读取顶层的总分
+        assertEquals(new BigDecimal("7"), parser.getScore());
+        assertTrue(parser.isComplete());
+    }
+}
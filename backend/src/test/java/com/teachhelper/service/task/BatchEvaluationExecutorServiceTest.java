@@ -0,0 +1,329 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.teachhelper.ai.AIEvaluationService;
+import com.teachhelper.entity.EvaluationType;
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.StudentAnswer;
+import com.teachhelper.entity.TaskCheckpoint;
+import com.teachhelper.entity.TaskStatus;
+import com.teachhelper.entity.UserAIConfig;
+import com.teachhelper.repository.TaskCheckpointRepository;
+import com.teachhelper.repository.TaskRepository;
+import com.teachhelper.service.ai.AIErrorType;
+import com.teachhelper.service.ai.AIResilienceService;
+import com.teachhelper.service.ai.CancellationToken;
+import com.teachhelper.service.evaluation.EvaluationResultWriter;
+import com.teachhelper.service.evaluation.EvaluationTraceRecorder;
+import com.teachhelper.service.evaluation.ObjectiveGradingEngine;
+import com.teachhelper.service.student.StudentAnswerService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 批量评估执行器测试
+ */
+@ExtendWith(MockitoExtension.class)
+public class BatchEvaluationExecutorServiceTest {
+
+    @Mock
+    private AIEvaluationService aiEvaluationService;
+
+    @Mock
+    private StudentAnswerService studentAnswerService;
+
+    @Mock
+    private AIResilienceService aiResilienceService;
+
+    @Mock
+    private ObjectiveGradingEngine objectiveGradingEngine;
+
+    @Mock
+    private ObjectiveGradingEngine.Session objectiveGrading;
+
+    @Mock
+    private EvaluationTraceRecorder evaluationTraceRecorder;
+
+    @Mock
+    private EvaluationResultWriter evaluationResultWriter;
+
+    @Mock
+    private EvaluationResultWriter.Buffer writeBuffer;
+
+    @Mock
+    private TaskResultStore taskResultStore;
+
+    @Mock
+    private TaskResultStore.Buffer resultBuffer;
+
+    @Mock
+    private TaskChunkLeaseService taskChunkLeaseService;
+
+    @Mock
+    private TaskRuntimeManager taskRuntimeManager;
+
+    @Mock
+    private TaskCheckpointRepository taskCheckpointRepository;
+
+    @Mock
+    private TaskRepository taskRepository;
+
+    @Mock
+    private TaskProgressCallback callback;
+
+    @InjectMocks
+    private BatchEvaluationExecutorService executor;
+
+    private TaskCheckpointService checkpointService;
+
+    private EvaluationSlotScheduler slotScheduler;
+
+    private ExecutorService threads;
+
+    @BeforeEach
+    public void setUp() {
+        threads = Executors.newCachedThreadPool();
+        checkpointService = new TaskCheckpointService();
+        ReflectionTestUtils.setField(checkpointService, "taskCheckpointRepository", taskCheckpointRepository);
+        ReflectionTestUtils.setField(checkpointService, "taskRepository", taskRepository);
+        ReflectionTestUtils.setField(executor, "taskCheckpointService", checkpointService);
+        slotScheduler = new EvaluationSlotScheduler(1, 60000);
+        ReflectionTestUtils.setField(executor, "evaluationSlotScheduler", slotScheduler);
+        ReflectionTestUtils.setField(executor, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(executor, "securityContextTaskExecutor", threads);
+        ReflectionTestUtils.setField(executor, "maxConcurrentTasks", 1);
+        ReflectionTestUtils.setField(executor, "pageSize", 100);
+        ReflectionTestUtils.setField(executor, "asyncEvaluationEnabled", true);
+        executor.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void testCancelledInFlightAnswerStaysUnevaluatedAndIsRecordedAsFailed() {
+        StudentAnswer first = answer(1L);
+        StudentAnswer second = answer(2L);
+        CancellationToken cancellation = new CancellationToken();
+
+        when(taskRuntimeManager.openCancellationToken("t1")).thenReturn(cancellation);
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(taskRepository.findStatusByTaskId("t1")).thenReturn(Optional.of(TaskStatus.RUNNING));
+        when(studentAnswerService.getAnswersByIdsWithFetch(List.of(1L, 2L))).thenReturn(List.of(first, second));
+        when(objectiveGradingEngine.newSession()).thenReturn(objectiveGrading);
+        when(evaluationResultWriter.newBuffer("t1")).thenReturn(writeBuffer);
+        when(taskResultStore.newBuffer("t1")).thenReturn(resultBuffer);
+        when(aiEvaluationService.findEvaluatorConfig(any(), anyString())).thenReturn(Optional.of(new UserAIConfig()));
+        // 第一份答案的AI请求在途时任务被取消，客户端以 CANCELLED 失败结果结束请求
+        when(aiEvaluationService.evaluateAnswerAsync(eq(first), any(), anyString(), eq(cancellation))).thenAnswer(invocation -> {
+            CompletableFuture<AIEvaluationService.EvaluationResult> pending = new CompletableFuture<>();
+            AIEvaluationService.EvaluationResult cancelled =
+                new AIEvaluationService.EvaluationResult(false, BigDecimal.ZERO, "任务已取消，AI调用被中止", null);
+            cancelled.setErrorType(AIErrorType.CANCELLED);
+            cancellation.onCancel(() -> pending.complete(cancelled));
+            CompletableFuture.runAsync(cancellation::cancel, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+            return pending;
+        });
+
+        executor.executeBatchEvaluationTask("t1", Map.of("answerIds", List.of(1L, 2L)), callback)
+            .orTimeout(10, TimeUnit.SECONDS).join();
+
+        // 中止的答案不写分数，检查点记为失败；第二份答案没有开始评估
+        assertFalse(first.isEvaluated());
+        assertNull(first.getScore());
+        verify(writeBuffer, never()).add(any());
+        verify(resultBuffer, never()).add(any(), anyBoolean());
+        verify(aiEvaluationService, never()).evaluateAnswerAsync(eq(second), any(), anyString(), any());
+
+        ArgumentCaptor<TaskCheckpoint> saved = ArgumentCaptor.forClass(TaskCheckpoint.class);
+        verify(taskCheckpointRepository, atLeastOnce()).save(saved.capture());
+        TaskCheckpoint checkpoint = saved.getValue();
+        assertEquals("1", checkpoint.getFailedIds());
+        verify(callback, never()).updateTaskProgress("t1", 2, 2, "COMPLETED");
+
+        // 恢复执行时两份答案都需要重新评估
+        when(taskCheckpointRepository.findByTaskId("t1")).thenReturn(Optional.of(checkpoint));
+        assertEquals(List.of(1L, 2L), checkpointService.find("t1").orElseThrow().getRemainingIds());
+    }
+
+    @Test
+    public void testSyncPathPassesTaskTokenAndAbortsInFlightAnswerOnCancel() {
+        ReflectionTestUtils.setField(executor, "asyncEvaluationEnabled", false);
+        StudentAnswer first = answer(1L);
+        StudentAnswer second = answer(2L);
+        CancellationToken cancellation = new CancellationToken();
+
+        when(taskRuntimeManager.openCancellationToken("t1")).thenReturn(cancellation);
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(taskRepository.findStatusByTaskId("t1")).thenReturn(Optional.of(TaskStatus.RUNNING));
+        when(studentAnswerService.getAnswersByIdsWithFetch(List.of(1L, 2L))).thenReturn(List.of(first, second));
+        when(objectiveGradingEngine.newSession()).thenReturn(objectiveGrading);
+        when(evaluationResultWriter.newBuffer("t1")).thenReturn(writeBuffer);
+        when(taskResultStore.newBuffer("t1")).thenReturn(resultBuffer);
+        // 同步调用阻塞到任务令牌被取消，随后以 CANCELLED 失败结果返回
+        when(aiEvaluationService.evaluateAnswer(eq(first), anyString(), anyString(), eq(cancellation))).thenAnswer(invocation -> {
+            CompletableFuture<AIEvaluationService.EvaluationResult> pending = new CompletableFuture<>();
+            AIEvaluationService.EvaluationResult cancelled =
+                new AIEvaluationService.EvaluationResult(false, BigDecimal.ZERO, "任务已取消，AI调用被中止", null);
+            cancelled.setErrorType(AIErrorType.CANCELLED);
+            cancellation.onCancel(() -> pending.complete(cancelled));
+            CompletableFuture.runAsync(cancellation::cancel, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+            return pending.get(5, TimeUnit.SECONDS);
+        });
+
+        executor.executeBatchEvaluationTask("t1", Map.of("answerIds", List.of(1L, 2L)), callback)
+            .orTimeout(10, TimeUnit.SECONDS).join();
+
+        assertFalse(first.isEvaluated());
+        verify(writeBuffer, never()).add(any());
+        verify(resultBuffer, never()).add(any(), anyBoolean());
+        verify(aiEvaluationService, never()).evaluateAnswer(eq(second), anyString(), anyString(), any(CancellationToken.class));
+        ArgumentCaptor<TaskCheckpoint> saved = ArgumentCaptor.forClass(TaskCheckpoint.class);
+        verify(taskCheckpointRepository, atLeastOnce()).save(saved.capture());
+        assertEquals("1", saved.getValue().getFailedIds());
+    }
+
+    @Test
+    public void testObjectiveAnswerIsGradedWithoutEvaluationSlotAndRecordedAsRuleGraded() throws Exception {
+        StudentAnswer objective = answer(1L);
+        when(taskRuntimeManager.openCancellationToken("t1")).thenReturn(new CancellationToken());
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(taskRepository.findStatusByTaskId("t1")).thenReturn(Optional.of(TaskStatus.RUNNING));
+        when(studentAnswerService.getAnswersByIdsWithFetch(List.of(1L))).thenReturn(List.of(objective));
+        when(objectiveGradingEngine.newSession()).thenReturn(objectiveGrading);
+        when(evaluationResultWriter.newBuffer("t1")).thenReturn(writeBuffer);
+        when(taskResultStore.newBuffer("t1")).thenReturn(resultBuffer);
+        when(aiEvaluationService.findEvaluatorConfig(any(), anyString())).thenReturn(Optional.of(new UserAIConfig()));
+        when(objectiveGrading.supports(objective)).thenReturn(true);
+        AIEvaluationService.EvaluationResult graded =
+            new AIEvaluationService.EvaluationResult(true, BigDecimal.TEN, "回答正确。", null);
+        graded.setAiEvaluated(false);
+        graded.setRuleGraded(true);
+        when(objectiveGrading.grade(objective)).thenReturn(Optional.of(graded));
+
+        // 唯一的评估名额被其他任务占用，客观题仍然直接完成评分
+        EvaluationSlotScheduler.Ticket other = slotScheduler.register("other", null, null);
+        other.acquire();
+        try {
+            executor.executeBatchEvaluationTask("t1", Map.of("answerIds", List.of(1L)), callback)
+                .orTimeout(10, TimeUnit.SECONDS).join();
+        } finally {
+            other.close();
+        }
+
+        assertEquals(EvaluationType.RULE_AUTO, objective.getEvaluationType());
+        assertEquals(0, BigDecimal.TEN.compareTo(objective.getScore()));
+        verify(writeBuffer).add(objective);
+        verify(aiEvaluationService, never()).evaluateAnswerAsync(any(), any(), anyString(), any());
+    }
+
+    @Test
+    public void testBasicFallbackScoreIsNotWrittenAsFinalEvaluation() {
+        StudentAnswer subjective = answer(1L);
+        when(taskRuntimeManager.openCancellationToken("t1")).thenReturn(new CancellationToken());
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(taskRepository.findStatusByTaskId("t1")).thenReturn(Optional.of(TaskStatus.RUNNING));
+        when(studentAnswerService.getAnswersByIdsWithFetch(List.of(1L))).thenReturn(List.of(subjective));
+        when(objectiveGradingEngine.newSession()).thenReturn(objectiveGrading);
+        when(evaluationResultWriter.newBuffer("t1")).thenReturn(writeBuffer);
+        when(taskResultStore.newBuffer("t1")).thenReturn(resultBuffer);
+        when(aiEvaluationService.findEvaluatorConfig(any(), anyString())).thenReturn(Optional.of(new UserAIConfig()));
+        // 按长度估算的基础评估结果：success 为 true，但分数既不来自AI也不来自规则评分
+        AIEvaluationService.EvaluationResult fallback =
+            new AIEvaluationService.EvaluationResult(true, BigDecimal.ONE, "已进行基础评估", null);
+        fallback.setAiEvaluated(false);
+        when(aiEvaluationService.evaluateAnswerAsync(eq(subjective), any(), anyString(), any()))
+            .thenReturn(CompletableFuture.completedFuture(fallback));
+
+        executor.executeBatchEvaluationTask("t1", Map.of("answerIds", List.of(1L)), callback)
+            .orTimeout(10, TimeUnit.SECONDS).join();
+
+        assertFalse(subjective.isEvaluated());
+        assertNull(subjective.getScore());
+        verify(writeBuffer, never()).add(any());
+        verify(resultBuffer).add(subjective, false);
+    }
+
+    @Test
+    public void testRejectedResultHandOffReleasesSlotAndRecordsAnswerAsFailed() {
+        StudentAnswer subjective = answer(1L);
+        AtomicBoolean rejecting = new AtomicBoolean();
+        ReflectionTestUtils.setField(executor, "securityContextTaskExecutor", (Executor) command -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException("线程池已满");
+            }
+            threads.execute(command);
+        });
+        when(taskRuntimeManager.openCancellationToken("t1")).thenReturn(new CancellationToken());
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(taskRepository.findStatusByTaskId("t1")).thenReturn(Optional.of(TaskStatus.RUNNING));
+        when(studentAnswerService.getAnswersByIdsWithFetch(List.of(1L))).thenReturn(List.of(subjective));
+        when(objectiveGradingEngine.newSession()).thenReturn(objectiveGrading);
+        when(evaluationResultWriter.newBuffer("t1")).thenReturn(writeBuffer);
+        when(taskResultStore.newBuffer("t1")).thenReturn(resultBuffer);
+        when(aiEvaluationService.findEvaluatorConfig(any(), anyString())).thenReturn(Optional.of(new UserAIConfig()));
+        // AI响应到达时线程池已开始拒绝任务
+        when(aiEvaluationService.evaluateAnswerAsync(eq(subjective), any(), anyString(), any())).thenAnswer(invocation -> {
+            CompletableFuture<AIEvaluationService.EvaluationResult> pending = new CompletableFuture<>();
+            CompletableFuture.runAsync(() -> {
+                rejecting.set(true);
+                pending.complete(new AIEvaluationService.EvaluationResult(true, new BigDecimal("8"), "好", null));
+            }, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+            return pending;
+        });
+
+        executor.executeBatchEvaluationTask("t1", Map.of("answerIds", List.of(1L)), callback)
+            .orTimeout(10, TimeUnit.SECONDS).join();
+
+        // 名额已归还、任务正常结束，结果未能交给线程池写回的答案计为失败
+        assertEquals(0, slotScheduler.getSnapshot().get("inUse"));
+        verify(writeBuffer, never()).add(any());
+        verify(resultBuffer).add(subjective, false);
+    }
+
+    private static StudentAnswer answer(Long id) {
+        Question question = new Question();
+        question.setId(10L);
+        question.setMaxScore(BigDecimal.TEN);
+        StudentAnswer answer = new StudentAnswer();
+        answer.setId(id);
+        answer.setQuestion(question);
+        answer.setAnswerText("答案" + id);
+        return answer;
+    }
+}
@@ -0,0 +1,120 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 评估名额公平调度测试
+ */
+public class EvaluationSlotSchedulerTest {
+
+    @Test
+    public void testWaitingUserWithLessUsageGetsNextSlot() throws Exception {
+        EvaluationSlotScheduler scheduler = new EvaluationSlotScheduler(1, 60000);
+        EvaluationSlotScheduler.Ticket heavy = scheduler.register("big-task", 1L, "MEDIUM");
+        EvaluationSlotScheduler.Ticket light = scheduler.register("small-task", 2L, "MEDIUM");
+
+        // 用户1先连续使用两次名额，虚拟时间领先
+        heavy.acquire();
+        heavy.release();
+        heavy.acquire();
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        Thread heavyWaiter = new Thread(() -> acquireAndRecord(heavy, "big-task", order, done));
+        heavyWaiter.start();
+        waitUntilWaiting(scheduler, 1);
+        Thread lightWaiter = new Thread(() -> acquireAndRecord(light, "small-task", order, done));
+        lightWaiter.start();
+        waitUntilWaiting(scheduler, 2);
+
+        // 用户1先排队，但用户2用量更少，应先获得名额
+        heavy.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("small-task", "big-task"), order);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPriorityWeightsVirtualTimeAdvance() throws Exception {
+        EvaluationSlotScheduler scheduler = new EvaluationSlotScheduler(1, 60000);
+        EvaluationSlotScheduler.Ticket low = scheduler.register("low", 1L, "LOW");
+        EvaluationSlotScheduler.Ticket urgent = scheduler.register("urgent", 2L, "URGENT");
+
+        low.acquire();
+        low.release();
+        urgent.acquire();
+        urgent.release();
+
+        // 紧急任务每个名额消耗的虚拟时间只有低优先级的1/8
+        Map<Long, Double> finishTimes = (Map<Long, Double>) scheduler.getSnapshot().get("userFinishTime");
+        assertEquals(1.0, finishTimes.get(1L), 1e-9);
+        assertEquals(0.125, finishTimes.get(2L), 1e-9);
+
+        low.close();
+        finishTimes = (Map<Long, Double>) scheduler.getSnapshot().get("userFinishTime");
+        assertFalse(finishTimes.containsKey(1L));
+    }
+
+    @Test
+    public void testCancelledTicketStopsWaitingAndLeavesSlotToOthers() throws Exception {
+        EvaluationSlotScheduler scheduler = new EvaluationSlotScheduler(1, 60000);
+        EvaluationSlotScheduler.Ticket cancelled = scheduler.register("cancelled", 1L, "MEDIUM");
+        EvaluationSlotScheduler.Ticket other = scheduler.register("other", 2L, "MEDIUM");
+        assertTrue(other.acquire());
+
+        CountDownLatch returned = new CountDownLatch(1);
+        boolean[] granted = {true};
+        Thread waiter = new Thread(() -> {
+            try {
+                granted[0] = cancelled.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                returned.countDown();
+            }
+        });
+        waiter.start();
+        waitUntilWaiting(scheduler, 1);
+
+        // 取消后等待中的加载线程立即返回，不再排队
+        cancelled.cancel();
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        assertFalse(granted[0]);
+        assertEquals(0, scheduler.getSnapshot().get("waiting"));
+        assertFalse(cancelled.acquire());
+
+        // 名额仍归其他任务使用
+        other.release();
+        assertTrue(other.acquire());
+        other.release();
+    }
+
+    private static void acquireAndRecord(EvaluationSlotScheduler.Ticket ticket, String name,
+                                         List<String> order, CountDownLatch done) {
+        try {
+            ticket.acquire();
+            order.add(name);
+            ticket.release();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private static void waitUntilWaiting(EvaluationSlotScheduler scheduler, int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && (int) scheduler.getSnapshot().get("waiting") < expected; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
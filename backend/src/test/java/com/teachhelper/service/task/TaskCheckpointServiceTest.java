@@ -0,0 +1,78 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.teachhelper.entity.TaskCheckpoint;
+import com.teachhelper.repository.TaskCheckpointRepository;
+import com.teachhelper.repository.TaskRepository;
+
+/**
+ * 批量任务检查点测试
+ */
+@ExtendWith(MockitoExtension.class)
+public class TaskCheckpointServiceTest {
+
+    @Mock
+    private TaskCheckpointRepository taskCheckpointRepository;
+
+    @Mock
+    private TaskRepository taskRepository;
+
+    @InjectMocks
+    private TaskCheckpointService service;
+
+    @Test
+    public void testSaveRecordsHighWaterMarkAndOutOfOrderCompletions() {
+        when(taskCheckpointRepository.findByTaskId("t1")).thenReturn(Optional.empty());
+        when(taskCheckpointRepository.save(any(TaskCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        TaskCheckpointService.Cursor cursor = service.open("t1", () -> List.of(1L, 2L, 3L, 4L, 5L));
+        assertEquals(5, cursor.getRemainingIds().size());
+
+        cursor.markProcessed(1L, true);
+        cursor.markProcessed(2L, false);
+        cursor.markProcessed(4L, true);
+        cursor.save();
+
+        ArgumentCaptor<TaskCheckpoint> saved = ArgumentCaptor.forClass(TaskCheckpoint.class);
+        verify(taskCheckpointRepository, times(2)).save(saved.capture());
+        TaskCheckpoint checkpoint = saved.getValue();
+        assertEquals(2, checkpoint.getHighWaterMark());
+        assertEquals("4", checkpoint.getCompletedAhead());
+        assertEquals("2", checkpoint.getFailedIds());
+        assertEquals(3, checkpoint.getProcessedCount());
+    }
+
+    @Test
+    public void testResumeSkipsCompletedAndRetriesFailed() {
+        TaskCheckpoint checkpoint = new TaskCheckpoint();
+        checkpoint.setTaskId("t2");
+        checkpoint.setAnswerIds("1,2,3,4,5");
+        checkpoint.setHighWaterMark(2);
+        checkpoint.setCompletedAhead("4");
+        checkpoint.setFailedIds("2");
+        when(taskCheckpointRepository.findByTaskId("t2")).thenReturn(Optional.of(checkpoint));
+
+        TaskCheckpointService.Cursor cursor = service.open("t2", () -> {
+            throw new AssertionError("恢复时不应重新提取答案");
+        });
+
+        assertEquals(List.of(2L, 3L, 5L), cursor.getRemainingIds());
+        assertEquals(2, cursor.getAlreadyProcessedCount());
+        assertEquals(5, cursor.getTotalCount());
+    }
+}
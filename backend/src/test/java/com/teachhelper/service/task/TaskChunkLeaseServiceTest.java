@@ -0,0 +1,123 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 任务分片租约测试：两个节点共用一个数据库
+ */
+public class TaskChunkLeaseServiceTest {
+
+    private DriverManagerDataSource dataSource;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:chunks" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE tasks (id BIGINT AUTO_INCREMENT PRIMARY KEY, task_id VARCHAR(50), status VARCHAR(20))");
+        jdbc.execute("CREATE TABLE task_chunks (id BIGINT AUTO_INCREMENT PRIMARY KEY, task_id VARCHAR(50) NOT NULL, "
+            + "chunk_index INT NOT NULL, answer_ids TEXT, answer_count INT NOT NULL, processed_count INT NOT NULL, failed_ids TEXT, "
+            + "status VARCHAR(20) NOT NULL, lease_owner VARCHAR(100), lease_expires_at TIMESTAMP, attempts INT NOT NULL, "
+            + "created_at TIMESTAMP NOT NULL, updated_at TIMESTAMP, UNIQUE (task_id, chunk_index))");
+        jdbc.update("INSERT INTO tasks (task_id, status) VALUES ('t1', 'RUNNING')");
+    }
+
+    @Test
+    public void twoNodesShareChunksWithoutOverlap() throws Exception {
+        TaskChunkLeaseService nodeA = node("a", 60000);
+        TaskChunkLeaseService nodeB = node("b", 60000);
+        List<Long> answerIds = LongStream.rangeClosed(1, 40).boxed().toList();
+        assertEquals(10, nodeA.plan("t1", answerIds));
+        assertEquals(0, nodeB.plan("t1", answerIds));
+        assertEquals(List.of("t1"), nodeB.findClaimableTaskIds());
+
+        CompletableFuture<List<Long>> processedByA = CompletableFuture.supplyAsync(() -> drain(nodeA, 7L));
+        CompletableFuture<List<Long>> processedByB = CompletableFuture.supplyAsync(() -> drain(nodeB, 7L));
+        List<Long> fromA = processedByA.get();
+        List<Long> fromB = processedByB.get();
+
+        Set<Long> all = new HashSet<>(fromA);
+        fromB.forEach(id -> assertTrue(all.add(id), "答案 " + id + " 被两个节点重复处理"));
+        assertEquals(new HashSet<>(answerIds), all);
+        assertTrue(nodeA.findClaimableTaskIds().isEmpty());
+
+        // 恰好一个节点完成收尾
+        TaskChunkLeaseService.Summary summary = nodeA.finish("t1");
+        assertNotNull(summary);
+        assertNull(nodeB.finish("t1"));
+        assertEquals(40, summary.processedCount());
+        assertEquals(1, summary.failedCount());
+
+        // 重试时失败的答案重新放回待租用
+        assertEquals(1, nodeB.plan("t1", answerIds));
+        assertEquals(List.of(7L), drain(nodeB, null));
+        assertEquals(new TaskChunkLeaseService.Summary(40, 0), nodeB.finish("t1"));
+    }
+
+    @Test
+    public void expiredLeaseIsReclaimedAndStaleCompletionIgnored() throws Exception {
+        TaskChunkLeaseService nodeA = node("a", 50);
+        TaskChunkLeaseService nodeB = node("b", 60000);
+        nodeA.plan("t1", List.of(1L, 2L, 3L));
+
+        TaskChunkLeaseService.Lease leaseA = nodeA.claim("t1");
+        assertNotNull(leaseA);
+        assertNull(nodeB.claim("t1"));
+
+        // 节点A停止续约，租约过期后被节点B收回
+        Thread.sleep(200);
+        TaskChunkLeaseService.Lease leaseB = nodeB.claim("t1");
+        assertNotNull(leaseB);
+        assertEquals(leaseA.getAnswerIds(), leaseB.getAnswerIds());
+        nodeA.heartbeat();
+        assertTrue(leaseA.isLost());
+
+        assertFalse(nodeA.complete(leaseA, 3, List.of()));
+        assertTrue(nodeB.complete(leaseB, 3, List.of()));
+        assertEquals(3, nodeB.getProcessedCount("t1"));
+        assertEquals(1L, nodeB.getSnapshot().get("reclaimed"));
+    }
+
+    private TaskChunkLeaseService node(String nodeId, long leaseMs) {
+        return new TaskChunkLeaseService(dataSource, new DataSourceTransactionManager(dataSource), new SimpleMeterRegistry(),
+            true, nodeId, 4, leaseMs);
+    }
+
+    /**
+     * 模拟一个节点的执行：租用分片直到没有可租用的分片，failedId 计为评估失败
+     */
+    private static List<Long> drain(TaskChunkLeaseService node, Long failedId) {
+        TaskChunkLeaseService.Session session = node.openSession("t1", 3);
+        List<Long> processed = new ArrayList<>();
+        List<Long> page;
+        while ((page = session.nextPage()) != null) {
+            for (Long answerId : page) {
+                session.markProcessed(answerId, !answerId.equals(failedId));
+                processed.add(answerId);
+            }
+            session.completeReady();
+        }
+        session.close();
+        return processed.stream().sorted().collect(Collectors.toList());
+    }
+}
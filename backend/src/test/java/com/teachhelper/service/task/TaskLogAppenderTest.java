@@ -0,0 +1,54 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.teachhelper.repository.TaskRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 任务日志异步写入测试
+ */
+public class TaskLogAppenderTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDropsInfoUnderPressureButNeverWarnOrError() {
+        TaskRepository taskRepository = mock(TaskRepository.class);
+        when(taskRepository.findByTaskId(anyString())).thenReturn(Optional.empty());
+        // 不启动写入线程，队列只进不出
+        TaskLogAppender appender = new TaskLogAppender(mock(DataSource.class), mock(PlatformTransactionManager.class),
+            taskRepository, new SimpleMeterRegistry(), 10, 0.5, 0, 100, 500);
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (appender.append("t1", "INFO", "答案 " + i + " 评估完成")) {
+                accepted++;
+            }
+        }
+        assertEquals(5, accepted);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(appender.append("t1", i % 2 == 0 ? "WARN" : "ERROR", "答案 " + i + " 评估失败"));
+        }
+
+        Map<String, Object> snapshot = appender.getSnapshot();
+        assertEquals(10, snapshot.get("queued"));
+        // 队列满后警告和错误由调用线程直接写入
+        assertEquals(5L, snapshot.get("direct"));
+        assertEquals(5L, ((Map<String, Long>) snapshot.get("dropped")).get("INFO"));
+        assertEquals(0L, ((Map<String, Long>) snapshot.get("dropped")).get("WARN"));
+    }
+}
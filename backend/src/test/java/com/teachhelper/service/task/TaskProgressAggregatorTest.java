@@ -0,0 +1,59 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 任务进度合并测试
+ */
+public class TaskProgressAggregatorTest {
+
+    @Test
+    public void testCoalescesUpdatesWithinIntervalUntilPercentStep() {
+        TaskProgressAggregator aggregator = new TaskProgressAggregator(new SimpleMeterRegistry(), 60000, 5);
+
+        // 第一次上报立即写入，之后在时间窗口内只有进度变化达到步长才写入
+        assertNotNull(aggregator.record("t1", 1, 1000));
+        int flushed = 0;
+        for (int processed = 2; processed <= 1000; processed++) {
+            if (aggregator.record("t1", processed, 1000) != null) {
+                flushed++;
+            }
+        }
+        // 每5%写入一次：5%, 10%, ..., 100%
+        assertEquals(20, flushed);
+
+        // 乱序到达的较小进度不会让进度倒退
+        aggregator.record("t1", 10, 1000);
+        assertTrue(aggregator.drainDue().isEmpty());
+    }
+
+    @Test
+    public void testDrainDueFlushesLatestPendingProgressAndClearResets() throws InterruptedException {
+        TaskProgressAggregator aggregator = new TaskProgressAggregator(new SimpleMeterRegistry(), 50, 100);
+
+        assertNotNull(aggregator.record("t1", 1, 10));
+        assertNull(aggregator.record("t1", 2, 10));
+        assertNull(aggregator.record("t1", 3, 10));
+        assertTrue(aggregator.drainDue().isEmpty());
+
+        // 窗口结束后补写窗口内最后一次上报的进度，且只写一次
+        Thread.sleep(80);
+        List<TaskProgressAggregator.Snapshot> due = aggregator.drainDue();
+        assertEquals(1, due.size());
+        assertEquals(3, due.get(0).processedCount());
+        Thread.sleep(80);
+        assertTrue(aggregator.drainDue().isEmpty());
+
+        aggregator.clear("t1");
+        assertEquals(0, aggregator.getTrackedTaskCount());
+    }
+}
@@ -0,0 +1,123 @@
+package com.teachhelper.service.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.teachhelper.entity.Question;
+import com.teachhelper.entity.StudentAnswer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 任务结果行存储测试
+ */
+public class TaskResultStoreTest {
+
+    private TaskResultStore store;
+
+    @BeforeEach
+    public void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:results" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        new JdbcTemplate(dataSource).execute("CREATE TABLE task_results (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+            + "task_id VARCHAR(50) NOT NULL, item_id BIGINT NOT NULL, question_id BIGINT, student_id BIGINT, "
+            + "status VARCHAR(20) NOT NULL, score DECIMAL(10,2), max_score DECIMAL(10,2), "
+            + "created_at TIMESTAMP NOT NULL, updated_at TIMESTAMP)");
+        store = new TaskResultStore(dataSource, new DataSourceTransactionManager(dataSource),
+            new SimpleMeterRegistry(), 3, 60000, 2);
+    }
+
+    @Test
+    public void keysetPagingCoversEveryRowOnceAndRewritesReplaceOldRows() {
+        TaskResultStore.Buffer buffer = store.newBuffer("t1");
+        for (long id = 1; id <= 7; id++) {
+            buffer.add(answer(id, "8.5"), true);
+        }
+        buffer.addSkipped(8L);
+        buffer.flush();
+        // 重试后同一答案重新评估，只保留最新结果
+        TaskResultStore.Buffer retry = store.newBuffer("t1");
+        retry.add(answer(8L, "6"), true);
+        retry.flush();
+        TaskResultStore.Buffer other = store.newBuffer("t2");
+        other.addSkipped(1L);
+        other.flush();
+
+        List<Long> itemIds = new ArrayList<>();
+        Long after = null;
+        List<TaskResultStore.ResultRow> rows;
+        while (!(rows = store.page("t1", after, 3)).isEmpty()) {
+            rows.forEach(row -> itemIds.add(row.itemId()));
+            after = rows.get(rows.size() - 1).id();
+        }
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), itemIds);
+        assertEquals(Map.of("SUCCESS", 8L), store.countByStatus("t1"));
+
+        store.deleteResults("t1");
+        assertTrue(store.page("t1", null, 10).isEmpty());
+    }
+
+    @Test
+    public void exportsCsvJsonAndExcelAcrossPages() throws Exception {
+        TaskResultStore.Buffer buffer = store.newBuffer("t1");
+        buffer.add(answer(1L, "9.5"), true);
+        buffer.add(answer(2L, null), false);
+        buffer.addSkipped(3L);
+        buffer.flush();
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        store.export("t1", "csv", csv);
+        String[] lines = csv.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("\uFEFF结果ID,答案ID"));
+        assertTrue(lines[1].contains(",1,100,,SUCCESS,9.50,10.00,"));
+        assertTrue(lines[3].contains(",3,,,FAILED,,,"));
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        store.export("t1", "json", json);
+        JsonNode results = new ObjectMapper().readTree(json.toByteArray()).get("results");
+        assertEquals(3, results.size());
+        assertEquals(9.5, results.get(0).get("score").asDouble());
+        assertNull(results.get(1).get("score"));
+        assertEquals("FAILED", results.get(2).get("status").asText());
+
+        ByteArrayOutputStream excel = new ByteArrayOutputStream();
+        store.export("t1", "excel", excel);
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(excel.toByteArray()))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(3, sheet.getLastRowNum());
+            assertEquals(9.5, sheet.getRow(1).getCell(5).getNumericCellValue());
+            assertEquals("FAILED", sheet.getRow(3).getCell(4).getStringCellValue());
+        }
+    }
+
+    private static StudentAnswer answer(long id, String score) {
+        Question question = new Question();
+        question.setId(100L);
+        question.setMaxScore(new BigDecimal("10"));
+        StudentAnswer answer = new StudentAnswer();
+        answer.setId(id);
+        answer.setQuestion(question);
+        answer.setScore(score != null ? new BigDecimal(score) : null);
+        return answer;
+    }
+}
@@ -0,0 +1,108 @@
+package com.teachhelper.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.teachhelper.entity.User;
+import com.teachhelper.repository.TaskRepository;
+
+/**
+ * 任务更新推送测试
+ */
+public class TaskWebSocketHandlerTest {
+
+    @Test
+    public void deliversOnlySubscribedTasksAsJson() throws Exception {
+        TaskRepository taskRepository = mock(TaskRepository.class);
+        when(taskRepository.findCreatorIdByTaskId("t1")).thenReturn(Optional.of(7L));
+        TaskWebSocketHandler handler = new TaskWebSocketHandler(taskRepository, 1, 10000, 65536);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        when(session.getPrincipal()).thenReturn(authentication(7L, "ROLE_TEACHER"));
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.add(((WebSocketMessage<?>) invocation.getArgument(0)).getPayload().toString());
+            delivered.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session, new TextMessage("{\"action\":\"subscribe\",\"taskIds\":[\"t1\"]}"));
+        handler.publishTaskUpdate("t2", null, "RUNNING", 10, "BATCH_EVALUATION_ANSWERS", null);
+        handler.publishTaskUpdate("t1", null, "COMPLETED", 100, "BATCH_EVALUATION_ANSWERS", Map.of("note", "含\"引号\""));
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, received.size());
+        assertTrue(received.get(0).contains("\"taskId\":\"t1\""));
+        assertTrue(received.get(0).contains("\"result\":{\"note\":\"含\\\"引号\\\"\"}"));
+
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        assertEquals(0, handler.getSessionCount());
+        handler.shutdown();
+    }
+
+    @Test
+    public void ignoresSubscriptionsToTasksOfOtherUsers() throws Exception {
+        TaskRepository taskRepository = mock(TaskRepository.class);
+        when(taskRepository.findCreatorIdByTaskId("t1")).thenReturn(Optional.of(8L));
+        TaskWebSocketHandler handler = new TaskWebSocketHandler(taskRepository, 1, 10000, 65536);
+        List<String> received = new CopyOnWriteArrayList<>();
+        WebSocketSession intruder = mock(WebSocketSession.class);
+        when(intruder.getId()).thenReturn("s1");
+        when(intruder.isOpen()).thenReturn(true);
+        when(intruder.getPrincipal()).thenReturn(authentication(7L, "ROLE_TEACHER"));
+        doAnswer(invocation -> {
+            received.add(((WebSocketMessage<?>) invocation.getArgument(0)).getPayload().toString());
+            return null;
+        }).when(intruder).sendMessage(any());
+        CountDownLatch adminDelivered = new CountDownLatch(1);
+        WebSocketSession admin = mock(WebSocketSession.class);
+        when(admin.getId()).thenReturn("s2");
+        when(admin.isOpen()).thenReturn(true);
+        when(admin.getPrincipal()).thenReturn(authentication(1L, "ROLE_ADMIN"));
+        doAnswer(invocation -> {
+            adminDelivered.countDown();
+            return null;
+        }).when(admin).sendMessage(any());
+
+        // 非创建者按任务ID订阅被忽略，管理员可以订阅任意任务
+        handler.afterConnectionEstablished(intruder);
+        handler.afterConnectionEstablished(admin);
+        handler.handleMessage(intruder, new TextMessage("{\"action\":\"subscribe\",\"taskIds\":[\"t1\"]}"));
+        handler.handleMessage(admin, new TextMessage("{\"action\":\"subscribe\",\"taskIds\":[\"t1\"]}"));
+        handler.publishTaskUpdate("t1", 8L, "COMPLETED", 100, "BATCH_EVALUATION_ANSWERS", Map.of("average", 8.5));
+
+        assertTrue(adminDelivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertTrue(received.isEmpty());
+        handler.shutdown();
+    }
+
+    private static UsernamePasswordAuthenticationToken authentication(Long userId, String role) {
+        User user = new User();
+        user.setId(userId);
+        return new UsernamePasswordAuthenticationToken(user, null, List.of(new SimpleGrantedAuthority(role)));
+    }
+}
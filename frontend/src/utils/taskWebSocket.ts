@@ -39,6 +39,8 @@ class TaskWebSocketService {
         this.isConnected.value = true
         this.connectionStatus.value = 'connected'
         this.reconnectAttempts = 0
+        // 重连后重新订阅指定的任务，本人创建的任务由服务端默认推送
+        this.sendSubscription('subscribe', this.subscribedTaskIds())
       }
       
       this.ws.onmessage = (event) => {
@@ -96,10 +98,23 @@ class TaskWebSocketService {
     window.dispatchEvent(new CustomEvent('taskUpdate', { detail: update }))
   }
 
-  // 订阅任务更新
+  private subscribedTaskIds() {
+    return Array.from(this.subscribers.keys()).filter(taskId => taskId !== '*')
+  }
+
+  private sendSubscription(action: 'subscribe' | 'unsubscribe', taskIds: string[]) {
+    if (taskIds.length > 0 && this.ws && this.ws.readyState === WebSocket.OPEN) {
+      this.ws.send(JSON.stringify({ action, taskIds }))
+    }
+  }
+
+  // 订阅任务更新，'*' 表示本人创建的所有任务
   public subscribe(taskId: string | '*', callback: (update: TaskUpdate) => void) {
     if (!this.subscribers.has(taskId)) {
       this.subscribers.set(taskId, [])
+      if (taskId !== '*') {
+        this.sendSubscription('subscribe', [taskId])
+      }
     }
     this.subscribers.get(taskId)!.push(callback)
     
@@ -113,6 +128,9 @@ class TaskWebSocketService {
         }
         if (subscribers.length === 0) {
           this.subscribers.delete(taskId)
+          if (taskId !== '*') {
+            this.sendSubscription('unsubscribe', [taskId])
+          }
         }
       }
     }